@@ -0,0 +1,402 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import net.librec.math.structure.DataFrame;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A <tt>ColumnarDataConvertor</tt> is a class to convert a columnar binary file written by
+ * {@link ColumnarDataWriter} to a target format.
+ * <p>
+ * The block index is read first. Blocks whose datetime range misses {@link #setTimeRange(long, long)} or whose
+ * user code range holds none of the users of {@link #setUsers(Collection)} are skipped without being read;
+ * the other blocks are inflated in parallel, filtered row by row and appended to the data frame in file
+ * order, so the inner ids are the same as when the original input is loaded with the same filters. At most
+ * twice as many blocks as threads are in flight, which bounds the memory held by inflated blocks.
+ */
+public class ColumnarDataConvertor extends AbstractDataConvertor {
+
+    /**
+     * Log
+     */
+    private static final Log LOG = LogFactory.getLog(ColumnarDataConvertor.class);
+
+    /**
+     * the path of the input data file
+     */
+    private final String inputDataPath;
+
+    private long minDatetime = Long.MIN_VALUE;
+    private long maxDatetime = Long.MAX_VALUE;
+    private Collection<String> selectedUsers;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private String[] header;
+    private String[] attr;
+    private volatile float fileRate;
+
+    public ColumnarDataConvertor(String inputDataPath) {
+        this.inputDataPath = inputDataPath;
+    }
+
+    /**
+     * Only load the rows whose datetime lies in {@code [minDatetime, maxDatetime]}. It has no effect if the
+     * file has no datetime column.
+     *
+     * @param minDatetime the first datetime to load
+     * @param maxDatetime the last datetime to load
+     */
+    public void setTimeRange(long minDatetime, long maxDatetime) {
+        this.minDatetime = minDatetime;
+        this.maxDatetime = maxDatetime;
+    }
+
+    /**
+     * Only load the rows of some users.
+     *
+     * @param selectedUsers the raw user ids, null to load all users
+     */
+    public void setUsers(Collection<String> selectedUsers) {
+        this.selectedUsers = selectedUsers;
+    }
+
+    /**
+     * @param numThreads the number of threads which inflate and filter the blocks
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Process the input data.
+     *
+     * @throws IOException if the <code>inputDataPath</code> is not a valid columnar file.
+     */
+    @Override
+    public void processData() throws IOException {
+        readData();
+    }
+
+    private void readData() throws IOException {
+        LOG.info(String.format("Dataset: %s", inputDataPath));
+        fileRate = 0;
+        try (FileChannel channel = FileChannel.open(Paths.get(inputDataPath.trim()), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(3 * Integer.BYTES);
+            readFully(channel, head, 0L);
+            head.flip();
+            int magic = head.getInt(), version = head.getInt(), flags = head.getInt();
+            if (magic != ColumnarDataWriter.MAGIC || version != ColumnarDataWriter.VERSION) {
+                throw new IOException(inputDataPath + " is not a columnar data file of version "
+                        + ColumnarDataWriter.VERSION);
+            }
+            boolean withDatetime = (flags & ColumnarDataWriter.FLAG_DATETIME) != 0;
+            ByteBuffer tail = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+            readFully(channel, tail, channel.size() - tail.capacity());
+            tail.flip();
+            long indexOffset = tail.getLong();
+            if (tail.getInt() != ColumnarDataWriter.MAGIC) {
+                throw new IOException(inputDataPath + " is truncated");
+            }
+
+            ByteBuffer index = ByteBuffer.allocate((int) (channel.size() - tail.capacity() - indexOffset));
+            readFully(channel, index, indexOffset);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array()));
+            String[] userIds = readDictionary(in);
+            String[] itemIds = readDictionary(in);
+            BlockInfo[] blocks = new BlockInfo[in.readInt()];
+            for (int blockIdx = 0; blockIdx < blocks.length; blockIdx++) {
+                blocks[blockIdx] = new BlockInfo(in, withDatetime ? 4 : 3);
+            }
+            load(channel, userIds, itemIds, blocks, withDatetime);
+        }
+    }
+
+    private void load(FileChannel channel, String[] userIds, String[] itemIds, BlockInfo[] blocks,
+                      boolean withDatetime) throws IOException {
+        if (withDatetime) {
+            header = new String[]{"user", "item", "rating", "datetime"};
+            attr = new String[]{"STRING", "STRING", "NUMERIC", "DATE"};
+        } else {
+            header = new String[]{"user", "item", "rating"};
+            attr = new String[]{"STRING", "STRING", "NUMERIC"};
+        }
+        matrix = new DataFrame();
+        matrix.setAttrType(attr);
+        matrix.setHeader(header);
+        preferenceMatrix = null;
+        datetimeMatrix = null;
+        sparseTensor = null;
+
+        BitSet userFilter = null;
+        if (selectedUsers != null) {
+            userFilter = new BitSet(userIds.length);
+            Map<String, Integer> codes = new HashMap<>(userIds.length * 2);
+            for (int code = 0; code < userIds.length; code++) {
+                codes.put(userIds[code], code);
+            }
+            for (String user : selectedUsers) {
+                Integer code = codes.get(user);
+                if (code != null) {
+                    userFilter.set(code);
+                }
+            }
+        }
+        boolean filterTime = withDatetime && (minDatetime != Long.MIN_VALUE || maxDatetime != Long.MAX_VALUE);
+
+        // predicate pushdown on the block statistics
+        List<BlockInfo> selectedBlocks = new ArrayList<>(blocks.length);
+        for (BlockInfo block : blocks) {
+            if (filterTime && (block.maxDatetime < minDatetime || block.minDatetime > maxDatetime)) {
+                continue;
+            }
+            if (userFilter != null) {
+                int next = userFilter.nextSetBit(block.minUser);
+                if (next < 0 || next > block.maxUser) {
+                    continue;
+                }
+            }
+            selectedBlocks.add(block);
+        }
+        LOG.info(String.format("Columnar data: %d of %d blocks selected", selectedBlocks.size(), blocks.length));
+
+        BitSet rowUserFilter = userFilter;
+        int numBlockThreads = Math.min(numThreads, Math.max(1, selectedBlocks.size()));
+        int maxInFlight = 2 * numBlockThreads;
+        ExecutorService executorService = Executors.newFixedThreadPool(numBlockThreads);
+        try {
+            Deque<Future<Block>> inFlight = new ArrayDeque<>(maxInFlight);
+            int nextBlockIdx = 0;
+            // merge in file order while the next blocks of the window are still inflating
+            int[] userInnerIds = new int[userIds.length], itemInnerIds = new int[itemIds.length];
+            Arrays.fill(userInnerIds, -1);
+            Arrays.fill(itemInnerIds, -1);
+            Object[] row = new Object[header.length];
+            for (int blockIdx = 0; blockIdx < selectedBlocks.size(); blockIdx++) {
+                while (nextBlockIdx < selectedBlocks.size() && inFlight.size() < maxInFlight) {
+                    BlockInfo blockInfo = selectedBlocks.get(nextBlockIdx++);
+                    inFlight.add(executorService.submit(() -> readBlock(channel, blockInfo, rowUserFilter, filterTime)));
+                }
+                Block block = inFlight.poll().get();
+                for (int index = 0; index < block.size; index++) {
+                    int userCode = block.users[index], itemCode = block.items[index];
+                    if (userInnerIds[userCode] < 0) {
+                        userInnerIds[userCode] = DataFrame.setId(userIds[userCode], header[0]);
+                    }
+                    if (itemInnerIds[itemCode] < 0) {
+                        itemInnerIds[itemCode] = DataFrame.setId(itemIds[itemCode], header[1]);
+                    }
+                    row[0] = userInnerIds[userCode];
+                    row[1] = itemInnerIds[itemCode];
+                    row[2] = block.ratings[index];
+                    if (withDatetime) {
+                        row[3] = block.datetimes[index];
+                    }
+                    matrix.addRow(row);
+                }
+                fileRate = (float) (blockIdx + 1) / selectedBlocks.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading " + inputDataPath + " is interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Loading " + inputDataPath + " failed", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        fileRate = 1.0f;
+        LOG.info(String.format("DataSet: %s is finished", inputDataPath));
+
+        List<Double> ratingScale = matrix.size() > 0 ? matrix.getRatingScale() : null;
+        if (ratingScale != null) {
+            if (ratingScale.size() < 10) {
+                LOG.info(String.format("rating Scale: %s", ratingScale.toString()));
+            } else {
+                LOG.info(String.format("rating Scale (real): %s to %s", ratingScale.get(0),
+                        ratingScale.get(ratingScale.size() - 1)));
+            }
+        }
+        LOG.info(String.format("user number: %d,\t item number is: %d", matrix.numUsers(), matrix.numItems()));
+    }
+
+    /**
+     * Read, inflate and filter a block. The positional reads of a {@link FileChannel} are safe to run
+     * concurrently.
+     */
+    private Block readBlock(FileChannel channel, BlockInfo info, BitSet userFilter, boolean filterTime)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            int[] users = new int[info.numRows];
+            int[] items = new int[info.numRows];
+            double[] ratings = new double[info.numRows];
+            long[] datetimes = info.offsets.length > 3 ? new long[info.numRows] : null;
+            readSegment(channel, info, 0, inflater, Integer.BYTES).asIntBuffer().get(users);
+            readSegment(channel, info, 1, inflater, Integer.BYTES).asIntBuffer().get(items);
+            readSegment(channel, info, 2, inflater, Double.BYTES).asDoubleBuffer().get(ratings);
+            if (datetimes != null) {
+                ByteBuffer segment = readSegment(channel, info, 3, inflater, Long.BYTES);
+                long datetime = 0L;
+                for (int row = 0; row < info.numRows; row++) {
+                    datetime += segment.getLong();
+                    datetimes[row] = datetime;
+                }
+            }
+            int size = info.numRows;
+            if (userFilter != null || filterTime) {
+                size = 0;
+                for (int row = 0; row < info.numRows; row++) {
+                    if (userFilter != null && !userFilter.get(users[row])) {
+                        continue;
+                    }
+                    if (filterTime && (datetimes[row] < minDatetime || datetimes[row] > maxDatetime)) {
+                        continue;
+                    }
+                    users[size] = users[row];
+                    items[size] = items[row];
+                    ratings[size] = ratings[row];
+                    if (datetimes != null) {
+                        datetimes[size] = datetimes[row];
+                    }
+                    size++;
+                }
+            }
+            return new Block(size, users, items, ratings, datetimes);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private ByteBuffer readSegment(FileChannel channel, BlockInfo info, int column, Inflater inflater, int width)
+            throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(info.lengths[column]);
+        readFully(channel, compressed, info.offsets[column]);
+        byte[] inflated = new byte[info.numRows * width];
+        inflater.reset();
+        inflater.setInput(compressed.array());
+        try {
+            int length = 0;
+            while (length < inflated.length && !inflater.finished()) {
+                int read = inflater.inflate(inflated, length, inflated.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != inflated.length) {
+                throw new IOException(inputDataPath + " has a corrupt block at " + info.offsets[column]);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(inputDataPath + " has a corrupt block at " + info.offsets[column], e);
+        }
+        return ByteBuffer.wrap(inflated);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static String[] readDictionary(DataInputStream in) throws IOException {
+        String[] ids = new String[in.readInt()];
+        for (int code = 0; code < ids.length; code++) {
+            ids[code] = in.readUTF();
+        }
+        return ids;
+    }
+
+    @Override
+    public void progress() {
+        getJobStatus().setProgress(fileRate);
+    }
+
+    /**
+     * The entry of a block in the index.
+     */
+    private static class BlockInfo {
+        private final int numRows;
+        private final int minUser, maxUser;
+        private final long minDatetime, maxDatetime;
+        private final long[] offsets;
+        private final int[] lengths;
+
+        private BlockInfo(DataInputStream in, int numColumns) throws IOException {
+            numRows = in.readInt();
+            minUser = in.readInt();
+            maxUser = in.readInt();
+            minDatetime = in.readLong();
+            maxDatetime = in.readLong();
+            offsets = new long[numColumns];
+            lengths = new int[numColumns];
+            for (int column = 0; column < numColumns; column++) {
+                offsets[column] = in.readLong();
+                lengths[column] = in.readInt();
+            }
+        }
+    }
+
+    /**
+     * The rows of a block which pass the filters, stored column-wise.
+     */
+    private static class Block {
+        private final int size;
+        private final int[] users;
+        private final int[] items;
+        private final double[] ratings;
+        private final long[] datetimes;
+
+        private Block(int size, int[] users, int[] items, double[] ratings, long[] datetimes) {
+            this.size = size;
+            this.users = users;
+            this.items = items;
+            this.ratings = ratings;
+            this.datetimes = datetimes;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import com.google.common.collect.BiMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.librec.math.structure.DataFrame;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * A <tt>ColumnarDataWriter</tt> converts interactions, e.g. the rows of a CSV or ARFF input, into the
+ * columnar binary format read by {@link ColumnarDataConvertor}, so that repeated experiments over the same
+ * data skip tokenising and parsing.
+ * <p>
+ * The rows are cut into blocks of {@code blockSize} rows. Each block stores its user codes, item codes,
+ * ratings and, optionally, delta-encoded datetimes as separately deflated column segments, so that a reader
+ * only inflates the columns it needs. User and item ids are dictionary-encoded in the order of their first
+ * appearance. After the blocks the file holds the two dictionaries and the block index, with the row count,
+ * the user code range, the datetime range and the segment offsets of each block, which lets the reader skip
+ * blocks by a time range or a user subset. The file ends with the offset of the index and
+ * {@link #MAGIC}; all numbers are big-endian.
+ */
+public class ColumnarDataWriter implements Closeable {
+    private static final Log LOG = LogFactory.getLog(ColumnarDataWriter.class);
+
+    public static final int MAGIC = 0x4C52434C;
+    public static final int VERSION = 1;
+    public static final int FLAG_DATETIME = 1;
+
+    /**
+     * the default number of rows per block
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final DataOutputStream out;
+    private final boolean withDatetime;
+    private final int blockSize;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] deflateBuffer = new byte[BUFFER_SIZE];
+    private long position;
+
+    private final Object2IntOpenHashMap<String> userCodes = new Object2IntOpenHashMap<>();
+    private final Object2IntOpenHashMap<String> itemCodes = new Object2IntOpenHashMap<>();
+    private final List<String> userIds = new ArrayList<>();
+    private final List<String> itemIds = new ArrayList<>();
+
+    private final int[] users;
+    private final int[] items;
+    private final double[] ratings;
+    private final long[] datetimes;
+    private int numRows;
+
+    private final ByteBuffer columnBuffer;
+    private final DataOutputStream indexOut;
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    private int numBlocks;
+    private long numEntries;
+
+    /**
+     * @param outputPath   the path of the output file
+     * @param withDatetime whether the rows have a datetime column
+     * @param blockSize    the number of rows per block
+     * @throws IOException if the output cannot be created
+     */
+    public ColumnarDataWriter(String outputPath, boolean withDatetime, int blockSize) throws IOException {
+        Path path = Paths.get(outputPath);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+        this.withDatetime = withDatetime;
+        this.blockSize = Math.max(1, blockSize);
+        this.users = new int[this.blockSize];
+        this.items = new int[this.blockSize];
+        this.ratings = new double[this.blockSize];
+        this.datetimes = withDatetime ? new long[this.blockSize] : null;
+        this.columnBuffer = ByteBuffer.allocate(this.blockSize * Long.BYTES);
+        this.indexOut = new DataOutputStream(indexBytes);
+        userCodes.defaultReturnValue(-1);
+        itemCodes.defaultReturnValue(-1);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(withDatetime ? FLAG_DATETIME : 0);
+        position = 3 * Integer.BYTES;
+    }
+
+    /**
+     * Append a row without datetime.
+     *
+     * @param user   the raw user id
+     * @param item   the raw item id
+     * @param rating the rating
+     * @throws IOException if error occurs while writing a block
+     */
+    public void append(String user, String item, double rating) throws IOException {
+        append(user, item, rating, 0L);
+    }
+
+    /**
+     * Append a row.
+     *
+     * @param user     the raw user id
+     * @param item     the raw item id
+     * @param rating   the rating
+     * @param datetime the datetime, ignored if the file has no datetime column
+     * @throws IOException if error occurs while writing a block
+     */
+    public void append(String user, String item, double rating, long datetime) throws IOException {
+        users[numRows] = encode(user, userCodes, userIds);
+        items[numRows] = encode(item, itemCodes, itemIds);
+        ratings[numRows] = rating;
+        if (withDatetime) {
+            datetimes[numRows] = datetime;
+        }
+        if (++numRows == blockSize) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * @return the number of rows appended so far
+     */
+    public long getNumEntries() {
+        return numEntries + numRows;
+    }
+
+    /**
+     * Write the last block, the dictionaries and the block index.
+     *
+     * @throws IOException if error occurs while writing
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            long indexOffset = position;
+            writeDictionary(userIds);
+            writeDictionary(itemIds);
+            out.writeInt(numBlocks);
+            indexOut.flush();
+            indexBytes.writeTo(out);
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+        LOG.info(String.format("Columnar data: %d rows in %d blocks, user number: %d,\t item number is: %d",
+                numEntries, numBlocks, userIds.size(), itemIds.size()));
+    }
+
+    private static int encode(String id, Object2IntOpenHashMap<String> codes, List<String> ids) {
+        int code = codes.getInt(id);
+        if (code < 0) {
+            code = ids.size();
+            codes.put(id, code);
+            ids.add(id);
+        }
+        return code;
+    }
+
+    private void flushBlock() throws IOException {
+        if (numRows == 0) {
+            return;
+        }
+        int minUser = Integer.MAX_VALUE, maxUser = Integer.MIN_VALUE;
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        for (int row = 0; row < numRows; row++) {
+            minUser = Math.min(minUser, users[row]);
+            maxUser = Math.max(maxUser, users[row]);
+            if (withDatetime) {
+                minTime = Math.min(minTime, datetimes[row]);
+                maxTime = Math.max(maxTime, datetimes[row]);
+            }
+        }
+        indexOut.writeInt(numRows);
+        indexOut.writeInt(minUser);
+        indexOut.writeInt(maxUser);
+        indexOut.writeLong(withDatetime ? minTime : 0L);
+        indexOut.writeLong(withDatetime ? maxTime : 0L);
+
+        columnBuffer.clear();
+        columnBuffer.asIntBuffer().put(users, 0, numRows);
+        writeSegment(numRows * Integer.BYTES);
+        columnBuffer.clear();
+        columnBuffer.asIntBuffer().put(items, 0, numRows);
+        writeSegment(numRows * Integer.BYTES);
+        columnBuffer.clear();
+        columnBuffer.asDoubleBuffer().put(ratings, 0, numRows);
+        writeSegment(numRows * Double.BYTES);
+        if (withDatetime) {
+            // deltas of nearby datetimes are small and deflate much better than the absolute values
+            columnBuffer.clear();
+            long previous = 0L;
+            for (int row = 0; row < numRows; row++) {
+                columnBuffer.putLong(datetimes[row] - previous);
+                previous = datetimes[row];
+            }
+            writeSegment(numRows * Long.BYTES);
+        }
+        numEntries += numRows;
+        numRows = 0;
+        numBlocks++;
+    }
+
+    /**
+     * Deflate the first {@code length} bytes of the column buffer as a segment and record its offset and
+     * length in the index.
+     */
+    private void writeSegment(int length) throws IOException {
+        deflater.reset();
+        deflater.setInput(columnBuffer.array(), 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == deflateBuffer.length) {
+                deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+            }
+            compressedLength += deflater.deflate(deflateBuffer, compressedLength, deflateBuffer.length - compressedLength);
+        }
+        out.write(deflateBuffer, 0, compressedLength);
+        indexOut.writeLong(position);
+        indexOut.writeInt(compressedLength);
+        position += compressedLength;
+    }
+
+    private void writeDictionary(List<String> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            out.writeUTF(id);
+        }
+    }
+
+    /**
+     * Convert a loaded data frame, e.g. the matrix of a {@link TextDataConvertor} or an
+     * {@link ArffDataConvertor}. The frame needs the columns {@code user}, {@code item} and {@code rating};
+     * a {@code datetime} column is kept if there is one.
+     *
+     * @param matrix     the data frame
+     * @param outputPath the path of the output file
+     * @param blockSize  the number of rows per block
+     * @throws IOException if error occurs while writing
+     */
+    public static void convert(DataFrame matrix, String outputPath, int blockSize) throws IOException {
+        List<String> header = matrix.getHeader();
+        int userColumn = header.indexOf("user"), itemColumn = header.indexOf("item");
+        int ratingColumn = header.indexOf("rating"), datetimeColumn = header.indexOf("datetime");
+        if (userColumn < 0 || itemColumn < 0 || ratingColumn < 0) {
+            throw new IllegalArgumentException("A columnar data file needs the columns user, item and rating: " + header);
+        }
+        BiMap<Integer, String> userIds = DataFrame.getInnerMapping(header.get(userColumn)).inverse();
+        BiMap<Integer, String> itemIds = DataFrame.getInnerMapping(header.get(itemColumn)).inverse();
+        try (ColumnarDataWriter writer = new ColumnarDataWriter(outputPath, datetimeColumn >= 0, blockSize)) {
+            for (int row = 0; row < matrix.size(); row++) {
+                writer.append(userIds.get((Integer) matrix.get(row, userColumn)),
+                        itemIds.get((Integer) matrix.get(row, itemColumn)),
+                        ((Number) matrix.get(row, ratingColumn)).doubleValue(),
+                        datetimeColumn >= 0 ? ((Number) matrix.get(row, datetimeColumn)).longValue() : 0L);
+            }
+        }
+    }
+
+    /**
+     * Convert text inputs line by line, without loading them into a data frame first.
+     *
+     * @param inputDataPath    the input files or directories
+     * @param dataColumnFormat the column format, {@code UIR} or {@code UIRT}
+     * @param sep              the regular expression of the column separator
+     * @param outputPath       the path of the output file
+     * @param blockSize        the number of rows per block
+     * @throws IOException if error occurs while reading or writing
+     */
+    public static void convertText(String[] inputDataPath, String dataColumnFormat, String sep, String outputPath,
+                                   int blockSize) throws IOException {
+        boolean withDatetime = "uirt".equalsIgnoreCase(dataColumnFormat);
+        List<File> files = new ArrayList<>();
+        SimpleFileVisitor<Path> finder = new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                files.add(file.toFile());
+                return super.visitFile(file, attrs);
+            }
+        };
+        for (String path : inputDataPath) {
+            Files.walkFileTree(Paths.get(path.trim()), finder);
+        }
+        Pattern pattern = Pattern.compile(sep);
+        try (ColumnarDataWriter writer = new ColumnarDataWriter(outputPath, withDatetime, blockSize)) {
+            for (File file : files) {
+                try (Source fileSource = Okio.source(file);
+                     BufferedSource bufferedSource = Okio.buffer(fileSource)) {
+                    String line;
+                    while ((line = bufferedSource.readUtf8Line()) != null) {
+                        // an empty line ends a file, as in TextDataConvertor
+                        if ("".equals(line.trim())) {
+                            break;
+                        }
+                        String[] eachRow = pattern.split(line);
+                        writer.append(eachRow[0], eachRow[1], Double.parseDouble(eachRow[2]),
+                                withDatetime ? Long.parseLong(eachRow[3]) : 0L);
+                    }
+                }
+            }
+        }
+    }
+}
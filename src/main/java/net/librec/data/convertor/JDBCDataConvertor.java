@@ -18,18 +18,20 @@
 package net.librec.data.convertor;
 
 import com.google.common.collect.BiMap;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import net.librec.math.structure.DataFrame;
-import net.librec.util.StringUtil;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import java.io.IOException;
 import java.sql.*;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A <tt>JDBCDataConvertor</tt>is a class to convert
@@ -57,12 +59,53 @@ public class JDBCDataConvertor extends AbstractDataConvertor {
     private String ratingColName = "";
     private String datetimeColName = "";
 
-    private Connection conn = null;
-    private ResultSet result = null;
-    private PreparedStatement pst = null;
     private String[] header;
     private String[] attr;
-    private float fileRate;
+    private volatile float fileRate;
+
+    /**
+     * the number of rows fetched from the database per round trip, also the size of the chunks appended to the
+     * data frame
+     */
+    private int fetchSize = 10000;
+
+    /**
+     * numeric key column used to split the table into range partitions which are read in parallel
+     */
+    private String partitionColName;
+
+    /**
+     * the number of range partitions, each read by its own connection
+     */
+    private int numPartitions = 1;
+
+    /**
+     * the number of fetched chunks a partition may read ahead of the merge
+     */
+    private static final int NUM_BUFFERED_CHUNKS = 2;
+
+    /**
+     * marks the end of the chunks of a partition
+     */
+    private static final Chunk END_OF_PARTITION = new Chunk(false, 0);
+
+    /**
+     * monotonic column, e.g. an auto increment id or a modification time, whose maximum value is remembered so that
+     * the next call of {@link #processData()} only appends the rows added since then
+     */
+    private String watermarkColName;
+
+    /**
+     * the maximum value of {@link #watermarkColName} which has been loaded, null if nothing has been loaded
+     */
+    private Object watermark;
+
+    /**
+     * the number of rows to load and the number of rows loaded so far, used to report the progress
+     */
+    private long numEntries;
+    private final AtomicLong numLoaded = new AtomicLong();
+
     /**
      * the threshold to binarize a rating. If a rating is greater than the threshold, the value will be 1;
      * otherwise 0. To disable this appender, i.e., keep the original rating value, set the threshold a negative value
@@ -94,11 +137,8 @@ public class JDBCDataConvertor extends AbstractDataConvertor {
         if (this.isNotBlank()) {
             try {
                 Class.forName(this.driverName);
-                this.conn = DriverManager.getConnection(this.URL, this.user, this.password);
             } catch (ClassNotFoundException e) {
                 e.printStackTrace();
-            } catch (SQLException throwables) {
-                throwables.printStackTrace();
             }
         }
         else{
@@ -122,6 +162,46 @@ public class JDBCDataConvertor extends AbstractDataConvertor {
                 StringUtils.isNotEmpty(this.datetimeColName);
     }
 
+    /**
+     * Set the number of rows fetched per round trip. Note that MySQL Connector/J only streams the result if
+     * {@code useCursorFetch=true} is set on the URL.
+     *
+     * @param fetchSize the number of rows fetched per round trip
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Read the table as {@code numPartitions} ranges of a numeric key column in parallel.
+     *
+     * @param partitionColName the numeric key column
+     * @param numPartitions    the number of range partitions
+     */
+    public void setPartitions(String partitionColName, int numPartitions) {
+        this.partitionColName = partitionColName;
+        this.numPartitions = Math.max(1, numPartitions);
+    }
+
+    /**
+     * Enable the incremental mode: every call of {@link #processData()} appends the rows whose watermark column
+     * is greater than the current watermark and then advances the watermark.
+     *
+     * @param watermarkColName the monotonic watermark column
+     * @param watermark        the initial watermark, null to load all rows first
+     */
+    public void setWatermark(String watermarkColName, Object watermark) {
+        this.watermarkColName = watermarkColName;
+        this.watermark = watermark;
+    }
+
+    /**
+     * @return the maximum value of the watermark column loaded so far
+     */
+    public Object getWatermark() {
+        return watermark;
+    }
+
     @Override
     public void processData() throws IOException, SQLException {
         selectData();
@@ -129,7 +209,6 @@ public class JDBCDataConvertor extends AbstractDataConvertor {
 
     private void selectData() throws SQLException {
         LOG.info(String.format("Dataset: %s", this.URL + "/" + this.tableName));
-        matrix = new DataFrame();
         if (Objects.isNull(header)) {
             if (StringUtils.isNotBlank(this.datetimeColName)) {
                 header = new String[]{"user", "item", "rating", "datetime"};
@@ -139,70 +218,120 @@ public class JDBCDataConvertor extends AbstractDataConvertor {
                 attr = new String[]{"STRING", "STRING", "NUMERIC"};
             }
         }
-        matrix.setAttrType(attr);
-        matrix.setHeader(header);
+        // in the incremental mode the new rows are appended to the loaded ones
+        if (matrix == null || StringUtils.isBlank(watermarkColName)) {
+            matrix = new DataFrame();
+            matrix.setAttrType(attr);
+            matrix.setHeader(header);
+        }
+        preferenceMatrix = null;
+        datetimeMatrix = null;
+        sparseTensor = null;
 
-        // Get the number of entries of all data
-        int numEntries = -1;
-        try {
-            String SQL = String.format("SELECT count(1) AS numEntries FROM %s", this.tableName);
-            pst = this.conn.prepareStatement(SQL);
-            ResultSet rs = pst.executeQuery();
-            if (rs.next()){
-                numEntries = rs.getInt("numEntries");
+        boolean incremental = StringUtils.isNotBlank(watermarkColName);
+        boolean partitioned = StringUtils.isNotBlank(partitionColName) && numPartitions > 1;
 
+        // Get the number of entries, the key range and the upper watermark of a consistent snapshot
+        List<Object> conditionParams = new ArrayList<>();
+        String condition = incremental && watermark != null ? String.format("%s > ?", watermarkColName) : null;
+        if (condition != null) {
+            conditionParams.add(watermark);
+        }
+        String columns = "count(1) AS numEntries"
+                + (partitioned ? String.format(", min(%s) AS minKey, max(%s) AS maxKey", partitionColName, partitionColName) : "")
+                + (incremental ? String.format(", max(%s) AS maxWatermark", watermarkColName) : "");
+        long minKey = 0, maxKey = 0;
+        Object maxWatermark = null;
+        try (Connection conn = getConnection();
+             PreparedStatement pst = conn.prepareStatement(String.format("SELECT %s FROM %s%s", columns, tableName,
+                     condition == null ? "" : " WHERE " + condition))) {
+            setParameters(pst, conditionParams);
+            try (ResultSet rs = pst.executeQuery()) {
+                if (rs.next()) {
+                    numEntries = rs.getLong("numEntries");
+                    if (partitioned) {
+                        minKey = rs.getLong("minKey");
+                        maxKey = rs.getLong("maxKey");
+                        partitioned = rs.getObject("maxKey") != null;
+                    }
+                    if (incremental) {
+                        maxWatermark = rs.getObject("maxWatermark");
+                    }
+                }
             }
-
-        } catch (SQLException throwables) {
-            throwables.printStackTrace();
+        }
+        if (incremental) {
+            if (maxWatermark == null) {
+                LOG.info(String.format("DataSet: %s has no rows after watermark %s", this.tableName, watermark));
+                return;
+            }
+            // rows added while loading are left for the next call
+            condition = (condition == null ? "" : condition + " AND ") + String.format("%s <= ?", watermarkColName);
+            conditionParams.add(maxWatermark);
         }
 
         // Get Data
-        int cur = 0;
+        numLoaded.set(0);
+        fileRate = 0;
+        String select = StringUtils.isNotBlank(this.datetimeColName)
+                ? String.format("SELECT %s,%s,%s,%s FROM %s", this.userColName, this.itemColName, this.ratingColName, this.datetimeColName, this.tableName)
+                : String.format("SELECT %s,%s,%s FROM %s", this.userColName, this.itemColName, this.ratingColName, this.tableName);
+        ExecutorService executorService = partitioned ? Executors.newFixedThreadPool(numPartitions) : null;
         try {
-            String SQL = "";
-            if (StringUtils.isNotBlank(this.datetimeColName)) {
-                SQL = String.format("SELECT %s,%s,%s,%s FROM %s", this.userColName, this.itemColName, this.ratingColName, this.datetimeColName, this.tableName);
+            if (!partitioned) {
+                loadPartition(condition == null ? select : select + " WHERE " + condition, conditionParams, this::appendChunk);
             } else {
-                SQL = String.format("SELECT %s,%s,%s FROM %s", this.userColName, this.itemColName, this.ratingColName, this.tableName);
-            }
-            PreparedStatement pst = this.conn.prepareStatement(SQL);
-
-            result = pst.executeQuery();
-            String[] paras = new String[header.length];
-            while (result.next()) {
-                paras[0] = result.getString(this.userColName);
-                paras[1] = result.getString(this.itemColName);
-                paras[2] = result.getString(this.ratingColName);
-                if (header.length > 3) {
-                    paras[3] = result.getString(this.datetimeColName);
+                // split [minKey, maxKey] into ranges, the first one also takes the rows without key
+                long step = (maxKey - minKey) / numPartitions + 1;
+                List<BlockingQueue<Chunk>> queues = new ArrayList<>(numPartitions);
+                List<Future<Void>> partitions = new ArrayList<>(numPartitions);
+                for (int partition = 0; partition < numPartitions; partition++) {
+                    long lower = minKey + partition * step;
+                    String range = partition == 0
+                            ? String.format("(%s < %d OR %s IS NULL)", partitionColName, lower + step, partitionColName)
+                            : partition == numPartitions - 1
+                            ? String.format("%s >= %d", partitionColName, lower)
+                            : String.format("%s >= %d AND %s < %d", partitionColName, lower, partitionColName, lower + step);
+                    String sql = select + " WHERE " + (condition == null ? range : condition + " AND " + range);
+                    BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(NUM_BUFFERED_CHUNKS);
+                    queues.add(queue);
+                    partitions.add(executorService.submit(() -> {
+                        try {
+                            loadPartition(sql, conditionParams, queue::put);
+                        } finally {
+                            queue.put(END_OF_PARTITION);
+                        }
+                        return null;
+                    }));
                 }
-                for (int i = 0; i < header.length; i++) {
-                    if (Objects.equals(attr[i], "STRING")) {
-                        DataFrame.setId(paras[i], matrix.getHeader(i));
+                // merge in key order, the later partitions read ahead by at most NUM_BUFFERED_CHUNKS chunks
+                for (int partition = 0; partition < numPartitions; partition++) {
+                    BlockingQueue<Chunk> queue = queues.get(partition);
+                    for (Chunk chunk = queue.take(); chunk != END_OF_PARTITION; chunk = queue.take()) {
+                        appendChunk(chunk);
                     }
+                    partitions.get(partition).get();
                 }
-                matrix.add(paras);
-
-                cur++;
-                fileRate = cur / numEntries;
             }
-            LOG.info(String.format("DataSet: %s is finished", this.tableName));
-
-        } catch (SQLException throwables) {
-            throwables.printStackTrace();
-        } finally {
-            // 关闭连接，释放资源
-            if (this.result != null) {
-                this.result.close();
-            }
-            if (this.pst != null) {
-                this.pst.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Loading " + tableName + " is interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
             }
-            if (this.conn != null) {
-                this.conn.close();
+            throw new SQLException("Loading " + tableName + " failed", e.getCause());
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
             }
         }
+        if (incremental) {
+            watermark = maxWatermark;
+        }
+        fileRate = 1.0f;
+        LOG.info(String.format("DataSet: %s is finished", this.tableName));
+
         List<Double> ratingScale = matrix.getRatingScale();
         if (ratingScale != null) {
             LOG.info(String.format("rating Scale: %s", ratingScale.toString()));
@@ -210,6 +339,120 @@ public class JDBCDataConvertor extends AbstractDataConvertor {
         LOG.info(String.format("user number: %d,\t item number is: %d", matrix.numUsers(), matrix.numItems()));
     }
 
+    private Connection getConnection() throws SQLException {
+        return DriverManager.getConnection(this.URL, this.user, this.password);
+    }
+
+    private static void setParameters(PreparedStatement pst, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            pst.setObject(i + 1, params.get(i));
+        }
+    }
+
+    /**
+     * Stream the result of a query in chunks of {@link #fetchSize} typed rows.
+     *
+     * @param sql      the query of the partition
+     * @param params   the parameters of the query
+     * @param consumer the consumer of the chunks, in row order
+     * @throws SQLException if error occurs
+     * @throws InterruptedException if the consumer is interrupted
+     */
+    private void loadPartition(String sql, List<Object> params, ChunkConsumer consumer) throws SQLException, InterruptedException {
+        boolean withDatetime = header.length > 3;
+        try (Connection conn = getConnection()) {
+            // some drivers, e.g. PostgreSQL, only use a cursor outside of auto commit
+            conn.setAutoCommit(false);
+            conn.setReadOnly(true);
+            try (PreparedStatement pst = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                pst.setFetchSize(fetchSize);
+                setParameters(pst, params);
+                try (ResultSet result = pst.executeQuery()) {
+                    boolean timestamp = false;
+                    if (withDatetime) {
+                        int type = result.getMetaData().getColumnType(4);
+                        timestamp = type == Types.TIMESTAMP || type == Types.DATE || type == Types.TIMESTAMP_WITH_TIMEZONE;
+                    }
+                    int chunkSize = Math.max(1, fetchSize);
+                    Chunk chunk = new Chunk(withDatetime, chunkSize);
+                    while (result.next()) {
+                        chunk.users.add(result.getString(1));
+                        chunk.items.add(result.getString(2));
+                        chunk.ratings.add(result.getDouble(3));
+                        if (withDatetime) {
+                            if (timestamp) {
+                                Timestamp time = result.getTimestamp(4);
+                                chunk.datetimes.add(time == null ? 0L : timeUnit.convert(time.getTime(), TimeUnit.MILLISECONDS));
+                            } else {
+                                chunk.datetimes.add(result.getLong(4));
+                            }
+                        }
+                        if (chunk.users.size() == chunkSize) {
+                            reportLoaded(chunkSize);
+                            consumer.accept(chunk);
+                            chunk = new Chunk(withDatetime, chunkSize);
+                        }
+                    }
+                    if (!chunk.users.isEmpty()) {
+                        reportLoaded(chunk.users.size());
+                        consumer.accept(chunk);
+                    }
+                }
+            } finally {
+                conn.rollback();
+            }
+        }
+    }
+
+    private void reportLoaded(int rows) {
+        if (numEntries > 0) {
+            fileRate = Math.min(1.0f, (float) numLoaded.addAndGet(rows) / numEntries);
+        }
+    }
+
+    /**
+     * Append the rows of a chunk to the data frame, assigning the inner ids in row order.
+     *
+     * @param chunk the rows of a chunk
+     */
+    private void appendChunk(Chunk chunk) {
+        String userHeader = matrix.getHeader(0), itemHeader = matrix.getHeader(1);
+        Object[] row = new Object[header.length];
+        for (int index = 0; index < chunk.users.size(); index++) {
+            row[0] = DataFrame.setId(chunk.users.get(index), userHeader);
+            row[1] = DataFrame.setId(chunk.items.get(index), itemHeader);
+            row[2] = chunk.ratings.getDouble(index);
+            if (chunk.datetimes != null) {
+                row[3] = chunk.datetimes.getLong(index);
+            }
+            matrix.addRow(row);
+        }
+    }
+
+    /**
+     * Consumes the chunks of a partition.
+     */
+    private interface ChunkConsumer {
+        void accept(Chunk chunk) throws InterruptedException;
+    }
+
+    /**
+     * At most one fetch of rows, stored column-wise.
+     */
+    private static class Chunk {
+        private final List<String> users;
+        private final List<String> items;
+        private final DoubleArrayList ratings;
+        private final LongArrayList datetimes;
+
+        private Chunk(boolean withDatetime, int capacity) {
+            users = new ArrayList<>(capacity);
+            items = new ArrayList<>(capacity);
+            ratings = new DoubleArrayList(capacity);
+            datetimes = withDatetime ? new LongArrayList(capacity) : null;
+        }
+    }
+
     @Override
     public void progress() {
         getJobStatus().setProgress(fileRate);
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.model;
+
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.conf.Configured;
+import net.librec.data.convertor.ColumnarDataConvertor;
+import net.librec.math.structure.DataSet;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A <tt>ColumnarDataModel</tt> represents a data access class to the columnar
+ * binary input written by {@link net.librec.data.convertor.ColumnarDataWriter}.
+ */
+public class ColumnarDataModel extends AbstractDataModel {
+
+    /**
+     * Empty constructor.
+     */
+    public ColumnarDataModel() {
+    }
+
+    /**
+     * Initializes a newly created {@code ColumnarDataModel} object with
+     * configuration.
+     *
+     * @param conf the configuration for the model.
+     */
+    public ColumnarDataModel(Configuration conf) {
+        this.conf = conf;
+    }
+
+    /**
+     * Build Convert.
+     *
+     * @throws LibrecException if error occurs during building
+     */
+    @Override
+    public void buildConvert() throws LibrecException {
+        String inputDataPath = conf.get(Configured.CONF_DFS_DATA_DIR) + "/" + conf.get(Configured.CONF_DATA_INPUT_PATH).trim();
+        ColumnarDataConvertor columnarDataConvertor = new ColumnarDataConvertor(inputDataPath);
+        columnarDataConvertor.setTimeRange(conf.getLong("data.convert.columnar.time.from", Long.MIN_VALUE),
+                conf.getLong("data.convert.columnar.time.to", Long.MAX_VALUE));
+        if (conf.get("data.convert.columnar.users") != null) {
+            columnarDataConvertor.setUsers(Arrays.asList(conf.getTrimmedStrings("data.convert.columnar.users")));
+        }
+        columnarDataConvertor.setNumThreads(conf.getInt("data.convert.columnar.threads",
+                Runtime.getRuntime().availableProcessors()));
+        dataConvertor = columnarDataConvertor;
+        try {
+            columnarDataConvertor.processData();
+        } catch (IOException e) {
+            throw new LibrecException(e);
+        }
+    }
+
+    /**
+     * Load data model.
+     *
+     * @throws LibrecException if error occurs during loading
+     */
+    @Override
+    public void loadDataModel() throws LibrecException {
+
+    }
+
+    /**
+     * Save data model.
+     *
+     * @throws LibrecException if error occurs during saving
+     */
+    @Override
+    public void saveDataModel() throws LibrecException {
+
+    }
+
+    /**
+     * Get datetime data set.
+     *
+     * @return the datetime data set of data model.
+     */
+    @Override
+    public DataSet getDatetimeDataSet() {
+        return dataConvertor.getDatetimeMatrix();
+    }
+}
@@ -66,7 +66,17 @@ public class JDBCDataModel extends AbstractDataModel {
         String ratingColName =conf.get("data.convert.jbdc.ratingColName");
         String datetimeColName = conf.get("data.convert.jbdc.datetimeColName"," ");
 
-        dataConvertor = new JDBCDataConvertor(driverName,URL,user,password,tableName,userColName,itemColName,ratingColName,datetimeColName);
+        JDBCDataConvertor jdbcDataConvertor = new JDBCDataConvertor(driverName,URL,user,password,tableName,userColName,itemColName,ratingColName,datetimeColName);
+        jdbcDataConvertor.setFetchSize(conf.getInt("data.convert.jbdc.fetchSize", 10000));
+        String partitionColName = conf.get("data.convert.jbdc.partitionColName");
+        if (partitionColName != null) {
+            jdbcDataConvertor.setPartitions(partitionColName, conf.getInt("data.convert.jbdc.numPartitions", 1));
+        }
+        String watermarkColName = conf.get("data.convert.jbdc.watermarkColName");
+        if (watermarkColName != null) {
+            jdbcDataConvertor.setWatermark(watermarkColName, conf.get("data.convert.jbdc.watermark"));
+        }
+        dataConvertor = jdbcDataConvertor;
         try{
             dataConvertor.processData();
         } catch (IOException e) {
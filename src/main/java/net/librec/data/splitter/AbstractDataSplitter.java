@@ -20,6 +20,7 @@ package net.librec.data.splitter;
 import net.librec.conf.Configured;
 import net.librec.data.DataConvertor;
 import net.librec.data.DataSplitter;
+import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
 import org.apache.commons.logging.Log;
@@ -100,6 +101,27 @@ public abstract class AbstractDataSplitter extends Configured implements DataSpl
         this.preferenceMatrix = preferenceMatrix;
     }
 
+    /**
+     * @return a mask over the entries of the preference matrix, which assigns all of them to the train set
+     */
+    protected EntryMask newEntryMask() {
+        return new EntryMask(preferenceMatrix, Randoms.uniform(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Build the train and test matrices, and the validation matrix if required, from a mask.
+     *
+     * @param mask       the subset of each entry
+     * @param validation whether to build the validation matrix
+     */
+    protected void applyEntryMask(EntryMask mask, boolean validation) {
+        trainMatrix = mask.toMatrix(EntryMask.TRAIN);
+        testMatrix = mask.toMatrix(EntryMask.TEST);
+        if (validation) {
+            validationMatrix = mask.toMatrix(EntryMask.VALID);
+        }
+    }
+
     @Override
     public boolean nextFold() {
         if (assignMatrixList == null) {
@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.splitter;
+
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import net.librec.math.structure.RowSequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.VectorBasedSequentialSparseVector;
+
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Entry Mask<br>
+ * Assigns every entry of a preference matrix to a subset (train, test, validation or a fold) with one byte
+ * per entry in row order. The rows or columns are assigned in parallel, each with its own random stream, and
+ * the subsets are built from the rows of the preference matrix.
+ */
+public class EntryMask {
+    public static final byte TRAIN = 0;
+    public static final byte TEST = 1;
+    public static final byte VALID = 2;
+
+    private final SequentialAccessSparseMatrix preferenceMatrix;
+
+    /**
+     * the index of the first entry of each row, plus the number of entries at the end
+     */
+    private final int[] rowOffsets;
+
+    /**
+     * the subset of each entry
+     */
+    private final byte[] marks;
+
+    private final long seed;
+
+    /**
+     * Initializes a mask which assigns all entries to the train set.
+     *
+     * @param preferenceMatrix the matrix to split
+     * @param seed             the seed of the random streams
+     */
+    public EntryMask(SequentialAccessSparseMatrix preferenceMatrix, long seed) {
+        this.preferenceMatrix = preferenceMatrix;
+        this.seed = seed;
+        int numRows = preferenceMatrix.rowSize();
+        rowOffsets = new int[numRows + 1];
+        for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+            rowOffsets[rowIndex + 1] = rowOffsets[rowIndex] + preferenceMatrix.row(rowIndex).getNumEntries();
+        }
+        marks = new byte[rowOffsets[numRows]];
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return marks.length;
+    }
+
+    /**
+     * @param rowIndex the row
+     * @return the index of the first entry of the row
+     */
+    public int rowOffset(int rowIndex) {
+        return rowOffsets[rowIndex];
+    }
+
+    /**
+     * @param rowIndex the row
+     * @return the number of entries of the row
+     */
+    public int rowLength(int rowIndex) {
+        return rowOffsets[rowIndex + 1] - rowOffsets[rowIndex];
+    }
+
+    /**
+     * @param column the column
+     * @return the index of each entry of the column, in row position order
+     */
+    public int[] columnEntries(int column) {
+        SequentialSparseVector columnVector = preferenceMatrix.column(column);
+        int[] entries = new int[columnVector.getNumEntries()];
+        for (int rowPosition = 0; rowPosition < entries.length; rowPosition++) {
+            entries[rowPosition] = rowOffsets[columnVector.getIndexAtPosition(rowPosition)]
+                    + preferenceMatrix.getColumnPositionAtRowPosition(rowPosition, column);
+        }
+        return entries;
+    }
+
+    public byte get(int entry) {
+        return marks[entry];
+    }
+
+    public void set(int entry, byte mark) {
+        marks[entry] = mark;
+    }
+
+    /**
+     * Assign every entry of a range to the same subset.
+     *
+     * @param from first entry
+     * @param to   last entry (exclusive)
+     * @param mark the subset
+     */
+    public void fill(int from, int to, byte mark) {
+        for (int entry = from; entry < to; entry++) {
+            marks[entry] = mark;
+        }
+    }
+
+    /**
+     * @param key the row, column or any other key of the stream
+     * @return a random stream which only depends on the seed and the key
+     */
+    public Random random(long key) {
+        long z = seed + (key + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(z ^ (z >>> 31));
+    }
+
+    /**
+     * Run an action for every row in parallel.
+     *
+     * @param action the action on the row index
+     */
+    public void forEachRow(IntConsumer action) {
+        IntStream.range(0, preferenceMatrix.rowSize()).parallel().forEach(action);
+    }
+
+    /**
+     * Run an action for every column in parallel.
+     *
+     * @param action the action on the column index
+     */
+    public void forEachColumn(IntConsumer action) {
+        IntStream.range(0, preferenceMatrix.columnSize()).parallel().forEach(action);
+    }
+
+    /**
+     * Choose {@code count} distinct positions out of {@code length} with a partial Fisher-Yates shuffle.
+     *
+     * @param random the random stream
+     * @param length the number of positions
+     * @param count  the number of positions to choose
+     * @return the chosen positions in the first {@code count} slots
+     */
+    public static int[] sample(Random random, int length, int count) {
+        int[] positions = new int[length];
+        for (int position = 0; position < length; position++) {
+            positions[position] = position;
+        }
+        for (int index = 0; index < count; index++) {
+            int swapIndex = index + random.nextInt(length - index);
+            int temp = positions[index];
+            positions[index] = positions[swapIndex];
+            positions[swapIndex] = temp;
+        }
+        return positions;
+    }
+
+    /**
+     * @param datetimeMatrix the datetime of each entry, with the same structure as the preference matrix
+     * @param rowIndex       the row
+     * @return the column positions of the row, from the earliest to the latest entry
+     */
+    public int[] sortRowByDate(SequentialAccessSparseMatrix datetimeMatrix, int rowIndex) {
+        SequentialSparseVector datetimeVector = datetimeMatrix.row(rowIndex);
+        int length = rowLength(rowIndex);
+        long[] datetimes = new long[length];
+        int[] positions = new int[length];
+        for (int position = 0; position < length; position++) {
+            datetimes[position] = (long) datetimeVector.getAtPosition(position);
+            positions[position] = position;
+        }
+        LongArrays.radixSortIndirect(positions, datetimes, true);
+        return positions;
+    }
+
+    /**
+     * @param datetimeMatrix the datetime of each entry, with the same structure as the preference matrix
+     * @param column         the column
+     * @return the row positions of the column, from the earliest to the latest entry
+     */
+    public int[] sortColumnByDate(SequentialAccessSparseMatrix datetimeMatrix, int column) {
+        int length = preferenceMatrix.column(column).getNumEntries();
+        long[] datetimes = new long[length];
+        int[] positions = new int[length];
+        for (int position = 0; position < length; position++) {
+            datetimes[position] = (long) datetimeMatrix.getAtRowPosition(position, column);
+            positions[position] = position;
+        }
+        LongArrays.radixSortIndirect(positions, datetimes, true);
+        return positions;
+    }
+
+    /**
+     * @param datetimeMatrix the datetime of each entry, with the same structure as the preference matrix
+     * @return all entries from the earliest to the latest
+     */
+    public int[] sortByDate(SequentialAccessSparseMatrix datetimeMatrix) {
+        long[] datetimes = new long[marks.length];
+        int[] entries = new int[marks.length];
+        forEachRow(rowIndex -> {
+            SequentialSparseVector datetimeVector = datetimeMatrix.row(rowIndex);
+            for (int position = 0, offset = rowOffsets[rowIndex]; position < rowLength(rowIndex); position++) {
+                datetimes[offset + position] = (long) datetimeVector.getAtPosition(position);
+                entries[offset + position] = offset + position;
+            }
+        });
+        LongArrays.parallelRadixSortIndirect(entries, datetimes, true);
+        return entries;
+    }
+
+    /**
+     * Build the entries of a subset.
+     *
+     * @param mark the subset
+     * @return the matrix of the entries assigned to the subset
+     */
+    public SequentialAccessSparseMatrix toMatrix(byte mark) {
+        return toMatrix(mark, true, false);
+    }
+
+    /**
+     * Build the entries of the preference matrix which are (or are not) assigned to a subset. The rows are
+     * built in parallel and sized exactly.
+     *
+     * @param mark    the subset
+     * @param in      true to keep the entries of the subset, false to keep all other entries
+     * @param binary  true to set the kept entries to 1 instead of their ratings
+     * @return the filtered matrix
+     */
+    public SequentialAccessSparseMatrix toMatrix(byte mark, boolean in, boolean binary) {
+        int numRows = preferenceMatrix.rowSize();
+        int numColumns = preferenceMatrix.columnSize();
+        VectorBasedSequentialSparseVector[] rowVectors = new VectorBasedSequentialSparseVector[numRows];
+        forEachRow(rowIndex -> {
+            SequentialSparseVector row = preferenceMatrix.row(rowIndex);
+            int offset = rowOffsets[rowIndex], length = rowLength(rowIndex);
+            int size = 0;
+            for (int position = 0; position < length; position++) {
+                if ((marks[offset + position] == mark) == in) {
+                    size++;
+                }
+            }
+            int[] indices = new int[size];
+            double[] values = new double[size];
+            size = 0;
+            for (int position = 0; position < length; position++) {
+                if ((marks[offset + position] == mark) == in) {
+                    indices[size] = row.getIndexAtPosition(position);
+                    values[size++] = binary ? 1.0D : row.getAtPosition(position);
+                }
+            }
+            rowVectors[rowIndex] = new VectorBasedSequentialSparseVector(numColumns, indices, values);
+        });
+        return new SequentialAccessSparseMatrix(
+                new RowSequentialAccessSparseMatrix(numRows, numColumns, rowVectors, true), true);
+    }
+}
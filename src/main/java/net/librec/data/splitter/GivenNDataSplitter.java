@@ -21,17 +21,8 @@ import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.data.convertor.ArffDataConvertor;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.SequentialAccessSparseMatrix;
-import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.Vector;
-import net.librec.util.RatingContext;
 import org.apache.commons.lang.StringUtils;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 
 /**
  * GivenN Data Splitter<br>
@@ -41,16 +32,6 @@ import java.util.List;
  */
 public class GivenNDataSplitter extends AbstractDataSplitter {
 
-    /**
-     * The rate dataset for splitting
-     */
-    private SequentialAccessSparseMatrix preferenceMatrix;
-
-    /**
-     * The datetime dataset for splitting
-     */
-    private SequentialAccessSparseMatrix datetimeMatrix;
-
     /**
      * Empty constructor.
      */
@@ -138,32 +119,17 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
      */
     public void getGivenNByUser(int numGiven) throws Exception {
         if (numGiven > 0) {
-
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-                int numRated = preferenceMatrix.row(rowIndex).getNumEntries();
-
+            EntryMask mask = newEntryMask();
+            mask.forEachRow(rowIndex -> {
+                int numRated = mask.rowLength(rowIndex);
                 if (numRated > numGiven) {
-                    int[] givenPositions = Randoms.nextIntArray(numGiven, numRated);
-
-                    for (int testColumnPosition = 0, columnPosition = 0; columnPosition < numRated; columnPosition++) {
-                        if (testColumnPosition < givenPositions.length && givenPositions[testColumnPosition] == columnPosition) {
-                            testMatrix.setAtColumnPosition(rowIndex, columnPosition, 0.0D);
-                            testColumnPosition++;
-                        } else {
-                            trainMatrix.setAtColumnPosition(rowIndex, columnPosition, 0.0D);
-                        }
-                    }
-                } else {
-                    for (Vector.VectorEntry vectorEntry : preferenceMatrix.row(rowIndex)) {
-                        testMatrix.setAtColumnPosition(rowIndex, vectorEntry.position(), 0.0D);
+                    int[] positions = EntryMask.sample(mask.random(rowIndex), numRated, numGiven);
+                    for (int index = numGiven; index < numRated; index++) {
+                        mask.set(mask.rowOffset(rowIndex) + positions[index], EntryMask.TEST);
                     }
                 }
-            }
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 
@@ -176,33 +142,14 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
      */
     public void getGivenNByUserDate(int numGiven) {
         if (numGiven > 0) {
-
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-                SequentialSparseVector itemRatingVector = preferenceMatrix.row(rowIndex);
-                if (itemRatingVector.getNumEntries() < 1) {
-                    continue;
-                }
-                List<RatingContext> itemRatingList = new ArrayList<>(itemRatingVector.getNumEntries());
-
-                for (Vector.VectorEntry vectorEntry : itemRatingVector) {
-                    itemRatingList.add(new RatingContext(rowIndex, vectorEntry.position(), (long) vectorEntry.get()));
-                }
-
-                Collections.sort(itemRatingList);
-
-                for (int index = 0; index < itemRatingList.size(); index++) {
-                    if (index < numGiven) {
-                        testMatrix.setAtColumnPosition(rowIndex, itemRatingList.get(index).getItem(), 0.0D);
-                    } else {
-                        trainMatrix.setAtColumnPosition(rowIndex, itemRatingList.get(index).getItem(), 0.0D);
-                    }
+            EntryMask mask = newEntryMask();
+            mask.forEachRow(rowIndex -> {
+                int[] positions = mask.sortRowByDate(datetimeMatrix, rowIndex);
+                for (int index = numGiven; index < positions.length; index++) {
+                    mask.set(mask.rowOffset(rowIndex) + positions[index], EntryMask.TEST);
                 }
-            }
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 
@@ -216,31 +163,17 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
      */
     public void getGivenNByItem(int numGiven) throws Exception {
         if (numGiven > 0) {
-
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int columnIndex = 0, columnSize = preferenceMatrix.columnSize(); columnIndex < columnSize; columnIndex++) {
-                int numRated = preferenceMatrix.column(columnIndex).getNumEntries();
-                if (numRated > numGiven) {
-                    int[] givenPositions = Randoms.nextIntArray(numGiven, numRated);
-                    for (int testRowPosition = 0, rowPosition = 0; rowPosition < numRated; rowPosition++) {
-                        if (testRowPosition < givenPositions.length && givenPositions[testRowPosition] == rowPosition) {
-                            testMatrix.setAtRowPosition(rowPosition, columnIndex, 0.0D);
-                            testRowPosition++;
-                        } else {
-                            trainMatrix.setAtRowPosition(rowPosition, columnIndex, 0.0D);
-                        }
-                    }
-                } else {
-                    for (int rowPosition = 0; rowPosition < numRated; rowPosition++) {
-                        testMatrix.setAtRowPosition(rowPosition, columnIndex, 0.0D);
+            EntryMask mask = newEntryMask();
+            mask.forEachColumn(columnIndex -> {
+                int[] entries = mask.columnEntries(columnIndex);
+                if (entries.length > numGiven) {
+                    int[] rowPositions = EntryMask.sample(mask.random(columnIndex), entries.length, numGiven);
+                    for (int index = numGiven; index < entries.length; index++) {
+                        mask.set(entries[rowPositions[index]], EntryMask.TEST);
                     }
                 }
-            }
-
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 
@@ -253,34 +186,15 @@ public class GivenNDataSplitter extends AbstractDataSplitter {
      */
     public void getGivenNByItemDate(int numGiven) {
         if (numGiven > 0) {
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int columnIndex = 0, columnSize = preferenceMatrix.columnSize(); columnIndex < columnSize; columnIndex++) {
-                SequentialSparseVector userRatingVector = preferenceMatrix.column(columnIndex);
-
-                if (userRatingVector.getNumEntries() < 1) {
-                    continue;
+            EntryMask mask = newEntryMask();
+            mask.forEachColumn(columnIndex -> {
+                int[] entries = mask.columnEntries(columnIndex);
+                int[] rowPositions = mask.sortColumnByDate(datetimeMatrix, columnIndex);
+                for (int index = numGiven; index < rowPositions.length; index++) {
+                    mask.set(entries[rowPositions[index]], EntryMask.TEST);
                 }
-
-                List<RatingContext> ratingContexts = new ArrayList<>(userRatingVector.getNumEntries());
-
-                for (Vector.VectorEntry vectorEntry : userRatingVector) {
-                    ratingContexts.add(new RatingContext(vectorEntry.position(), columnIndex,
-                            (long) datetimeMatrix.getAtRowPosition(vectorEntry.position(), columnIndex)));
-                }
-
-                Collections.sort(ratingContexts);
-                for (int rowPosition = 0; rowPosition < ratingContexts.size(); rowPosition++) {
-                    RatingContext ratingContext = ratingContexts.get(rowPosition);
-                    if (rowPosition < numGiven)
-                        testMatrix.setAtRowPosition(ratingContext.getUser(), columnIndex, 0.0D);
-                    else
-                        trainMatrix.setAtRowPosition(ratingContext.getUser(), columnIndex, 0.0D);
-                }
-            }
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 }
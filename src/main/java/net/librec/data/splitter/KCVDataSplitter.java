@@ -17,19 +17,16 @@
  */
 package net.librec.data.splitter;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.data.convertor.ArffDataConvertor;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
-import net.librec.util.Lists;
 import org.apache.commons.lang.StringUtils;
 
-import java.util.*;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 
 /**
  * K-fold Cross Validation Data Splitter
@@ -44,9 +41,9 @@ public class KCVDataSplitter extends AbstractDataSplitter {
 //    private SparseMatrix preferenceMatrix;
 
     /**
-     * The assign matrix for k-fold splitting
+     * The fold (1 to k) of each entry of the preference matrix
      */
-    private SequentialAccessSparseMatrix assignMatrix;
+    private EntryMask foldMask;
 
     /**
      * The number of folds
@@ -98,44 +95,27 @@ public class KCVDataSplitter extends AbstractDataSplitter {
         }
 
         if (kFold > 0) {
-            assignMatrix = preferenceMatrix.clone();
             int numRates = preferenceMatrix.getNumEntries();
-            int numFold = kFold > numRates ? numRates : kFold;
-
-            // divide rating data into kfold sample of equal size
-            List<Map.Entry<Integer, Double>> rdm = new ArrayList<>(numRates);
-            double indvCount = (numRates + 0.0) / numFold;
-            for (int index = 0; index < numRates; index++) {
-                rdm.add(new AbstractMap.SimpleImmutableEntry<>((int) (index / indvCount) + 1, Randoms.uniform()));
+            cvNumber = kFold > numRates ? numRates : kFold;
+            if (cvNumber > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("At most " + Byte.MAX_VALUE + " folds are supported, got " + cvNumber);
             }
 
-            int[] fold = new int[numRates];
-            Lists.sortList(rdm, true);
+            // divide rating data into kfold sample of equal size, then shuffle the fold ids
+            foldMask = newEntryMask();
+            double indvCount = (numRates + 0.0) / cvNumber;
             for (int index = 0; index < numRates; index++) {
-                fold[index] = rdm.get(index).getKey();
-            }
-
-            int i = 0;
-            for (MatrixEntry matrixEntry : assignMatrix) {
-                assignMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), fold[i++]);
-            }
-        }
-
-        if (null == assignMatrixList) {
-            List<Table<Integer, Integer, Integer>> tableList = new ArrayList<>(kFold + 1);
-            for (int i = 0; i < kFold + 1; i++) {
-                tableList.add(HashBasedTable.create());
-            }
-            for (MatrixEntry me : assignMatrix) {
-                if (me.get() != 0) {
-                    tableList.get((int) me.get()).put(me.row(), me.column(), 1);
-                }
+                foldMask.set(index, (byte) ((int) (index / indvCount) + 1));
             }
-
-            this.assignMatrixList = new LinkedList<>();
-            for (int i = 1; i < kFold + 1; i++) {
-                this.assignMatrixList.add(new SequentialAccessSparseMatrix(assignMatrix.rowSize(), assignMatrix.columnSize(), tableList.get(i)));
+            Random random = foldMask.random(-1);
+            for (int index = numRates - 1; index > 0; index--) {
+                int swapIndex = random.nextInt(index + 1);
+                byte temp = foldMask.get(index);
+                foldMask.set(index, foldMask.get(swapIndex));
+                foldMask.set(swapIndex, temp);
             }
+            cvIndex = 0;
+            assignMatrixList = null;
         }
     }
 
@@ -146,13 +126,46 @@ public class KCVDataSplitter extends AbstractDataSplitter {
      */
     @Override
     public void splitData() throws LibrecException {
-        this.cvNumber = conf.getInt("data.splitter.cv.number", 5);
-        if (null == assignMatrix) {
-            splitData(this.cvNumber);
+        // the fold count of an existing mask is the one it was built with
+        if (null == foldMask) {
+            splitData(conf.getInt("data.splitter.cv.number", 5));
+        }
+    }
+
+    /**
+     * Move to the next fold, whose entries become the test data and all other entries the train data.
+     *
+     * @return true if there is a next fold
+     */
+    @Override
+    public boolean nextFold() {
+        if (null == foldMask) {
+            return super.nextFold();
+        }
+        if (cvIndex >= cvNumber) {
+            return false;
         }
+        cvIndex++;
+        // release the previous fold before building the next one
+        trainMatrix = null;
+        testMatrix = null;
+        trainMatrix = foldMask.toMatrix((byte) cvIndex, false, false);
+        testMatrix = foldMask.toMatrix((byte) cvIndex, true, false);
+        return true;
     }
 
+    /**
+     * Build the assign matrix of each fold, in which the entries of the fold are 1.
+     *
+     * @return the assign matrices of all folds
+     */
     public List<SequentialAccessSparseMatrix> getAssignMatrixList() {
+        if (null == this.assignMatrixList && null != foldMask) {
+            this.assignMatrixList = new LinkedList<>();
+            for (int fold = 1; fold <= cvNumber; fold++) {
+                this.assignMatrixList.add(foldMask.toMatrix((byte) fold, true, true));
+            }
+        }
         return this.assignMatrixList;
     }
 }
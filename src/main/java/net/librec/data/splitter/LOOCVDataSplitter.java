@@ -17,23 +17,12 @@
  */
 package net.librec.data.splitter;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.data.convertor.ArffDataConvertor;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.SequentialAccessSparseMatrix;
-import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.Vector;
-import net.librec.util.RatingContext;
 import org.apache.commons.lang.StringUtils;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 /**
  * Leave one out Splitter<br>
  * Leave random or the last one user/item out as test set and the rest treated<br>
@@ -43,16 +32,6 @@ import java.util.List;
  */
 public class LOOCVDataSplitter extends AbstractDataSplitter {
 
-    /**
-     * The rate dataset for splitting
-     */
-    private SequentialAccessSparseMatrix preferenceMatrix;
-
-    /**
-     * The datetime dataset for splitting
-     */
-    private SequentialAccessSparseMatrix datetimeMatrix;
-
     /**
      * wrap kcv into leave-one-out if leave every rate out
      */
@@ -143,25 +122,14 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
      * the test set and the remaining data as the training set.
      */
     public void getLOOByUser() {
-        trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-
-        for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-            int numColumnEntries = preferenceMatrix.row(rowIndex).getNumEntries();
-            if (numColumnEntries == 0){
-                continue;
+        EntryMask mask = newEntryMask();
+        mask.forEachRow(rowIndex -> {
+            int numColumnEntries = mask.rowLength(rowIndex);
+            if (numColumnEntries > 0) {
+                mask.set(mask.rowOffset(rowIndex) + mask.random(rowIndex).nextInt(numColumnEntries), EntryMask.TEST);
             }
-            int randomRowPosition = (int) (numColumnEntries * Randoms.uniform());
-            this.preferenceMatrix = dataConvertor.getPreferenceMatrix();
-
-            trainMatrix.setAtColumnPosition(rowIndex, randomRowPosition, 0.0D);
-
-            dataTable.put(rowIndex, preferenceMatrix.row(rowIndex).getIndexAtPosition(randomRowPosition),
-                    preferenceMatrix.getAtColumnPosition(rowIndex, randomRowPosition));
-        }
-
-        trainMatrix.reshape();
-        testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix.rowSize(), preferenceMatrix.columnSize(), dataTable);
+        });
+        applyEntryMask(mask, false);
     }
 
     /**
@@ -169,28 +137,14 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
      * preserved as the test set and the remaining data as the training set.
      */
     public void getLOOByUserDate() {
-        trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-
-        for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-            SequentialSparseVector itemRatingVector = preferenceMatrix.row(rowIndex);
-            if (itemRatingVector.getNumEntries() == 0){
-                continue;
-            }
-
-            List<RatingContext> ratingContexts = new ArrayList<>(itemRatingVector.getNumEntries());
-            for (Vector.VectorEntry vectorEntry: itemRatingVector) {
-                ratingContexts.add(new RatingContext(rowIndex, vectorEntry.position(),
-                        (long) datetimeMatrix.getAtColumnPosition(rowIndex, vectorEntry.position())));
+        EntryMask mask = newEntryMask();
+        mask.forEachRow(rowIndex -> {
+            int[] positions = mask.sortRowByDate(datetimeMatrix, rowIndex);
+            if (positions.length > 0) {
+                mask.set(mask.rowOffset(rowIndex) + positions[positions.length - 1], EntryMask.TEST);
             }
-            Collections.sort(ratingContexts);
-            int columnPosition = ratingContexts.get(ratingContexts.size() - 1).getItem();
-            trainMatrix.setAtColumnPosition(rowIndex, columnPosition, 0.0D);
-            dataTable.put(rowIndex, preferenceMatrix.row(rowIndex).getIndexAtPosition(columnPosition),
-                    preferenceMatrix.getAtColumnPosition(rowIndex, columnPosition));
-        }
-        trainMatrix.reshape();
-        testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix.rowSize(), preferenceMatrix.columnSize(), dataTable);
+        });
+        applyEntryMask(mask, false);
     }
 
     /**
@@ -198,24 +152,14 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
      * the test set and the remaining data as the training set.
      */
     public void getLOOByItems() {
-        trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-
-        for (int columnIndex = 0, columnSize = preferenceMatrix.columnSize(); columnIndex < columnSize; columnIndex++) {
-            int numRowEntries = preferenceMatrix.column(columnIndex).getNumEntries();
-            if (numRowEntries == 0){
-                continue;
+        EntryMask mask = newEntryMask();
+        mask.forEachColumn(columnIndex -> {
+            int[] entries = mask.columnEntries(columnIndex);
+            if (entries.length > 0) {
+                mask.set(entries[mask.random(columnIndex).nextInt(entries.length)], EntryMask.TEST);
             }
-            int randomRowPosition = (int) (numRowEntries * Randoms.uniform());
-
-            trainMatrix.setAtRowPosition(randomRowPosition, columnIndex, 0.0D);
-            dataTable.put(preferenceMatrix.column(columnIndex).getIndexAtPosition(randomRowPosition),
-                    columnIndex, preferenceMatrix.getAtRowPosition(randomRowPosition, columnIndex));
-        }
-
-        trainMatrix.reshape();
-        testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix.rowSize(), preferenceMatrix.columnSize(), dataTable);
+        });
+        applyEntryMask(mask, false);
     }
 
     /**
@@ -223,31 +167,15 @@ public class LOOCVDataSplitter extends AbstractDataSplitter {
      * preserved as the test set and the remaining data as the training set.
      */
     public void getLooByItemsDate() {
-        trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-
-        for (int columnIndex = 0, columnSize = preferenceMatrix.columnSize(); columnIndex < columnSize; columnIndex++) {
-            SequentialSparseVector userRatingVector = preferenceMatrix.column(columnIndex);
-            if (userRatingVector.getNumEntries() == 0){
-                continue;
-            }
-
-            List<RatingContext> ratingContexts = new ArrayList<>();
-            for (Vector.VectorEntry vectorEntry : userRatingVector) {
-                ratingContexts.add(new RatingContext(vectorEntry.position(), columnIndex,
-                        (long) datetimeMatrix.getAtRowPosition(vectorEntry.position(), columnIndex)));
+        EntryMask mask = newEntryMask();
+        mask.forEachColumn(columnIndex -> {
+            int[] entries = mask.columnEntries(columnIndex);
+            int[] rowPositions = mask.sortColumnByDate(datetimeMatrix, columnIndex);
+            if (rowPositions.length > 0) {
+                mask.set(entries[rowPositions[rowPositions.length - 1]], EntryMask.TEST);
             }
-            Collections.sort(ratingContexts);
-            int rowPosition = ratingContexts.get(ratingContexts.size() - 1).getUser();
-
-            trainMatrix.setAtRowPosition(rowPosition, columnIndex, 0.0D);
-            dataTable.put(preferenceMatrix.column(columnIndex).getIndexAtPosition(rowPosition), columnIndex,
-                    preferenceMatrix.getAtRowPosition(rowPosition, columnIndex));
-        }
-
-        trainMatrix.reshape();
-        testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix.rowSize(), preferenceMatrix.columnSize(), dataTable);
+        });
+        applyEntryMask(mask, false);
     }
 
 }
@@ -21,17 +21,9 @@ import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataConvertor;
 import net.librec.data.convertor.ArffDataConvertor;
-import net.librec.math.algorithm.Randoms;
-import net.librec.math.structure.MatrixEntry;
-import net.librec.math.structure.SequentialAccessSparseMatrix;
-import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.Vector;
-import net.librec.util.RatingContext;
 import org.apache.commons.lang.StringUtils;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Random;
 
 /**
  * Ratio Data Splitter.<br>
@@ -41,12 +33,6 @@ import java.util.List;
  */
 public class RatioDataSplitter extends AbstractDataSplitter {
 
-
-    /**
-     * The datetime dataset for splitting
-     */
-    private SequentialAccessSparseMatrix datetimeMatrix;
-
     /**
      * Empty constructor.
      */
@@ -135,23 +121,14 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      */
     public void getRatioByRating(double ratio) {
         if (ratio > 0 && ratio < 1) {
-
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (MatrixEntry matrixEntry : preferenceMatrix) {
-
-                double rdm = Randoms.uniform();
-
-                if (rdm < ratio) {
-                    testMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                } else {
-                    trainMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
+            EntryMask mask = newEntryMask();
+            mask.forEachRow(rowIndex -> {
+                Random random = mask.random(rowIndex);
+                for (int entry = mask.rowOffset(rowIndex), end = entry + mask.rowLength(rowIndex); entry < end; entry++) {
+                    mask.set(entry, random.nextDouble() < ratio ? EntryMask.TRAIN : EntryMask.TEST);
                 }
-            }
-
-            testMatrix.reshape();
-            trainMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 
@@ -163,31 +140,13 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      */
     public void getRatioByRatingDate(double ratio) {
         if (ratio > 0 && ratio < 1) {
-
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            List<RatingContext> ratingContexts = new ArrayList<>(datetimeMatrix.size());
-            for (MatrixEntry matrixEntry : preferenceMatrix) {
-                ratingContexts.add(new RatingContext(matrixEntry.row(), matrixEntry.columnPosition(),
-                        (long) datetimeMatrix.getAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition())));
-            }
-            Collections.sort(ratingContexts);
-
-            int trainSize = (int) (ratingContexts.size() * ratio);
-            for (int index = 0; index < ratingContexts.size(); index++) {
-                RatingContext rc = ratingContexts.get(index);
-                int rowIndex = rc.getUser();
-                int columnPosition = rc.getItem();
-
-                if (index < trainSize)
-                    testMatrix.setAtColumnPosition(rowIndex, columnPosition, 0.0D);
-                else
-                    trainMatrix.setAtColumnPosition(rowIndex, columnPosition, 0.0D);
+            EntryMask mask = newEntryMask();
+            int[] entries = mask.sortByDate(datetimeMatrix);
+            int trainSize = (int) (entries.length * ratio);
+            for (int index = trainSize; index < entries.length; index++) {
+                mask.set(entries[index], EntryMask.TEST);
             }
-
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            applyEntryMask(mask, false);
         }
     }
 
@@ -199,22 +158,7 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      * @param ratio the ratio of training data
      */
     public void getRatioByUser(double ratio) {
-        if (ratio > 0 && ratio < 1) {
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-                for (Vector.VectorEntry vectorEntry : preferenceMatrix.row(rowIndex)) {
-                    if (Randoms.uniform() < ratio) {
-                        testMatrix.setAtColumnPosition(rowIndex, vectorEntry.position(), 0.0D);
-                    } else {
-                        trainMatrix.setAtColumnPosition(rowIndex, vectorEntry.position(), 0.0D);
-                    }
-                }
-            }
-        }
-        testMatrix.reshape();
-        trainMatrix.reshape();
+        getRatioByRating(ratio);
     }
 
 
@@ -227,38 +171,21 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      * @param ratio the ratio of training data
      */
     public void getFixedRatioByUser(double ratio) {
-
         if (ratio > 0 && ratio < 1) {
-
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-                int numRated = preferenceMatrix.row(rowIndex).getNumEntries();
-
+            EntryMask mask = newEntryMask();
+            mask.forEachRow(rowIndex -> {
+                int numRated = mask.rowLength(rowIndex);
                 // k is the test set, this will be smaller, so we want these indices in the list
                 int numRatio = (int) Math.floor(numRated * (1 - ratio));
                 if (numRatio < 1) {
-                    continue;
+                    return;
                 }
-                try {
-                    int[] givenPositions = Randoms.nextIntArray(numRatio, numRated);
-
-                    for (int testColumnPosition = 0, columnPosition = 0; columnPosition < numRated; columnPosition++) {
-                        if (testColumnPosition < givenPositions.length && givenPositions[testColumnPosition] == columnPosition) {
-                            testMatrix.setAtColumnPosition(rowIndex, testColumnPosition, 0.0D);
-                            testColumnPosition++;
-                        } else {
-                            trainMatrix.setAtColumnPosition(rowIndex, testColumnPosition, 0.0D);
-                        }
-                    }
-                } catch (java.lang.Exception e) {
-                    LOG.error("This error should not happen because k cannot be outside of the range if ratio is " + ratio);
+                int[] positions = EntryMask.sample(mask.random(rowIndex), numRated, numRatio);
+                for (int index = 0; index < numRatio; index++) {
+                    mask.set(mask.rowOffset(rowIndex) + positions[index], EntryMask.TEST);
                 }
-            }
-
-            testMatrix.reshape();
-            trainMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 
@@ -269,36 +196,16 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      * @param ratio the ratio of train data
      */
     public void getRatioByUserDate(double ratio) {
-
         if (ratio > 0 && ratio < 1) {
-
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-                SequentialSparseVector itemRatingVector = preferenceMatrix.row(rowIndex);
-                if (itemRatingVector.getNumEntries() < 1) {
-                    continue;
-                }
-                List<RatingContext> itemRatingList = new ArrayList<>(itemRatingVector.getNumEntries());
-
-                for (Vector.VectorEntry vectorEntry : itemRatingVector) {
-                    itemRatingList.add(new RatingContext(rowIndex, vectorEntry.position(), (long) vectorEntry.get()));
-                }
-                int trainSize = (int) (itemRatingList.size() * ratio);
-
-                Collections.sort(itemRatingList);
-
-                for (int index = 0; index < itemRatingList.size(); index++) {
-                    if (index < trainSize) {
-                        testMatrix.setAtColumnPosition(rowIndex, itemRatingList.get(index).getItem(), 0.0D);
-                    } else {
-                        trainMatrix.setAtColumnPosition(rowIndex, itemRatingList.get(index).getItem(), 0.0D);
-                    }
+            EntryMask mask = newEntryMask();
+            mask.forEachRow(rowIndex -> {
+                int[] positions = mask.sortRowByDate(datetimeMatrix, rowIndex);
+                int trainSize = (int) (positions.length * ratio);
+                for (int index = trainSize; index < positions.length; index++) {
+                    mask.set(mask.rowOffset(rowIndex) + positions[index], EntryMask.TEST);
                 }
-            }
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 
@@ -310,23 +217,15 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      * @param ratio the ratio of training data
      */
     public void getRatioByItem(double ratio) {
-
         if (ratio > 0 && ratio < 1) {
-
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int columnIndex = 0, columnSize = preferenceMatrix.columnSize(); columnIndex < columnSize; columnIndex++) {
-                for (Vector.VectorEntry vectorEntry : preferenceMatrix.column(columnIndex)) {
-                    if (Randoms.uniform() < ratio) {
-                        testMatrix.setAtRowPosition(vectorEntry.position(), columnIndex, 0.0D);
-                    } else {
-                        trainMatrix.setAtRowPosition(vectorEntry.position(), columnIndex, 0.0D);
-                    }
+            EntryMask mask = newEntryMask();
+            mask.forEachColumn(columnIndex -> {
+                Random random = mask.random(columnIndex);
+                for (int entry : mask.columnEntries(columnIndex)) {
+                    mask.set(entry, random.nextDouble() < ratio ? EntryMask.TRAIN : EntryMask.TEST);
                 }
-            }
-            trainMatrix.reshape();
-            testMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 
@@ -337,39 +236,17 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      * @param ratio the ratio of training data
      */
     public void getRatioByItemDate(double ratio) {
-
         if (ratio > 0 && ratio < 1) {
-
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-            for (int columnIndex = 0, columnSize = preferenceMatrix.columnSize(); columnIndex < columnSize; columnIndex++) {
-                SequentialSparseVector userRatingVector = preferenceMatrix.column(columnIndex);
-
-                if (userRatingVector.getNumEntries() < 1) {
-                    continue;
-                }
-
-                List<RatingContext> ratingContexts = new ArrayList<>(userRatingVector.getNumEntries());
-
-                for (Vector.VectorEntry vectorEntry : userRatingVector) {
-                    ratingContexts.add(new RatingContext(vectorEntry.position(), columnIndex,
-                            (long) datetimeMatrix.getAtRowPosition(vectorEntry.position(), columnIndex)));
-                }
-
-                Collections.sort(ratingContexts);
-                int trainSize = (int) (ratingContexts.size() * ratio);
-
-                for (int rowPosition = 0; rowPosition < ratingContexts.size(); rowPosition++) {
-                    RatingContext ratingContext = ratingContexts.get(rowPosition);
-                    if (rowPosition < trainSize)
-                        testMatrix.setAtRowPosition(ratingContext.getUser(), columnIndex, 0.0D);
-                    else
-                        trainMatrix.setAtRowPosition(ratingContext.getUser(), columnIndex, 0.0D);
+            EntryMask mask = newEntryMask();
+            mask.forEachColumn(columnIndex -> {
+                int[] entries = mask.columnEntries(columnIndex);
+                int[] rowPositions = mask.sortColumnByDate(datetimeMatrix, columnIndex);
+                int trainSize = (int) (rowPositions.length * ratio);
+                for (int index = trainSize; index < rowPositions.length; index++) {
+                    mask.set(entries[rowPositions[index]], EntryMask.TEST);
                 }
-            }
-            testMatrix.reshape();
-            trainMatrix.reshape();
+            });
+            applyEntryMask(mask, false);
         }
     }
 
@@ -382,33 +259,21 @@ public class RatioDataSplitter extends AbstractDataSplitter {
      */
     public void getRatio(double trainRatio, double validationRatio) {
         if ((trainRatio > 0 && validationRatio > 0) && (trainRatio + validationRatio) < 1) {
-
-            trainMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            validationMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-            testMatrix = new SequentialAccessSparseMatrix(preferenceMatrix);
-
-//            for (int rowIndex = 0, rowSize = preferenceMatrix.rowSize(); rowIndex < rowSize; rowIndex++) {
-//                SequentialAccessSparseVector userRatingVector = preferenceMatrix.row(rowIndex);
-            for (MatrixEntry matrixEntry : preferenceMatrix) {
-                double rdm = Randoms.uniform();
-                if (rdm < trainRatio) {
-                    // training
-                    validationMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                    testMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                } else if (rdm < trainRatio + validationRatio) {
-                    // validation
-                    trainMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                    testMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                } else {
-                    // test
-                    trainMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
-                    validationMatrix.setAtColumnPosition(matrixEntry.row(), matrixEntry.columnPosition(), 0.0D);
+            EntryMask mask = newEntryMask();
+            mask.forEachRow(rowIndex -> {
+                Random random = mask.random(rowIndex);
+                for (int entry = mask.rowOffset(rowIndex), end = entry + mask.rowLength(rowIndex); entry < end; entry++) {
+                    double rdm = random.nextDouble();
+                    if (rdm < trainRatio) {
+                        mask.set(entry, EntryMask.TRAIN);
+                    } else if (rdm < trainRatio + validationRatio) {
+                        mask.set(entry, EntryMask.VALID);
+                    } else {
+                        mask.set(entry, EntryMask.TEST);
+                    }
                 }
-            }
-
-            trainMatrix.reshape();
-            validationMatrix.reshape();
-            testMatrix.reshape();
+            });
+            applyEntryMask(mask, true);
         }
     }
 }
\ No newline at end of file
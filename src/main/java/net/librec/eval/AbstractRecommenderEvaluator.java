@@ -19,6 +19,7 @@ package net.librec.eval;
 
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
 import net.librec.math.structure.SymmMatrix;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.RecommendedList;
@@ -53,6 +54,11 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
      * all similarity maps
      */
     protected Map<String, RecommenderSimilarity> similarities;
+    /**
+     * statistics of the train and test sets of the current evaluation, null outside of an evaluation or if
+     * they are unknown
+     */
+    protected EvalStatistics evalStatistics;
 
     /**
      * Evaluate on the recommender context with the recommended list.
@@ -68,7 +74,14 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
             similarityMatrix = context.getSimilarity().getSimilarityMatrix();
             similarities = context.getSimilarities();
         }
-        return evaluate(groundTruthList, recommendedList);
+        EvalStatistics statistics = null;
+        DataModel contextDataModel = context.getDataModel();
+        if (contextDataModel != null && contextDataModel.getTrainDataSet() instanceof SequentialAccessSparseMatrix
+                && contextDataModel.getTestDataSet() instanceof SequentialAccessSparseMatrix) {
+            statistics = new EvalStatistics((SequentialAccessSparseMatrix) contextDataModel.getTrainDataSet(),
+                    (SequentialAccessSparseMatrix) contextDataModel.getTestDataSet());
+        }
+        return evaluate(groundTruthList, recommendedList, statistics != null ? statistics : EvalStatistics.of(conf));
     }
 
     public double evaluate(EvalContext evalContext){
@@ -81,7 +94,21 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
         if (evalContext.getSimilarities() != null){
             similarities = evalContext.getSimilarities();
         }
-        return evaluate(evalContext.getGroundTruthList(), evalContext.getRecommendedList());
+        return evaluate(evalContext.getGroundTruthList(), evalContext.getRecommendedList(),
+                evalContext.getEvalStatistics());
+    }
+
+    /**
+     * Evaluate with the statistics of one evaluation, which are not kept after it.
+     */
+    private double evaluate(RecommendedList groundTruthList, RecommendedList recommendedList,
+                            EvalStatistics statistics) {
+        evalStatistics = statistics;
+        try {
+            return evaluate(groundTruthList, recommendedList);
+        } finally {
+            evalStatistics = null;
+        }
     }
 
     /**
@@ -110,7 +137,7 @@ public abstract class AbstractRecommenderEvaluator implements RecommenderEvaluat
         this.conf = conf;
         this.topN = conf != null ? conf.getInt("rec.recommender.ranking.topn", -1): -1;
         RecommendedList[] lists = groundTruthList.joinTransform(recommendedList, topN);
-        return evaluate(lists[0], lists[1]);
+        return evaluate(lists[0], lists[1], EvalStatistics.of(conf));
     }
 
     /**
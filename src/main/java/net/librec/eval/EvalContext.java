@@ -3,6 +3,7 @@ package net.librec.eval;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.math.structure.*;
+import net.librec.recommender.AbstractRecommender;
 import net.librec.recommender.Recommender;
 import net.librec.recommender.TensorRecommender;
 import net.librec.recommender.item.KeyValue;
@@ -24,25 +25,48 @@ public class EvalContext {
     private Map<String, RecommenderSimilarity> similarities = null;
     private Configuration conf;
     private Recommender recommender;
+    private EvalStatistics evalStatistics;
 
+    /**
+     * The statistics of the train set are read from the configuration, see {@link EvalStatistics#of(Configuration)}.
+     */
     public EvalContext(Configuration conf, RecommendedList recommendedList, SequentialAccessSparseMatrix testMatrix,
                        SymmMatrix similarityMatrix, Map<String, RecommenderSimilarity> similarities) {
-        this.conf = conf;
+        this(conf, recommendedList, testMatrix);
         this.similarities = similarities;
         this.similarityMatrix = similarityMatrix;
+    }
+
+    /**
+     * The statistics of the train set are read from the configuration, see {@link EvalStatistics#of(Configuration)}.
+     */
+    public EvalContext(Configuration conf, RecommendedList recommendedList, SequentialAccessSparseMatrix testMatrix) {
+        this.conf = conf;
         this.recommendedList = recommendedList;
         this.groundTruthList = getGroundTruthListFromSparseMatrix(testMatrix);
+        this.evalStatistics = EvalStatistics.of(conf);
     }
 
-    public EvalContext(Configuration conf, RecommendedList recommendedList, SequentialAccessSparseMatrix testMatrix) {
+    /**
+     * The statistics are computed from the train and test sets when an evaluator needs them.
+     */
+    public EvalContext(Configuration conf, RecommendedList recommendedList, SequentialAccessSparseMatrix trainMatrix,
+                       SequentialAccessSparseMatrix testMatrix) {
         this.conf = conf;
         this.recommendedList = recommendedList;
         this.groundTruthList = getGroundTruthListFromSparseMatrix(testMatrix);
+        this.evalStatistics = new EvalStatistics(trainMatrix, testMatrix);
     }
 
     public EvalContext(Configuration conf, Recommender recommender, DataSet testDataset) throws LibrecException {
         this.conf = conf;
         this.recommender = recommender;
+        if (recommender instanceof AbstractRecommender) {
+            this.evalStatistics = ((AbstractRecommender) recommender).getEvalStatistics();
+        }
+        if (this.evalStatistics == null) {
+            this.evalStatistics = EvalStatistics.of(conf);
+        }
         boolean isRanking = conf.getBoolean("rec.recommender.isranking");
         if (isRanking){
             recommendedList = recommender.recommendRank();
@@ -142,6 +166,14 @@ public class EvalContext {
         this.similarities = similarities;
     }
 
+    public EvalStatistics getEvalStatistics() {
+        return evalStatistics;
+    }
+
+    public void setEvalStatistics(EvalStatistics evalStatistics) {
+        this.evalStatistics = evalStatistics;
+    }
+
     public Configuration getConf() {
         return conf;
     }
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.conf.Configuration;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+
+import java.util.stream.IntStream;
+
+/**
+ * Evaluation Statistics<br>
+ * The per-user and per-item counts of the train and test sets which the evaluators need, e.g. the number of
+ * items not rated in the train set of each user for the AUCEvaluator and the number of purchases of each item
+ * for the NoveltyEvaluator. Each statistic is computed in parallel on its first use and then shared.
+ * <p>
+ * Without the train and test sets, the statistics can be given in the configuration as the
+ * {@code rec.eval.auc.dropped.num} and {@code rec.eval.item.purchase.num} arrays, see {@link #of(Configuration)}.
+ */
+public class EvalStatistics {
+    private final SequentialAccessSparseMatrix trainMatrix;
+    private final SequentialAccessSparseMatrix testMatrix;
+    private final int numItems;
+    private final int numCountedUsers;
+
+    private volatile int[] numDroppedItems;
+    private volatile int[] itemPurchasedCounts;
+
+    /**
+     * @param trainMatrix the train set
+     * @param testMatrix  the test set
+     */
+    public EvalStatistics(SequentialAccessSparseMatrix trainMatrix, SequentialAccessSparseMatrix testMatrix) {
+        this(trainMatrix, testMatrix, trainMatrix.columnSize(), trainMatrix.rowSize());
+    }
+
+    /**
+     * @param trainMatrix     the train set
+     * @param testMatrix      the test set
+     * @param numItems        the number of candidate items of each user
+     * @param numCountedUsers only the purchases of the users below this index are counted
+     */
+    public EvalStatistics(SequentialAccessSparseMatrix trainMatrix, SequentialAccessSparseMatrix testMatrix,
+                          int numItems, int numCountedUsers) {
+        this.trainMatrix = trainMatrix;
+        this.testMatrix = testMatrix;
+        this.numItems = numItems;
+        this.numCountedUsers = numCountedUsers;
+    }
+
+    private EvalStatistics(int[] numDroppedItems, int[] itemPurchasedCounts) {
+        this.trainMatrix = null;
+        this.testMatrix = null;
+        this.numItems = itemPurchasedCounts != null ? itemPurchasedCounts.length : 0;
+        this.numCountedUsers = 0;
+        this.numDroppedItems = numDroppedItems;
+        this.itemPurchasedCounts = itemPurchasedCounts;
+    }
+
+    /**
+     * @param conf the configuration
+     * @return the statistics of the {@code rec.eval.auc.dropped.num} and {@code rec.eval.item.purchase.num}
+     * arrays, or null if neither is set
+     */
+    public static EvalStatistics of(Configuration conf) {
+        if (conf == null) {
+            return null;
+        }
+        String numDroppedItems = conf.get("rec.eval.auc.dropped.num");
+        String itemPurchasedCounts = conf.get("rec.eval.item.purchase.num");
+        if (numDroppedItems == null && itemPurchasedCounts == null) {
+            return null;
+        }
+        return new EvalStatistics(numDroppedItems != null ? conf.getInts("rec.eval.auc.dropped.num") : null,
+                itemPurchasedCounts != null ? conf.getInts("rec.eval.item.purchase.num") : null);
+    }
+
+    /**
+     * @return the number of items not rated in the train set, by user, or null if it is unknown
+     */
+    public int[] getNumDroppedItems() {
+        int[] result = numDroppedItems;
+        if (result == null && trainMatrix != null) {
+            synchronized (this) {
+                result = numDroppedItems;
+                if (result == null) {
+                    int[] counts = new int[trainMatrix.rowSize()];
+                    IntStream.range(0, counts.length).parallel().forEach(userIdx ->
+                            counts[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries());
+                    numDroppedItems = result = counts;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of users who rated the item in the train or the test set, by item, or null if it is
+     * unknown
+     */
+    public int[] getItemPurchasedCounts() {
+        int[] result = itemPurchasedCounts;
+        if (result == null && trainMatrix != null) {
+            synchronized (this) {
+                result = itemPurchasedCounts;
+                if (result == null) {
+                    int[] counts = new int[numItems];
+                    IntStream.range(0, numItems).parallel().forEach(itemIdx ->
+                            counts[itemIdx] = countUsers(trainMatrix, itemIdx) + countUsers(testMatrix, itemIdx));
+                    itemPurchasedCounts = result = counts;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int countUsers(SequentialAccessSparseMatrix matrix, int itemIdx) {
+        if (numCountedUsers >= matrix.rowSize()) {
+            return matrix.column(itemIdx).getNumEntries();
+        }
+        int count = 0;
+        for (int userIdx : matrix.column(itemIdx).getIndices()) {
+            if (userIdx < numCountedUsers) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
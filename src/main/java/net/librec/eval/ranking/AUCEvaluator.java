@@ -47,10 +47,10 @@ public class AUCEvaluator extends AbstractRecommenderEvaluator {
 
         int numContext = groundTruthList.size();
         int nonZeroContext = 0;
-        int[] numDroppedArray = getConf().getInts("rec.eval.auc.dropped.num");
+        int[] numDroppedArray = evalStatistics != null ? evalStatistics.getNumDroppedItems() : null;
 
         if (numDroppedArray == null || numDroppedArray.length != numContext){
-            throw new LibrecRuntimeException("please set rec.eval.auc.dropped.num arrays, length of numDroppedArray must be cardinality of groundTruthList.");
+            throw new LibrecRuntimeException("please evaluate with the train set or set rec.eval.auc.dropped.num arrays, length of numDroppedArray must be cardinality of groundTruthList.");
         }
 
         for (int contextIdx = 0; contextIdx < numContext; ++contextIdx) {
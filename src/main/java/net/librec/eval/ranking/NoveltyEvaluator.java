@@ -17,6 +17,7 @@
  */
 package net.librec.eval.ranking;
 
+import net.librec.common.LibrecRuntimeException;
 import net.librec.eval.AbstractRecommenderEvaluator;
 import net.librec.recommender.item.KeyValue;
 import net.librec.recommender.item.RecommendedList;
@@ -64,7 +65,10 @@ public class NoveltyEvaluator extends AbstractRecommenderEvaluator {
         int numUsers = groundTruthList.size();
 
         // First collect item counts needed for estimating probabilities of the items
-        int[] itemCounts = conf.getInts("rec.eval.item.purchase.num");
+        int[] itemCounts = evalStatistics != null ? evalStatistics.getItemPurchasedCounts() : null;
+        if (itemCounts == null) {
+            throw new LibrecRuntimeException("please evaluate with the train set or set rec.eval.item.purchase.num arrays.");
+        }
 
         double sumInformation = 0;
         for (int contextIdx = 0; contextIdx < numUsers; contextIdx++) {
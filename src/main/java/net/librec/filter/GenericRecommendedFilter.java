@@ -18,9 +18,9 @@
 package net.librec.filter;
 
 import net.librec.recommender.item.RecommendedItem;
-import org.apache.commons.lang.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -50,39 +50,19 @@ public class GenericRecommendedFilter implements RecommendedFilter {
     public List<RecommendedItem> filter(List<RecommendedItem> recommendedList) {
         if (recommendedList != null && recommendedList.size() > 0) {
             if ((userIdList != null && userIdList.size() > 0) || (itemIdList != null && itemIdList.size() > 0)) {
-                Set<RecommendedItem> filterRecommendedSet = new HashSet<>();
-                filter(userIdList, recommendedList, filterRecommendedSet, "user");
-                filter(itemIdList, recommendedList, filterRecommendedSet, "item");
-                return new ArrayList<>(filterRecommendedSet);
-            }
-        }
-        return recommendedList;
-    }
-
-    /**
-     * filter the recommended list by specified type of the filter.
-     *
-     * @param filterIdList         filter id list
-     * @param recommendedList      recommended item list
-     * @param filterRecommendedSet filter recommended set
-     * @param filterType           type of the filter
-     */
-    private void filter(List<String> filterIdList, List<RecommendedItem> recommendedList, Set<RecommendedItem> filterRecommendedSet, String filterType) {
-        if (filterIdList != null && filterIdList.size() > 0) {
-            for (String filterId : filterIdList) {
+                Set<String> userIdSet = userIdList != null ? new HashSet<>(userIdList) : Collections.emptySet();
+                Set<String> itemIdSet = itemIdList != null ? new HashSet<>(itemIdList) : Collections.emptySet();
+                List<RecommendedItem> filterRecommendedList = new ArrayList<>();
                 for (RecommendedItem recommendedItem : recommendedList) {
-                    String recommendedId = null;
-                    if (StringUtils.equals("user", filterType)) {
-                        recommendedId = recommendedItem.getUserId();
-                    } else if (StringUtils.equals("item", filterType)) {
-                        recommendedId = recommendedItem.getItemId();
-                    }
-                    if (StringUtils.equals(filterId, recommendedId)) {
-                        filterRecommendedSet.add(recommendedItem);
+                    if (userIdSet.contains(recommendedItem.getUserId())
+                            || itemIdSet.contains(recommendedItem.getItemId())) {
+                        filterRecommendedList.add(recommendedItem);
                     }
                 }
+                return filterRecommendedList;
             }
         }
+        return recommendedList;
     }
 
     /**
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.filter;
+
+import com.google.common.collect.BiMap;
+import net.librec.conf.Configuration;
+import net.librec.recommender.item.RecommendedItem;
+import net.librec.recommender.item.RecommendedItemList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Indexed Recommended Filter<br>
+ * Compiles user and item allow-lists, deny-lists and business rules into bitsets over the inner indices, so
+ * that a recommender can skip the excluded candidates before scoring them. A {@code null} bitset accepts
+ * every index.
+ * <p>
+ * The filter is built before the recommendation and then only read, so it can be shared by concurrent
+ * scoring threads.
+ */
+public class IndexedRecommendedFilter implements RecommendedFilter {
+    private final BiMap<String, Integer> userMappingData;
+    private final BiMap<String, Integer> itemMappingData;
+
+    /**
+     * accepted users
+     */
+    private BitSet users;
+
+    /**
+     * accepted items
+     */
+    private BitSet items;
+
+    /**
+     * Initializes a filter which accepts every user and item.
+     *
+     * @param userMappingData the user raw id to inner index mapping
+     * @param itemMappingData the item raw id to inner index mapping
+     */
+    public IndexedRecommendedFilter(BiMap<String, Integer> userMappingData, BiMap<String, Integer> itemMappingData) {
+        this.userMappingData = userMappingData;
+        this.itemMappingData = itemMappingData;
+    }
+
+    /**
+     * Build the filter from the configuration keys {@code rec.filter.user.allow}, {@code rec.filter.user.deny},
+     * {@code rec.filter.item.allow} and {@code rec.filter.item.deny}, each a comma separated list of raw ids.
+     *
+     * @param conf            the configuration
+     * @param userMappingData the user raw id to inner index mapping
+     * @param itemMappingData the item raw id to inner index mapping
+     * @return the filter, or null if none of the keys is set
+     */
+    public static IndexedRecommendedFilter build(Configuration conf, BiMap<String, Integer> userMappingData,
+                                                 BiMap<String, Integer> itemMappingData) {
+        String[] allowUsers = getIds(conf, "rec.filter.user.allow");
+        String[] denyUsers = getIds(conf, "rec.filter.user.deny");
+        String[] allowItems = getIds(conf, "rec.filter.item.allow");
+        String[] denyItems = getIds(conf, "rec.filter.item.deny");
+        if (allowUsers == null && denyUsers == null && allowItems == null && denyItems == null) {
+            return null;
+        }
+        IndexedRecommendedFilter filter = new IndexedRecommendedFilter(userMappingData, itemMappingData);
+        if (allowUsers != null) {
+            filter.allowUsers(allowUsers);
+        }
+        if (denyUsers != null) {
+            filter.denyUsers(denyUsers);
+        }
+        if (allowItems != null) {
+            filter.allowItems(allowItems);
+        }
+        if (denyItems != null) {
+            filter.denyItems(denyItems);
+        }
+        return filter;
+    }
+
+    /**
+     * Only accept the listed users, among the users accepted so far. Unknown ids are ignored.
+     *
+     * @param userIds the raw user ids
+     * @return this filter
+     */
+    public IndexedRecommendedFilter allowUsers(String... userIds) {
+        users = allow(users, userMappingData, userIds);
+        return this;
+    }
+
+    /**
+     * Reject the listed users. Unknown ids are ignored.
+     *
+     * @param userIds the raw user ids
+     * @return this filter
+     */
+    public IndexedRecommendedFilter denyUsers(String... userIds) {
+        users = deny(users, userMappingData, userIds);
+        return this;
+    }
+
+    /**
+     * Only accept the listed items, among the items accepted so far. Unknown ids are ignored.
+     *
+     * @param itemIds the raw item ids
+     * @return this filter
+     */
+    public IndexedRecommendedFilter allowItems(String... itemIds) {
+        items = allow(items, itemMappingData, itemIds);
+        return this;
+    }
+
+    /**
+     * Reject the listed items. Unknown ids are ignored.
+     *
+     * @param itemIds the raw item ids
+     * @return this filter
+     */
+    public IndexedRecommendedFilter denyItems(String... itemIds) {
+        items = deny(items, itemMappingData, itemIds);
+        return this;
+    }
+
+    /**
+     * Only accept the users which satisfy a rule. The rule is evaluated once per user, here.
+     *
+     * @param rule the rule on the inner user index
+     * @return this filter
+     */
+    public IndexedRecommendedFilter filterUsers(IntPredicate rule) {
+        users = retain(users, userMappingData.size(), rule);
+        return this;
+    }
+
+    /**
+     * Only accept the items which satisfy a rule. The rule is evaluated once per item, here.
+     *
+     * @param rule the rule on the inner item index
+     * @return this filter
+     */
+    public IndexedRecommendedFilter filterItems(IntPredicate rule) {
+        items = retain(items, itemMappingData.size(), rule);
+        return this;
+    }
+
+    /**
+     * @param userIdx the inner user index
+     * @return true if the user is recommended to
+     */
+    public boolean acceptUser(int userIdx) {
+        return users == null || users.get(userIdx);
+    }
+
+    /**
+     * @param itemIdx the inner item index
+     * @return true if the item may be recommended
+     */
+    public boolean acceptItem(int itemIdx) {
+        return items == null || items.get(itemIdx);
+    }
+
+    /**
+     * @param fromIdx the first inner item index to check
+     * @return the first accepted item index from {@code fromIdx}, or -1 if there is none
+     */
+    public int nextItem(int fromIdx) {
+        return items == null ? fromIdx : items.nextSetBit(fromIdx);
+    }
+
+    /**
+     * Filter a materialised recommended list by the same rules, with one hash lookup per id. A
+     * {@link RecommendedItemList} is filtered in place on its inner indices instead.
+     *
+     * @param recommendedList recommendedItem list to be filtered
+     * @return filtered recommendedItem list
+     */
+    @Override
+    public List<RecommendedItem> filter(List<RecommendedItem> recommendedList) {
+        if (recommendedList == null || (users == null && items == null)) {
+            return recommendedList;
+        }
+        if (recommendedList instanceof RecommendedItemList) {
+            ((RecommendedItemList) recommendedList).retainIf(
+                    (userIdx, itemIdx, value) -> acceptUser(userIdx) && acceptItem(itemIdx));
+            return recommendedList;
+        }
+        List<RecommendedItem> filteredList = new ArrayList<>(recommendedList.size());
+        for (RecommendedItem recommendedItem : recommendedList) {
+            Integer userIdx = userMappingData.get(recommendedItem.getUserId());
+            Integer itemIdx = itemMappingData.get(recommendedItem.getItemId());
+            if (userIdx != null && itemIdx != null && acceptUser(userIdx) && acceptItem(itemIdx)) {
+                filteredList.add(recommendedItem);
+            }
+        }
+        return filteredList;
+    }
+
+    private static String[] getIds(Configuration conf, String name) {
+        return conf.get(name) == null ? null : conf.getTrimmedStrings(name);
+    }
+
+    private static BitSet allow(BitSet accepted, BiMap<String, Integer> mappingData, String[] ids) {
+        BitSet listed = new BitSet(mappingData.size());
+        for (String id : ids) {
+            Integer index = mappingData.get(id);
+            if (index != null) {
+                listed.set(index);
+            }
+        }
+        if (accepted != null) {
+            listed.and(accepted);
+        }
+        return listed;
+    }
+
+    private static BitSet deny(BitSet accepted, BiMap<String, Integer> mappingData, String[] ids) {
+        if (accepted == null) {
+            accepted = new BitSet(mappingData.size());
+            accepted.set(0, mappingData.size());
+        }
+        for (String id : ids) {
+            Integer index = mappingData.get(id);
+            if (index != null) {
+                accepted.clear(index);
+            }
+        }
+        return accepted;
+    }
+
+    private static BitSet retain(BitSet accepted, int size, IntPredicate rule) {
+        if (accepted == null) {
+            accepted = new BitSet(size);
+            accepted.set(0, size);
+        }
+        for (int index = accepted.nextSetBit(0); index >= 0; index = accepted.nextSetBit(index + 1)) {
+            if (!rule.test(index)) {
+                accepted.clear(index);
+            }
+        }
+        return accepted;
+    }
+}
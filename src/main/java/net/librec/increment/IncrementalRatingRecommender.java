@@ -246,7 +246,7 @@ public abstract class IncrementalRatingRecommender extends IncrementalRecommende
     @Override
     protected void addUser(int userId) {
         if (userId > this.maxUserId){
-           this.maxItemId = userId;
+           this.maxUserId = userId;
         }
     }
 
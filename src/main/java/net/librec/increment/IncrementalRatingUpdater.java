@@ -0,0 +1,427 @@
+package net.librec.increment;
+
+import com.google.common.collect.BiMap;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.recommender.MatrixRecommender;
+import net.librec.recommender.TopNCache;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Streams rating events into an {@link IIncrementalRatingRecommender}.
+ * <p>
+ * Events are put on a bounded queue, by callers or by file tailers, and a dedicated updater thread takes them
+ * in micro-batches of at most {@code maxBatchSize} events, waiting at most {@code maxLatencyMillis} after the
+ * first event of a batch. The events of a batch are coalesced per (user, item), keeping the latest by timestamp,
+ * and applied with {@code addRatings}, {@code updateRatings} and {@code removeRatings} under a write lock.
+ * Readers go through {@link #read(SnapshotReader)} under the read lock, so they see the model either before or
+ * after a whole batch, never in between.
+ *
+ * @param <R> the type of the recommender
+ */
+public class IncrementalRatingUpdater<R extends IIncrementalRatingRecommender> implements Closeable {
+
+    private static final Log LOG = LogFactory.getLog(IncrementalRatingUpdater.class);
+
+    /**
+     * the way an event changes a rating
+     */
+    public enum EventType {
+        ADD, UPDATE, REMOVE
+    }
+
+    /**
+     * A rating event on inner user and item indices.
+     */
+    public static class RatingEvent {
+        private final int userId;
+        private final int itemId;
+        private final double rating;
+        private final long timestamp;
+        private final EventType type;
+
+        public RatingEvent(int userId, int itemId, double rating, long timestamp, EventType type) {
+            this.userId = userId;
+            this.itemId = itemId;
+            this.rating = rating;
+            this.timestamp = timestamp;
+            this.type = type;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public int getItemId() {
+            return itemId;
+        }
+
+        public double getRating() {
+            return rating;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public EventType getType() {
+            return type;
+        }
+    }
+
+    /**
+     * Reads the recommender while no batch is being applied.
+     *
+     * @param <R> the type of the recommender
+     * @param <T> the type of the result
+     */
+    public interface SnapshotReader<R, T> {
+        T read(R recommender) throws LibrecException;
+    }
+
+    /**
+     * Called under the write lock after a batch is applied, e.g. to invalidate the cached lists of its users.
+     * It is also called after a batch failed part-way, as the recommender may already hold some of its ratings.
+     */
+    public interface BatchListener {
+        void onBatch(TableMatrix addedRatings, TableMatrix updatedRatings, TableMatrix removedRatings);
+    }
+
+    private final R recommender;
+    private final BlockingQueue<RatingEvent> queue;
+    private final int maxBatchSize;
+    private final long maxLatencyMillis;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<BatchListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<Thread> tailers = new CopyOnWriteArrayList<>();
+    private Thread updater;
+    private volatile boolean running;
+
+    private volatile long version;
+    private final AtomicLong numApplied = new AtomicLong();
+    private final AtomicLong numFailedBatches = new AtomicLong();
+
+    /**
+     * @param recommender      the trained recommender
+     * @param queueCapacity    the number of events the queue holds before {@link #submit(RatingEvent)} blocks
+     * @param maxBatchSize     the maximum number of events per batch
+     * @param maxLatencyMillis the maximum time to wait for more events after the first event of a batch
+     */
+    public IncrementalRatingUpdater(R recommender, int queueCapacity, int maxBatchSize, long maxLatencyMillis) {
+        this.recommender = recommender;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLatencyMillis = Math.max(0L, maxLatencyMillis);
+    }
+
+    /**
+     * Build an updater with the queue capacity {@code rec.increment.queue.capacity} (100000 by default), the
+     * batch size {@code rec.increment.batch.size} (1000 by default) and the latency
+     * {@code rec.increment.batch.latency.ms} (1000 by default). The {@link TopNCache} of the recommender, if
+     * any, is registered as a listener, so that the cached lists of the users of each batch are invalidated.
+     *
+     * @param recommender the trained recommender
+     * @param conf        the configuration
+     * @param <R>         the type of the recommender
+     * @return the updater, not started yet
+     */
+    public static <R extends IIncrementalRatingRecommender> IncrementalRatingUpdater<R> build(R recommender,
+                                                                                               Configuration conf) {
+        IncrementalRatingUpdater<R> updater = new IncrementalRatingUpdater<>(recommender,
+                conf.getInt("rec.increment.queue.capacity", 100000), conf.getInt("rec.increment.batch.size", 1000),
+                conf.getLong("rec.increment.batch.latency.ms", 1000L));
+        if (recommender instanceof MatrixRecommender) {
+            TopNCache topNCache = ((MatrixRecommender) recommender).getTopNCache();
+            if (topNCache != null) {
+                updater.addListener(topNCache);
+            }
+        }
+        return updater;
+    }
+
+    /**
+     * Start the updater thread.
+     */
+    public synchronized void start() {
+        if (updater != null) {
+            return;
+        }
+        running = true;
+        updater = new Thread(this::runUpdater, "incremental-updater");
+        updater.setDaemon(true);
+        updater.start();
+    }
+
+    /**
+     * Put an event on the queue, waiting while the queue is full.
+     *
+     * @param event the event
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void submit(RatingEvent event) throws InterruptedException {
+        queue.put(event);
+    }
+
+    /**
+     * Put an event on the queue unless it is full.
+     *
+     * @param event the event
+     * @return true if the event was queued
+     */
+    public boolean offer(RatingEvent event) {
+        return queue.offer(event);
+    }
+
+    public void addListener(BatchListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Follow a growing text file and submit a {@link EventType#ADD} event per line. A line holds the user, the
+     * item, the rating and optionally the timestamp and the event type, separated by {@code sep}. Unknown raw
+     * ids get the next inner index of their mapping, which is locked while it changes. The tailer runs until
+     * the updater is closed, so it has to be started after {@link #start()}.
+     *
+     * @param file            the file to follow from its beginning
+     * @param sep             the regular expression of the column separator
+     * @param userMappingData the user raw id to inner index mapping
+     * @param itemMappingData the item raw id to inner index mapping
+     * @param pollMillis      the time to wait at the end of the file before reading again
+     */
+    public void tail(Path file, String sep, BiMap<String, Integer> userMappingData,
+                     BiMap<String, Integer> itemMappingData, long pollMillis) {
+        Pattern pattern = Pattern.compile(sep);
+        Thread tailer = new Thread(() -> {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file.toFile()), StandardCharsets.UTF_8)) {
+                char[] buffer = new char[1 << 16];
+                StringBuilder pending = new StringBuilder();
+                while (running && !Thread.currentThread().isInterrupted()) {
+                    int read = reader.read(buffer);
+                    if (read < 0) {
+                        Thread.sleep(pollMillis);
+                        continue;
+                    }
+                    pending.append(buffer, 0, read);
+                    // only complete lines are parsed, the rest waits for the writer to finish it
+                    int start = 0, end;
+                    while ((end = pending.indexOf("\n", start)) >= 0) {
+                        String line = pending.substring(start, end).trim();
+                        start = end + 1;
+                        if (!line.isEmpty()) {
+                            submit(parse(pattern.split(line), userMappingData, itemMappingData));
+                        }
+                    }
+                    pending.delete(0, start);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Tailing " + file + " failed", e);
+            }
+        }, "incremental-tailer-" + file.getFileName());
+        tailer.setDaemon(true);
+        tailers.add(tailer);
+        tailer.start();
+    }
+
+    private static RatingEvent parse(String[] columns, BiMap<String, Integer> userMappingData,
+                                     BiMap<String, Integer> itemMappingData) {
+        long timestamp = columns.length > 3 ? Long.parseLong(columns[3]) : System.currentTimeMillis();
+        EventType type = columns.length > 4 ? EventType.valueOf(columns[4].toUpperCase()) : EventType.ADD;
+        return new RatingEvent(innerId(columns[0], userMappingData), innerId(columns[1], itemMappingData),
+                Double.parseDouble(columns[2]), timestamp, type);
+    }
+
+    private static int innerId(String rawId, BiMap<String, Integer> mappingData) {
+        synchronized (mappingData) {
+            Integer innerId = mappingData.get(rawId);
+            if (innerId == null) {
+                innerId = mappingData.size();
+                mappingData.put(rawId, innerId);
+            }
+            return innerId;
+        }
+    }
+
+    /**
+     * Read the recommender while no batch is being applied.
+     *
+     * @param reader the reader, e.g. a prediction
+     * @param <T>    the type of the result
+     * @return the result of the reader
+     * @throws LibrecException if the reader fails
+     */
+    public <T> T read(SnapshotReader<R, T> reader) throws LibrecException {
+        lock.readLock().lock();
+        try {
+            return reader.read(recommender);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of batches applied so far, which readers can use to detect a new snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of events applied so far, before coalescing
+     */
+    public long getNumApplied() {
+        return numApplied.get();
+    }
+
+    /**
+     * @return the number of batches the recommender failed to apply
+     */
+    public long getNumFailedBatches() {
+        return numFailedBatches.get();
+    }
+
+    /**
+     * @return the number of events waiting on the queue
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Stop the tailers, apply the events still on the queue and stop the updater thread.
+     */
+    @Override
+    public void close() {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            stopping = updater;
+            updater = null;
+        }
+        for (Thread tailer : tailers) {
+            tailer.interrupt();
+        }
+        tailers.clear();
+        if (stopping != null) {
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runUpdater() {
+        List<RatingEvent> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                RatingEvent first = queue.poll(100L, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    // the latency bound does not hold back the last events when closing
+                    if (remaining <= 0 || !running) {
+                        break;
+                    }
+                    RatingEvent event = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (event == null) {
+                        break;
+                    }
+                    batch.add(event);
+                }
+                apply(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!batch.isEmpty()) {
+                apply(batch);
+            }
+        }
+    }
+
+    /**
+     * Coalesce the events of a batch per (user, item) and apply them under the write lock.
+     */
+    private void apply(List<RatingEvent> batch) {
+        Map<Long, RatingEvent> latest = new LinkedHashMap<>(batch.size() * 2);
+        for (RatingEvent event : batch) {
+            long cell = ((long) event.userId << 32) | (event.itemId & 0xFFFFFFFFL);
+            RatingEvent previous = latest.get(cell);
+            if (previous == null || event.timestamp >= previous.timestamp) {
+                latest.put(cell, event);
+            }
+        }
+        TableMatrix addedRatings = new TableMatrix();
+        TableMatrix updatedRatings = new TableMatrix();
+        TableMatrix removedRatings = new TableMatrix();
+        for (RatingEvent event : latest.values()) {
+            switch (event.type) {
+                case ADD:
+                    addedRatings.set(event.userId, event.itemId, event.rating);
+                    break;
+                case UPDATE:
+                    updatedRatings.set(event.userId, event.itemId, event.rating);
+                    break;
+                default:
+                    removedRatings.set(event.userId, event.itemId, event.rating);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (addedRatings.size() > 0) {
+                recommender.addRatings(addedRatings);
+            }
+            if (updatedRatings.size() > 0) {
+                recommender.updateRatings(updatedRatings);
+            }
+            if (removedRatings.size() > 0) {
+                recommender.removeRatings(removedRatings);
+            }
+        } catch (LibrecException | RuntimeException e) {
+            numFailedBatches.incrementAndGet();
+            LOG.error(String.format("Applying a batch of %d events failed", batch.size()), e);
+        } finally {
+            for (BatchListener listener : listeners) {
+                try {
+                    listener.onBatch(addedRatings, updatedRatings, removedRatings);
+                } catch (RuntimeException e) {
+                    LOG.error("A batch listener failed", e);
+                }
+            }
+            version++;
+            numApplied.addAndGet(batch.size());
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -135,8 +135,8 @@ public class TableMatrix {
      * @return
      */
     public double set(int itemId, double value) {
-        double previouslyValue = table.put(0, itemId, value);
-        return previouslyValue;
+        Double previouslyValue = table.put(0, itemId, value);
+        return previouslyValue == null ? 0.0d : previouslyValue;
     }
 
 
@@ -147,8 +147,8 @@ public class TableMatrix {
      * @return
      */
     public double set(int userId, int itemId, double value) {
-        double previouslyValue = table.put(userId, itemId, value);
-        return previouslyValue;
+        Double previouslyValue = table.put(userId, itemId, value);
+        return previouslyValue == null ? 0.0d : previouslyValue;
     }
 
     /***
@@ -336,11 +336,13 @@ public class TableMatrix {
      * @param initValue
      */
     public void addRow(int rowNum, double initValue){
-        int rSize = this.rowSize();
         int cSize = this.columnSize();
-        if(rowNum > rSize){
-            for(int i =0; i < cSize; i++){
-                this.set(rSize+1, i, initValue);
+        // the rows up to rowNum which are missing, so that the row of a new id is never left out
+        for(int row = this.rowSize(); row <= rowNum; row++){
+            if(!table.containsRow(row)){
+                for(int i =0; i < cSize; i++){
+                    this.set(row, i, initValue);
+                }
             }
         }
     }
@@ -213,6 +213,49 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
          }
     }
 
+    /**
+     * One SGD step on a single incremental rating, which also updates the user and item biases.
+     *
+     * @param userId     user index
+     * @param itemId     item index
+     * @param realRating the rating
+     * @throws LibrecException if error occurs
+     */
+    @Override
+    protected void iter(int userId, int itemId, double realRating) throws LibrecException {
+        double score = globalBias + userBiases.get(userId) + itemBiases.get(itemId) + TableMatrix.rowMult(userFactors, userId, itemFactors, itemId);
+        // the logistic kernel of predict(userId, itemId)
+        double sigScore = 1 / (1 + Math.exp(-score));
+        double prediction = minRating + sigScore * ratingRangeSize;
+
+        double err = realRating - prediction;
+        double gradientCommon = this.computeGradientCommon(sigScore, err);
+
+        double userRegWeight = frequencyRegularization ? regU / Math.sqrt(trainMatrix.rowSize()) : regU;
+        double itemRegWeight = frequencyRegularization ? regI / Math.sqrt(trainMatrix.columnSize()) : regI;
+
+        if (updateUsers) {
+            userBiases.add(userId, this.biasLearnReg * currentLearnrate * (gradientCommon - biasReg * userRegWeight * userBiases.get(userId)));
+        }
+        if (updateItems) {
+            itemBiases.add(itemId, this.biasLearnReg * currentLearnrate * (gradientCommon - biasReg * itemRegWeight * itemBiases.get(itemId)));
+        }
+
+        for (int f = 0; f < this.numFactors; f++) {
+            double userFactorValue = userFactors.get(userId, f);
+            double itemFactorValue = itemFactors.get(itemId, f);
+
+            if (updateUsers) {
+                double deltaU = gradientCommon * itemFactorValue - userRegWeight * userFactorValue;
+                userFactors.add(userId, f, currentLearnrate * deltaU);
+            }
+            if (updateItems) {
+                double deltaI = gradientCommon * userFactorValue - itemRegWeight * itemFactorValue;
+                itemFactors.add(itemId, f, currentLearnrate * deltaI);
+            }
+        }
+    }
+
     /**
      *
      * @param sigScore
@@ -319,14 +362,13 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
     @Override
     protected double predict(int userId, int itemId) throws LibrecException {
        double score = this.globalBias;
-       //userBiases.size ?
-       if(userId < this.numUsers){
+       if(userId < userBiases.columnSize()){
            score += userBiases.get(userId);
        }
-       if(itemId < this.numIter){
+       if(itemId < itemBiases.columnSize()){
            score += itemBiases.get(itemId);
        }
-       if(userId < userFactors.rowSize() && itemId < itemFactors.columnSize())
+       if(userId < userFactors.rowSize() && itemId < itemFactors.rowSize())
            score += TableMatrix.rowMult(userFactors, userId, itemFactors, itemId);
 
        return  (double) (this.minRating + (1 / (1 + Math.exp(-score))) * this.ratingRangeSize);
@@ -406,10 +448,12 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
      */
     @Override
     protected void addUser(int userId){
+        // the biases of the new users start at 0
+        for (int newUserId = userBiases.columnSize(); newUserId <= userId; newUserId++) {
+            userBiases.set(newUserId, 0.0d);
+        }
 
         super.addUser(userId);
-
-        userBiases.add(this.maxUserId + 1);
     }
 
     /**
@@ -418,10 +462,12 @@ public class IncrementalBiasedMFRecommender extends IncrementalSimpleMFRecommend
      */
     @Override
     protected void addItem(int itemId){
-        super.addItem(itemId);
+        // the biases of the new items start at 0
+        for (int newItemId = itemBiases.columnSize(); newItemId <= itemId; newItemId++) {
+            itemBiases.set(newItemId, 0.0d);
+        }
 
-        // resize user bias
-        itemBiases.add(this.maxItemId + 1);
+        super.addItem(itemId);
     }
 
 
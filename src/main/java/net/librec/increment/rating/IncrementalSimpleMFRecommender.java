@@ -131,12 +131,26 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
             }
             if(updateItems){
                 double deltaI = err * userFactorValue - regularization * itemFactorValue;
-                itemFactors.add(userId, f, currentLearnrate * deltaI);
+                itemFactors.add(itemId, f, currentLearnrate * deltaI);
             }
 
         }
     }
 
+    /**
+     * Fold a single new or updated rating into the factors with {@code numIter} SGD steps.
+     *
+     * @param userId     user index
+     * @param itemId     item index
+     * @param realRating the rating
+     * @throws LibrecException if error occurs
+     */
+    protected void learnRating(int userId, int itemId, double realRating) throws LibrecException {
+        for (int iter = 0; iter < this.numIter; iter++) {
+            iter(userId, itemId, realRating);
+        }
+    }
+
     /**
      *
      * @throws LibrecException
@@ -373,6 +387,9 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
             itemId = iterRatingData.getColumnKey();
             ratingValue = iterRatingData.getValue();
 
+            // fold the new rating into the factors
+            learnRating(userId, itemId, ratingValue);
+
             // ? train user or user
             //itemValues = trainMatrix.row(userId);
             //userValues = trainMatrix.column(itemId);
@@ -402,6 +419,12 @@ public class IncrementalSimpleMFRecommender extends IncrementalMFRecommender {
             userId = iterRatingData.getRowKey();
             itemId = iterRatingData.getColumnKey();
             ratingValue = iterRatingData.getValue();
+            if (userId > this.maxUserId || itemId > this.maxItemId) {
+                continue;
+            }
+
+            // fold the updated rating into the factors
+            learnRating(userId, itemId, ratingValue);
 
             // ? train user or user
             //itemValues = trainMatrix.row(userId);
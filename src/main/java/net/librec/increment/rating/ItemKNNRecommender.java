@@ -1,5 +1,328 @@
 package net.librec.increment.rating;
 
-public class ItemKNNRecommender {
+import com.google.common.collect.Table;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.librec.common.LibrecException;
+import net.librec.increment.TableMatrix;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.recommender.item.TopNList;
 
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Incremental item KNN recommender.
+ * <p>
+ * The cosine similarity of two items is computed over their common users, as {@link net.librec.similarity.CosineSimilarity}
+ * does, from sufficient statistics kept per item pair: the dot product of the common ratings, the sum of the
+ * squared ratings of each item over the common users, and the number of common users. A new, updated or
+ * removed rating of a user only changes the pairs of the rated item with the other items of that user, so a
+ * day of interactions costs the sum of the rated items of the active users instead of a rebuild of the whole
+ * similarity matrix. The top-K neighbours of an item are rebuilt lazily, the first time they are needed after
+ * one of its pairs has changed.
+ */
+public class ItemKNNRecommender extends KNNRecommender {
+
+    /**
+     * shrink the similarity of items with few common users, 0 to disable
+     */
+    protected int shrinkage;
+
+    /**
+     * the ratings of each user, keyed by item
+     */
+    protected Int2DoubleOpenHashMap[] userRatings;
+
+    /**
+     * the dot products of the common ratings of each item with its co-rated items
+     */
+    protected Int2DoubleOpenHashMap[] pairDots;
+
+    /**
+     * the sum of the squared ratings of each item over the users in common with each co-rated item
+     */
+    protected Int2DoubleOpenHashMap[] pairSquares;
+
+    /**
+     * the number of common users of each item with its co-rated items
+     */
+    protected Int2IntOpenHashMap[] pairCounts;
+
+    /**
+     * the rating sum and count of each item, for the item means
+     */
+    protected double[] itemSums;
+    protected int[] itemCounts;
+    protected double ratingSum;
+    protected long ratingCount;
+
+    /**
+     * the top-K neighbours of each item, null while they have to be rebuilt
+     */
+    protected TopNList[] neighbourLists;
+
+    public ItemKNNRecommender() {
+        super();
+    }
+
+    @Override
+    protected void setup() throws LibrecException {
+        super.setup();
+        K = conf.getInt("rec.neighbors.knn.number", K);
+        shrinkage = conf.getInt("rec.similarity.shrinkage", 0);
+    }
+
+    @Override
+    protected void trainModel() throws LibrecException {
+        userRatings = new Int2DoubleOpenHashMap[0];
+        pairDots = new Int2DoubleOpenHashMap[0];
+        pairSquares = new Int2DoubleOpenHashMap[0];
+        pairCounts = new Int2IntOpenHashMap[0];
+        itemSums = new double[0];
+        itemCounts = new int[0];
+        neighbourLists = new TopNList[0];
+        ratingSum = 0.0d;
+        ratingCount = 0L;
+        ensureUser(numUsers - 1);
+        ensureItem(numItems - 1);
+        maxUserId = numUsers - 1;
+        maxItemId = numItems - 1;
+
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            setRating(matrixEntry.row(), matrixEntry.column(), matrixEntry.get());
+        }
+    }
+
+    /**
+     * Set the rating of a user on an item and update the statistics of the pairs of the item with the other
+     * items of the user.
+     *
+     * @param userId user index
+     * @param itemId item index
+     * @param rating the new rating
+     */
+    protected void setRating(int userId, int itemId, double rating) {
+        ensureUser(userId);
+        ensureItem(itemId);
+        Int2DoubleOpenHashMap ratings = userRatings[userId];
+        boolean rated = ratings.containsKey(itemId);
+        double previous = ratings.get(itemId);
+        if (rated && previous == rating) {
+            return;
+        }
+        for (Int2DoubleMap.Entry entry : ratings.int2DoubleEntrySet()) {
+            int otherId = entry.getIntKey();
+            if (otherId == itemId) {
+                continue;
+            }
+            double otherRating = entry.getDoubleValue();
+            pairDots[itemId].addTo(otherId, (rating - previous) * otherRating);
+            pairDots[otherId].addTo(itemId, (rating - previous) * otherRating);
+            pairSquares[itemId].addTo(otherId, rating * rating - previous * previous);
+            if (!rated) {
+                pairSquares[otherId].addTo(itemId, otherRating * otherRating);
+                pairCounts[itemId].addTo(otherId, 1);
+                pairCounts[otherId].addTo(itemId, 1);
+            }
+            neighbourLists[otherId] = null;
+        }
+        neighbourLists[itemId] = null;
+
+        ratings.put(itemId, rating);
+        itemSums[itemId] += rating - previous;
+        ratingSum += rating - previous;
+        if (!rated) {
+            itemCounts[itemId]++;
+            ratingCount++;
+        }
+    }
+
+    /**
+     * Remove the rating of a user on an item and update the statistics of the pairs of the item with the other
+     * items of the user.
+     *
+     * @param userId user index
+     * @param itemId item index
+     */
+    protected void removeRating(int userId, int itemId) {
+        if (userId >= userRatings.length || itemId >= pairDots.length || !userRatings[userId].containsKey(itemId)) {
+            return;
+        }
+        Int2DoubleOpenHashMap ratings = userRatings[userId];
+        double previous = ratings.remove(itemId);
+        for (Int2DoubleMap.Entry entry : ratings.int2DoubleEntrySet()) {
+            int otherId = entry.getIntKey();
+            double otherRating = entry.getDoubleValue();
+            if (pairCounts[itemId].addTo(otherId, -1) == 1) {
+                // the last common user is gone
+                pairCounts[itemId].remove(otherId);
+                pairCounts[otherId].remove(itemId);
+                pairDots[itemId].remove(otherId);
+                pairDots[otherId].remove(itemId);
+                pairSquares[itemId].remove(otherId);
+                pairSquares[otherId].remove(itemId);
+            } else {
+                pairCounts[otherId].addTo(itemId, -1);
+                pairDots[itemId].addTo(otherId, -previous * otherRating);
+                pairDots[otherId].addTo(itemId, -previous * otherRating);
+                pairSquares[itemId].addTo(otherId, -previous * previous);
+                pairSquares[otherId].addTo(itemId, -otherRating * otherRating);
+            }
+            neighbourLists[otherId] = null;
+        }
+        neighbourLists[itemId] = null;
+
+        itemSums[itemId] -= previous;
+        itemCounts[itemId]--;
+        ratingSum -= previous;
+        ratingCount--;
+    }
+
+    /**
+     * @param itemId     item index
+     * @param neighborId the index of a co-rated item
+     * @return the cosine similarity over the common users, with shrinkage, or NaN if it is undefined
+     */
+    public double similarity(int itemId, int neighborId) {
+        int count = pairCounts[itemId].get(neighborId);
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double power2 = pairSquares[itemId].get(neighborId) * pairSquares[neighborId].get(itemId);
+        if (power2 <= 0) {
+            return Double.NaN;
+        }
+        double sim = pairDots[itemId].get(neighborId) / Math.sqrt(power2);
+        if (shrinkage > 0) {
+            sim *= count / (count + shrinkage + 0.0);
+        }
+        return sim;
+    }
+
+    /**
+     * @param itemId item index
+     * @return the top-K neighbours of the item, rebuilt if one of its pairs has changed
+     */
+    public TopNList getNeighbors(int itemId) {
+        TopNList neighbourList = neighbourLists[itemId];
+        if (neighbourList == null) {
+            // concurrent readers may both rebuild the list, which is harmless
+            TopNList.Collector collector = new TopNList.Collector(K);
+            for (Int2DoubleMap.Entry entry : pairDots[itemId].int2DoubleEntrySet()) {
+                double sim = similarity(itemId, entry.getIntKey());
+                if (!Double.isNaN(sim)) {
+                    collector.offer(entry.getIntKey(), sim);
+                }
+            }
+            neighbourList = collector.build(itemId);
+            neighbourLists[itemId] = neighbourList;
+        }
+        return neighbourList;
+    }
+
+    /**
+     * predict a specific rating for user userId on item itemId from the ratings of the user on the neighbours
+     * of the item.
+     *
+     * @param userId user index
+     * @param itemId item index
+     * @return predictive rating for user userId on item itemId
+     * @throws LibrecException if error occurs
+     */
+    @Override
+    public double predict(int userId, int itemId) throws LibrecException {
+        double globalAverage = ratingCount > 0 ? ratingSum / ratingCount : globalMean;
+        if (userId >= userRatings.length || itemId >= neighbourLists.length) {
+            return isRanking ? 0.0d : globalAverage;
+        }
+        Int2DoubleOpenHashMap ratings = userRatings[userId];
+        TopNList neighbourList = getNeighbors(itemId);
+        double predictValue = 0.0d, simSum = 0.0d;
+        for (int rank = 0; rank < neighbourList.size(); rank++) {
+            int neighborId = neighbourList.getItemIdx(rank);
+            if (!ratings.containsKey(neighborId)) {
+                continue;
+            }
+            double sim = neighbourList.getScore(rank);
+            if (isRanking) {
+                predictValue += sim;
+            } else if (sim > 0) {
+                predictValue += sim * (ratings.get(neighborId) - itemMean(neighborId, globalAverage));
+                simSum += sim;
+            }
+        }
+        if (isRanking) {
+            return predictValue;
+        }
+        return simSum > 0 ? itemMean(itemId, globalAverage) + predictValue / simSum : globalAverage;
+    }
+
+    private double itemMean(int itemId, double globalAverage) {
+        return itemCounts[itemId] > 0 ? itemSums[itemId] / itemCounts[itemId] : globalAverage;
+    }
+
+    @Override
+    public void addRatings(TableMatrix newRatings) throws LibrecException {
+        super.addRatings(newRatings);
+        Iterator<Table.Cell<Integer, Integer, Double>> it = newRatings.iterator();
+        while (it.hasNext()) {
+            Table.Cell<Integer, Integer, Double> ratingData = it.next();
+            setRating(ratingData.getRowKey(), ratingData.getColumnKey(), ratingData.getValue());
+        }
+    }
+
+    @Override
+    public void updateRatings(TableMatrix newRatings) throws LibrecException {
+        super.updateRatings(newRatings);
+        Iterator<Table.Cell<Integer, Integer, Double>> it = newRatings.iterator();
+        while (it.hasNext()) {
+            Table.Cell<Integer, Integer, Double> ratingData = it.next();
+            if (ratingData.getRowKey() > maxUserId || ratingData.getColumnKey() > maxItemId) {
+                continue;
+            }
+            setRating(ratingData.getRowKey(), ratingData.getColumnKey(), ratingData.getValue());
+        }
+    }
+
+    @Override
+    public void removeRatings(TableMatrix removeRatings) throws LibrecException {
+        super.removeRatings(removeRatings);
+        Iterator<Table.Cell<Integer, Integer, Double>> it = removeRatings.iterator();
+        while (it.hasNext()) {
+            Table.Cell<Integer, Integer, Double> ratingData = it.next();
+            removeRating(ratingData.getRowKey(), ratingData.getColumnKey());
+        }
+    }
+
+    private void ensureUser(int userId) {
+        if (userId < userRatings.length) {
+            return;
+        }
+        int length = userRatings.length;
+        userRatings = Arrays.copyOf(userRatings, Math.max(userId + 1, length * 3 / 2));
+        for (int index = length; index < userRatings.length; index++) {
+            userRatings[index] = new Int2DoubleOpenHashMap();
+        }
+    }
+
+    private void ensureItem(int itemId) {
+        if (itemId < pairDots.length) {
+            return;
+        }
+        int length = pairDots.length;
+        int newLength = Math.max(itemId + 1, length * 3 / 2);
+        pairDots = Arrays.copyOf(pairDots, newLength);
+        pairSquares = Arrays.copyOf(pairSquares, newLength);
+        pairCounts = Arrays.copyOf(pairCounts, newLength);
+        itemSums = Arrays.copyOf(itemSums, newLength);
+        itemCounts = Arrays.copyOf(itemCounts, newLength);
+        neighbourLists = Arrays.copyOf(neighbourLists, newLength);
+        for (int index = length; index < newLength; index++) {
+            pairDots[index] = new Int2DoubleOpenHashMap();
+            pairSquares[index] = new Int2DoubleOpenHashMap();
+            pairCounts[index] = new Int2IntOpenHashMap();
+        }
+    }
 }
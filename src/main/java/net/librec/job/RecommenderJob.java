@@ -34,6 +34,8 @@ import net.librec.math.structure.SymmMatrix;
 import net.librec.recommender.Recommender;
 import net.librec.recommender.RecommenderContext;
 import net.librec.recommender.item.RecommendedItem;
+import net.librec.recommender.item.RecommendedList;
+import net.librec.recommender.item.RecommendedListWriter;
 import net.librec.similarity.RecommenderSimilarity;
 import net.librec.util.DriverClassUtil;
 import net.librec.util.FileUtil;
@@ -42,7 +44,12 @@ import net.librec.util.ReflectionUtil;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -132,13 +139,12 @@ public class RecommenderJob {
         }
         printCVAverageResult();
         boolean isRanking = conf.getBoolean("rec.recommender.isranking");
-        List<RecommendedItem> recommendedList = null;
+        RecommendedList recommendedList = null;
         if (isRanking){
-            recommendedList = recommender.getRecommendedList(recommender.recommendRank());
+            recommendedList = recommender.recommendRank();
         } else {
-            recommendedList = recommender.getRecommendedList(recommender.recommendRating(context.getDataModel().getTestDataSet()));
+            recommendedList = recommender.recommendRating(context.getDataModel().getTestDataSet());
         }
-        recommendedList = filterResult(recommendedList);
         saveResult(recommendedList);
     }
 
@@ -209,19 +215,14 @@ public class RecommenderJob {
 
 
     /**
-     * Filter the results.
+     * Create the filter of the results.
      *
-     * @param recommendedList list of recommended items
-     * @return recommended List
+     * @return the filter, or null if no filter is configured
      * @throws ClassNotFoundException
      * @throws IOException
      */
-    private List<RecommendedItem> filterResult(List<RecommendedItem> recommendedList) throws ClassNotFoundException, IOException {
-        if (getFilterClass() != null) {
-            RecommendedFilter filter = ReflectionUtil.newInstance(getFilterClass(), null);
-            recommendedList = filter.filter(recommendedList);
-        }
-        return recommendedList;
+    private RecommendedFilter getFilter() throws ClassNotFoundException, IOException {
+        return getFilterClass() != null ? ReflectionUtil.newInstance(getFilterClass(), null) : null;
     }
 
     /**
@@ -300,6 +301,44 @@ public class RecommenderJob {
         }
     }
 
+    /**
+     * Get the output path of the result.
+     *
+     * @return the output path
+     * @throws ClassNotFoundException if class not found error occurs
+     * @throws IOException            if I/O error occurs
+     */
+    private String getOutputPath() throws ClassNotFoundException, IOException {
+        String algoSimpleName = DriverClassUtil.getDriverName(getRecommenderClass());
+        String outputPath = conf.get("dfs.result.dir") + "/" + conf.get("data.input.path") + "-" + algoSimpleName + "-output/" + algoSimpleName;
+        if (null != dataModel && (dataModel.getDataSplitter() instanceof KCVDataSplitter || dataModel.getDataSplitter() instanceof LOOCVDataSplitter) && null != conf.getInt("data.splitter.cv.index")) {
+            outputPath = outputPath + "-" + String.valueOf(conf.getInt("data.splitter.cv.index"));
+        }
+        return outputPath;
+    }
+
+    /**
+     * Save result.
+     * Stream the recommended list user by user, in the format {@code rec.output.format} (csv or binary) and
+     * into {@code rec.output.partitions} files written in parallel.
+     *
+     * @param recommendedList recommended list indexed by user
+     * @throws LibrecException        if error occurs
+     * @throws IOException            if I/O error occurs
+     * @throws ClassNotFoundException if class not found error occurs
+     */
+    public void saveResult(RecommendedList recommendedList) throws LibrecException, IOException, ClassNotFoundException {
+        if (recommendedList != null && recommendedList.size() > 0) {
+            String outputPath = getOutputPath();
+            LOG.info("Result path is " + outputPath);
+            RecommendedListWriter writer = new RecommendedListWriter(dataModel.getUserMappingData(), dataModel.getItemMappingData());
+            writer.setFormat(RecommendedListWriter.Format.valueOf(conf.get("rec.output.format", "csv").toUpperCase()));
+            writer.setNumPartitions(conf.getInt("rec.output.partitions", 1));
+            writer.setFilter(getFilter());
+            writer.write(recommendedList, outputPath);
+        }
+    }
+
     /**
      * Save result.
      *
@@ -310,27 +349,17 @@ public class RecommenderJob {
      */
     public void saveResult(List<RecommendedItem> recommendedList) throws LibrecException, IOException, ClassNotFoundException {
         if (recommendedList != null && recommendedList.size() > 0) {
-            // make output path
-            String algoSimpleName = DriverClassUtil.getDriverName(getRecommenderClass());
-            String outputPath = conf.get("dfs.result.dir") + "/" + conf.get("data.input.path") + "-" + algoSimpleName + "-output/" + algoSimpleName;
-            if (null != dataModel && (dataModel.getDataSplitter() instanceof KCVDataSplitter || dataModel.getDataSplitter() instanceof LOOCVDataSplitter) && null != conf.getInt("data.splitter.cv.index")) {
-                outputPath = outputPath + "-" + String.valueOf(conf.getInt("data.splitter.cv.index"));
-            }
+            String outputPath = getOutputPath();
             LOG.info("Result path is " + outputPath);
-            // convert itemList to string
-            StringBuilder sb = new StringBuilder();
-            for (RecommendedItem recItem : recommendedList) {
-                String userId = recItem.getUserId();
-                String itemId = recItem.getItemId();
-                String value = String.valueOf(recItem.getValue());
-                sb.append(userId).append(",").append(itemId).append(",").append(value).append("\n");
+            Path path = Paths.get(outputPath);
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
             }
-            String resultData = sb.toString();
-            // save resultData
-            try {
-                FileUtil.writeString(outputPath, resultData);
-            } catch (Exception e) {
-                e.printStackTrace();
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                for (RecommendedItem recItem : recommendedList) {
+                    writer.append(recItem.getUserId()).append(',').append(recItem.getItemId())
+                            .append(',').append(String.valueOf(recItem.getValue())).append('\n');
+                }
             }
         }
     }
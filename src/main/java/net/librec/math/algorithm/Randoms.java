@@ -46,6 +46,22 @@ public class Randoms {
         r = new Random(seed);
     }
 
+    /**
+     * @return the shared generator, whose state is saved by training checkpoints
+     */
+    public static Random getRandom() {
+        return r;
+    }
+
+    /**
+     * Replace the shared generator, e.g. by the one restored from a training checkpoint.
+     *
+     * @param random the generator
+     */
+    public static void setRandom(Random random) {
+        r = random;
+    }
+
     /**
      * Random generate an integer in [min, max)
      *
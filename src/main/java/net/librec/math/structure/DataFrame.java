@@ -97,6 +97,26 @@ public class DataFrame implements Serializable, DataSet{
         }
     }
 
+    /**
+     * plus a new row of already parsed values on the end of the dataFrame, i.e. inner ids for STRING and
+     * NOMINAL columns, {@code Double} for NUMERIC columns and {@code Long} for DATE columns
+     *
+     * @param values parsed value of each column
+     */
+    public void addRow(Object[] values){
+        if (data == null){
+            data = new ArrayList<>(values.length);
+        }
+        if (data.size() == 0){
+            for (int i =0; i < values.length; i++){
+                data.add(new ArrayList<>());
+            }
+        }
+        for(int i =0; i < values.length; i++){
+            data.get(i).add(values[i]);
+        }
+    }
+
     /**
      * parse data and add to dataFrame
      *
@@ -5,9 +5,6 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
-import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.librec.util.ArrayUtils;
 
 import java.io.Serializable;
@@ -92,24 +89,26 @@ public class SequentialAccessSparseMatrix extends AbstractMatrix implements Seri
 
 
     private void constructColumnIndices(RowSequentialAccessSparseMatrix rowMatrix) {
-        IntArrayList[] columnIndicesList = new IntArrayList[rowMatrix.columnSize()];
-        for (int columnIndex = 0; columnIndex < rowMatrix.columnSize(); columnIndex++) {
-            columnIndicesList[columnIndex] = new IntArrayList();
-        }
-
-        for (MatrixEntry matrixEntry : rowMatrix) {
-            int rowIndex = matrixEntry.row();
-            int columnIndex = matrixEntry.column();
-            columnIndicesList[columnIndex].add(rowIndex);
+        int[] columnCounts = new int[rowMatrix.columnSize()];
+        for (int rowIndex = 0; rowIndex < rowMatrix.rowSize(); rowIndex++) {
+            SequentialSparseVector rowVector = rowMatrix.row(rowIndex);
+            for (int position = 0; position < rowVector.getNumEntries(); position++) {
+                columnCounts[rowVector.getIndexAtPosition(position)]++;
+            }
         }
 
         columnIndices = new int[rowMatrix.columnSize()][];
         for (int columnIndex = 0; columnIndex < rowMatrix.columnSize(); columnIndex++) {
-            int size = columnIndicesList[columnIndex].size();
-            columnIndices[columnIndex] = new int[size];
-            Collections.sort(columnIndicesList[columnIndex]);
-            for (int position = 0; position < size; position++) {
-                columnIndices[columnIndex][position] = columnIndicesList[columnIndex].getInt(position);
+            columnIndices[columnIndex] = new int[columnCounts[columnIndex]];
+        }
+
+        // rows are visited in ascending order, so the row indices of each column come out sorted
+        int[] columnCursors = new int[rowMatrix.columnSize()];
+        for (int rowIndex = 0; rowIndex < rowMatrix.rowSize(); rowIndex++) {
+            SequentialSparseVector rowVector = rowMatrix.row(rowIndex);
+            for (int position = 0; position < rowVector.getNumEntries(); position++) {
+                int columnIndex = rowVector.getIndexAtPosition(position);
+                columnIndices[columnIndex][columnCursors[columnIndex]++] = rowIndex;
             }
         }
     }
@@ -118,46 +117,25 @@ public class SequentialAccessSparseMatrix extends AbstractMatrix implements Seri
      * construct the index map between row matrix and column matrix
      */
     private void constructMap() {
-        Int2ObjectOpenHashMap<Int2IntOpenHashMap> rowPositionMap = new Int2ObjectOpenHashMap<>();
-        for (int rowIndex = 0; rowIndex < rowSize(); rowIndex++) {
-            SequentialSparseVector tempRowVector = row(rowIndex);
-            Int2IntOpenHashMap tempPositionMap = new Int2IntOpenHashMap();
-            for (Vector.VectorEntry vectorEntry : tempRowVector) {
-                tempPositionMap.put(vectorEntry.index(), vectorEntry.position());
-            }
-            rowPositionMap.put(rowIndex, tempPositionMap);
-        }
-
         columnToRowPositionMap = new int[columnSize()][];
         for (int columnIndex = 0; columnIndex < columnSize(); columnIndex++) {
-            SequentialSparseVector tempRowVector = column(columnIndex);
-            columnToRowPositionMap[columnIndex] = new int[tempRowVector.getNumEntries()];
-            for (Vector.VectorEntry vectorEntry : tempRowVector) {
-                columnToRowPositionMap[columnIndex][vectorEntry.position()]
-                        = rowPositionMap.get(vectorEntry.index()).get(columnIndex);
-            }
-        }
-
-        Int2ObjectOpenHashMap<Int2IntOpenHashMap> columnPositionMap = new Int2ObjectOpenHashMap<>();
-        for (int columnIndex = 0; columnIndex < columnSize(); columnIndex++) {
-            SequentialSparseVector tempColumnVector = column(columnIndex);
-            Int2IntOpenHashMap tempPositionMap = new Int2IntOpenHashMap();
-            for (Vector.VectorEntry vectorEntry : tempColumnVector) {
-                tempPositionMap.put(vectorEntry.index(), vectorEntry.position());
-            }
-            columnPositionMap.put(columnIndex, tempPositionMap);
+            columnToRowPositionMap[columnIndex] = new int[columnIndices[columnIndex].length];
         }
 
+        // the k-th visit of a column in row order is its k-th row position
+        int[] columnCursors = new int[columnSize()];
         rowToColumnPositionMap = new int[rowSize()][];
         for (int rowIndex = 0; rowIndex < rowSize(); rowIndex++) {
             SequentialSparseVector tempRowVector = row(rowIndex);
-            rowToColumnPositionMap[rowIndex] = new int[tempRowVector.getNumEntries()];
-            for (Vector.VectorEntry vectorEntry : tempRowVector) {
-                rowToColumnPositionMap[rowIndex][vectorEntry.position()]
-                        = columnPositionMap.get(vectorEntry.index()).get(rowIndex);
+            int numEntries = tempRowVector.getNumEntries();
+            rowToColumnPositionMap[rowIndex] = new int[numEntries];
+            for (int position = 0; position < numEntries; position++) {
+                int columnIndex = tempRowVector.getIndexAtPosition(position);
+                int rowPosition = columnCursors[columnIndex]++;
+                rowToColumnPositionMap[rowIndex][position] = rowPosition;
+                columnToRowPositionMap[columnIndex][rowPosition] = position;
             }
         }
-
     }
 
     /**
@@ -220,6 +198,52 @@ public class SequentialAccessSparseMatrix extends AbstractMatrix implements Seri
         return copyMatrix;
     }
 
+    /**
+     * Do {@code matrix x vector} between current matrix and a given vector, in parallel.
+     *
+     * @param vector a given vector
+     * @return a dense vector with the results of {@code matrix x vector}
+     * @see SparseKernels#times(SequentialAccessSparseMatrix, DenseVector)
+     */
+    public DenseVector times(DenseVector vector) {
+        return SparseKernels.times(this, vector);
+    }
+
+    /**
+     * Do {@code matrix x denseMatrix} between current matrix and a given dense matrix, in parallel.
+     *
+     * @param denseMatrix a given dense matrix
+     * @return a dense matrix with the results of {@code matrix x denseMatrix}
+     * @see SparseKernels#times(SequentialAccessSparseMatrix, DenseMatrix)
+     */
+    public DenseMatrix times(DenseMatrix denseMatrix) {
+        return SparseKernels.times(this, denseMatrix);
+    }
+
+    /**
+     * Do {@code matrix^T x denseMatrix} between current matrix and a given dense matrix, in parallel.
+     *
+     * @param denseMatrix a given dense matrix
+     * @return a dense matrix with the results of {@code matrix^T x denseMatrix}
+     * @see SparseKernels#transposeTimes(SequentialAccessSparseMatrix, DenseMatrix)
+     */
+    public DenseMatrix transposeTimes(DenseMatrix denseMatrix) {
+        return SparseKernels.transposeTimes(this, denseMatrix);
+    }
+
+    /**
+     * Do {@code matrix^T x matrix} on current matrix, in parallel.
+     *
+     * @param binary          whether every stored entry counts as 1
+     * @param includeDiagonal whether the result keeps the products of each column with itself
+     * @param topN            the number of largest entries kept in each row of the result, 0 to keep all
+     * @return a sparse matrix of {@code columnSize()} rows and columns
+     * @see SparseKernels#gram(SequentialAccessSparseMatrix, boolean, boolean, int)
+     */
+    public SequentialAccessSparseMatrix gram(boolean binary, boolean includeDiagonal, int topN) {
+        return SparseKernels.gram(this, binary, includeDiagonal, topN);
+    }
+
     public RowSequentialAccessSparseMatrix getRowMatrix() {
         return rowMatrix;
     }
@@ -248,6 +272,15 @@ public class SequentialAccessSparseMatrix extends AbstractMatrix implements Seri
         rowMatrix.setAtColumnPosition(row, columnPosition, value);
     }
 
+    /**
+     * @param rowPosition the position of an entry in the column
+     * @param column      the column of the entry
+     * @return the position of the entry in its row
+     */
+    public int getColumnPositionAtRowPosition(int rowPosition, int column) {
+        return columnToRowPositionMap[column][rowPosition];
+    }
+
     public double getAtRowPosition(int rowPosition, int column) {
         int row = columnIndices[column][rowPosition];
         int columnPosition = columnToRowPositionMap[column][rowPosition];
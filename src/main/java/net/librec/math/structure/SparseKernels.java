@@ -0,0 +1,329 @@
+package net.librec.math.structure;
+
+import net.librec.common.CardinalityException;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Multi-threaded products of a {@link SequentialAccessSparseMatrix} with dense vectors and matrices and with
+ * its own transpose.
+ * <p>
+ * Each product first flattens the sparse matrix into compressed row arrays, so that the inner loops run over
+ * primitive arrays instead of vector entries. The rows are split into blocks which are processed in parallel,
+ * each block writing only its own rows of the result. Products with a dense matrix are also blocked over the
+ * dense columns, so that the slices of the dense rows read by a block stay in cache. The Gram product
+ * {@code A^T x A}, which gives the item-item dot products or co-occurrence counts of a user-item matrix, uses a
+ * dense accumulator with a list of the touched columns, allocated once per worker thread and reused for every
+ * block it takes, and can keep only the top-N entries of each row.
+ */
+public final class SparseKernels {
+    /**
+     * the number of sparse rows processed by one task
+     */
+    private static final int ROW_BLOCK = 256;
+
+    /**
+     * the number of dense columns accumulated at once
+     */
+    private static final int COLUMN_BLOCK = 64;
+
+    private SparseKernels() {
+    }
+
+    /**
+     * Do {@code matrix x vector}.
+     *
+     * @param matrix a sparse matrix
+     * @param vector a dense vector
+     * @return a dense vector with the results of {@code matrix x vector}
+     * @throws CardinalityException if {@code matrix.columnSize() != vector.cardinality()}
+     */
+    public static DenseVector times(SequentialAccessSparseMatrix matrix, DenseVector vector) {
+        if (matrix.columnSize() != vector.cardinality()) {
+            throw new CardinalityException(matrix.columnSize(), vector.cardinality());
+        }
+        Compressed rows = Compressed.ofRows(matrix);
+        double[] values = vector.getValues();
+        double[] result = new double[rows.size];
+        forEachBlock(rows.size, (fromRow, toRow) -> {
+            for (int row = fromRow; row < toRow; row++) {
+                double sum = 0.0d;
+                for (int position = rows.pointers[row]; position < rows.pointers[row + 1]; position++) {
+                    sum += rows.values[position] * values[rows.indices[position]];
+                }
+                result[row] = sum;
+            }
+        });
+        return new VectorBasedDenseVector(result, true);
+    }
+
+    /**
+     * Do {@code matrix x denseMatrix}.
+     *
+     * @param matrix      a sparse matrix
+     * @param denseMatrix a dense matrix
+     * @return a dense matrix with the results of {@code matrix x denseMatrix}
+     * @throws CardinalityException if {@code matrix.columnSize() != denseMatrix.rowSize()}
+     */
+    public static DenseMatrix times(SequentialAccessSparseMatrix matrix, DenseMatrix denseMatrix) {
+        if (matrix.columnSize() != denseMatrix.rowSize()) {
+            throw new CardinalityException(matrix.columnSize(), denseMatrix.rowSize());
+        }
+        return times(Compressed.ofRows(matrix), denseMatrix);
+    }
+
+    /**
+     * Do {@code matrix^T x denseMatrix}, without building the transpose as a sparse matrix.
+     *
+     * @param matrix      a sparse matrix
+     * @param denseMatrix a dense matrix
+     * @return a dense matrix with the results of {@code matrix^T x denseMatrix}
+     * @throws CardinalityException if {@code matrix.rowSize() != denseMatrix.rowSize()}
+     */
+    public static DenseMatrix transposeTimes(SequentialAccessSparseMatrix matrix, DenseMatrix denseMatrix) {
+        if (matrix.rowSize() != denseMatrix.rowSize()) {
+            throw new CardinalityException(matrix.rowSize(), denseMatrix.rowSize());
+        }
+        return times(Compressed.ofRows(matrix).transpose(), denseMatrix);
+    }
+
+    /**
+     * Do {@code matrix^T x matrix}. For a user-item matrix, the entry {@code (i, j)} of the result is the dot
+     * product of the ratings of items {@code i} and {@code j} over their common users or, if {@code binary} is
+     * true, the number of their common users.
+     *
+     * @param matrix          a sparse matrix
+     * @param binary          whether every stored entry counts as 1
+     * @param includeDiagonal whether the result keeps the products of each column with itself
+     * @param topN            the number of largest entries kept in each row of the result, 0 to keep all
+     * @return a sparse matrix of {@code matrix.columnSize()} rows and columns
+     */
+    public static SequentialAccessSparseMatrix gram(SequentialAccessSparseMatrix matrix, boolean binary,
+                                                    boolean includeDiagonal, int topN) {
+        Compressed rows = Compressed.ofRows(matrix);
+        Compressed columns = rows.transpose();
+        int size = columns.size;
+        VectorBasedSequentialSparseVector[] resultRows = new VectorBasedSequentialSparseVector[size];
+        forEachBlock(size, () -> new GramBuffers(size), (buffers, fromColumn, toColumn) -> {
+            double[] accumulator = buffers.accumulator;
+            // the stamps are distinct for every column, so the buffers need no reset between blocks
+            int[] stamps = buffers.stamps;
+            int[] touched = buffers.touched;
+            for (int column = fromColumn; column < toColumn; column++) {
+                int stamp = column + 1;
+                int numTouched = 0;
+                for (int position = columns.pointers[column]; position < columns.pointers[column + 1]; position++) {
+                    int row = columns.indices[position];
+                    double value = binary ? 1.0d : columns.values[position];
+                    for (int rowPosition = rows.pointers[row]; rowPosition < rows.pointers[row + 1]; rowPosition++) {
+                        int otherColumn = rows.indices[rowPosition];
+                        if (!includeDiagonal && otherColumn == column) {
+                            continue;
+                        }
+                        double product = binary ? 1.0d : value * rows.values[rowPosition];
+                        if (stamps[otherColumn] != stamp) {
+                            stamps[otherColumn] = stamp;
+                            accumulator[otherColumn] = product;
+                            touched[numTouched++] = otherColumn;
+                        } else {
+                            accumulator[otherColumn] += product;
+                        }
+                    }
+                }
+                if (topN > 0 && numTouched > topN) {
+                    numTouched = selectTop(touched, numTouched, accumulator, topN);
+                }
+                int[] indices = Arrays.copyOf(touched, numTouched);
+                Arrays.sort(indices);
+                double[] values = new double[numTouched];
+                for (int position = 0; position < numTouched; position++) {
+                    values[position] = accumulator[indices[position]];
+                }
+                resultRows[column] = new VectorBasedSequentialSparseVector(size, indices, values);
+            }
+        });
+        return new SequentialAccessSparseMatrix(new RowSequentialAccessSparseMatrix(size, size, resultRows, true), true);
+    }
+
+    private static DenseMatrix times(Compressed rows, DenseMatrix denseMatrix) {
+        double[][] denseValues = denseMatrix.getValues();
+        int numColumns = denseMatrix.columnSize();
+        DenseMatrix resultMatrix = new DenseMatrix(rows.size, numColumns);
+        double[][] result = resultMatrix.getValues();
+        forEachBlock(rows.size, (fromRow, toRow) -> {
+            for (int fromColumn = 0; fromColumn < numColumns; fromColumn += COLUMN_BLOCK) {
+                int toColumn = Math.min(numColumns, fromColumn + COLUMN_BLOCK);
+                for (int row = fromRow; row < toRow; row++) {
+                    double[] resultRow = result[row];
+                    for (int position = rows.pointers[row]; position < rows.pointers[row + 1]; position++) {
+                        double value = rows.values[position];
+                        double[] denseRow = denseValues[rows.indices[position]];
+                        for (int column = fromColumn; column < toColumn; column++) {
+                            resultRow[column] += value * denseRow[column];
+                        }
+                    }
+                }
+            }
+        });
+        return resultMatrix;
+    }
+
+    /**
+     * Move the top-N indices by accumulated value, ties broken by the smaller index, to the front of the
+     * touched indices, through a heap whose root is the weakest index kept.
+     *
+     * @return the number of indices kept
+     */
+    private static int selectTop(int[] touched, int numTouched, double[] accumulator, int topN) {
+        for (int parent = topN / 2 - 1; parent >= 0; parent--) {
+            siftDown(touched, parent, topN, accumulator);
+        }
+        for (int position = topN; position < numTouched; position++) {
+            if (isBetter(touched[position], touched[0], accumulator)) {
+                touched[0] = touched[position];
+                siftDown(touched, 0, topN, accumulator);
+            }
+        }
+        return topN;
+    }
+
+    private static void siftDown(int[] heap, int parent, int heapSize, double[] accumulator) {
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= heapSize) {
+                return;
+            }
+            if (child + 1 < heapSize && isBetter(heap[child], heap[child + 1], accumulator)) {
+                child++;
+            }
+            if (!isBetter(heap[parent], heap[child], accumulator)) {
+                return;
+            }
+            int index = heap[parent];
+            heap[parent] = heap[child];
+            heap[child] = index;
+            parent = child;
+        }
+    }
+
+    private static boolean isBetter(int index, int otherIndex, double[] accumulator) {
+        return accumulator[index] > accumulator[otherIndex]
+                || (accumulator[index] == accumulator[otherIndex] && index < otherIndex);
+    }
+
+    private static void forEachBlock(int size, BlockTask task) {
+        int numBlocks = (size + ROW_BLOCK - 1) / ROW_BLOCK;
+        IntStream.range(0, numBlocks).parallel().forEach(block ->
+                task.run(block * ROW_BLOCK, Math.min(size, (block + 1) * ROW_BLOCK)));
+    }
+
+    /**
+     * Run the blocks on one worker per thread of the common pool. The workers take the blocks one at a time, and
+     * each creates its workspace once, when it takes its first block.
+     */
+    private static <W> void forEachBlock(int size, Supplier<W> workspace, WorkspaceTask<W> task) {
+        int numBlocks = (size + ROW_BLOCK - 1) / ROW_BLOCK;
+        int numWorkers = Math.min(numBlocks, ForkJoinPool.getCommonPoolParallelism() + 1);
+        AtomicInteger nextBlock = new AtomicInteger();
+        IntStream.range(0, numWorkers).parallel().forEach(worker -> {
+            W buffers = null;
+            for (int block = nextBlock.getAndIncrement(); block < numBlocks; block = nextBlock.getAndIncrement()) {
+                if (buffers == null) {
+                    buffers = workspace.get();
+                }
+                task.run(buffers, block * ROW_BLOCK, Math.min(size, (block + 1) * ROW_BLOCK));
+            }
+        });
+    }
+
+    private interface BlockTask {
+        void run(int from, int to);
+    }
+
+    private interface WorkspaceTask<W> {
+        void run(W workspace, int from, int to);
+    }
+
+    /**
+     * The dense accumulator of a Gram row, the column stamps marking the accumulated entries and the list of the
+     * touched columns.
+     */
+    private static final class GramBuffers {
+        private final double[] accumulator;
+        private final int[] stamps;
+        private final int[] touched;
+
+        private GramBuffers(int size) {
+            accumulator = new double[size];
+            stamps = new int[size];
+            touched = new int[size];
+        }
+    }
+
+    /**
+     * A sparse matrix flattened into compressed row arrays: the entries of row {@code r} are at the positions
+     * {@code pointers[r]} to {@code pointers[r + 1]} of {@code indices} and {@code values}, by ascending index.
+     */
+    private static final class Compressed {
+        private final int size;
+        private final int cardinality;
+        private final int[] pointers;
+        private final int[] indices;
+        private final double[] values;
+
+        private Compressed(int size, int cardinality, int[] pointers, int[] indices, double[] values) {
+            this.size = size;
+            this.cardinality = cardinality;
+            this.pointers = pointers;
+            this.indices = indices;
+            this.values = values;
+        }
+
+        private static Compressed ofRows(SequentialAccessSparseMatrix matrix) {
+            int numRows = matrix.rowSize();
+            int[] pointers = new int[numRows + 1];
+            for (int row = 0; row < numRows; row++) {
+                pointers[row + 1] = pointers[row] + matrix.row(row).getNumEntries();
+            }
+            int[] indices = new int[pointers[numRows]];
+            double[] values = new double[pointers[numRows]];
+            for (int row = 0; row < numRows; row++) {
+                SequentialSparseVector rowVector = matrix.row(row);
+                for (int position = 0; position < rowVector.getNumEntries(); position++) {
+                    indices[pointers[row] + position] = rowVector.getIndexAtPosition(position);
+                    values[pointers[row] + position] = rowVector.getAtPosition(position);
+                }
+            }
+            return new Compressed(numRows, matrix.columnSize(), pointers, indices, values);
+        }
+
+        /**
+         * @return the compressed rows of the transpose; rows are visited in ascending order, so the indices of
+         * each transposed row come out sorted
+         */
+        private Compressed transpose() {
+            int[] transposePointers = new int[cardinality + 1];
+            for (int position = 0; position < pointers[size]; position++) {
+                transposePointers[indices[position] + 1]++;
+            }
+            for (int index = 0; index < cardinality; index++) {
+                transposePointers[index + 1] += transposePointers[index];
+            }
+            int[] cursors = Arrays.copyOf(transposePointers, cardinality);
+            int[] transposeIndices = new int[pointers[size]];
+            double[] transposeValues = new double[pointers[size]];
+            for (int row = 0; row < size; row++) {
+                for (int position = pointers[row]; position < pointers[row + 1]; position++) {
+                    int cursor = cursors[indices[position]]++;
+                    transposeIndices[cursor] = row;
+                    transposeValues[cursor] = values[position];
+                }
+            }
+            return new Compressed(cardinality, size, transposePointers, transposeIndices, transposeValues);
+        }
+    }
+}
@@ -21,15 +21,15 @@ import com.google.common.collect.BiMap;
 import net.librec.common.LibrecException;
 import net.librec.conf.Configuration;
 import net.librec.data.DataModel;
+import net.librec.eval.EvalStatistics;
+import net.librec.filter.IndexedRecommendedFilter;
 import net.librec.job.progress.ProgressBar;
 import net.librec.recommender.item.*;
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * Abstract Recommender Methods
@@ -102,6 +102,26 @@ public abstract class AbstractRecommender implements Recommender {
      */
     public BiMap<String, Integer> itemMappingData;
 
+    /**
+     * candidate filter applied before scoring, null to score every candidate
+     */
+    protected IndexedRecommendedFilter candidateFilter;
+
+    /**
+     * statistics of the train and test sets for the evaluators
+     */
+    protected EvalStatistics evalStatistics;
+
+    /**
+     * periodic checkpoints of the training loop, null if {@code rec.checkpoint.dir} is not set
+     */
+    protected TrainingCheckpoint checkpoint;
+
+    /**
+     * the number of trainings started by this recommender, so the index of the current fold of a cross validation
+     */
+    private int numTrainings;
+
     /**
      * setup
      *
@@ -121,10 +141,70 @@ public abstract class AbstractRecommender implements Recommender {
 
         userMappingData = getDataModel().getUserMappingData();
         itemMappingData = getDataModel().getItemMappingData();
+        if (candidateFilter == null) {
+            candidateFilter = IndexedRecommendedFilter.build(conf, userMappingData, itemMappingData);
+        }
 
         if (verbose) {
             progressBar = new ProgressBar(100, 100);
         }
+        checkpoint = TrainingCheckpoint.build(this, conf, Math.max(0, numTrainings - 1));
+    }
+
+    /**
+     * The fields saved by the checkpoints of the training loop. A recommender which supports checkpoints names
+     * every field its loop needs to continue from an iteration; by default there are none.
+     *
+     * @return the names of the fields
+     */
+    protected Set<String> getCheckpointFields() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Restore the state of the last checkpoint, to be called by a training loop before its first iteration.
+     *
+     * @return the number of iterations completed by the checkpoint, 0 if there is none
+     * @throws LibrecException if the checkpoint can not be restored
+     */
+    protected int resumeIteration() throws LibrecException {
+        return checkpoint != null && !getCheckpointFields().isEmpty() ? checkpoint.resume() : 0;
+    }
+
+    /**
+     * Save a checkpoint if one is due, to be called by a training loop after each iteration.
+     *
+     * @param iteration the number of completed iterations
+     */
+    protected void saveCheckpoint(int iteration) {
+        if (checkpoint != null && !getCheckpointFields().isEmpty()) {
+            checkpoint.save(iteration);
+        }
+    }
+
+    /**
+     * Set the filter of the candidates, which replaces the {@code rec.filter.*} configuration.
+     *
+     * @param candidateFilter the candidate filter, or null to score every candidate
+     */
+    public void setCandidateFilter(IndexedRecommendedFilter candidateFilter) {
+        this.candidateFilter = candidateFilter;
+    }
+
+    /**
+     * @param userIdx the inner user index
+     * @return true if the candidate filter accepts the user
+     */
+    protected boolean isCandidateUser(int userIdx) {
+        return candidateFilter == null || candidateFilter.acceptUser(userIdx);
+    }
+
+    /**
+     * @param fromIdx the first inner item index to check
+     * @return the first item index from {@code fromIdx} accepted by the candidate filter, or -1 if there is none
+     */
+    protected int nextCandidateItem(int fromIdx) {
+        return candidateFilter == null ? fromIdx : candidateFilter.nextItem(fromIdx);
     }
 
     /**
@@ -142,10 +222,18 @@ public abstract class AbstractRecommender implements Recommender {
      */
     public void train(RecommenderContext context) throws LibrecException {
         this.context = context;
+        numTrainings++;
         setup();
         LOG.info("Job Setup completed.");
         trainModel();
         LOG.info("Job Train completed.");
+        if (checkpoint != null) {
+            if (conf.getBoolean("rec.checkpoint.keep", false)) {
+                checkpoint.close();
+            } else {
+                checkpoint.delete();
+            }
+        }
         cleanup();
     }
 
@@ -205,30 +293,26 @@ public abstract class AbstractRecommender implements Recommender {
         return context.getDataModel();
     }
 
+    /**
+     * get the statistics of the train and test sets for the evaluators
+     *
+     * @return evaluation statistics, or null if the recommender does not provide them
+     */
+    public EvalStatistics getEvalStatistics() {
+        return evalStatistics;
+    }
+
     /**
      * get Recommended List
+     * The list is backed by the inner indices, and the raw ids are resolved through flat dictionaries only
+     * when an item is read.
      *
      * @return Recommended List
      */
-    public List<RecommendedItem> getRecommendedList(RecommendedList recommendedList) {
-
+    public RecommendedItemList getRecommendedList(RecommendedList recommendedList) {
         if (recommendedList != null && recommendedList.size() > 0) {
-            List<RecommendedItem> userItemList = new ArrayList<>();
-            Iterator<ContextKeyValueEntry> recommendedEntryIter = recommendedList.iterator();
             if (userMappingData != null && userMappingData.size() > 0 && itemMappingData != null && itemMappingData.size() > 0) {
-                BiMap<Integer, String> userMappingInverse = userMappingData.inverse();
-                BiMap<Integer, String> itemMappingInverse = itemMappingData.inverse();
-                while (recommendedEntryIter.hasNext()) {
-                    ContextKeyValueEntry contextKeyValueEntry = recommendedEntryIter.next();
-                    if (contextKeyValueEntry != null) {
-                        String userId = userMappingInverse.get(contextKeyValueEntry.getContextIdx());
-                        String itemId = itemMappingInverse.get(contextKeyValueEntry.getKey());
-                        if (StringUtils.isNotBlank(userId) && StringUtils.isNotBlank(itemId)) {
-                            userItemList.add(new GenericRecommendedItem(userId, itemId, contextKeyValueEntry.getValue()));
-                        }
-                    }
-                }
-                return userItemList;
+                return RecommendedItemList.of(recommendedList, IdDictionary.of(userMappingData), IdDictionary.of(itemMappingData));
             }
         }
         return null;
@@ -18,12 +18,13 @@
 package net.librec.recommender;
 
 import net.librec.common.LibrecException;
+import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Factorization Machine Recommender
@@ -77,6 +78,35 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
      */
     protected int numFactors;
 
+    /**
+     * index of the first appender vector column of every tensor dimension
+     */
+    protected int[] featureOffsets;
+
+    /**
+     * the number of threads used by {@link #trainEntries(EntryUpdater)}
+     */
+    protected int numThreads;
+
+    /**
+     * whether the training entries are visited in a new random order every epoch
+     */
+    protected boolean shuffle;
+
+    /**
+     * Update the parameters with a single training entry. With more than one thread the updater is called
+     * concurrently and the shared parameters are updated in place without locking (Hogwild!).
+     */
+    protected interface EntryUpdater {
+        /**
+         * @param features the appender vector columns of the entry, each with value 1
+         * @param rate     the rating of the entry
+         * @return the loss of the entry
+         * @throws LibrecException if error occurs
+         */
+        double update(int[] features, double rate) throws LibrecException;
+    }
+
 
     /**
      * setup
@@ -88,7 +118,9 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         super.setup();
 
         // initialize the parameters of FM
+        featureOffsets = new int[trainTensor.numDimensions];
         for (int dim = 0; dim < trainTensor.numDimensions; dim++) {
+            featureOffsets[dim] = p;
             p += trainTensor.dimensions[dim]; // set the size of appender vectors
         }
         n = trainTensor.size(); // set the number of ratings
@@ -106,6 +138,108 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         regW0 = conf.getFloat("rec.fm.regw0", 0.01f);
         regW = conf.getFloat("rec.fm.regW", 0.01f);
         regF = conf.getFloat("rec.fm.regF", 10f);
+
+        numThreads = conf.getInt("rec.thread.count", 1);
+        shuffle = conf.getBoolean("rec.fm.shuffle", false);
+    }
+
+    /**
+     * Run the training epochs over all entries of the train tensor. The entries are split into shards which are
+     * processed by {@code rec.thread.count} threads, each reusing its own feature buffer. With
+     * {@code rec.fm.shuffle} the entries are visited in a new random order every epoch.
+     *
+     * @param updater the per entry update rule of the model
+     * @throws LibrecException if error occurs
+     */
+    protected void trainEntries(EntryUpdater updater) throws LibrecException {
+        trainEntries(updater, true);
+    }
+
+    /**
+     * Run the training epochs over all entries of the train tensor.
+     *
+     * @param updater        the per entry update rule of the model
+     * @param updateLastLoss whether the loss of each epoch becomes the last loss the convergence is checked against
+     * @throws LibrecException if error occurs
+     */
+    protected void trainEntries(EntryUpdater updater, boolean updateLastLoss) throws LibrecException {
+        int[] entryOrder = new int[n];
+        for (int index = 0; index < n; index++) {
+            entryOrder[index] = index;
+        }
+        Random random = shuffle ? new Random(Randoms.uniform(Integer.MAX_VALUE)) : null;
+        int numShards = numThreads > 1 ? numThreads * 4 : 1;
+        int shardSize = Math.max(1, (n + numShards - 1) / numShards);
+        ExecutorService executorService = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+        try {
+            for (int iter = 0; iter < numIterations; iter++) {
+                long startTime = System.currentTimeMillis();
+                if (shuffle) {
+                    for (int index = n - 1; index > 0; index--) {
+                        int swapIndex = random.nextInt(index + 1);
+                        int temp = entryOrder[index];
+                        entryOrder[index] = entryOrder[swapIndex];
+                        entryOrder[swapIndex] = temp;
+                    }
+                }
+
+                loss = 0.0;
+                if (executorService == null) {
+                    loss = trainShard(updater, entryOrder, 0, n);
+                } else {
+                    List<Callable<Double>> tasks = new ArrayList<>(numShards);
+                    for (int from = 0; from < n; from += shardSize) {
+                        int shardFrom = from, shardTo = Math.min(n, from + shardSize);
+                        tasks.add(() -> trainShard(updater, entryOrder, shardFrom, shardTo));
+                    }
+                    for (Future<Double> future : executorService.invokeAll(tasks)) {
+                        loss += future.get();
+                    }
+                }
+                loss *= 0.5;
+
+                if (verbose) {
+                    long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+                    LOG.info(getClass().getSimpleName() + " epoch " + iter + ": " + n + " entries in " + elapsed
+                            + " ms (" + (n * 1000L / elapsed) + " entries/s) on " + Math.max(1, numThreads) + " threads");
+                }
+                if (isConverged(iter) && earlyStop) {
+                    break;
+                }
+                if (updateLastLoss) {
+                    lastLoss = loss;
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new LibrecException("Training of " + getClass().getSimpleName() + " failed", e);
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Update the parameters with the entries {@code entryOrder[from, to)} of the train tensor.
+     *
+     * @param updater    the per entry update rule of the model
+     * @param entryOrder the order in which the entries are visited
+     * @param from       first position of the shard
+     * @param to         last position of the shard (exclusive)
+     * @return the loss of the shard
+     * @throws LibrecException if error occurs
+     */
+    private double trainShard(EntryUpdater updater, int[] entryOrder, int from, int to) throws LibrecException {
+        int[] features = new int[trainTensor.numDimensions];
+        double shardLoss = 0.0;
+        for (int position = from; position < to; position++) {
+            int entryIndex = entryOrder[position];
+            for (int dim = 0; dim < features.length; dim++) {
+                features[dim] = featureOffsets[dim] + trainTensor.key(dim, entryIndex);
+            }
+            shardLoss += updater.update(features, trainTensor.value(entryIndex));
+        }
+        return shardLoss;
     }
 
     /**
@@ -116,25 +250,25 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
      * @throws LibrecException  if error occurs
      */
     protected double predict(SequentialSparseVector x) throws LibrecException {
-        double res = 0;
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        int numEntries = x.getNumEntries();
+
         // global bias
-        res += w0;
+        double res = w0;
 
         // 1-way interaction
-        for (Vector.VectorEntry ve : x) {
-            double val = ve.get();
-            int ind = ve.index();
-            res += val * W.get(ind);
+        for (int position = 0; position < numEntries; position++) {
+            res += x.getAtPosition(position) * weights[x.getIndexAtPosition(position)];
         }
 
         // 2-way interaction
         for (int f = 0; f < k; f++) {
             double sum1 = 0;
             double sum2 = 0;
-            for (Vector.VectorEntry ve : x) {
-                double xi = ve.get();
-                int i = ve.index();
-                double vif = V.get(i, f);
+            for (int position = 0; position < numEntries; position++) {
+                double xi = x.getAtPosition(position);
+                double vif = factors[x.getIndexAtPosition(position)][f];
 
                 sum1 += vif * xi;
                 sum2 += vif * vif * xi * xi;
@@ -145,6 +279,34 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         return res;
     }
 
+    /**
+     * Predict the rating of a multi-hot appender vector given by its active columns, without building the vector.
+     *
+     * @param features the active columns of the appender vector
+     * @param values   the values of the active columns, {@code null} if all of them are 1
+     * @return predicted rating
+     */
+    protected double predict(int[] features, double[] values) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+
+        double res = w0;
+        for (int index = 0; index < features.length; index++) {
+            res += (values == null ? 1.0 : values[index]) * weights[features[index]];
+        }
+        for (int f = 0; f < k; f++) {
+            double sum1 = 0;
+            double sum2 = 0;
+            for (int index = 0; index < features.length; index++) {
+                double vif = (values == null ? 1.0 : values[index]) * factors[features[index]][f];
+                sum1 += vif;
+                sum2 += vif * vif;
+            }
+            res += (sum1 * sum1 - sum2) / 2;
+        }
+        return res;
+    }
+
     /**
      * Predict the rating given a sparse appender vector.
      * if {@code bound} is true,The predicted rating value will be
@@ -202,9 +364,93 @@ public abstract class FactorizationMachineRecommender extends TensorRecommender
         return new VectorBasedSequentialSparseVector(capacity, mapVector);
     }
 
+    /**
+     * Predict the rating of the one-hot appender vector of the given tensor keys. The rows of {@code W} and {@code V}
+     * are read directly, so nothing is allocated.
+     *
+     * @param keys user index, item index and context indices
+     * @return predicted rating
+     * @throws LibrecException if error occurs
+     */
     @Override
     protected double predict(int[] keys) throws LibrecException {
-        VectorBasedSequentialSparseVector featureVec = tenserKeysToFeatureVector(keys);
-        return predict(featureVec);
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+
+        double res = w0;
+        for (int dim = 0; dim < keys.length; dim++) {
+            res += weights[featureOffsets[dim] + keys[dim]];
+        }
+        for (int f = 0; f < k; f++) {
+            double sum1 = 0;
+            double sum2 = 0;
+            for (int dim = 0; dim < keys.length; dim++) {
+                double vif = factors[featureOffsets[dim] + keys[dim]][f];
+                sum1 += vif;
+                sum2 += vif * vif;
+            }
+            res += (sum1 * sum1 - sum2) / 2;
+        }
+        return res;
+    }
+
+    /**
+     * Rank some items for a user. The bias and pairwise interactions of the user part are computed once, after which
+     * the score of an item is its weight plus the dot product of its factors with the summed user part factors.
+     *
+     * @param userIdx  user index
+     * @param itemIdxs the items to score
+     * @param scores   array of the length of itemIdxs to be filled with the predictive score of each item
+     * @throws LibrecException if error occurs
+     */
+    @Override
+    protected void predictItems(int userIdx, int[] itemIdxs, double[] scores) throws LibrecException {
+        int[] keys = new int[numDimensions];
+        Arrays.fill(keys, -1);
+        keys[userDimension] = userIdx;
+        predictItems(keys, itemIdxs, scores);
+    }
+
+    /**
+     * Score some items given the keys of all other tensor dimensions.
+     *
+     * @param keys     tensor keys; the key of the item dimension is ignored and negative keys mark absent dimensions
+     * @param itemIdxs the items to score
+     * @param scores   array of the length of itemIdxs to be filled with the predictive score of each item
+     */
+    protected void predictItems(int[] keys, int[] itemIdxs, double[] scores) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double[] factorSums = new double[k];
+
+        double base = w0;
+        double sumSquares = 0;
+        for (int dim = 0; dim < keys.length; dim++) {
+            if (dim == itemDimension || keys[dim] < 0) {
+                continue;
+            }
+            int column = featureOffsets[dim] + keys[dim];
+            base += weights[column];
+            double[] factorVector = factors[column];
+            for (int f = 0; f < k; f++) {
+                factorSums[f] += factorVector[f];
+                sumSquares += factorVector[f] * factorVector[f];
+            }
+        }
+        for (int f = 0; f < k; f++) {
+            base += factorSums[f] * factorSums[f] / 2;
+        }
+        base -= sumSquares / 2;
+
+        int itemOffset = featureOffsets[itemDimension];
+        for (int position = 0; position < itemIdxs.length; position++) {
+            int itemIdx = itemIdxs[position];
+            double[] itemFactorVector = factors[itemOffset + itemIdx];
+            double res = base + weights[itemOffset + itemIdx];
+            for (int f = 0; f < k; f++) {
+                res += itemFactorVector[f] * factorSums[f];
+            }
+            scores[position] = res;
+        }
     }
 }
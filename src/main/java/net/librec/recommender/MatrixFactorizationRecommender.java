@@ -1,12 +1,30 @@
 package net.librec.recommender;
 
+import com.google.common.collect.BiMap;
+import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.recommender.item.IdDictionary;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * Matrix Factorization Recommender
  * Methods with user factors and item factors: such as SVD(Singular Value Decomposition)
  * <p>
+ * The factors can be saved as a snapshot keyed by raw ids ({@code rec.factor.snapshot.path}) and used to
+ * warm-start the next training ({@code rec.factor.warmstart.path}): the rows of the known users and items are
+ * copied from the snapshot, new ids keep random rows, and training runs {@code rec.factor.warmstart.iterations}
+ * epochs. The snapshot stores a fingerprint of the train row of each id, so that subclasses can restrict the
+ * updates to the rows that changed, see {@link #getTrainUsers()} and {@link #getTrainItems()}.
+ * <p>
  * Created by Keqiang Wang
  */
 public abstract class MatrixFactorizationRecommender extends MatrixRecommender {
@@ -55,6 +73,18 @@ public abstract class MatrixFactorizationRecommender extends MatrixRecommender {
      */
     protected float regItem;
 
+    /**
+     * the users and items whose train rows changed since the warm-start snapshot, null to train every row
+     */
+    protected BitSet changedUsers, changedItems;
+
+    /**
+     * order independent hashes of the train rows of the users and items
+     */
+    protected long[] userFingerprints, itemFingerprints;
+
+    private static final int SNAPSHOT_MAGIC = 0x4C524D46;
+
     /**
      * setup
      * init member method
@@ -83,6 +113,180 @@ public abstract class MatrixFactorizationRecommender extends MatrixRecommender {
         // initialize factors
         userFactors.init(initMean, initStd);
         itemFactors.init(initMean, initStd);
+
+        changedUsers = null;
+        changedItems = null;
+        userFingerprints = null;
+        itemFingerprints = null;
+        String warmStartPath = conf.get("rec.factor.warmstart.path");
+        if (StringUtils.isNotBlank(conf.get("rec.factor.snapshot.path")) || StringUtils.isNotBlank(warmStartPath)) {
+            // fingerprint the train rows before subclasses reweight the train matrix
+            computeFingerprints();
+        }
+        if (StringUtils.isNotBlank(warmStartPath)) {
+            warmStart(warmStartPath);
+            numIterations = conf.getInt("rec.factor.warmstart.iterations", Math.max(1, numIterations / 4));
+        }
+    }
+
+    /**
+     * Seed the factors from a snapshot written by {@link #writeSnapshot(String)}. The rows of the users and items
+     * mapped by the raw ids of the snapshot are copied, the other rows keep their initial values. The users
+     * and items which are new or whose train row differs from the snapshot are marked as changed.
+     *
+     * @param filePath the snapshot path
+     * @throws LibrecException if the snapshot can not be read or has another number of factors
+     */
+    protected void warmStart(String filePath) throws LibrecException {
+        if (userFingerprints == null) {
+            computeFingerprints();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new LibrecException("not a factor snapshot: " + filePath);
+            }
+            int snapshotFactors = in.readInt();
+            if (snapshotFactors != numFactors) {
+                throw new LibrecException("the snapshot " + filePath + " has " + snapshotFactors
+                        + " factors instead of " + numFactors);
+            }
+            changedUsers = readFactors(in, userFactors, userMappingData, userFingerprints);
+            changedItems = readFactors(in, itemFactors, itemMappingData, itemFingerprints);
+        } catch (IOException e) {
+            throw new LibrecException(e);
+        }
+        LOG.info("Warm start from " + filePath + ": " + changedUsers.cardinality() + " of " + numUsers
+                + " users and " + changedItems.cardinality() + " of " + numItems + " items changed");
+    }
+
+    private BitSet readFactors(DataInputStream in, DenseMatrix factors, BiMap<String, Integer> mappingData,
+                               long[] fingerprints) throws IOException {
+        BitSet changed = new BitSet(fingerprints.length);
+        changed.set(0, fingerprints.length);
+        int numRows = in.readInt();
+        for (int row = 0; row < numRows; row++) {
+            String rawId = in.readUTF();
+            long fingerprint = in.readLong();
+            Integer index = mappingData != null ? mappingData.get(rawId) : null;
+            boolean known = index != null && index < fingerprints.length;
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                double value = in.readDouble();
+                if (known) {
+                    factors.set(index, factorIdx, value);
+                }
+            }
+            if (known && fingerprints[index] == fingerprint) {
+                changed.clear(index);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Save the factors with the raw ids and the train row fingerprints of the users and items, for
+     * {@code rec.factor.warmstart.path}.
+     *
+     * @param filePath the snapshot path
+     * @throws LibrecException if the snapshot can not be written
+     */
+    protected void writeSnapshot(String filePath) throws LibrecException {
+        if (userFingerprints == null) {
+            computeFingerprints();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(numFactors);
+            writeFactors(out, userFactors, rawIds(userMappingData, numUsers), userFingerprints);
+            writeFactors(out, itemFactors, rawIds(itemMappingData, numItems), itemFingerprints);
+        } catch (IOException e) {
+            throw new LibrecException(e);
+        }
+    }
+
+    private void writeFactors(DataOutputStream out, DenseMatrix factors, String[] rawIds, long[] fingerprints)
+            throws IOException {
+        out.writeInt(rawIds.length);
+        for (int row = 0; row < rawIds.length; row++) {
+            out.writeUTF(rawIds[row]);
+            out.writeLong(fingerprints[row]);
+            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                out.writeDouble(factors.get(row, factorIdx));
+            }
+        }
+    }
+
+    /**
+     * Hash the train row of each user and item from the raw ids and the ratings of its entries, so that the
+     * hashes do not depend on the inner indices of a run.
+     */
+    protected void computeFingerprints() {
+        String[] userIds = rawIds(userMappingData, numUsers);
+        String[] itemIds = rawIds(itemMappingData, numItems);
+        userFingerprints = new long[numUsers];
+        itemFingerprints = new long[numItems];
+        for (MatrixEntry matrixEntry : trainMatrix) {
+            long ratingBits = mix(Double.doubleToLongBits(matrixEntry.get()));
+            userFingerprints[matrixEntry.row()] += mix(itemIds[matrixEntry.column()].hashCode() ^ ratingBits);
+            itemFingerprints[matrixEntry.column()] += mix(userIds[matrixEntry.row()].hashCode() ^ ratingBits);
+        }
+    }
+
+    private static String[] rawIds(BiMap<String, Integer> mappingData, int size) {
+        IdDictionary dictionary = mappingData != null ? IdDictionary.of(mappingData) : null;
+        String[] rawIds = new String[size];
+        for (int index = 0; index < size; index++) {
+            String rawId = dictionary != null ? dictionary.get(index) : null;
+            rawIds[index] = rawId != null ? rawId : String.valueOf(index);
+        }
+        return rawIds;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    /**
+     * @return the indices of the users to train, only the changed ones after a warm start
+     */
+    protected int[] getTrainUsers() {
+        return changedUsers != null ? changedUsers.stream().toArray() : IntStream.range(0, numUsers).toArray();
+    }
+
+    /**
+     * @return the indices of the items to train, only the changed ones after a warm start
+     */
+    protected int[] getTrainItems() {
+        return changedItems != null ? changedItems.stream().toArray() : IntStream.range(0, numItems).toArray();
+    }
+
+    /**
+     * The factors, the {@link ModelData} fields and the learning rate schedule. Recommenders with more state
+     * add their own fields.
+     *
+     * @return the names of the fields saved by the checkpoints
+     */
+    @Override
+    protected Set<String> getCheckpointFields() {
+        Set<String> fields = new LinkedHashSet<>(Arrays.asList("userFactors", "itemFactors"));
+        ModelData modelData = getClass().getAnnotation(ModelData.class);
+        if (modelData != null) {
+            fields.addAll(Arrays.asList(modelData.value()));
+        }
+        // the data is rebuilt by setup
+        fields.removeAll(Arrays.asList("trainMatrix", "testMatrix", "validMatrix"));
+        fields.addAll(Arrays.asList("learnRate", "loss", "lastLoss"));
+        return fields;
+    }
+
+    @Override
+    protected void cleanup() throws LibrecException {
+        super.cleanup();
+        String snapshotPath = conf.get("rec.factor.snapshot.path");
+        if (StringUtils.isNotBlank(snapshotPath)) {
+            writeSnapshot(snapshotPath);
+        }
     }
 
     /**
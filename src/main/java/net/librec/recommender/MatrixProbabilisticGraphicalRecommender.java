@@ -70,7 +70,7 @@ public abstract class MatrixProbabilisticGraphicalRecommender extends MatrixReco
 
     @Override
     protected void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = resumeIteration() + 1; iter <= numIterations; iter++) {
             // E-step: infer parameters
             eStep();
 
@@ -85,6 +85,7 @@ public abstract class MatrixProbabilisticGraphicalRecommender extends MatrixReco
                 if (isConverged(iter) && earlyStop)
                     break;
             }
+            saveCheckpoint(iter);
         }
         // retrieve posterior probability distributions
         estimateParams();
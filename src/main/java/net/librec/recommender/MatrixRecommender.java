@@ -19,13 +19,19 @@ package net.librec.recommender;
 
 import net.librec.common.LibrecException;
 import net.librec.data.structure.*;
+import net.librec.eval.EvalStatistics;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.recommender.item.KeyValue;
 import net.librec.recommender.item.RecommendedList;
+import net.librec.recommender.item.TopNList;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Matrix Recommender
@@ -33,6 +39,11 @@ import java.util.*;
  * @author Keqiang Wang (sei.wkq2008@gmail.com)
  */
 public abstract class MatrixRecommender extends AbstractRecommender {
+    /**
+     * the number of users scored by a task of a batch recommendation
+     */
+    private static final int BATCH_SHARD_SIZE = 64;
+
     /**
      * trainMatrix
      */
@@ -84,8 +95,16 @@ public abstract class MatrixRecommender extends AbstractRecommender {
      */
     protected double globalMean;
 
+    /**
+     * the cache of the batch top-N lists, built when {@code rec.cache.enabled} is set
+     */
+    protected TopNCache topNCache;
+
     protected void setup() throws LibrecException{
         super.setup();
+        if (topNCache == null && conf.getBoolean("rec.cache.enabled", false)) {
+            topNCache = TopNCache.build(this, conf);
+        }
         trainMatrix = (SequentialAccessSparseMatrix) getDataModel().getTrainDataSet();
         testMatrix = (SequentialAccessSparseMatrix) getDataModel().getTestDataSet();
         validMatrix = (SequentialAccessSparseMatrix) getDataModel().getValidDataSet();
@@ -106,24 +125,58 @@ public abstract class MatrixRecommender extends AbstractRecommender {
         }
         globalMean = trainMatrix.mean();
 
-        int[] numDroppedItemsArray = new int[numUsers]; // for AUCEvaluator
+        evalStatistics = new EvalStatistics(trainMatrix, testMatrix); // for AUCEvaluator and NoveltyEvaluator
         int maxNumTestItemsByUser = 0; //for idcg
         for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries();
             int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
             maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
         }
 
-        int[] itemPurchasedCount = new int[numItems]; // for NoveltyEvaluator
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            itemPurchasedCount[itemIdx] = trainMatrix.column(itemIdx).getNumEntries()
-                    + testMatrix.column(itemIdx).getNumEntries();
-        }
-
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
         conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser); //for nDCGEvaluator
         conf.setInt("rec.eval.item.num", testMatrix.columnSize()); // for EntropyEvaluator
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount); // for NoveltyEvaluator
+    }
+
+    /**
+     * Train the model, and drop the top-N lists cached for the previous model.
+     *
+     * @param context recommender context
+     * @throws LibrecException if error occurs during training
+     */
+    @Override
+    public void train(RecommenderContext context) throws LibrecException {
+        super.train(context);
+        if (topNCache != null) {
+            topNCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Load the model, and drop the top-N lists cached for the previous model.
+     *
+     * @param filePath the model file path
+     */
+    @Override
+    public void loadModel(String filePath) {
+        super.loadModel(filePath);
+        if (topNCache != null) {
+            topNCache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the cache the batch top-N lists are served from, or null
+     */
+    public TopNCache getTopNCache() {
+        return topNCache;
+    }
+
+    /**
+     * Serve the batch top-N lists from a cache, or rank every request again.
+     *
+     * @param topNCache the cache built on this recommender, or null
+     */
+    public void setTopNCache(TopNCache topNCache) {
+        this.topNCache = topNCache;
     }
 
     /**
@@ -163,12 +216,18 @@ public abstract class MatrixRecommender extends AbstractRecommender {
         contextList.parallelStream().forEach((Integer contextIdx) -> {
             BaseRankingDataEntry baseRankingDataEntry = (BaseRankingDataEntry) dataList.getDataEntry(contextIdx);
             int userIdx = baseRankingDataEntry.getUserId();
+            if (!isCandidateUser(userIdx)) {
+                return;
+            }
 
             int[] items = trainMatrix.row(userIdx).getIndices();
-            List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>(numItems);
-            for (int itemIdx = 0, trainItemIndex = 0; itemIdx < numItems; ++itemIdx) {
-                if (trainItemIndex < items.length && items[trainItemIndex] == itemIdx) {
+            List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>();
+            for (int itemIdx = nextCandidateItem(0), trainItemIndex = 0; itemIdx >= 0 && itemIdx < numItems;
+                 itemIdx = nextCandidateItem(itemIdx + 1)) {
+                while (trainItemIndex < items.length && items[trainItemIndex] < itemIdx) {
                     trainItemIndex++;
+                }
+                if (trainItemIndex < items.length && items[trainItemIndex] == itemIdx) {
                     continue;
                 }
 
@@ -199,6 +258,120 @@ public abstract class MatrixRecommender extends AbstractRecommender {
         return recommendedList;
     }
 
+    /**
+     * Rank the items of a batch of users, identified by their raw ids. Unknown users get an empty list
+     * with user index -1.
+     *
+     * @param userIds        the raw user ids
+     * @param topN           the number of items per user
+     * @param candidateItems the items to rank, or null to rank all items
+     * @param excludedItems  the items never to recommend, or null
+     * @param executor       the executor to score the users on, or null to score them in the calling thread
+     * @return the top-N list of each user, in the order of {@code userIds}
+     * @throws LibrecException if error occurs during recommending
+     */
+    public TopNList[] recommendRank(String[] userIds, int topN, BitSet candidateItems, BitSet excludedItems,
+                                    ExecutorService executor) throws LibrecException {
+        int[] userIdxs = new int[userIds.length];
+        for (int index = 0; index < userIds.length; index++) {
+            Integer userIdx = userMappingData.get(userIds[index]);
+            userIdxs[index] = userIdx != null ? userIdx : -1;
+        }
+        return recommendRank(userIdxs, topN, candidateItems, excludedItems, executor);
+    }
+
+    /**
+     * Rank the items of a batch of users. Only the requested users are scored, each into a bounded heap, and
+     * the items of the training set, the excluded items and the items rejected by the candidate filter are
+     * never scored. The trained model is only read, so concurrent calls are safe. With a {@link TopNCache},
+     * only the users without a cached list are scored.
+     *
+     * @param userIdxs       the inner user indices
+     * @param topN           the number of items per user
+     * @param candidateItems the items to rank, or null to rank all items
+     * @param excludedItems  the items never to recommend, or null
+     * @param executor       the executor to score the users on, or null to score them in the calling thread
+     * @return the top-N list of each user, in the order of {@code userIdxs}
+     * @throws LibrecException if error occurs during recommending
+     */
+    public TopNList[] recommendRank(int[] userIdxs, int topN, BitSet candidateItems, BitSet excludedItems,
+                                    ExecutorService executor) throws LibrecException {
+        if (topNCache != null) {
+            return topNCache.recommendRank(userIdxs, topN, candidateItems, excludedItems, executor);
+        }
+        return rankBatch(userIdxs, topN, candidateItems, excludedItems, executor);
+    }
+
+    /**
+     * Rank the items of a batch of users, bypassing the cache.
+     */
+    TopNList[] rankBatch(int[] userIdxs, int topN, BitSet candidateItems, BitSet excludedItems,
+                         ExecutorService executor) throws LibrecException {
+        TopNList[] topNLists = new TopNList[userIdxs.length];
+        if (executor == null) {
+            rankUsers(userIdxs, 0, userIdxs.length, topN, candidateItems, excludedItems, topNLists);
+            return topNLists;
+        }
+
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < userIdxs.length; from += BATCH_SHARD_SIZE) {
+            int shardFrom = from, shardTo = Math.min(from + BATCH_SHARD_SIZE, userIdxs.length);
+            futures.add(executor.submit(() -> {
+                rankUsers(userIdxs, shardFrom, shardTo, topN, candidateItems, excludedItems, topNLists);
+                return null;
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LibrecException(e);
+        } catch (ExecutionException e) {
+            throw new LibrecException(e.getCause());
+        }
+        return topNLists;
+    }
+
+    private void rankUsers(int[] userIdxs, int from, int to, int topN, BitSet candidateItems, BitSet excludedItems,
+                           TopNList[] topNLists) throws LibrecException {
+        TopNList.Collector collector = new TopNList.Collector(topN);
+        for (int index = from; index < to; index++) {
+            int userIdx = userIdxs[index];
+            if (userIdx < 0 || userIdx >= numUsers) {
+                topNLists[index] = new TopNList(-1, new int[0], new double[0]);
+                continue;
+            }
+            if (!isCandidateUser(userIdx)) {
+                topNLists[index] = new TopNList(userIdx, new int[0], new double[0]);
+                continue;
+            }
+            SequentialSparseVector trainItems = trainMatrix.row(userIdx);
+            int numTrainItems = trainItems.getNumEntries();
+            for (int itemIdx = nextBatchItem(candidateItems, 0), trainPosition = 0; itemIdx >= 0 && itemIdx < numItems;
+                 itemIdx = nextBatchItem(candidateItems, itemIdx + 1)) {
+                while (trainPosition < numTrainItems && trainItems.getIndexAtPosition(trainPosition) < itemIdx) {
+                    trainPosition++;
+                }
+                if ((trainPosition < numTrainItems && trainItems.getIndexAtPosition(trainPosition) == itemIdx)
+                        || (excludedItems != null && excludedItems.get(itemIdx))
+                        || (candidateItems != null && candidateFilter != null && !candidateFilter.acceptItem(itemIdx))) {
+                    continue;
+                }
+                double predictRating = predict(userIdx, itemIdx);
+                if (!Double.isNaN(predictRating)) {
+                    collector.offer(itemIdx, predictRating);
+                }
+            }
+            topNLists[index] = collector.build(userIdx);
+        }
+    }
+
+    private int nextBatchItem(BitSet candidateItems, int fromIdx) {
+        return candidateItems != null ? candidateItems.nextSetBit(fromIdx) : nextCandidateItem(fromIdx);
+    }
+
 
     /**
      * recommend
@@ -20,10 +20,23 @@ package net.librec.recommender;
 import net.librec.common.LibrecException;
 import net.librec.data.convertor.appender.SocialDataAppender;
 import net.librec.math.algorithm.Maths;
+import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+
+import java.util.stream.IntStream;
 
 /**
  * Social Recommender
+ * <p>
+ * The trust links of the social matrix are also kept in compressed row form, once for the trustees of each user
+ * ({@link #trusteePointers}, {@link #trusteeIndices}, {@link #trusteeValues}) and once for its trusters
+ * ({@link #trusterPointers}, {@link #trusterIndices}, {@link #trusterValues}), so that the training loops walk
+ * primitive arrays. The users are split into shards of about the same number of ratings and links, and
+ * {@link #forEachUserShard(UserShardPass, DenseMatrix...)} runs a gradient pass over the shards in parallel: each
+ * shard writes the gradient rows of its own users directly and accumulates the gradients shared by all users, such
+ * as the item gradients, in its own copy, which are summed in shard order afterwards. The result only depends on
+ * the number of shards, {@code rec.social.shards}, which defaults to the number of processors.
  *
  * @author Keqiang Wang
  */
@@ -38,12 +51,138 @@ public abstract class SocialRecommender extends MatrixFactorizationRecommender {
      */
     protected float regSocial;
 
+    /**
+     * the trustees of user u are at positions trusteePointers[u] to trusteePointers[u + 1] of trusteeIndices and
+     * trusteeValues, by ascending index
+     */
+    protected int[] trusteePointers, trusteeIndices;
+    protected double[] trusteeValues;
+
+    /**
+     * the trusters of user u are at positions trusterPointers[u] to trusterPointers[u + 1] of trusterIndices and
+     * trusterValues, by ascending index
+     */
+    protected int[] trusterPointers, trusterIndices;
+    protected double[] trusterValues;
+
+    /**
+     * the users of shard s are shardBounds[s] to shardBounds[s + 1]
+     */
+    protected int[] shardBounds;
+
     @Override
     public void setup() throws LibrecException {
         super.setup();
         regSocial = conf.getFloat("rec.social.regularization", 0.01f);
         // social path for the socialMatrix
         socialMatrix = ((SocialDataAppender) getDataModel().getDataAppender()).getUserAppender();
+        buildTrustAdjacency();
+        int numShards = conf.getInt("rec.social.shards", Runtime.getRuntime().availableProcessors());
+        buildShards(Math.max(1, Math.min(numShards, numUsers)));
+    }
+
+    /**
+     * build the compressed trustee and truster arrays from the social matrix
+     */
+    protected void buildTrustAdjacency() {
+        trusteePointers = new int[numUsers + 1];
+        trusterPointers = new int[numUsers + 1];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            trusteePointers[userIdx + 1] = trusteePointers[userIdx] + socialMatrix.row(userIdx).getNumEntries();
+            trusterPointers[userIdx + 1] = trusterPointers[userIdx] + socialMatrix.column(userIdx).getNumEntries();
+        }
+        trusteeIndices = new int[trusteePointers[numUsers]];
+        trusteeValues = new double[trusteePointers[numUsers]];
+        trusterIndices = new int[trusterPointers[numUsers]];
+        trusterValues = new double[trusterPointers[numUsers]];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            SequentialSparseVector trusteeVector = socialMatrix.row(userIdx);
+            for (int position = 0; position < trusteeVector.getNumEntries(); position++) {
+                trusteeIndices[trusteePointers[userIdx] + position] = trusteeVector.getIndexAtPosition(position);
+                trusteeValues[trusteePointers[userIdx] + position] = trusteeVector.getAtPosition(position);
+            }
+            SequentialSparseVector trusterVector = socialMatrix.column(userIdx);
+            for (int position = 0; position < trusterVector.getNumEntries(); position++) {
+                trusterIndices[trusterPointers[userIdx] + position] = trusterVector.getIndexAtPosition(position);
+                trusterValues[trusterPointers[userIdx] + position] = trusterVector.getAtPosition(position);
+            }
+        }
+    }
+
+    /**
+     * split the users into contiguous shards of about the same number of ratings and links
+     *
+     * @param numShards the number of shards
+     */
+    protected void buildShards(int numShards) {
+        long[] cumulativeWork = new long[numUsers + 1];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            cumulativeWork[userIdx + 1] = cumulativeWork[userIdx] + 1 + trainMatrix.row(userIdx).getNumEntries()
+                    + trusteePointers[userIdx + 1] - trusteePointers[userIdx]
+                    + trusterPointers[userIdx + 1] - trusterPointers[userIdx];
+        }
+        shardBounds = new int[numShards + 1];
+        int userIdx = 0;
+        for (int shardIdx = 1; shardIdx < numShards; shardIdx++) {
+            long shardEnd = cumulativeWork[numUsers] * shardIdx / numShards;
+            while (userIdx < numUsers && cumulativeWork[userIdx] < shardEnd) {
+                userIdx++;
+            }
+            shardBounds[shardIdx] = userIdx;
+        }
+        shardBounds[numShards] = numUsers;
+    }
+
+    /**
+     * A gradient pass over the users of one shard.
+     */
+    protected interface UserShardPass {
+        /**
+         * @param fromUser        the first user of the shard
+         * @param toUser          the user after the last user of the shard
+         * @param sharedGradients the shard's own copies of the shared gradients, in the order they were given
+         * @return the loss accumulated by the shard
+         */
+        double run(int fromUser, int toUser, double[][][] sharedGradients);
+    }
+
+    /**
+     * Run a gradient pass over all shards in parallel. A pass may only write the rows of its own users in the
+     * matrices which are not shared; the shared gradients are summed into the given matrices, in shard order, once
+     * all shards are done.
+     *
+     * @param pass            the gradient pass
+     * @param sharedGradients the gradients written by the users of several shards
+     * @return the loss of all shards
+     */
+    protected double forEachUserShard(UserShardPass pass, DenseMatrix... sharedGradients) {
+        int numShards = shardBounds.length - 1;
+        double[] shardLosses = new double[numShards];
+        double[][][][] shardGradients = new double[numShards][sharedGradients.length][][];
+        IntStream.range(0, numShards).parallel().forEach(shardIdx -> {
+            for (int gradientIdx = 0; gradientIdx < sharedGradients.length; gradientIdx++) {
+                DenseMatrix gradient = sharedGradients[gradientIdx];
+                // the first shard accumulates into the shared gradients directly
+                shardGradients[shardIdx][gradientIdx] = shardIdx == 0 ? gradient.getValues()
+                        : new double[gradient.rowSize()][gradient.columnSize()];
+            }
+            shardLosses[shardIdx] = pass.run(shardBounds[shardIdx], shardBounds[shardIdx + 1], shardGradients[shardIdx]);
+        });
+
+        double shardsLoss = shardLosses[0];
+        for (int shardIdx = 1; shardIdx < numShards; shardIdx++) {
+            shardsLoss += shardLosses[shardIdx];
+            for (int gradientIdx = 0; gradientIdx < sharedGradients.length; gradientIdx++) {
+                double[][] gradientValues = sharedGradients[gradientIdx].getValues();
+                double[][] shardValues = shardGradients[shardIdx][gradientIdx];
+                for (int rowIdx = 0; rowIdx < gradientValues.length; rowIdx++) {
+                    for (int columnIdx = 0; columnIdx < gradientValues[rowIdx].length; columnIdx++) {
+                        gradientValues[rowIdx][columnIdx] += shardValues[rowIdx][columnIdx];
+                    }
+                }
+            }
+        }
+        return shardsLoss;
     }
 
     @Override
@@ -17,8 +17,10 @@
  */
 package net.librec.recommender;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.librec.common.LibrecException;
 import net.librec.data.structure.*;
+import net.librec.eval.EvalStatistics;
 import net.librec.job.progress.ProgressBar;
 import net.librec.math.structure.DataSet;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
@@ -173,27 +175,18 @@ public abstract class TensorRecommender extends AbstractRecommender {
 
 
 
-        int[] numDroppedItemsArray = new int[numUsers]; // for AUCEvaluator
+        evalStatistics = new EvalStatistics(trainMatrix, testMatrix); // for AUCEvaluator and NoveltyEvaluator
         int maxNumTestItemsByUser = 0; //for idcg
         for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numItems - trainMatrix.row(userIdx).getNumEntries();
             int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
             maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
         }
 
-        int[] itemPurchasedCount = new int[numItems]; // for NoveltyEvaluator
-        for (int itemIdx = 0; itemIdx < numItems; ++itemIdx) {
-            itemPurchasedCount[itemIdx] = trainMatrix.column(itemIdx).getNumEntries()
-                    + testMatrix.column(itemIdx).getNumEntries();
-        }
-
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
         conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser); //for nDCGEvaluator
         conf.setInt("rec.eval.item.num", testMatrix.columnSize()); // for EntropyEvaluator
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount); // for NoveltyEvaluator
 
         /**
-         * if you want to use and AUCEvaluator and nDCGEvaluator, please set rec.eval.auc.dropped.num arrays and rec.eval.key.test.max.num value like as AbstractRecommender.
+         * the AUCEvaluator and the NoveltyEvaluator read evalStatistics, and the nDCGEvaluator reads rec.eval.key.test.max.num.
          */
     }
 
@@ -240,25 +233,39 @@ public abstract class TensorRecommender extends AbstractRecommender {
         contextList.parallelStream().forEach((Integer contextIdx) -> {
             BaseRankingDataEntry baseRankingDataEntry = (BaseRankingDataEntry) dataList.getDataEntry(contextIdx);
             int userIdx = baseRankingDataEntry.getUserId();
+            if (!isCandidateUser(userIdx)) {
+                return;
+            }
 
+            // the candidate items which the user has not rated, the only ones to be scored
             int[] items = trainMatrix.row(userIdx).getIndices();
-            List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>();
-            for (int itemIdx = 0, trainItemIndex = 0; itemIdx < numItems; ++itemIdx) {
-                if (trainItemIndex < items.length && items[trainItemIndex] == itemIdx) {
+            IntArrayList candidateItems = new IntArrayList();
+            for (int itemIdx = nextCandidateItem(0), trainItemIndex = 0; itemIdx >= 0 && itemIdx < numItems;
+                 itemIdx = nextCandidateItem(itemIdx + 1)) {
+                while (trainItemIndex < items.length && items[trainItemIndex] < itemIdx) {
                     trainItemIndex++;
+                }
+                if (trainItemIndex < items.length && items[trainItemIndex] == itemIdx) {
                     continue;
                 }
+                candidateItems.add(itemIdx);
+            }
 
-                double predictRating = 0;
-                try {
-                    predictRating = predict(userIdx, itemIdx);
-                } catch (LibrecException e) {
-                    e.printStackTrace();
-                }
+            int[] itemIdxs = candidateItems.toIntArray();
+            double[] itemScores = new double[itemIdxs.length];
+            try {
+                predictItems(userIdx, itemIdxs, itemScores);
+            } catch (LibrecException e) {
+                LOG.error("Failed to rank the items of user " + userIdx + ", the user is skipped", e);
+                return;
+            }
+            List<KeyValue<Integer, Double>> itemValueList = new ArrayList<>();
+            for (int position = 0; position < itemIdxs.length; position++) {
+                double predictRating = itemScores[position];
                 if (Double.isNaN(predictRating)) {
                     continue;
                 }
-                itemValueList.add(new KeyValue<>(itemIdx, predictRating));
+                itemValueList.add(new KeyValue<>(itemIdxs[position], predictRating));
             }
             recommendedList.setList(contextIdx, itemValueList);
             recommendedList.topNRankByIndex(contextIdx, topN);
@@ -385,6 +392,21 @@ public abstract class TensorRecommender extends AbstractRecommender {
         return 0.0;
     }
 
+    /**
+     * predict the ranking scores of some items for user userIdx. Recommenders that can compute the user part of the
+     * prediction once and share it across all items should override this method.
+     *
+     * @param userIdx  user index
+     * @param itemIdxs the items to score
+     * @param scores   array of the length of itemIdxs to be filled with the predictive score of each item
+     * @throws LibrecException if error occurs during predicting
+     */
+    protected void predictItems(int userIdx, int[] itemIdxs, double[] scores) throws LibrecException {
+        for (int position = 0; position < itemIdxs.length; ++position) {
+            scores[position] = predict(userIdx, itemIdxs[position]);
+        }
+    }
+
 
     /**
      * predict a specific rating for user userIdx on item itemIdx with some other contexts indices. Tt is useful for
@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Table;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.increment.IncrementalRatingUpdater;
+import net.librec.increment.TableMatrix;
+import net.librec.recommender.item.TopNList;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Top-N Cache<br>
+ * A bounded cache of the top-N lists of a {@link MatrixRecommender}, keyed by user, topN and a fingerprint of
+ * the candidate and excluded items. Entries are evicted by size and by age, and are invalidated per user after
+ * an incremental update or all at once after the model is trained or loaded again.
+ * <p>
+ * Every key also carries the generations of the cache and of its user, which the invalidations increase, so
+ * a list computed while its user is invalidated is never returned. The user generations are kept in a fixed
+ * number of stripes, so invalidating a user may also retire the lists of the users sharing its stripe.
+ * <p>
+ * The cache is an {@link IncrementalRatingUpdater.BatchListener}, which invalidates the users of each batch.
+ */
+public class TopNCache implements IncrementalRatingUpdater.BatchListener {
+    private static final int NUM_GENERATION_STRIPES = 1 << 12;
+
+    private final MatrixRecommender recommender;
+    private final Cache<Key, TopNList> cache;
+
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLongArray userGenerations = new AtomicLongArray(NUM_GENERATION_STRIPES);
+
+    /**
+     * @param recommender           the trained recommender
+     * @param maximumSize           the maximum number of cached lists
+     * @param expireAfterWriteSecs  the lifetime of a cached list in seconds
+     */
+    public TopNCache(MatrixRecommender recommender, long maximumSize, long expireAfterWriteSecs) {
+        this.recommender = recommender;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteSecs, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Build a cache sized by {@code rec.cache.maximum.size} (100000 by default) with the lifetime
+     * {@code rec.cache.expire.seconds} (600 by default).
+     *
+     * @param recommender the trained recommender
+     * @param conf        the configuration
+     * @return the cache
+     */
+    public static TopNCache build(MatrixRecommender recommender, Configuration conf) {
+        return new TopNCache(recommender, conf.getLong("rec.cache.maximum.size", 100000L),
+                conf.getLong("rec.cache.expire.seconds", 600L));
+    }
+
+    /**
+     * @param userIdx the inner user index
+     * @param topN    the number of items
+     * @return the cached or computed top-N list of the user
+     * @throws LibrecException if error occurs during recommending
+     */
+    public TopNList recommendRank(int userIdx, int topN) throws LibrecException {
+        return recommendRank(userIdx, topN, null, null);
+    }
+
+    /**
+     * @param userIdx        the inner user index
+     * @param topN           the number of items
+     * @param candidateItems the items to rank, or null to rank all items
+     * @param excludedItems  the items never to recommend, or null
+     * @return the cached or computed top-N list of the user
+     * @throws LibrecException if error occurs during recommending
+     */
+    public TopNList recommendRank(int userIdx, int topN, BitSet candidateItems, BitSet excludedItems)
+            throws LibrecException {
+        Key key = newKey(userIdx, topN, fingerprint(candidateItems, excludedItems));
+        try {
+            return cache.get(key, () -> recommender.rankBatch(
+                    new int[]{userIdx}, topN, candidateItems, excludedItems, null)[0]);
+        } catch (ExecutionException e) {
+            throw new LibrecException(e.getCause());
+        }
+    }
+
+    /**
+     * Look up a batch of users and rank only the missing ones, in a single batch on the executor.
+     *
+     * @param userIdxs       the inner user indices
+     * @param topN           the number of items per user
+     * @param candidateItems the items to rank, or null to rank all items
+     * @param excludedItems  the items never to recommend, or null
+     * @param executor       the executor to score the missing users on, or null
+     * @return the top-N list of each user, in the order of {@code userIdxs}
+     * @throws LibrecException if error occurs during recommending
+     */
+    public TopNList[] recommendRank(int[] userIdxs, int topN, BitSet candidateItems, BitSet excludedItems,
+                                    ExecutorService executor) throws LibrecException {
+        long fingerprint = fingerprint(candidateItems, excludedItems);
+        TopNList[] topNLists = new TopNList[userIdxs.length];
+        Key[] keys = new Key[userIdxs.length];
+        int[] missIndices = new int[userIdxs.length];
+        int numMisses = 0;
+        for (int index = 0; index < userIdxs.length; index++) {
+            keys[index] = newKey(userIdxs[index], topN, fingerprint);
+            topNLists[index] = cache.getIfPresent(keys[index]);
+            if (topNLists[index] == null) {
+                missIndices[numMisses++] = index;
+            }
+        }
+        if (numMisses > 0) {
+            int[] missUserIdxs = new int[numMisses];
+            for (int miss = 0; miss < numMisses; miss++) {
+                missUserIdxs[miss] = userIdxs[missIndices[miss]];
+            }
+            TopNList[] missLists = recommender.rankBatch(missUserIdxs, topN, candidateItems, excludedItems, executor);
+            for (int miss = 0; miss < numMisses; miss++) {
+                topNLists[missIndices[miss]] = missLists[miss];
+                cache.put(keys[missIndices[miss]], missLists[miss]);
+            }
+        }
+        return topNLists;
+    }
+
+    /**
+     * Invalidate the lists of a user, e.g. after an incremental update of its ratings.
+     *
+     * @param userIdx the inner user index
+     */
+    public void invalidateUser(int userIdx) {
+        invalidateUsers(userIdx);
+    }
+
+    /**
+     * Invalidate the lists of several users. Their stale lists are never returned again and are left to the
+     * eviction by size and by age.
+     *
+     * @param userIdxs the inner user indices
+     */
+    public void invalidateUsers(int... userIdxs) {
+        for (int userIdx : userIdxs) {
+            userGenerations.incrementAndGet(stripe(userIdx));
+        }
+    }
+
+    /**
+     * Invalidate the lists of the users of incremental ratings, whose rows are the user indices.
+     *
+     * @param ratings the added, updated or removed ratings
+     */
+    public void invalidateUsers(TableMatrix ratings) {
+        Set<Integer> users = new HashSet<>();
+        addUsers(ratings, users);
+        invalidateUsers(users.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Invalidate the lists of the users of an incremental batch.
+     *
+     * @param addedRatings   the added ratings
+     * @param updatedRatings the updated ratings
+     * @param removedRatings the removed ratings
+     */
+    @Override
+    public void onBatch(TableMatrix addedRatings, TableMatrix updatedRatings, TableMatrix removedRatings) {
+        Set<Integer> users = new HashSet<>();
+        addUsers(addedRatings, users);
+        addUsers(updatedRatings, users);
+        addUsers(removedRatings, users);
+        if (!users.isEmpty()) {
+            invalidateUsers(users.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    private static void addUsers(TableMatrix ratings, Set<Integer> users) {
+        Iterator<Table.Cell<Integer, Integer, Double>> iterator = ratings.iterator();
+        while (iterator.hasNext()) {
+            users.add(iterator.next().getRowKey());
+        }
+    }
+
+    /**
+     * Invalidate every list, e.g. after the model is trained or loaded again.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the hit, miss, load and eviction counts
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    /**
+     * @return the ratio of lookups served from the cache
+     */
+    public double hitRate() {
+        return cache.stats().hitRate();
+    }
+
+    /**
+     * @return the approximate number of cached lists
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    private Key newKey(int userIdx, int topN, long fingerprint) {
+        return new Key(userIdx, topN, fingerprint, generation.get(), userGenerations.get(stripe(userIdx)));
+    }
+
+    private static int stripe(int userIdx) {
+        int hash = userIdx * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (NUM_GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * @param candidateItems the items to rank, or null
+     * @param excludedItems  the items never to recommend, or null
+     * @return a 64-bit fingerprint of the item filter
+     */
+    public static long fingerprint(BitSet candidateItems, BitSet excludedItems) {
+        return mix(mix(0x9E3779B97F4A7C15L, candidateItems), excludedItems);
+    }
+
+    private static long mix(long hash, BitSet bitSet) {
+        if (bitSet == null) {
+            return hash * 0xBF58476D1CE4E5B9L + 1;
+        }
+        for (long word : bitSet.toLongArray()) {
+            hash = (hash ^ word) * 0x94D049BB133111EBL;
+            hash ^= hash >>> 31;
+        }
+        return hash * 0xBF58476D1CE4E5B9L + 2;
+    }
+
+    private static final class Key {
+        private final int userIdx;
+        private final int topN;
+        private final long fingerprint;
+        private final long generation;
+        private final long userGeneration;
+
+        private Key(int userIdx, int topN, long fingerprint, long generation, long userGeneration) {
+            this.userIdx = userIdx;
+            this.topN = topN;
+            this.fingerprint = fingerprint;
+            this.generation = generation;
+            this.userGeneration = userGeneration;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return userIdx == other.userIdx && topN == other.topN && fingerprint == other.fingerprint
+                    && generation == other.generation && userGeneration == other.userGeneration;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = userIdx;
+            result = 31 * result + topN;
+            result = 31 * result + Long.hashCode(fingerprint);
+            result = 31 * result + Long.hashCode(generation);
+            result = 31 * result + Long.hashCode(userGeneration);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.DenseVector;
+import net.librec.math.structure.Matrix;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.VectorBasedDenseVector;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Training Checkpoint<br>
+ * Periodic checkpoints of a training loop: the number of completed iterations, the fields named by the
+ * recommender (the {@link net.librec.annotation.ModelData} fields, the learning rate schedule and whatever else
+ * its loop needs to continue), and the state of {@link Randoms}.
+ * <p>
+ * The fields are copied on the training thread, which only costs a copy of the model in memory, and written to
+ * a temporary file and moved over the checkpoint by a background thread. A checkpoint that falls due while the
+ * previous one is still being written is skipped, so a slow disk never stalls training.
+ * <p>
+ * The checkpoint is configured by {@code rec.checkpoint.dir}, {@code rec.checkpoint.interval} (in
+ * iterations) and {@code rec.checkpoint.keep} (keep the checkpoint after a completed training).
+ * <p>
+ * Every fold of a cross validation has its own checkpoint file, and a checkpoint carries a fingerprint of the
+ * configuration, the data and the fold. A checkpoint whose fingerprint differs, e.g. one left behind by
+ * another dataset, is ignored and the training starts from the first iteration.
+ * <p>
+ * A field name may be a path such as {@code beta.shape}, which names the field {@code shape} of the object
+ * held by the field {@code beta}.
+ */
+public class TrainingCheckpoint implements Closeable {
+    private static final Log LOG = LogFactory.getLog(TrainingCheckpoint.class);
+
+    /**
+     * the configuration prefixes and keys which are written at runtime or do not change the training steps
+     */
+    private static final String[] IGNORED_PREFIXES = {"rec.checkpoint.", "rec.eval.", "rec.job."};
+    private static final Set<String> IGNORED_KEYS = new HashSet<>(Arrays.asList("rec.iterator.maximum",
+            "rec.recommender.verbose", "train.current.progress", "data.convert.read.ready",
+            "data.appender.read.ready", "feature.appender.read.ready"));
+
+    private final AbstractRecommender recommender;
+    private final File file;
+    private final int interval;
+    private final String fingerprint;
+    private final ExecutorService writer;
+    private Future<?> pending;
+
+    /**
+     * @param recommender the recommender whose fields are saved
+     * @param file        the checkpoint file
+     * @param interval    the number of iterations between two checkpoints
+     */
+    public TrainingCheckpoint(AbstractRecommender recommender, File file, int interval) {
+        this(recommender, file, interval, null);
+    }
+
+    /**
+     * @param recommender the recommender whose fields are saved
+     * @param file        the checkpoint file
+     * @param interval    the number of iterations between two checkpoints
+     * @param fingerprint the fingerprint a checkpoint must carry to be resumed, or null to resume any
+     */
+    public TrainingCheckpoint(AbstractRecommender recommender, File file, int interval, String fingerprint) {
+        this.recommender = recommender;
+        this.file = file;
+        this.interval = Math.max(1, interval);
+        this.fingerprint = fingerprint;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Build the checkpoint of a recommender from the {@code rec.checkpoint.*} configuration.
+     *
+     * @param recommender the recommender whose fields are saved
+     * @param conf        the configuration
+     * @param fold        the index of the training of the recommender, i.e. the fold of a cross validation
+     * @return the checkpoint, or null if {@code rec.checkpoint.dir} is not set
+     */
+    public static TrainingCheckpoint build(AbstractRecommender recommender, Configuration conf, int fold) {
+        String directory = conf.get("rec.checkpoint.dir");
+        if (StringUtils.isBlank(directory)) {
+            return null;
+        }
+        File file = new File(directory, recommender.getClass().getSimpleName() + "-" + fold + ".ckpt");
+        return new TrainingCheckpoint(recommender, file, conf.getInt("rec.checkpoint.interval", 10),
+                fingerprint(conf, recommender.getDataModel(), fold));
+    }
+
+    /**
+     * The fingerprint of a training: a hash of the configuration, the numbers of users, items and training
+     * ratings, and the fold.
+     *
+     * @param conf      the configuration
+     * @param dataModel the data model
+     * @param fold      the fold
+     * @return the fingerprint
+     */
+    public static String fingerprint(Configuration conf, DataModel dataModel, int fold) {
+        SortedMap<String, String> entries = new TreeMap<>();
+        for (Iterator<Map.Entry<String, String>> iterator = conf.iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (!isIgnored(entry.getKey())) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return String.format("conf=%08x users=%d items=%d ratings=%d fold=%d", entries.hashCode(),
+                dataModel.getUserMappingData().size(), dataModel.getItemMappingData().size(),
+                dataModel.getTrainDataSet().size(), fold);
+    }
+
+    private static boolean isIgnored(String key) {
+        for (String prefix : IGNORED_PREFIXES) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return IGNORED_KEYS.contains(key);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Restore the fields and the random state from the checkpoint, if there is one.
+     *
+     * @return the number of completed iterations, 0 if there is no checkpoint
+     * @throws LibrecException if the checkpoint can not be read or does not match the recommender
+     */
+    public int resume() throws LibrecException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        State state;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            state = (State) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new LibrecException(e);
+        }
+        if (!recommender.getClass().getName().equals(state.recommenderClass)) {
+            throw new LibrecException("the checkpoint " + file + " belongs to " + state.recommenderClass);
+        }
+        if (fingerprint != null && !fingerprint.equals(state.fingerprint)) {
+            LOG.warn("The checkpoint " + file + " was saved for " + state.fingerprint + ", not for " + fingerprint
+                    + ", the training starts from the first iteration");
+            return 0;
+        }
+        try {
+            for (Map.Entry<String, Object> entry : state.fields.entrySet()) {
+                Object owner = owner(entry.getKey());
+                Field field = owner != null ? findField(owner.getClass(), fieldName(entry.getKey())) : null;
+                if (field == null) {
+                    throw new LibrecException("the checkpoint " + file + " has the unknown field " + entry.getKey());
+                }
+                restore(owner, field, entry.getValue());
+            }
+            Randoms.setRandom((Random) deserialize(state.random));
+        } catch (IllegalAccessException | IOException | ClassNotFoundException e) {
+            throw new LibrecException(e);
+        }
+        LOG.info("Resumed " + state.recommenderClass + " from the checkpoint of iteration " + state.iteration);
+        return state.iteration;
+    }
+
+    /**
+     * Save a checkpoint after an iteration if it is due and the previous one has been written.
+     *
+     * @param iteration the number of completed iterations
+     */
+    public void save(int iteration) {
+        if (iteration % interval != 0) {
+            return;
+        }
+        if (pending != null && !pending.isDone()) {
+            LOG.info("Checkpoint of iteration " + iteration + " skipped, the previous one is still being written");
+            return;
+        }
+        State state = new State();
+        state.recommenderClass = recommender.getClass().getName();
+        state.fingerprint = fingerprint;
+        state.iteration = iteration;
+        try {
+            for (String name : recommender.getCheckpointFields()) {
+                Object owner = owner(name);
+                Field field = owner != null ? findField(owner.getClass(), fieldName(name)) : null;
+                if (field != null) {
+                    state.fields.put(name, copy(field.get(owner)));
+                }
+            }
+            state.random = serialize(Randoms.getRandom());
+        } catch (IllegalAccessException | IOException e) {
+            LOG.error("Could not capture the checkpoint of iteration " + iteration, e);
+            return;
+        }
+        pending = writer.submit(() -> write(state));
+    }
+
+    private void write(State state) {
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            try (FileOutputStream fileOut = new FileOutputStream(temporary)) {
+                ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(fileOut));
+                out.writeObject(state);
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error("Could not write the checkpoint " + file, e);
+        }
+    }
+
+    /**
+     * Wait for the checkpoint being written and stop the writer.
+     */
+    @Override
+    public void close() {
+        try {
+            if (pending != null) {
+                pending.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("Could not write the checkpoint " + file, e);
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * Wait for the checkpoint being written and delete the checkpoint.
+     */
+    public void delete() {
+        close();
+        if (file.isFile() && !file.delete()) {
+            LOG.error("Could not delete the checkpoint " + file);
+        }
+    }
+
+    /**
+     * @return the object which holds the last field of a field path, or null if the path is broken
+     */
+    private Object owner(String path) throws IllegalAccessException {
+        Object owner = recommender;
+        String[] names = path.split("\\.");
+        for (int index = 0; index < names.length - 1 && owner != null; index++) {
+            Field field = findField(owner.getClass(), names[index]);
+            owner = field != null ? field.get(owner) : null;
+        }
+        return owner;
+    }
+
+    private static String fieldName(String path) {
+        return path.substring(path.lastIndexOf('.') + 1);
+    }
+
+    private static Field findField(Class<?> clazz, String name) {
+        for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+            try {
+                Field field = current.getDeclaredField(name);
+                if (Modifier.isStatic(field.getModifiers())) {
+                    return null;
+                }
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // look in the superclass
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy a field value into a serializable state which does not share memory with the model. The matrices
+     * and vectors are copied by value, since their base classes are not serializable.
+     */
+    private static Object copy(Object value) throws IOException {
+        if (value == null || value instanceof Number || value instanceof Boolean || value instanceof String
+                || value instanceof Character) {
+            return value;
+        } else if (value instanceof DenseMatrix) {
+            double[][] values = ((DenseMatrix) value).getValues();
+            double[][] copy = new double[values.length][];
+            for (int row = 0; row < values.length; row++) {
+                copy[row] = values[row].clone();
+            }
+            return new DenseState(copy);
+        } else if (value instanceof DenseVector) {
+            return new VectorState(((DenseVector) value).getValues().clone());
+        } else if (value instanceof Matrix) {
+            return EntryState.of((Matrix) value);
+        } else if (value.getClass().isArray() && value.getClass().getComponentType().isPrimitive()) {
+            int length = Array.getLength(value);
+            Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+            System.arraycopy(value, 0, copy, 0, length);
+            return copy;
+        } else if (value.getClass().isArray() && value.getClass().getComponentType().isArray()) {
+            int length = Array.getLength(value);
+            Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+            for (int index = 0; index < length; index++) {
+                Array.set(copy, index, copy(Array.get(value, index)));
+            }
+            return copy;
+        } else if (value instanceof Serializable) {
+            return new SerializedState(serialize(value));
+        }
+        throw new NotSerializableException(value.getClass().getName());
+    }
+
+    private void restore(Object owner, Field field, Object value) throws IllegalAccessException, IOException,
+            ClassNotFoundException, LibrecException {
+        Object current = field.get(owner);
+        if (value instanceof DenseState) {
+            double[][] values = ((DenseState) value).values;
+            if (current instanceof DenseMatrix && ((DenseMatrix) current).rowSize() == values.length
+                    && (values.length == 0 || ((DenseMatrix) current).columnSize() == values[0].length)) {
+                double[][] currentValues = ((DenseMatrix) current).getValues();
+                for (int row = 0; row < values.length; row++) {
+                    System.arraycopy(values[row], 0, currentValues[row], 0, values[row].length);
+                }
+            } else {
+                field.set(owner, new DenseMatrix(values));
+            }
+        } else if (value instanceof VectorState) {
+            double[] values = ((VectorState) value).values;
+            if (current instanceof DenseVector && ((DenseVector) current).cardinality() == values.length) {
+                for (int index = 0; index < values.length; index++) {
+                    ((DenseVector) current).set(index, values[index]);
+                }
+            } else {
+                field.set(owner, new VectorBasedDenseVector(values));
+            }
+        } else if (value instanceof EntryState) {
+            if (!(current instanceof Matrix)) {
+                throw new LibrecException("the matrix " + field.getName() + " must be built before it is resumed");
+            }
+            ((EntryState) value).restore((Matrix) current);
+        } else if (value instanceof SerializedState) {
+            field.set(owner, deserialize(((SerializedState) value).bytes));
+        } else {
+            field.set(owner, value);
+        }
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    private static class State implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private String recommenderClass;
+        private String fingerprint;
+        private int iteration;
+        private LinkedHashMap<String, Object> fields = new LinkedHashMap<>();
+        private byte[] random;
+    }
+
+    private static class DenseState implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final double[][] values;
+
+        private DenseState(double[][] values) {
+            this.values = values;
+        }
+    }
+
+    private static class VectorState implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final double[] values;
+
+        private VectorState(double[] values) {
+            this.values = values;
+        }
+    }
+
+    /**
+     * the non-zero entries of a sparse matrix, restored into the matrix built by the recommender
+     */
+    private static class EntryState implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private int[] rows;
+        private int[] columns;
+        private double[] values;
+
+        private static EntryState of(Matrix matrix) {
+            IntArrayList rows = new IntArrayList();
+            IntArrayList columns = new IntArrayList();
+            DoubleArrayList values = new DoubleArrayList();
+            for (MatrixEntry matrixEntry : matrix) {
+                rows.add(matrixEntry.row());
+                columns.add(matrixEntry.column());
+                values.add(matrixEntry.get());
+            }
+            EntryState state = new EntryState();
+            state.rows = rows.toIntArray();
+            state.columns = columns.toIntArray();
+            state.values = values.toDoubleArray();
+            return state;
+        }
+
+        private void restore(Matrix matrix) {
+            for (int index = 0; index < rows.length; index++) {
+                matrix.set(rows[index], columns[index], values[index]);
+            }
+        }
+    }
+
+    private static class SerializedState implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final byte[] bytes;
+
+        private SerializedState(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
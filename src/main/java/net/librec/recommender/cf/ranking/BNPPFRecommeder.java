@@ -6,6 +6,9 @@ import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.*;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
+import java.util.Arrays;
+import java.util.Set;
+
 
 /**
  * Gopalan, P., Ruiz, F. J., Ranganath, R., & Blei, D. M.
@@ -107,6 +110,7 @@ public class BNPPFRecommeder extends MatrixFactorizationRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
+        int resumedIterations = resumeIteration();
 
         computeExpectations();
 
@@ -114,7 +118,7 @@ public class BNPPFRecommeder extends MatrixFactorizationRecommender {
 
         DenseVector phi = new VectorBasedDenseVector(numFactors);
 
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = resumedIterations + 1; iter <= numIterations; iter++) {
             clearState();
             for (int u=0; u<numUsers; u++) {
                 SequentialSparseVector items = trainMatrix.row(u);
@@ -137,12 +141,26 @@ public class BNPPFRecommeder extends MatrixFactorizationRecommender {
 
             updateItems();
 
+            saveCheckpoint(iter);
         }
 
         itemFactors = new DenseMatrix(beta.value);
 
     }
 
+    /**
+     * The sticks, the user factors and the variational parameters of the Gamma distributions of the user
+     * scalars and the item weights. Their expectations and sums are recomputed before the loop.
+     *
+     * @return the names of the fields saved by the checkpoints
+     */
+    @Override
+    protected Set<String> getCheckpointFields() {
+        Set<String> fields = super.getCheckpointFields();
+        fields.addAll(Arrays.asList("v", "pi", "logpi", "s.shape", "s.rate", "beta.shape", "beta.rate"));
+        return fields;
+    }
+
     private void computeExpectations() {
         s.computeExpectations();
         beta.computeExpectations();
@@ -45,9 +45,14 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
     protected void trainModel() throws LibrecException {
 
         IntOpenHashSet[] userItemsSet = getUserItemsSet(trainMatrix);
-        int maxSample = trainMatrix.size();
+        // after a warm start only the users whose train rows changed are sampled
+        int[] sampleUsers = getTrainUsers();
+        int maxSample = 0;
+        for (int userIdx : sampleUsers) {
+            maxSample += userItemsSet[userIdx].size();
+        }
 
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = resumeIteration() + 1; iter <= numIterations; iter++) {
 
             loss = 0.0d;
             for (int sampleCount = 0; sampleCount < maxSample; sampleCount++) {
@@ -55,7 +60,7 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
                 // randomly draw (userIdx, posItemIdx, negItemIdx)
                 int userIdx, posItemIdx, negItemIdx;
                 while (true) {
-                    userIdx = Randoms.uniform(numUsers);
+                    userIdx = sampleUsers[Randoms.uniform(sampleUsers.length)];
                     Set<Integer> itemSet = userItemsSet[userIdx];
                     if (itemSet.size() == 0 || itemSet.size() == numItems)
                         continue;
@@ -95,6 +100,7 @@ public class BPRRecommender extends MatrixFactorizationRecommender {
                 break;
             }
             updateLRate(iter);
+            saveCheckpoint(iter);
         }
     }
 
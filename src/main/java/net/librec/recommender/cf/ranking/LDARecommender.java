@@ -26,6 +26,9 @@ import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.MatrixProbabilisticGraphicalRecommender;
 
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Latent Dirichlet Allocation for implicit feedback: Tom Griffiths, <strong>Gibbs sampling in the generative model of
@@ -275,6 +278,18 @@ public class LDARecommender extends MatrixProbabilisticGraphicalRecommender {
         numStats++;
     }
 
+    /**
+     * The state of the Gibbs sampler: the topic assignments, the counts and the sums of the samples.
+     *
+     * @return the names of the fields saved by the checkpoints
+     */
+    @Override
+    protected Set<String> getCheckpointFields() {
+        return new LinkedHashSet<>(Arrays.asList("topicAssignments", "userTopicNumbers", "userTokenNumbers",
+                "topicItemNumbers", "topicTokenNumbers", "alpha", "beta", "userTopicProbsSum", "topicItemProbsSum",
+                "userTopicProbs", "topicItemProbs", "numStats"));
+    }
+
     @Override
     protected void estimateParams() {
         userTopicProbs = userTopicProbsSum.times(1.0 / numStats);
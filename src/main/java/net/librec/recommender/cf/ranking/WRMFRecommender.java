@@ -80,17 +80,18 @@ public class WRMFRecommender extends MatrixFactorizationRecommender {
 //        DenseVector userFactorVector;
 //        DenseVector itemFactorVector;
 
+        // after a warm start only the rows which changed are solved
         List<Integer> userList = new ArrayList<>(numUsers);
         List<Integer> itemList = new ArrayList<>(numItems);
-        for (int userIndex=0; userIndex <  numUsers; userIndex++){
+        for (int userIndex : getTrainUsers()) {
             userList.add(userIndex);
         }
 
-        for (int itemIndex=0; itemIndex <  numItems; itemIndex++){
+        for (int itemIndex : getTrainItems()) {
             itemList.add(itemIndex);
         }
 
-        for (int iter = 1; iter <= numIterations; iter++) {
+        for (int iter = resumeIteration() + 1; iter <= numIterations; iter++) {
             // Step 1: update user factors;
             DenseMatrix YtY = Y.transpose().times(Y);
             userList.parallelStream().forEach(userIndex->{
@@ -172,6 +173,7 @@ public class WRMFRecommender extends MatrixFactorizationRecommender {
             if (verbose) {
                 LOG.info(getClass() + " runs at iteration = " + iter + " " + new Date());
             }
+            saveCheckpoint(iter);
         }
     }
 }
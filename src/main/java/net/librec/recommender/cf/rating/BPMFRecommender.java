@@ -23,7 +23,10 @@ import net.librec.math.structure.*;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 /**
  * Salakhutdinov and Mnih, <strong>Bayesian Probabilistic Matrix Factorization using Markov Chain Monte Carlo</strong>,
@@ -46,6 +49,11 @@ public class BPMFRecommender extends MatrixFactorizationRecommender {
 
     private int gibbsIterations;
 
+    /**
+     * base seed of the per-row random streams used by the parallel Gibbs sampler
+     */
+    private long samplerSeed;
+
     private RowSequentialAccessSparseMatrix predictMatrix;
 
     public class HyperParameters {
@@ -72,6 +80,7 @@ public class BPMFRecommender extends MatrixFactorizationRecommender {
 
         ratingSigma = conf.getDouble("rec.recommender.rating.sigma", 2.0);
         gibbsIterations = conf.getInt("rec.recommender.gibbs.iterations",1);
+        samplerSeed = conf.getLong("rec.random.seed", System.currentTimeMillis());
 
     }
 
@@ -111,6 +120,7 @@ public class BPMFRecommender extends MatrixFactorizationRecommender {
     @Override
     protected void trainModel() throws LibrecException {
         initModel();
+        int resumedIterations = resumeIteration();
 
         // Speed up getting user or item vector in Gibbs sampling
         List<SequentialSparseVector> userTrainVectors = new ArrayList<SequentialSparseVector>(numUsers);
@@ -133,34 +143,52 @@ public class BPMFRecommender extends MatrixFactorizationRecommender {
 
         HyperParameters userHyperParameters = new HyperParameters(mu_u, variance_u);
         HyperParameters itemHyperParameters = new HyperParameters(mu_m, variance_m);
-        for (int iter = 0; iter < numIterations; iter++) {
+
+        List<Integer> userList = new ArrayList<>(numUsers);
+        List<Integer> itemList = new ArrayList<>(numItems);
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            userList.add(userIndex);
+        }
+        for (int itemIndex = 0; itemIndex < numItems; itemIndex++) {
+            itemList.add(itemIndex);
+        }
+        ThreadLocal<GibbsWorkspace> workspaces = ThreadLocal.withInitial(() -> new GibbsWorkspace(numFactors));
+
+        for (int iter = resumedIterations; iter < numIterations; iter++) {
             userHyperParameters = samplingHyperParameters(userHyperParameters, userFactors, userMu, userBeta, userWishartScale, userWishartNu);
             itemHyperParameters = samplingHyperParameters(itemHyperParameters, itemFactors, itemMu, itemBeta, itemWishartScale, itemWishartNu);
 
-            for (int gibbsIteration = 0; gibbsIteration < gibbsIterations; gibbsIteration++) {
+            // conditional on the hyper parameters all users (resp. all items) are independent, hence they are
+            // sampled in parallel; every row draws from its own stream so the result does not depend on scheduling
+            double[][] userPrecision = userHyperParameters.variance.getValues();
+            double[] userPrecisionMu = userHyperParameters.variance.times(userHyperParameters.mu).getValues();
+            double[][] itemPrecision = itemHyperParameters.variance.getValues();
+            double[] itemPrecisionMu = itemHyperParameters.variance.times(itemHyperParameters.mu).getValues();
 
-                for (int u = 0; u < numUsers; u++) {
-                    SequentialSparseVector ratings = userTrainVectors.get(u);
-                    int count = ratings.getNumEntries();
-                    if (count == 0) {
-                        continue;
+            for (int gibbsIteration = 0; gibbsIteration < gibbsIterations; gibbsIteration++) {
+                long userSeed = streamSeed(samplerSeed, iter, gibbsIteration, 0);
+                userList.parallelStream().forEach(userIndex -> {
+                    SequentialSparseVector ratings = userTrainVectors.get(userIndex);
+                    if (ratings.getNumEntries() == 0) {
+                        return;
                     }
-
-                    DenseVector updatedParameters = updateParameters(itemFactors, ratings, userHyperParameters);
-                    userFactors.row(u).assign((index, value) -> updatedParameters.get(index));
-                }
-
-                for (int i = 0; i < numItems; i++) {
-                    SequentialSparseVector ratings = itemTrainVectors.get(i);
-                    int count = ratings.getNumEntries();
-                    if (count == 0) {
-                        continue;
+                    GibbsWorkspace workspace = workspaces.get();
+                    workspace.random.setSeed(streamSeed(userSeed, userIndex));
+                    sampleFactors(itemFactors, ratings, userPrecision, userPrecisionMu, workspace,
+                            userFactors.getValues()[userIndex]);
+                });
+
+                long itemSeed = streamSeed(samplerSeed, iter, gibbsIteration, 1);
+                itemList.parallelStream().forEach(itemIndex -> {
+                    SequentialSparseVector ratings = itemTrainVectors.get(itemIndex);
+                    if (ratings.getNumEntries() == 0) {
+                        return;
                     }
-
-                    DenseVector updatedParameters = updateParameters(userFactors, ratings, itemHyperParameters);
-                    itemFactors.row(i).assign((index, value) -> updatedParameters.get(index));
-                }
-
+                    GibbsWorkspace workspace = workspaces.get();
+                    workspace.random.setSeed(streamSeed(itemSeed, itemIndex));
+                    sampleFactors(userFactors, ratings, itemPrecision, itemPrecisionMu, workspace,
+                            itemFactors.getValues()[itemIndex]);
+                });
             }
 
             if (iter == 1) {
@@ -180,9 +208,22 @@ public class BPMFRecommender extends MatrixFactorizationRecommender {
                     predictMatrix.set(userIdx, itemIdx, predictValue);
                 }
             }
+            saveCheckpoint(iter + 1);
         }
     }
 
+    /**
+     * The factors, the running average of the predictions and the seed of the sampler streams.
+     *
+     * @return the names of the fields saved by the checkpoints
+     */
+    @Override
+    protected Set<String> getCheckpointFields() {
+        Set<String> fields = super.getCheckpointFields();
+        fields.addAll(Arrays.asList("predictMatrix", "samplerSeed"));
+        return fields;
+    }
+
     protected HyperParameters samplingHyperParameters(HyperParameters hyperParameters, DenseMatrix factors, DenseVector normalMu0, double normalBeta0, DenseMatrix WishartScale0, double WishartNu0) throws LibrecException {
         int numRows = factors.rowSize();
         int numColumns = factors.columnSize();
@@ -219,39 +260,133 @@ public class BPMFRecommender extends MatrixFactorizationRecommender {
         return hyperParameters;
     }
 
-    protected DenseVector updateParameters(DenseMatrix factors, SequentialSparseVector ratings, HyperParameters hyperParameters) throws LibrecException {
-        int num = ratings.getNumEntries();
-        DenseMatrix XX = new DenseMatrix(num, numFactors);
-        DenseVector ratingsReg = new VectorBasedDenseVector(num);
-
-        int index = 0;
-        for (int j : ratings.getIndices()) {
-            ratingsReg.set(index, ratings.get(j) - globalMean);
-            XX.row(index).assign((index1, value) -> factors.row(j).get(index1));
-            index++;
+    /**
+     * Draw the factor vector of one user (or item) from its Gaussian conditional posterior and write it into
+     * {@code target}. The posterior precision is factorized in place by Cholesky decomposition, so neither the
+     * covariance matrix nor any intermediate object is allocated.
+     *
+     * @param factors         factors of the opposite side (item factors when sampling a user and vice versa)
+     * @param ratings         training ratings of the row being sampled
+     * @param hyperPrecision  precision matrix of the hyper parameters
+     * @param hyperPrecisionMu product of the hyper precision matrix and the hyper mean
+     * @param workspace       per-thread workspace
+     * @param target          factor row to be overwritten with the sample
+     */
+    protected void sampleFactors(DenseMatrix factors, SequentialSparseVector ratings, double[][] hyperPrecision,
+                                 double[] hyperPrecisionMu, GibbsWorkspace workspace, double[] target) {
+        double[][] lower = workspace.lower;
+        double[] mean = workspace.mean;
+        double[] noise = workspace.noise;
+        double[][] factorValues = factors.getValues();
+
+        for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
+            System.arraycopy(hyperPrecision[rowIndex], 0, lower[rowIndex], 0, rowIndex + 1);
+            mean[rowIndex] = hyperPrecisionMu[rowIndex];
+        }
+        for (int position = 0, num = ratings.getNumEntries(); position < num; position++) {
+            double[] factorVector = factorValues[ratings.getIndexAtPosition(position)];
+            double weightedRating = ratingSigma * (ratings.getAtPosition(position) - globalMean);
+            for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
+                double weightedFactor = ratingSigma * factorVector[rowIndex];
+                mean[rowIndex] += weightedRating * factorVector[rowIndex];
+                double[] lowerRow = lower[rowIndex];
+                for (int columnIndex = 0; columnIndex <= rowIndex; columnIndex++) {
+                    lowerRow[columnIndex] += weightedFactor * factorVector[columnIndex];
+                }
+            }
         }
 
-        DenseMatrix covar = hyperParameters.variance.plus((XX.transpose().times(XX)).times(ratingSigma)).inverse();
-        DenseVector mu = XX.transpose().times(ratingsReg).times(ratingSigma);
-        DenseVector result = mu.plus(hyperParameters.variance.times(hyperParameters.mu));
-        mu.assign((index1, value) -> result.get(index1));
-        mu = covar.times(mu);
+        // precision = L * L^T, computed in place on the lower triangle
+        for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
+            double[] lowerRow = lower[rowIndex];
+            for (int columnIndex = 0; columnIndex <= rowIndex; columnIndex++) {
+                double[] lowerRow_2 = lower[columnIndex];
+                double sum = lowerRow[columnIndex];
+                for (int k = 0; k < columnIndex; k++) {
+                    sum -= lowerRow[k] * lowerRow_2[k];
+                }
+                if (rowIndex == columnIndex) {
+                    if (!(sum > 0.0D)) {
+                        // not positive definite, keep the previous sample
+                        return;
+                    }
+                    lowerRow[rowIndex] = Math.sqrt(sum);
+                } else {
+                    lowerRow[columnIndex] = sum / lower[columnIndex][columnIndex];
+                }
+            }
+        }
 
-        DenseVector factorVector = new VectorBasedDenseVector(numFactors);
+        // mean = precision^-1 * b, by forward substitution (L y = b) and backward substitution (L^T mean = y)
+        for (int rowIndex = 0; rowIndex < numFactors; rowIndex++) {
+            double sum = mean[rowIndex];
+            for (int k = 0; k < rowIndex; k++) {
+                sum -= lower[rowIndex][k] * mean[k];
+            }
+            mean[rowIndex] = sum / lower[rowIndex][rowIndex];
+        }
+        backSubstitution(lower, mean);
 
-        DenseMatrix lam = covar.cholesky();
-        if (lam != null) {
-            lam = lam.transpose();
-            for (int f = 0; f < numFactors; f++)
-                factorVector.set(f, Randoms.gaussian(0, 1));
+        // L^T x = z gives x ~ N(0, precision^-1)
+        for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+            noise[factorIndex] = workspace.random.nextGaussian();
+        }
+        backSubstitution(lower, noise);
 
-            DenseVector w1_P1_u = lam.times(factorVector).plus(mu);
+        for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+            target[factorIndex] = mean[factorIndex] + noise[factorIndex];
+        }
+    }
 
-            for (int f = 0; f < numFactors; f++) {
-                factorVector.set(f, w1_P1_u.get(f));
+    /**
+     * Solve L^T x = y in place, where L is the lower triangular Cholesky factor.
+     *
+     * @param lower  lower triangular matrix
+     * @param vector right hand side, overwritten with the solution
+     */
+    private void backSubstitution(double[][] lower, double[] vector) {
+        for (int rowIndex = numFactors - 1; rowIndex >= 0; rowIndex--) {
+            double sum = vector[rowIndex];
+            for (int k = rowIndex + 1; k < numFactors; k++) {
+                sum -= lower[k][rowIndex] * vector[k];
             }
+            vector[rowIndex] = sum / lower[rowIndex][rowIndex];
+        }
+    }
+
+    /**
+     * Derive the seed of an independent random stream from a base seed and a sequence of stream keys
+     * (SplitMix64 finalizer).
+     *
+     * @param seed base seed
+     * @param keys stream keys
+     * @return seed of the derived stream
+     */
+    private static long streamSeed(long seed, long... keys) {
+        long hash = seed;
+        for (long key : keys) {
+            hash += 0x9E3779B97F4A7C15L + key;
+            hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+            hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+            hash = hash ^ (hash >>> 31);
+        }
+        return hash;
+    }
+
+    /**
+     * Per-thread scratch space of the Gibbs sampler, reused across all rows sampled by the thread.
+     */
+    protected static class GibbsWorkspace {
+        private final Random random = new Random();
+        private final double[][] lower;
+        private final double[] mean;
+        private final double[] noise;
+
+        GibbsWorkspace(int numFactors) {
+            lower = new double[numFactors][numFactors];
+            mean = new double[numFactors];
+            noise = new double[numFactors];
         }
-        return factorVector;
     }
 
     @Override
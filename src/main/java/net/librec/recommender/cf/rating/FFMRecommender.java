@@ -21,7 +21,6 @@ package net.librec.recommender.cf.rating;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.TensorEntry;
 import net.librec.math.structure.Vector.VectorEntry;
 import net.librec.math.structure.VectorBasedSequentialSparseVector;
 import net.librec.recommender.FactorizationMachineRecommender;
@@ -77,67 +76,85 @@ public class FFMRecommender extends FactorizationMachineRecommender {
     }
 
     private void buildRatingModel() throws LibrecException {
-        for (int iter = 0; iter < numIterations; iter++) {
-            loss = 0.0;
-
-            int userDimension = trainTensor.getUserDimension();
-            int itemDimension = trainTensor.getItemDimension();
-            for (TensorEntry me : trainTensor) {
-                int[] entryKeys = me.keys();
-                VectorBasedSequentialSparseVector vector = tenserKeysToFeatureVector(entryKeys);
-
-                double rate = me.get();
-                double pred = predict(entryKeys[userDimension], entryKeys[itemDimension], vector);
-
-                double err = pred - rate;
-                loss += err * err;
-                double gradLoss = err;
-
-                // global bias
-                loss += regW0 * w0 * w0;
-
-                double hW0 = 1;
-                double gradW0 = gradLoss * hW0 + regW0 * w0;
-
-                // update w0
-                w0 += -learnRate * gradW0;
-
-                // 1-way interactions
-                for (VectorEntry ve : vector) {
-                    int l = ve.index();
-                    double oldWl = W.get(l);
-                    double hWl = ve.get();
-                    double gradWl = gradLoss * hWl + regW * oldWl;
-                    W.plus(l, -learnRate * gradWl);
-
-                    loss += regW * oldWl * oldWl;
-
-                    // 2-way interactions
-                    for (int f = 0; f < k; f++) {
-                        double oldVlf = V.get(l, map.get(l) + f);
-                        double hVlf = 0;
-                        double xl = ve.get();
-                        for (VectorEntry ve2 : vector) {
-                            int j = ve2.index();
-                            if (j != l) {
-                                hVlf += xl * V.get(j, f) * ve2.get();
-                            }
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+
+        trainEntries((features, rate) -> {
+            double pred = predictFields(features);
+
+            double err = pred - rate;
+            double entryLoss = err * err;
+            double gradLoss = err;
+
+            // global bias
+            entryLoss += regW0 * w0 * w0;
+
+            double hW0 = 1;
+            double gradW0 = gradLoss * hW0 + regW0 * w0;
+
+            // update w0
+            w0 += -learnRate * gradW0;
+
+            // 1-way interactions, the field of features[field] is its tensor dimension
+            for (int field = 0; field < features.length; field++) {
+                int l = features[field];
+                double oldWl = weights[l];
+                double hWl = 1;
+                double gradWl = gradLoss * hWl + regW * oldWl;
+                weights[l] += -learnRate * gradWl;
+
+                entryLoss += regW * oldWl * oldWl;
+
+                // 2-way interactions
+                double[] factorVector = factors[l];
+                for (int f = 0; f < k; f++) {
+                    double oldVlf = factorVector[field + f];
+                    double hVlf = 0;
+                    for (int j : features) {
+                        if (j != l) {
+                            hVlf += factors[j][f];
                         }
-                        double gradVlf = gradLoss * hVlf + regF * oldVlf;
-                        V.plus(l, map.get(l) + f, -learnRate * gradVlf);
-                        loss += regF * oldVlf * oldVlf;
                     }
-
+                    double gradVlf = gradLoss * hVlf + regF * oldVlf;
+                    factorVector[field + f] += -learnRate * gradVlf;
+                    entryLoss += regF * oldVlf * oldVlf;
                 }
             }
+            return entryLoss;
+        });
+    }
 
-            loss *= 0.5;
+    /**
+     * Predict an entry given its one-hot feature indices, where the field of
+     * {@code features[d]} is the tensor dimension {@code d}.
+     *
+     * @param features global feature index of each dimension
+     * @return predicted value
+     */
+    private double predictFields(int[] features) {
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        double res = w0;
+
+        // 1-way interaction
+        for (int feature : features) {
+            res += weights[feature];
+        }
 
-            if (isConverged(iter) && earlyStop) {
-                break;
+        // 2-way interaction
+        for (int f = 0; f < k; f++) {
+            double sum = 0;
+            for (int a = 0; a < features.length; a++) {
+                double[] factorA = factors[features[a]];
+                for (int b = 0; b < features.length; b++) {
+                    if (features[a] == features[b]) continue;
+                    sum += factorA[b + f] * factors[features[b]][a + f];
+                }
             }
-            lastLoss = loss;
+            res += sum;
         }
+
+        return res;
     }
 
     protected double predict(int userId, int itemId, VectorBasedSequentialSparseVector x) throws LibrecException {
@@ -1,7 +1,6 @@
 package net.librec.recommender.cf.rating;
 
 import net.librec.common.LibrecException;
-import net.librec.math.structure.*;
 import net.librec.recommender.FactorizationMachineRecommender;
 
 /**
@@ -51,110 +50,82 @@ public class FMFTRLRecommender extends FactorizationMachineRecommender {
     }
 
     private void buildRatingModel() throws LibrecException {
-        double zW0 = 0;
-        VectorBasedDenseVector zW = new VectorBasedDenseVector(p);
-        DenseMatrix zV = new DenseMatrix(p, k);
-        zW.init(0);
-        zV.init(0);
-
-        double nW0 = 0;
-        VectorBasedDenseVector nW = new VectorBasedDenseVector(p);
-        DenseMatrix nV = new DenseMatrix(p, k);
-        nW.init(0);
-        nV.init(0);
-
-        double gW0, thetaW0;
-
-        VectorBasedDenseVector gW = new VectorBasedDenseVector(p);
-        VectorBasedDenseVector thetaW = new VectorBasedDenseVector(p);
-
-        DenseMatrix gV = new DenseMatrix(p, k);
-        DenseMatrix thetaV = new DenseMatrix(p, k);
-
-        for (int iter=0; iter < numIterations; ++iter){
-            loss = 0.0;
-//            int userDimension = trainTensor.getUserDimension();
-//            int itemDimension = trainTensor.getItemDimension();
-            for (TensorEntry me: trainTensor) {
-                int[] entryKeys = me.keys();
-                SequentialSparseVector x = tenserKeysToFeatureVector(entryKeys);
-                double rate = me.get();
-
-                // compute rating value
-                double pred = predict(x);
-
-                double err = pred - rate;
-                loss += err * err;
-
-                // loss gradient, loss = 1/2 * (yhat - y)^2
-                double gradLoss = err;
-
-                // compute w0 gradient
-                double hW0 = 1;
-                gW0 = gradLoss * hW0;
-                thetaW0 = 1 / alpha * (Math.sqrt(nW0 + Math.pow(gW0, 2)) - Math.sqrt(nW0));
-                zW0 += gW0 - thetaW0 * w0;
-                nW0 += Math.pow(gW0, 2);
-
-                // update w0
-                if (Math.abs(zW0) <= lambda1) {
-                    w0 = 0;
+        double[] zW0 = new double[1];
+        double[] zW = new double[p];
+        double[][] zV = new double[p][k];
+
+        double[] nW0 = new double[1];
+        double[] nW = new double[p];
+        double[][] nV = new double[p][k];
+
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+
+        // as before the shared epochs, FTRL checks the convergence against the initial loss only
+        trainEntries((features, rate) -> {
+            // compute rating value
+            double pred = predict(features, null);
+
+            double err = pred - rate;
+            double entryLoss = err * err;
+
+            // loss gradient, loss = 1/2 * (yhat - y)^2
+            double gradLoss = err;
+
+            // compute w0 gradient
+            double hW0 = 1;
+            double gW0 = gradLoss * hW0;
+            double thetaW0 = 1 / alpha * (Math.sqrt(nW0[0] + Math.pow(gW0, 2)) - Math.sqrt(nW0[0]));
+            zW0[0] += gW0 - thetaW0 * w0;
+            nW0[0] += Math.pow(gW0, 2);
+
+            // update w0
+            if (Math.abs(zW0[0]) <= lambda1) {
+                w0 = 0;
+            } else {
+                w0 = -1 / ((beta + Math.sqrt(nW0[0])) / alpha + lambda2) * (zW0[0] - sgn(zW0[0]) * lambda1);
+            }
+
+            for (int l : features) {
+                // compute W gradient
+                double hWl = 1;
+                double gWl = gradLoss * hWl;
+                double thetaWl = 1 / alpha * (Math.sqrt(nW[l] + Math.pow(gWl, 2)) - Math.sqrt(nW[l]));
+                zW[l] += gWl - thetaWl * weights[l];
+                nW[l] += Math.pow(gWl, 2);
+
+                // update W
+                if (Math.abs(zW[l]) <= lambda1) {
+                    weights[l] = 0;
                 } else {
-                    w0 = -1 / ((beta + Math.sqrt(nW0)) / alpha + lambda2) * (zW0 - sgn(zW0) * lambda1);
+                    weights[l] = -1 / ((beta + Math.sqrt(nW[l])) / alpha + lambda2) * (zW[l] - sgn(zW[l]) * lambda1);
                 }
 
-                for(Vector.VectorEntry ve: x){
-                    int l = ve.index();
-                    // compute W gradient
-                    double hWl = ve.get();
-                    gW.set(l, gradLoss * hWl);
-                    thetaW.set(l, 1 / alpha * (Math.sqrt(nW.get(l) + Math.pow(gW.get(l), 2)) - Math.sqrt(nW.get(l))));
-                    zW.plus(l, gW.get(l) - thetaW.get(l) * W.get(l));
-                    nW.plus(l, Math.pow(gW.get(l), 2));
-
-                    // update W
-                    if (Math.abs(zW.get(l)) <= lambda1) {
-                        W.set(l, 0);
-                    } else {
-                        double value = -1 / ((beta + Math.sqrt(nW.get(l))) / alpha + lambda2) * (zW.get(l) - sgn(zW.get(l)) * lambda1);
-                        W.set(l, value);
-                    }
-
-                    for (int f = 0; f < k; ++f) {
-                        double hVlf = 0;
-                        double xl =ve.get();
-                        for (Vector.VectorEntry ve2: x){
-                            int j = ve2.index();
-                            if(j!=l){
-                                hVlf += xl * V.get(j, f) * ve2.get();
-                            }
+                double[] factorVector = factors[l];
+                for (int f = 0; f < k; ++f) {
+                    double hVlf = 0;
+                    for (int j : features) {
+                        if (j != l) {
+                            hVlf += factors[j][f];
                         }
+                    }
 
-                        // compute V gradient
-                        double gradVlf = gradLoss * hVlf;
-
-                        gV.set(l, f, gradVlf);
-                        thetaV.set(l, f, 1 / alpha * (Math.sqrt(nV.get(l, f) + Math.pow(gV.get(l, f), 2)) - Math.sqrt(nV.get(l, f))));
-                        zV.plus(l, f, gV.get(l, f) - thetaV.get(l, f) * V.get(l, f));
-                        nV.plus(l, f, Math.pow(gV.get(l, f), 2));
+                    // compute V gradient
+                    double gVlf = gradLoss * hVlf;
+                    double thetaVlf = 1 / alpha * (Math.sqrt(nV[l][f] + Math.pow(gVlf, 2)) - Math.sqrt(nV[l][f]));
+                    zV[l][f] += gVlf - thetaVlf * factorVector[f];
+                    nV[l][f] += Math.pow(gVlf, 2);
 
-                        // update V
-                        if (Math.abs(zV.get(l, f)) <= lambda1) {
-                            V.set(l, f, 0);
-                        } else {
-                            double value = -1 / ((beta + Math.sqrt(nV.get(l, f))) / alpha + lambda2) * (zV.get(l, f) - sgn(zV.get(l, f)) * lambda1);
-                            V.set(l, f, value);
-                        }
+                    // update V
+                    if (Math.abs(zV[l][f]) <= lambda1) {
+                        factorVector[f] = 0;
+                    } else {
+                        factorVector[f] = -1 / ((beta + Math.sqrt(nV[l][f])) / alpha + lambda2) * (zV[l][f] - sgn(zV[l][f]) * lambda1);
                     }
                 }
-
             }
-
-            loss *= 0.5;
-
-            if (isConverged(iter)  && earlyStop)
-                break;
-        }
+            return entryLoss;
+        }, false);
     }
 
     private int sgn(double value){
@@ -20,9 +20,6 @@ package net.librec.recommender.cf.rating;
 
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
-import net.librec.math.structure.TensorEntry;
-import net.librec.math.structure.Vector.VectorEntry;
-import net.librec.math.structure.VectorBasedSequentialSparseVector;
 import net.librec.recommender.FactorizationMachineRecommender;
 
 
@@ -55,65 +52,49 @@ public class FMSGDRecommender extends FactorizationMachineRecommender {
     }
 
     private void buildRatingModel() throws LibrecException {
-        for (int iter = 0; iter < numIterations; iter++) {
-            loss = 0.0;
-
-            for (TensorEntry me : trainTensor) {
-                int[] entryKeys = me.keys();
-                VectorBasedSequentialSparseVector vector = tenserKeysToFeatureVector(entryKeys);
-
-                double rate = me.get();
-                double pred = predict(entryKeys);
-
-                double err = pred - rate;
-                loss += err * err;
-                double gradLoss = err;
-
-                // global bias
-                loss += regW0 * w0 * w0;
-
-                double hW0 = 1;
-                double gradW0 = gradLoss * hW0 + regW0 * w0;
-
-                // update w0
-                w0 += -learnRate * gradW0;
-
-                // 1-way interactions
-                for (VectorEntry ve : vector) {
-                    int l = ve.index();
-                    double oldWl = W.get(l);
-                    double hWl = ve.get();
-                    double gradWl = gradLoss * hWl + regW * oldWl;
-                    W.plus(l, -learnRate * gradWl);
-
-                    loss += regW * oldWl * oldWl;
-
-                    // 2-way interactions
-                    for (int f = 0; f < k; f++) {
-                        double oldVlf = V.get(l, f);
-                        double hVlf = 0;
-                        double xl = ve.get();
-                        for (VectorEntry ve2 : vector) {
-                            int j = ve2.index();
-                            hVlf += xl * V.get(j, f) * ve2.get();
-                        }
-
-                        hVlf -= V.get(l,f)*xl*xl;
-                        
-                        double gradVlf = gradLoss * hVlf + regF * oldVlf;
-                        V.plus(l, f, -learnRate * gradVlf);
-                        loss += regF * oldVlf * oldVlf;
+        double[] weights = W.getValues();
+        double[][] factors = V.getValues();
+        trainEntries((features, rate) -> {
+            double pred = predict(features, null);
+
+            double err = pred - rate;
+            double entryLoss = err * err;
+            double gradLoss = err;
+
+            // global bias
+            entryLoss += regW0 * w0 * w0;
+
+            double hW0 = 1;
+            double gradW0 = gradLoss * hW0 + regW0 * w0;
+
+            // update w0
+            w0 += -learnRate * gradW0;
+
+            // 1-way interactions
+            for (int l : features) {
+                double oldWl = weights[l];
+                double hWl = 1;
+                double gradWl = gradLoss * hWl + regW * oldWl;
+                weights[l] += -learnRate * gradWl;
+
+                entryLoss += regW * oldWl * oldWl;
+
+                // 2-way interactions
+                double[] factorVector = factors[l];
+                for (int f = 0; f < k; f++) {
+                    double oldVlf = factorVector[f];
+                    double hVlf = 0;
+                    for (int j : features) {
+                        hVlf += factors[j][f];
                     }
-                }
-
-            }
+                    hVlf -= oldVlf;
 
-            loss *= 0.5;
-
-            if (isConverged(iter) && earlyStop) {
-                break;
+                    double gradVlf = gradLoss * hVlf + regF * oldVlf;
+                    factorVector[f] += -learnRate * gradVlf;
+                    entryLoss += regF * oldVlf * oldVlf;
+                }
             }
-            lastLoss = loss;
-        }
+            return entryLoss;
+        });
     }
 }
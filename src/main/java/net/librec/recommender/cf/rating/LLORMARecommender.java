@@ -1,14 +1,14 @@
 package net.librec.recommender.cf.rating;
 
-import com.google.common.collect.Table;
-import com.google.common.primitives.Ints;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.KernelSmoothing;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.*;
 import net.librec.recommender.MatrixFactorizationRecommender;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * <h3> Local Low-Rank Matrix Approximation</h3>
@@ -17,19 +17,32 @@ import java.util.List;
  * <p>
  * <strong>Lcoal Structure:</strong> Joonseok Lee, <strong>Local Low-Rank Matrix Approximation
  * </strong>, ICML. 2013: 82-90.
+ * <p>
+ * Local models are trained on a work-stealing pool of {@code rec.thread.count} threads with at most
+ * {@code rec.model.queue.size} models in flight. The kernel weights of each anchor are computed once and shared by
+ * training and prediction, and only the factors of users and items with a non-zero weight are kept.
  *
  * @author GuoGuibing and Keqiang Wang
  */
 public class LLORMARecommender extends MatrixFactorizationRecommender {
     private int globalNumFactors, localNumFactors;
     private int globalNumIterations, localNumIterations;
-    private int numThreads;
+    private int numThreads, maxPendingModels;
     protected double globalRegUser, globalRegItem, localRegUser, localRegItem;
     private double globalLearnRate, localLearnRate;
-    private SequentialAccessSparseMatrix predictMatrix;
     private int numLocalModels;
     private DenseMatrix globalUserFactors, globalItemFactors;
 
+    /**
+     * per-anchor kernel weights of every user and item, indexed by [model][user] and [model][item]
+     */
+    private double[][] anchorUserWeights, anchorItemWeights;
+
+    /**
+     * per-anchor local factors indexed by [model][user] and [model][item]; rows with zero kernel weight are null
+     */
+    private double[][][] anchorUserFactors, anchorItemFactors;
+
     /*
      * (non-Javadoc)
      *
@@ -56,6 +69,7 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
         numLocalModels = conf.getInt("rec.model.num", 50);
 
         numThreads = numThreads > numLocalModels ? numLocalModels : numThreads;
+        maxPendingModels = Math.max(numThreads, conf.getInt("rec.model.queue.size", 2 * numThreads));
 
         //global svd P Q to calculate the kernel value between users (or items)
         globalUserFactors = new DenseMatrix(numUsers, globalNumFactors);
@@ -65,8 +79,6 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
         globalUserFactors.init(initMean, initStd);
         globalItemFactors.init(initMean, initStd);
         this.buildGlobalModel();
-
-        predictMatrix = new SequentialAccessSparseMatrix(testMatrix);
     }
 
 
@@ -95,175 +107,168 @@ public class LLORMARecommender extends MatrixFactorizationRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
-        // Pre-calculating similarity:
-        int completeModelCount = 0;
+        anchorUserWeights = new double[numLocalModels][];
+        anchorItemWeights = new double[numLocalModels][];
+        anchorUserFactors = new double[numLocalModels][][];
+        anchorItemFactors = new double[numLocalModels][][];
 
-        LLORMAUpdater[] learners = new LLORMAUpdater[numThreads];
+        // anchors and seeds are drawn up front so that the result does not depend on scheduling
         int[] anchorArrayUser = new int[numLocalModels];
         int[] anchorArrayItem = new int[numLocalModels];
-
-        int modelCount = 0;
-        int[] runningThreadList = new int[numThreads];
-        int runningThreadCount = 0;
-        int waitingThreadPointer = 0;
-        int nextRunningSlot = 0;
-
-        SequentialAccessSparseMatrix cumPredictionMatrix = new SequentialAccessSparseMatrix(testMatrix);
-        SequentialAccessSparseMatrix cumWeightMatrix = new SequentialAccessSparseMatrix(testMatrix);
-        for (MatrixEntry matrixEntry : testMatrix) {
-            int userIdx = matrixEntry.row();
-//            int itemIdx = matrixEntry.column();
-            int columnPosition = matrixEntry.columnPosition();
-            cumPredictionMatrix.setAtColumnPosition(userIdx, columnPosition, 0.0);
-            cumWeightMatrix.setAtColumnPosition(userIdx, columnPosition, 0.0);
-        }
-
-        // Parallel training:
-        while (completeModelCount < numLocalModels) {
+        long[] seeds = new long[numLocalModels];
+        for (int modelIdx = 0; modelIdx < numLocalModels; ) {
             int anchorUser = Randoms.uniform(numUsers);
-            List<Integer> itemList = Ints.asList(trainMatrix.row(anchorUser).getIndices());
-
-            if (itemList != null && itemList.size() > 0) {
-                if (runningThreadCount < numThreads && modelCount < numLocalModels) {
-                    // Selecting a new anchor point:
-                    int itemListIdx = Randoms.uniform(itemList.size());
-                    int anchorItem = itemList.get(itemListIdx);
-
-                    anchorArrayUser[modelCount] = anchorUser;
-                    anchorArrayItem[modelCount] = anchorItem;
-
-                    // Preparing weight vectors:
-                    DenseVector userWeights = kernelSmoothing(numUsers, anchorUser, KernelSmoothing.EPANECHNIKOV_KERNEL, 0.8, false);
-                    DenseVector itemWeights = kernelSmoothing(numItems, anchorItem, KernelSmoothing.EPANECHNIKOV_KERNEL, 0.8, true);
-
-                    // Starting a new local model learning:
-                    learners[nextRunningSlot] = new LLORMAUpdater(modelCount, localNumFactors, numUsers, numItems, anchorUser,
-                            anchorItem, localLearnRate, localRegUser, localRegItem, localNumIterations, userWeights, itemWeights, trainMatrix);
-                    learners[nextRunningSlot].start();
-
-                    runningThreadList[runningThreadCount] = modelCount;
-                    runningThreadCount++;
-                    modelCount++;
-                    nextRunningSlot++;
-                } else if (runningThreadCount > 0) {
-                    // Joining a local model which was done with learning:
-                    try {
-                        learners[waitingThreadPointer].join();
-                    } catch (InterruptedException ie) {
-                        System.out.println("Join failed: " + ie);
-                    }
-
-                    int currentModelThreadIdx = waitingThreadPointer;
-                    int currentModelAnchorIdx = completeModelCount;
-                    completeModelCount++;
-
-                    // Predicting with the new local model and all previous models:
-                    predictMatrix = new SequentialAccessSparseMatrix(testMatrix);
-                    for (MatrixEntry matrixEntry : testMatrix) {
-                        int userIdx = matrixEntry.row();
-                        int itemIdx = matrixEntry.column();
-
-                        double weight = KernelSmoothing.kernelize(getUserSimilarity(anchorArrayUser[currentModelAnchorIdx], userIdx),
-                                0.8, KernelSmoothing.EPANECHNIKOV_KERNEL) * KernelSmoothing.kernelize(getItemSimilarity(anchorArrayItem[currentModelAnchorIdx],
-                                itemIdx), 0.8, KernelSmoothing.EPANECHNIKOV_KERNEL);
-
-                        double newPrediction = (learners[currentModelThreadIdx].getLocalUserFactors().viewRow(userIdx)
-                                .dot(learners[currentModelThreadIdx].getLocalItemFactors().viewRow(itemIdx))) * weight;
-
-                        int columnPosition = matrixEntry.columnPosition();
-                        cumWeightMatrix.setAtColumnPosition(userIdx, columnPosition, cumWeightMatrix.getAtColumnPosition(userIdx, columnPosition) + weight);
-                        cumPredictionMatrix.setAtColumnPosition(userIdx, columnPosition, cumPredictionMatrix.getAtColumnPosition(userIdx, columnPosition) + newPrediction);
-
-                        double prediction = cumPredictionMatrix.getAtColumnPosition(userIdx, columnPosition) / cumWeightMatrix.getAtColumnPosition(userIdx, columnPosition);
-
-                        prediction = Double.isNaN(prediction) || prediction == 0.0 ? globalMean : prediction;
-                        prediction = prediction < minRate ? minRate : prediction;
-                        prediction = prediction > maxRate ? maxRate : prediction;
-
-                        predictMatrix.setAtColumnPosition(userIdx, columnPosition, prediction);
-                    }
+            SequentialSparseVector itemVector = trainMatrix.row(anchorUser);
+            if (itemVector.getNumEntries() > 0) {
+                anchorArrayUser[modelIdx] = anchorUser;
+                anchorArrayItem[modelIdx] = itemVector.getIndexAtPosition(Randoms.uniform(itemVector.getNumEntries()));
+                seeds[modelIdx] = Randoms.uniform(Integer.MAX_VALUE);
+                modelIdx++;
+            }
+        }
 
-                    nextRunningSlot = waitingThreadPointer;
-                    waitingThreadPointer = (waitingThreadPointer + 1) % numThreads;
-                    runningThreadCount--;
+        DenseMatrix normalizedUserFactors = normalize(globalUserFactors);
+        DenseMatrix normalizedItemFactors = normalize(globalItemFactors);
+
+        ExecutorService executorService = Executors.newWorkStealingPool(numThreads);
+        CompletionService<LLORMAUpdater> completionService = new ExecutorCompletionService<>(executorService);
+        List<Future<LLORMAUpdater>> futures = new ArrayList<>(numLocalModels);
+        try {
+            int submittedModels = 0, completeModels = 0;
+            while (completeModels < numLocalModels) {
+                if (submittedModels < numLocalModels && submittedModels - completeModels < maxPendingModels) {
+                    int modelIdx = submittedModels++;
+                    futures.add(completionService.submit(() -> {
+                        // Preparing weight vectors:
+                        DenseVector userWeights = kernelSmoothing(normalizedUserFactors, anchorArrayUser[modelIdx],
+                                KernelSmoothing.EPANECHNIKOV_KERNEL, 0.8);
+                        DenseVector itemWeights = kernelSmoothing(normalizedItemFactors, anchorArrayItem[modelIdx],
+                                KernelSmoothing.EPANECHNIKOV_KERNEL, 0.8);
+                        LLORMAUpdater learner = new LLORMAUpdater(modelIdx, localNumFactors, numUsers, numItems,
+                                anchorArrayUser[modelIdx], anchorArrayItem[modelIdx], localLearnRate, localRegUser,
+                                localRegItem, localNumIterations, userWeights, itemWeights, trainMatrix, seeds[modelIdx]);
+                        learner.run();
+                        return learner;
+                    }));
+                } else {
+                    storeLocalModel(completionService.take().get());
+                    completeModels++;
                 }
             }
+        } catch (InterruptedException | ExecutionException e) {
+            for (Future<LLORMAUpdater> future : futures) {
+                future.cancel(true);
+            }
+            throw new LibrecException("LLORMA local model learning failed", e);
+        } finally {
+            executorService.shutdownNow();
         }
     }
 
     /**
-     * Calculate similarity between two users, based on the global base SVD.
+     * Keep the kernel weights of a learnt local model and the factors of the users and items it covers.
      *
-     * @param userIdx1 The first user's ID.
-     * @param userIdx2 The second user's ID.
-     * @return The similarity value between two users idx1 and idx2.
+     * @param learner a learnt local model
      */
-    private double getUserSimilarity(int userIdx1, int userIdx2) {
-        double sim;
-
-        DenseVector userVector1 = globalUserFactors.row(userIdx1);
-        DenseVector userVector2 = globalUserFactors.row(userIdx2);
-
-        sim = 1 - 2.0 / Math.PI * Math.acos(userVector1.dot(userVector2) / (Math.sqrt(userVector1.dot(userVector1))
-                * Math.sqrt(userVector2.dot(userVector2))));
-
-        if (Double.isNaN(sim)) {
-            sim = 0.0;
+    private void storeLocalModel(LLORMAUpdater learner) {
+        int modelIdx = learner.getThreadId();
+        double[] userWeights = learner.getUserWeights().getValues();
+        double[] itemWeights = learner.getItemWeights().getValues();
+        double[][] userFactors = learner.getLocalUserFactors().getValues();
+        double[][] itemFactors = learner.getLocalItemFactors().getValues();
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            if (userWeights[userIdx] == 0.0) {
+                userFactors[userIdx] = null;
+            }
         }
-        return sim;
+        for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
+            if (itemWeights[itemIdx] == 0.0) {
+                itemFactors[itemIdx] = null;
+            }
+        }
+        anchorUserWeights[modelIdx] = userWeights;
+        anchorItemWeights[modelIdx] = itemWeights;
+        anchorUserFactors[modelIdx] = userFactors;
+        anchorItemFactors[modelIdx] = itemFactors;
     }
 
     /**
-     * Calculate similarity between two items, based on the global base SVD.
+     * Scale every row of the given factors to unit length, rows of zero length are kept as zero.
      *
-     * @param itemIdx1 The first item's ID.
-     * @param itemIdx2 The second item's ID.
-     * @return The similarity value between two items idx1 and idx2.
+     * @param factors global factors
+     * @return the row normalized factors
      */
-    private double getItemSimilarity(int itemIdx1, int itemIdx2) {
-        double sim;
-
-        DenseVector itemVector1 = globalItemFactors.row(itemIdx1);
-        DenseVector itemVector2 = globalItemFactors.row(itemIdx2);
-
-        sim = 1 - 2.0 / Math.PI * Math.acos(itemVector1.dot(itemVector2) / (Math.sqrt(itemVector1.dot(itemVector1))
-                * Math.sqrt(itemVector2.dot(itemVector2))));
-        if (Double.isNaN(sim)) {
-            sim = 0.0;
+    private DenseMatrix normalize(DenseMatrix factors) {
+        DenseMatrix normalizedFactors = new DenseMatrix(factors.rowSize(), factors.columnSize());
+        for (int rowIdx = 0; rowIdx < factors.rowSize(); rowIdx++) {
+            double[] factorVector = factors.getValues()[rowIdx];
+            double norm = 0.0;
+            for (double value : factorVector) {
+                norm += value * value;
+            }
+            norm = Math.sqrt(norm);
+            if (norm > 0.0) {
+                double[] normalizedVector = normalizedFactors.getValues()[rowIdx];
+                for (int factorIdx = 0; factorIdx < factorVector.length; factorIdx++) {
+                    normalizedVector[factorIdx] = factorVector[factorIdx] / norm;
+                }
+            }
         }
-
-        return sim;
+        return normalizedFactors;
     }
 
     /**
      * Given the similarity, it applies the given kernel.
      * This is done either for all users or for all items.
      *
-     * @param size          The length of user or item vector.
-     * @param anchorIdx     The identifier of anchor point.
-     * @param kernelType    The type of kernel.
-     * @param width         Kernel width.
-     * @param isItemFeature return item kernel if yes, return user kernel otherwise.
+     * @param normalizedFactors The row normalized global factors of users or items.
+     * @param anchorIdx         The identifier of anchor point.
+     * @param kernelType        The type of kernel.
+     * @param width             Kernel width.
      * @return The kernel-smoothed values for all users or all items.
      */
-    private DenseVector kernelSmoothing(int size, int anchorIdx, int kernelType, double width, boolean isItemFeature) {
-        DenseVector newFeatureVector = new VectorBasedDenseVector(size);
-        newFeatureVector.set(anchorIdx, 1.0);
-
+    private DenseVector kernelSmoothing(DenseMatrix normalizedFactors, int anchorIdx, int kernelType, double width) {
+        int size = normalizedFactors.rowSize();
+        double[][] factorValues = normalizedFactors.getValues();
+        double[] anchorVector = factorValues[anchorIdx];
+        double[] weights = new double[size];
         for (int index = 0; index < size; index++) {
-            double sim;
-            if (isItemFeature) {
-                sim = getItemSimilarity(index, anchorIdx);
-            } else { // userFeature
-                sim = getUserSimilarity(index, anchorIdx);
+            double[] factorVector = factorValues[index];
+            double cosine = 0.0;
+            for (int factorIdx = 0; factorIdx < anchorVector.length; factorIdx++) {
+                cosine += anchorVector[factorIdx] * factorVector[factorIdx];
             }
-            newFeatureVector.set(index, KernelSmoothing.kernelize(sim, width, kernelType));
+            double sim = 1 - 2.0 / Math.PI * Math.acos(Math.min(1.0, Math.max(-1.0, cosine)));
+            if (Double.isNaN(sim)) {
+                sim = 0.0;
+            }
+            weights[index] = KernelSmoothing.kernelize(sim, width, kernelType);
         }
-        return newFeatureVector;
+        return new VectorBasedDenseVector(weights, true);
     }
 
     @Override
     protected double predict(int userIdx, int itemIdx) {
-        return predictMatrix.get(userIdx, itemIdx);
+        double weightSum = 0.0, predictionSum = 0.0;
+        for (int modelIdx = 0; modelIdx < numLocalModels; modelIdx++) {
+            double weight = anchorUserWeights[modelIdx][userIdx] * anchorItemWeights[modelIdx][itemIdx];
+            if (weight == 0.0) {
+                continue;
+            }
+            double[] userFactorVector = anchorUserFactors[modelIdx][userIdx];
+            double[] itemFactorVector = anchorItemFactors[modelIdx][itemIdx];
+            double prediction = 0.0;
+            for (int factorIdx = 0; factorIdx < localNumFactors; factorIdx++) {
+                prediction += userFactorVector[factorIdx] * itemFactorVector[factorIdx];
+            }
+            predictionSum += prediction * weight;
+            weightSum += weight;
+        }
+
+        double prediction = predictionSum / weightSum;
+        prediction = Double.isNaN(prediction) || prediction == 0.0 ? globalMean : prediction;
+        prediction = prediction < minRate ? minRate : prediction;
+        prediction = prediction > maxRate ? maxRate : prediction;
+        return prediction;
     }
 }
@@ -6,6 +6,8 @@ import net.librec.math.structure.DenseVector;
 import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialAccessSparseMatrix;
 
+import java.util.Random;
+
 /**
  * <h3> Local Low-Rank Matrix Approximation</h3>
  * <p>
@@ -16,7 +18,7 @@ import net.librec.math.structure.SequentialAccessSparseMatrix;
  *
  * @author GuoGuibing and Keqiang Wang
  */
-public class LLORMAUpdater extends Thread {
+public class LLORMAUpdater implements Runnable {
     /**
      * The unique identifier of the thread.
      */
@@ -87,6 +89,11 @@ public class LLORMAUpdater extends Thread {
      */
     private SequentialAccessSparseMatrix trainMatrix;
 
+    /**
+     * Random generator used to initialize the local factors.
+     */
+    private Random random;
+
     /**
      * Construct a local model for singleton LLORMA.
      *
@@ -107,6 +114,33 @@ public class LLORMAUpdater extends Thread {
     public LLORMAUpdater(int threadIDParam, int numFactorsParam, int numUsersParam, int numItemsParam, int anchorUserParam,
                          int anchorItemParam, double learnRateParam, double localRegUserParam, double localRegItemParam,
                          int localIterationParam, DenseVector userWeightsParam, DenseVector itemWeightsParam, SequentialAccessSparseMatrix trainMatrixParam) {
+        this(threadIDParam, numFactorsParam, numUsersParam, numItemsParam, anchorUserParam, anchorItemParam, learnRateParam,
+                localRegUserParam, localRegItemParam, localIterationParam, userWeightsParam, itemWeightsParam, trainMatrixParam,
+                Randoms.uniform(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Construct a local model for singleton LLORMA whose initial factors are drawn from its own random stream.
+     *
+     * @param threadIDParam       A unique thread ID.
+     * @param numFactorsParam     The rank which will be used in this local model.
+     * @param numUsersParam       The number of users.
+     * @param numItemsParam       The number of items.
+     * @param anchorUserParam     The anchor user used to learn this local model.
+     * @param anchorItemParam     The anchor item used to learn this local model.
+     * @param learnRateParam      Learning rate parameter.
+     * @param localRegUserParam   localRegUserParam
+     * @param localRegItemParam   localRegItemParam
+     * @param localIterationParam localIterationParam
+     * @param userWeightsParam    Initial vector containing each user's weight.
+     * @param itemWeightsParam    Initial vector containing each item's weight.
+     * @param trainMatrixParam    The rating matrix used for learning.
+     * @param seed                The seed of the random generator of this local model.
+     */
+    public LLORMAUpdater(int threadIDParam, int numFactorsParam, int numUsersParam, int numItemsParam, int anchorUserParam,
+                         int anchorItemParam, double learnRateParam, double localRegUserParam, double localRegItemParam,
+                         int localIterationParam, DenseVector userWeightsParam, DenseVector itemWeightsParam,
+                         SequentialAccessSparseMatrix trainMatrixParam, long seed) {
         threadId = threadIDParam;
         numFactors = numFactorsParam;
         numUsers = numUsersParam;
@@ -122,6 +156,7 @@ public class LLORMAUpdater extends Thread {
         localUserFactors = new DenseMatrix(numUsers, numFactors);
         localItemFactors = new DenseMatrix(numItems, numFactors);
         trainMatrix = trainMatrixParam;
+        random = new Random(seed);
     }
 
     /**
@@ -178,44 +213,70 @@ public class LLORMAUpdater extends Thread {
         return localItemFactors;
     }
 
+    /**
+     * Getter method for the user weights of this local model.
+     *
+     * @return The kernel weight of each user with respect to the anchor user.
+     */
+    public DenseVector getUserWeights() {
+        return userWeights;
+    }
+
+    /**
+     * Getter method for the item weights of this local model.
+     *
+     * @return The kernel weight of each item with respect to the anchor item.
+     */
+    public DenseVector getItemWeights() {
+        return itemWeights;
+    }
+
     /**
      * Learn this local model based on similar users to the anchor user
      * and similar items to the anchor item.
-     * Implemented with gradient descent.
+     * Implemented with gradient descent. Learning stops early if the executing thread is interrupted.
      */
     @Override
     public void run() {
+        double[][] userFactorValues = localUserFactors.getValues();
+        double[][] itemFactorValues = localItemFactors.getValues();
         for (int userIdx = 0; userIdx < numUsers; userIdx++) {
             for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                double rdm = Randoms.gaussian(0.0, 0.01);
-                localUserFactors.set(userIdx, factorIdx, rdm);
+                userFactorValues[userIdx][factorIdx] = 0.01 * random.nextGaussian();
             }
         }
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
             for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                double rdm = Randoms.gaussian(0.0, 0.01);
-                localItemFactors.set(itemIdx, factorIdx, rdm);
+                itemFactorValues[itemIdx][factorIdx] = 0.01 * random.nextGaussian();
             }
         }
 
         // Learn by Weighted RegSVD
         for (int iter = 0; iter < localIteration; iter++) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
             for (MatrixEntry matrixEntry : trainMatrix) {
                 int userIdx = matrixEntry.row(); // user
                 int itemIdx = matrixEntry.column(); // item
                 double rating = matrixEntry.get();
 
-                double predictRating = predict(userIdx, itemIdx);
+                double[] userFactorVector = userFactorValues[userIdx];
+                double[] itemFactorVector = itemFactorValues[itemIdx];
+                double predictRating = 0.0;
+                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                    predictRating += userFactorVector[factorIdx] * itemFactorVector[factorIdx];
+                }
                 double error = rating - predictRating;
                 double weight = userWeights.get(userIdx) * itemWeights.get(itemIdx);
 
                 // update factors
                 for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = localUserFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = localItemFactors.get(itemIdx, factorIdx);
+                    double userFactorValue = userFactorVector[factorIdx];
+                    double itemFactorValue = itemFactorVector[factorIdx];
 
-                    localUserFactors.plus(userIdx, factorIdx, learnRate * (error * itemFactorValue * weight - localRegUser * userFactorValue));
-                    localItemFactors.plus(itemIdx, factorIdx, learnRate * (error * userFactorValue * weight - localRegItem * itemFactorValue));
+                    userFactorVector[factorIdx] += learnRate * (error * itemFactorValue * weight - localRegUser * userFactorValue);
+                    itemFactorVector[factorIdx] += learnRate * (error * userFactorValue * weight - localRegItem * itemFactorValue);
                 }
             }
         }
@@ -21,9 +21,19 @@ import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
 /**
  * SVD++ Recommender
  * Yehuda Koren, <strong>Factorization Meets the Neighborhood: a Multifaceted Collaborative Filtering Model</strong>, KDD 2008.
+ * <p>
+ * The normalized sum of implicit item factors of a user is computed once per visit of the user and shared by all of
+ * its ratings instead of being summed again for each of them. Setting {@code rec.thread.count} above 1 trains
+ * disjoint user shards in parallel (lock-free, in the Hogwild! style). After training each user is represented by a
+ * single vector so that scoring an item costs one dot product.
  *
  * @author GuoGuibing and Keqiang Wang
  */
@@ -34,12 +44,20 @@ public class SVDPlusPlusRecommender extends BiasedMFRecommender {
      */
     protected DenseMatrix impItemFactors;
 
+    /**
+     * user factors plus implicit factors, used for prediction once the model is trained
+     */
+    protected volatile DenseMatrix userPredictFactors;
+
     /**
      * implicit item regularization
      */
     private double regImpItem;
 
-    private DenseVector factorVector;
+    /**
+     * the number of threads used to train user shards
+     */
+    private int numThreads;
 
 
     /*
@@ -52,97 +70,188 @@ public class SVDPlusPlusRecommender extends BiasedMFRecommender {
         super.setup();
 
         regImpItem = conf.getDouble("rec.impItem.regularization", 0.015d);
+        numThreads = conf.getInt("rec.thread.count", 1);
 
         impItemFactors = new DenseMatrix(numItems, numFactors);
         impItemFactors.init(initMean, initStd);
-        factorVector = new VectorBasedDenseVector(numFactors);
+        userPredictFactors = null;
     }
 
     @Override
     protected void trainModel() throws LibrecException {
-        for (int iterationStep = 1; iterationStep <= numIterations; iterationStep++) {
-            loss = 0D;
-            for (int userIndex = 0; userIndex < numUsers; userIndex++) {
-                SequentialSparseVector userVector = trainMatrix.row(userIndex);
-                if (userVector.size() == 0) {
-                    continue;
+        ExecutorService executorService = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+        int shardSize = numThreads > 1 ? Math.max(1, (numUsers + numThreads * 4 - 1) / (numThreads * 4)) : numUsers;
+        try {
+            for (int iterationStep = 1; iterationStep <= numIterations; iterationStep++) {
+                loss = 0D;
+                if (executorService == null) {
+                    loss = trainUsers(0, numUsers);
+                } else {
+                    List<Callable<Double>> tasks = new ArrayList<>();
+                    for (int fromUser = 0; fromUser < numUsers; fromUser += shardSize) {
+                        int from = fromUser, to = Math.min(numUsers, fromUser + shardSize);
+                        tasks.add(() -> trainUsers(from, to));
+                    }
+                    for (Future<Double> future : executorService.invokeAll(tasks)) {
+                        loss += future.get();
+                    }
                 }
-                double[] steps = new double[numFactors];
-                factorVector.assign((index, value) -> 0.0D);
-                for (Vector.VectorEntry vectorEntry : userVector) {
-                    factorVector.assign((index, value) -> impItemFactors.row(vectorEntry.index()).get(index) + value);
+                loss *= 0.5d;
+
+                if (isConverged(iterationStep) && earlyStop) {
+                    break;
                 }
-                double scale = Math.pow(userVector.getNumEntries(), -0.5);
-                factorVector.assign((index, value) -> value * scale);
-
-                for (Vector.VectorEntry vectorEntry : userVector) {
-                    int itemIndex = vectorEntry.index();
-
-                    double error = vectorEntry.get() - predict(userIndex, itemIndex, factorVector);
-                    loss += error * error;
-                    // update user and item bias
-                    double userBias = userBiases.get(userIndex);
-                    userBiases.plus(userIndex, learnRate * (error - regBias * userBias));
-                    loss += regBias * userBias * userBias;
-                    double itemBias = itemBiases.get(itemIndex);
-                    itemBiases.plus(itemIndex, learnRate * (error - regBias * itemBias));
-                    loss += regBias * itemBias * itemBias;
-
-//                    // update user and item factors
-                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                        double userFactor = userFactors.get(userIndex, factorIndex);
-                        double itemFactor = itemFactors.get(itemIndex, factorIndex);
-                        userFactors.plus(userIndex, factorIndex, learnRate * (error * itemFactor - regUser * userFactor));
-                        itemFactors.plus(itemIndex, factorIndex, learnRate * (error * (userFactor + factorVector.get(factorIndex)) - regItem * itemFactor));
-                        loss += regUser * userFactor * userFactor + regItem * itemFactor * itemFactor;
-
-                        steps[factorIndex] += error * itemFactor * scale;
-                    }
+                updateLRate(iterationStep);
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new LibrecException(e);
+        } finally {
+            if (executorService != null) {
+                executorService.shutdown();
+            }
+        }
+        buildUserPredictFactors();
+    }
+
+    /**
+     * Run one SGD pass over the ratings of the users in [fromUser, toUser).
+     *
+     * @param fromUser first user of the shard
+     * @param toUser   last user of the shard (exclusive)
+     * @return the loss of the shard
+     */
+    private double trainUsers(int fromUser, int toUser) {
+        double shardLoss = 0.0D;
+        double[] steps = new double[numFactors];
+        double[] implicitFactors = new double[numFactors];
+        double[] userBiasValues = userBiases.getValues();
+        double[] itemBiasValues = itemBiases.getValues();
+
+        for (int userIndex = fromUser; userIndex < toUser; userIndex++) {
+            SequentialSparseVector userVector = trainMatrix.row(userIndex);
+            int size = userVector.getNumEntries();
+            if (size == 0) {
+                continue;
+            }
+            double scale = Math.pow(size, -0.5);
+            double[] userFactorValues = userFactors.getValues()[userIndex];
+            computeImplicitFactors(userVector, implicitFactors);
+            Arrays.fill(steps, 0.0D);
+
+            for (int position = 0; position < size; position++) {
+                int itemIndex = userVector.getIndexAtPosition(position);
+                double[] itemFactorValues = itemFactors.getValues()[itemIndex];
+
+                double error = userVector.getAtPosition(position) - predict(userIndex, itemIndex, implicitFactors);
+                shardLoss += error * error;
+                // update user and item bias
+                double userBias = userBiasValues[userIndex];
+                userBiasValues[userIndex] += learnRate * (error - regBias * userBias);
+                shardLoss += regBias * userBias * userBias;
+                double itemBias = itemBiasValues[itemIndex];
+                itemBiasValues[itemIndex] += learnRate * (error - regBias * itemBias);
+                shardLoss += regBias * itemBias * itemBias;
+
+                // update user and item factors
+                for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                    double userFactor = userFactorValues[factorIndex];
+                    double itemFactor = itemFactorValues[factorIndex];
+                    userFactorValues[factorIndex] += learnRate * (error * itemFactor - regUser * userFactor);
+                    itemFactorValues[factorIndex] += learnRate * (error * (userFactor + implicitFactors[factorIndex]) - regItem * itemFactor);
+                    shardLoss += regUser * userFactor * userFactor + regItem * itemFactor * itemFactor;
+
+                    steps[factorIndex] += error * itemFactor * scale;
                 }
-                int size = userVector.getNumEntries();
-                for (Vector.VectorEntry vectorEntry : userVector) {
-                    int index = vectorEntry.index();
-                    for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
-                        double factor = impItemFactors.get(index, factorIndex);
-                        impItemFactors.plus(index, factorIndex, learnRate * (steps[factorIndex] - regImpItem * factor * size));
-                        loss += regImpItem * factor * factor * size;
-                    }
+            }
+
+            // update the implicit factors
+            for (int position = 0; position < size; position++) {
+                double[] impItemFactorValues = impItemFactors.getValues()[userVector.getIndexAtPosition(position)];
+                for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                    double factor = impItemFactorValues[factorIndex];
+                    impItemFactorValues[factorIndex] = factor + learnRate * (steps[factorIndex] - regImpItem * factor * size);
+                    shardLoss += regImpItem * factor * factor * size;
                 }
             }
-            loss *= 0.5d;
+        }
+        return shardLoss;
+    }
 
-            if (isConverged(iterationStep) && earlyStop) {
-                break;
+    /**
+     * Compute the implicit factors of a user, i.e. |N(u)|^-0.5 times the sum of the implicit factors of the items
+     * rated by the user.
+     *
+     * @param userVector      training ratings of the user
+     * @param implicitFactors the implicit factors to fill
+     */
+    private void computeImplicitFactors(SequentialSparseVector userVector, double[] implicitFactors) {
+        Arrays.fill(implicitFactors, 0.0D);
+        int size = userVector.getNumEntries();
+        if (size == 0) {
+            return;
+        }
+        for (int position = 0; position < size; position++) {
+            double[] impItemFactorValues = impItemFactors.getValues()[userVector.getIndexAtPosition(position)];
+            for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                implicitFactors[factorIndex] += impItemFactorValues[factorIndex];
             }
-            updateLRate(iterationStep);
+        }
+        double scale = Math.pow(size, -0.5);
+        for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+            implicitFactors[factorIndex] *= scale;
         }
     }
 
+    /**
+     * Fold the implicit factors of all users into their user factors, so that prediction becomes a single dot
+     * product.
+     */
+    protected void buildUserPredictFactors() {
+        DenseMatrix predictFactors = new DenseMatrix(numUsers, numFactors);
+        List<Integer> userList = new ArrayList<>(numUsers);
+        for (int userIndex = 0; userIndex < numUsers; userIndex++) {
+            userList.add(userIndex);
+        }
+        userList.parallelStream().forEach(userIndex -> {
+            double[] implicitFactors = new double[numFactors];
+            computeImplicitFactors(trainMatrix.row(userIndex), implicitFactors);
+            double[] userFactorValues = userFactors.getValues()[userIndex];
+            double[] predictFactorValues = predictFactors.getValues()[userIndex];
+            for (int factorIndex = 0; factorIndex < numFactors; factorIndex++) {
+                predictFactorValues[factorIndex] = userFactorValues[factorIndex] + implicitFactors[factorIndex];
+            }
+        });
+        userPredictFactors = predictFactors;
+    }
 
-    private double predict(int userIndex, int itemIndex, DenseVector factorVector) {
+    private double predict(int userIndex, int itemIndex, double[] implicitFactors) {
         double value = userBiases.get(userIndex) + itemBiases.get(itemIndex) + globalMean;
-        DenseVector userFactorVector = userFactors.row(userIndex);
-        DenseVector itemFactorVector = itemFactors.row(itemIndex);
+        double[] userFactorValues = userFactors.getValues()[userIndex];
+        double[] itemFactorValues = itemFactors.getValues()[itemIndex];
         // sum with user factors
         for (int index = 0; index < numFactors; index++) {
-            value += (factorVector.get(index) + userFactorVector.get(index)) * itemFactorVector.get(index);
+            value += (implicitFactors[index] + userFactorValues[index]) * itemFactorValues[index];
         }
         return value;
     }
 
     @Override
     protected double predict(int userIndex, int itemIndex) {
-        SequentialSparseVector userVector = trainMatrix.row(userIndex);
-        factorVector.assign((index, value) -> 0.0D);
-        // sum of implicit feedback factors of userIdx with weight Math.sqrt(1.0
-        // / userItemsList.get(userIdx).cardinality())
-        for (Vector.VectorEntry vectorEntry : userVector) {
-            factorVector.assign((index, value) -> impItemFactors.row(vectorEntry.index()).get(index) + value);
+        DenseMatrix predictFactors = userPredictFactors;
+        if (predictFactors == null) {
+            synchronized (this) {
+                if (userPredictFactors == null) {
+                    buildUserPredictFactors();
+                }
+            }
+            predictFactors = userPredictFactors;
         }
-        double scale = Math.sqrt(userVector.getNumEntries());
-        if (scale > 0D) {
-            factorVector.assign((index, value) -> value / scale);
+        double value = userBiases.get(userIndex) + itemBiases.get(itemIndex) + globalMean;
+        double[] userFactorValues = predictFactors.getValues()[userIndex];
+        double[] itemFactorValues = itemFactors.getValues()[itemIndex];
+        for (int index = 0; index < numFactors; index++) {
+            value += userFactorValues[index] * itemFactorValues[index];
         }
-        return predict(userIndex, itemIndex, factorVector);
+        return value;
     }
 }
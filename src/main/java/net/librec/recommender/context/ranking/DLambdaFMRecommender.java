@@ -323,4 +323,14 @@ public class DLambdaFMRecommender extends FactorizationMachineRecommender {
         int featureIdx = itemFeatureMapping.get(itemIdx);
         return predict(new int[]{userIdx, itemIdx, featureIdx});
     }
+
+    /**
+     * The item feature is part of the item side of the appender vector, so items are scored one by one.
+     */
+    @Override
+    protected void predictItems(int userIdx, int[] itemIdxs, double[] scores) throws LibrecException {
+        for (int position = 0; position < itemIdxs.length; ++position) {
+            scores[position] = predict(userIdx, itemIdxs[position]);
+        }
+    }
 }
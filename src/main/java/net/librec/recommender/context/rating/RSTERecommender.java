@@ -28,7 +28,8 @@ import net.librec.recommender.SocialRecommender;
 /**
  * Hao Ma, Irwin King and Michael R. Lyu, <strong>Learning to Recommend with Social Trust Ensemble</strong>, SIGIR 2009.<br>
  * <p>
- * This method is quite time-consuming when dealing with the social influence part.
+ * The social influence part, which walks the ratings of the trusters of each user, is computed from the rating
+ * gradients of each truster, {@code sum_j g(p, j) * e(p, j) * V_j}, summed once per iteration.
  *
  * @author guoguibing and Keqiang Wang
  */
@@ -48,108 +49,83 @@ public class RSTERecommender extends SocialRecommender {
     protected void trainModel() throws LibrecException {
         for (int iter = 1; iter <= numIterations; iter++) {
 
-            loss = 0.0d;
-
             DenseMatrix tempUserFactors = new DenseMatrix(numUsers, numFactors);
             DenseMatrix tempItemFactors = new DenseMatrix(numItems, numFactors);
+            // the rating gradients of each user, before the social ratio and the trust weights
+            DenseMatrix ratingGradients = new DenseMatrix(numUsers, numFactors);
 
             // ratings
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-                SequentialSparseVector userSoicalValues = socialMatrix.row(userIdx);
-
-                double weightSocialSum = 0;
-                for (VectorEntry ve : userSoicalValues) {
-                    double socialValue = ve.get();
-                    weightSocialSum += socialValue;
-                }
-
-                double[] sumUserSocialFactor = new double[numFactors];
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    for (VectorEntry ve : userSoicalValues) {
-                        int userSocialIdx = ve.index();
-                        double socialValue = ve.get();
-                        sumUserSocialFactor[factorIdx] += socialValue * userFactors.get(userSocialIdx, factorIdx);
+            loss = forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double[][] itemGradients = sharedGradients[0];
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    double weightSocialSum = 0;
+                    double[] sumUserSocialFactor = new double[numFactors];
+                    for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                        int userSocialIdx = trusteeIndices[position];
+                        double socialValue = trusteeValues[position];
+                        weightSocialSum += socialValue;
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            sumUserSocialFactor[factorIdx] += socialValue * userFactors.get(userSocialIdx, factorIdx);
+                        }
                     }
-                }
 
-                for (VectorEntry vectorEntry : trainMatrix.row(userIdx)) {
-                    int itemIdx = vectorEntry.index();
-                    double rating = vectorEntry.get();
-                    double norRating = Maths.normalize(rating, minRate, maxRate);
-
-                    // compute directly to speed up calculation
-                    double predictRating = userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
-                    double sum = 0.0;
-                    for (VectorEntry ve : userSoicalValues) {
-                        int userSocialIdx = ve.index();
-                        double socialValue = ve.get();
-                        sum += socialValue * userFactors.row(userSocialIdx).dot(itemFactors.row(itemIdx));
-                    }
+                    SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                    for (int position = 0; position < itemRatingsVector.getNumEntries(); position++) {
+                        int itemIdx = itemRatingsVector.getIndexAtPosition(position);
+                        double rating = itemRatingsVector.getAtPosition(position);
+                        double norRating = Maths.normalize(rating, minRate, maxRate);
+
+                        // compute directly to speed up calculation
+                        double predictRating = 0.0, sum = 0.0;
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+                            predictRating += userFactors.get(userIdx, factorIdx) * itemFactorValue;
+                            sum += sumUserSocialFactor[factorIdx] * itemFactorValue;
+                        }
 
-                    double socialPredictRating = weightSocialSum > 0 ? sum / weightSocialSum : 0;
-                    double finalPredictRating = userSocialRatio * predictRating + (1 - userSocialRatio) * socialPredictRating;
+                        double socialPredictRating = weightSocialSum > 0 ? sum / weightSocialSum : 0;
+                        double finalPredictRating = userSocialRatio * predictRating + (1 - userSocialRatio) * socialPredictRating;
 
-                    // prediction error
-                    double error = Maths.logistic(finalPredictRating) - norRating;
+                        // prediction error
+                        double error = Maths.logistic(finalPredictRating) - norRating;
 
-                    loss += error * error;
+                        shardLoss += error * error;
 
-                    double deriValue = Maths.logisticGradientValue(finalPredictRating) * error;
+                        double deriValue = Maths.logisticGradientValue(finalPredictRating) * error;
 
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double userFactorValue = userFactors.get(userIdx, factorIdx);
-                        double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double userFactorValue = userFactors.get(userIdx, factorIdx);
+                            double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
 
-                        double userDeriValue = userSocialRatio * deriValue * itemFactorValue + regUser * userFactorValue;
-                        double userSocialFactorValue = weightSocialSum > 0 ? sumUserSocialFactor[factorIdx] / weightSocialSum : 0;
-                        double itemDeriValue = deriValue * (userSocialRatio * userFactorValue + (1 - userSocialRatio) * userSocialFactorValue) + regItem * itemFactorValue;
+                            double userDeriValue = userSocialRatio * deriValue * itemFactorValue + regUser * userFactorValue;
+                            double userSocialFactorValue = weightSocialSum > 0 ? sumUserSocialFactor[factorIdx] / weightSocialSum : 0;
+                            double itemDeriValue = deriValue * (userSocialRatio * userFactorValue + (1 - userSocialRatio) * userSocialFactorValue) + regItem * itemFactorValue;
 
-                        tempUserFactors.plus(userIdx, factorIdx, userDeriValue);
-                        tempItemFactors.plus(itemIdx, factorIdx, itemDeriValue);
+                            tempUserFactors.plus(userIdx, factorIdx, userDeriValue);
+                            itemGradients[itemIdx][factorIdx] += itemDeriValue;
+                            ratingGradients.plus(userIdx, factorIdx, deriValue * itemFactorValue);
 
-                        loss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
+                            shardLoss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
+                        }
                     }
                 }
-            }
+                return shardLoss;
+            }, tempItemFactors);
 
             // social
-            for (int userSocialIdx = 0; userSocialIdx < numUsers; userSocialIdx++) {
-
-                SequentialSparseVector socialUserValues = socialMatrix.column(userSocialIdx);
-                for (VectorEntry ve_1: socialUserValues) {
-                    int socialUserIdx = ve_1.index();
-                    double socialUserValue = ve_1.get();
-
-                    SequentialSparseVector socialItemValues = trainMatrix.row(socialUserIdx);
-                    SequentialSparseVector socialUserSoicalValues = socialMatrix.row(socialUserIdx);
-                    int[] socialUserSocialIndices = socialUserSoicalValues.getIndices();
-
-                    for (VectorEntry ve_2: socialItemValues) {
-                        int socialItemIdx = ve_2.index();
-                        double socialItemValue = ve_2.get();
-
-                        // compute prediction for user-item (p, j)
-                        double predictRating = userFactors.row(socialUserIdx).dot(itemFactors.row(socialItemIdx));
-                        double sum = 0.0, socialWeightSum = 0.0;
-                        for (VectorEntry ve_3: socialUserSoicalValues) {
-                            int socialUserSocialIdx = ve_3.index();
-                            double socialUserSocialValue = ve_3.get();
-                            sum += socialUserSocialValue * userFactors.row(socialUserSocialIdx).dot(itemFactors.row(socialItemIdx));
-                            socialWeightSum += socialUserSocialValue;
+            forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                for (int userSocialIdx = fromUser; userSocialIdx < toUser; userSocialIdx++) {
+                    for (int position = trusterPointers[userSocialIdx]; position < trusterPointers[userSocialIdx + 1]; position++) {
+                        int socialUserIdx = trusterIndices[position];
+                        double socialUserValue = trusterValues[position];
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            tempUserFactors.plus(userSocialIdx, factorIdx, (1 - userSocialRatio) * socialUserValue * ratingGradients.get(socialUserIdx, factorIdx));
                         }
-
-                        double socialPredictRating = socialWeightSum > 0 ? sum / socialWeightSum : 0;
-                        double finalPredictRating = userSocialRatio * predictRating + (1 - userSocialRatio) * socialPredictRating;
-
-                        // double pred = predict(p, j, false);
-                        double error = Maths.logistic(finalPredictRating) - Maths.normalize(socialItemValue, minRate, maxRate);
-                        double deriValue = Maths.logisticGradientValue(finalPredictRating) * error * socialUserValue;
-
-                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
-                            tempUserFactors.plus(userSocialIdx, factorIdx, (1 - userSocialRatio) * deriValue * itemFactors.get(socialItemIdx, factorIdx));
                     }
                 }
-            }
+                return 0.0d;
+            });
 
             userFactors = userFactors.plus(tempUserFactors.times(-learnRate));
             itemFactors = itemFactors.plus(tempItemFactors.times(-learnRate));
@@ -21,12 +21,9 @@ import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.recommender.SocialRecommender;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Hao Ma, Haixuan Yang, Michael R. Lyu and Irwin King, <strong>SoRec: Social recommendation using probabilistic matrix
  * factorization</strong>, ACM CIKM 2008.
@@ -42,8 +39,6 @@ public class SoRecRecommender extends SocialRecommender {
 
     private float regRateSocial, regUserSocial;
 
-    private List<Integer> inDegrees, outDegrees;
-
     @Override
     public void setup() throws LibrecException {
         super.setup();
@@ -54,79 +49,82 @@ public class SoRecRecommender extends SocialRecommender {
 
         userSocialFactors = new DenseMatrix(numUsers, numFactors);
         userSocialFactors.init(1.0);
-
-        inDegrees = new ArrayList<>();
-        outDegrees = new ArrayList<>();
-
-        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            int in = socialMatrix.column(userIdx).size();
-            int out = socialMatrix.row(userIdx).size();
-
-            inDegrees.add(in);
-            outDegrees.add(out);
-        }
     }
 
     @Override
     protected void trainModel() throws LibrecException {
         for (int iter = 1; iter <= numIterations; iter++) {
 
-            loss = 0.0d;
-
             DenseMatrix tempUserFactors = new DenseMatrix(numUsers, numFactors);
             DenseMatrix tempItemFactors = new DenseMatrix(numItems, numFactors);
             DenseMatrix userSocialTempFactors = new DenseMatrix(numUsers, numFactors);
 
-            // ratings
-            for (MatrixEntry matrixEntry : trainMatrix) {
-                int userIdx = matrixEntry.row();
-                int itemIdx = matrixEntry.column();
-                double rating = matrixEntry.get();
-
-                double predictRating = predict(userIdx, itemIdx);
-                double error = Maths.logistic(predictRating) - Maths.normalize(rating, minRate, maxRate);
-
-                loss += error * error;
-
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
-
-                    tempUserFactors.plus(userIdx, factorIdx, Maths.logisticGradientValue(predictRating) * error * itemFactorValue + regUser * userFactorValue);
-                    tempItemFactors.plus(itemIdx, factorIdx, Maths.logisticGradientValue(predictRating) * error * userFactorValue + regItem * itemFactorValue);
-
-                    loss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
+            loss = forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double[][] itemGradients = sharedGradients[0];
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    // ratings
+                    SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                    for (int position = 0; position < itemRatingsVector.getNumEntries(); position++) {
+                        int itemIdx = itemRatingsVector.getIndexAtPosition(position);
+                        double rating = itemRatingsVector.getAtPosition(position);
+
+                        double predictRating = userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
+                        double error = Maths.logistic(predictRating) - Maths.normalize(rating, minRate, maxRate);
+
+                        shardLoss += error * error;
+
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double userFactorValue = userFactors.get(userIdx, factorIdx);
+                            double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+
+                            tempUserFactors.plus(userIdx, factorIdx, Maths.logisticGradientValue(predictRating) * error * itemFactorValue + regUser * userFactorValue);
+                            itemGradients[itemIdx][factorIdx] += Maths.logisticGradientValue(predictRating) * error * userFactorValue + regItem * itemFactorValue;
+
+                            shardLoss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
+                        }
+                    }
+
+                    // friends of the user, for the user factors
+                    for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                        int userSocialIdx = trusteeIndices[position];
+                        double socialValue = trusteeValues[position]; // tuv ~ cik in the original paper
+                        if (socialValue <= 0)
+                            continue;
+
+                        double socialPredictRating = userFactors.row(userIdx).dot(userSocialFactors.row(userSocialIdx));
+                        double socialError = Maths.logistic(socialPredictRating) - socialWeight(userIdx, userSocialIdx) * socialValue;
+
+                        shardLoss += regRateSocial * socialError * socialError;
+
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double userSocialFactorValue = userSocialFactors.get(userSocialIdx, factorIdx);
+                            tempUserFactors.plus(userIdx, factorIdx, regRateSocial * Maths.logisticGradientValue(socialPredictRating) * socialError * userSocialFactorValue);
+                        }
+                    }
+
+                    // users who are friends with the user, for the user social factors
+                    for (int position = trusterPointers[userIdx]; position < trusterPointers[userIdx + 1]; position++) {
+                        int trusterIdx = trusterIndices[position];
+                        double socialValue = trusterValues[position];
+                        if (socialValue <= 0)
+                            continue;
+
+                        double socialPredictRating = userFactors.row(trusterIdx).dot(userSocialFactors.row(userIdx));
+                        double socialError = Maths.logistic(socialPredictRating) - socialWeight(trusterIdx, userIdx) * socialValue;
+
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double userFactorValue = userFactors.get(trusterIdx, factorIdx);
+                            double userSocialFactorValue = userSocialFactors.get(userIdx, factorIdx);
+
+                            userSocialTempFactors.plus(userIdx, factorIdx, regRateSocial * Maths.logisticGradientValue(socialPredictRating) * socialError * userFactorValue + regUserSocial * userSocialFactorValue);
+
+                            shardLoss += regUserSocial * userSocialFactorValue * userSocialFactorValue;
+                        }
+                    }
                 }
-            }
-
-            // friends
-            for (MatrixEntry matrixEntry : socialMatrix) {
-                int userIdx = matrixEntry.row();
-                int userSocialIdx = matrixEntry.column();
-                double socialValue = matrixEntry.get(); // tuv ~ cik in the original paper
-                if (socialValue <= 0)
-                    continue;
-
-                double socialPredictRating = userFactors.row(userIdx).dot(userSocialFactors.row(userSocialIdx));
-
-                int userSocialInDegree = inDegrees.get(userSocialIdx); // ~ d-(k)
-                int userOutDegree = outDegrees.get(userIdx); // ~ d+(i)
-                double weight = Math.sqrt(userSocialInDegree / (userOutDegree + userSocialInDegree + 0.0));
-
-                double socialError = Maths.logistic(socialPredictRating) - weight * socialValue;
-
-                loss += regRateSocial * socialError * socialError;
-
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double userSocialFactorValue = userSocialFactors.get(userSocialIdx, factorIdx);
-
-                    tempUserFactors.plus(userIdx, factorIdx, regRateSocial * Maths.logisticGradientValue(socialPredictRating) * socialError * userSocialFactorValue);
-                    userSocialTempFactors.plus(userSocialIdx, factorIdx, regRateSocial * Maths.logisticGradientValue(socialPredictRating) * socialError * userFactorValue + regUserSocial * userSocialFactorValue);
-
-                    loss += regUserSocial * userSocialFactorValue * userSocialFactorValue;
-                }
-            }
+                return shardLoss;
+            }, tempItemFactors);
 
             userFactors = userFactors.plus(tempUserFactors.times(-learnRate));
             itemFactors = itemFactors.plus(tempItemFactors.times(-learnRate));
@@ -140,4 +138,16 @@ public class SoRecRecommender extends SocialRecommender {
             updateLRate(iter);
         }
     }
+
+    /**
+     * @param userIdx       the truster
+     * @param userSocialIdx the trustee
+     * @return the weight of a trust link, from the in-degree of the trustee ~ d-(k) and the out-degree of the
+     * truster ~ d+(i)
+     */
+    private double socialWeight(int userIdx, int userSocialIdx) {
+        int userSocialInDegree = trusterPointers[userSocialIdx + 1] - trusterPointers[userSocialIdx];
+        int userOutDegree = trusteePointers[userIdx + 1] - trusteePointers[userIdx];
+        return Math.sqrt(userSocialInDegree / (userOutDegree + userSocialInDegree + 0.0));
+    }
 }
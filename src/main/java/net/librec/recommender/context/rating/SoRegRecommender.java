@@ -20,7 +20,7 @@ package net.librec.recommender.context.rating;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.SymmMatrix;
 import net.librec.recommender.SocialRecommender;
 
@@ -38,6 +38,11 @@ import net.librec.recommender.SocialRecommender;
 public class SoRegRecommender extends SocialRecommender {
     private SymmMatrix userSocialCorrs;
 
+    /**
+     * the social correlations of the trust links, aligned with trusteeIndices and trusterIndices
+     */
+    private double[] trusteeCorrs, trusterCorrs;
+
     @Override
     public void setup() throws LibrecException {
         super.setup();
@@ -55,72 +60,84 @@ public class SoRegRecommender extends SocialRecommender {
                 }
             }
         }
+
+        trusteeCorrs = new double[trusteeIndices.length];
+        trusterCorrs = new double[trusterIndices.length];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                trusteeCorrs[position] = userSocialCorrs.get(userIdx, trusteeIndices[position]);
+            }
+            for (int position = trusterPointers[userIdx]; position < trusterPointers[userIdx + 1]; position++) {
+                trusterCorrs[position] = userSocialCorrs.get(userIdx, trusterIndices[position]);
+            }
+        }
     }
 
     @Override
     protected void trainModel() throws LibrecException {
         for (int iter = 1; iter <= numIterations; iter++) {
 
-            loss = 0.0d;
-
             // temp data
             DenseMatrix tempUserFactors = new DenseMatrix(numUsers, numFactors);
             DenseMatrix tempItemFactors = new DenseMatrix(numItems, numFactors);
 
-            // ratings
-            for (MatrixEntry matrixEntry : trainMatrix) {
-                int userIdx = matrixEntry.row();
-                int itemIdx = matrixEntry.column();
-                double realRating = matrixEntry.get();
-
-                double predictRating = predict(userIdx, itemIdx);
-                double error = predictRating - realRating;
+            loss = forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double[][] itemGradients = sharedGradients[0];
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    // ratings
+                    SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                    for (int position = 0; position < itemRatingsVector.getNumEntries(); position++) {
+                        int itemIdx = itemRatingsVector.getIndexAtPosition(position);
+                        double realRating = itemRatingsVector.getAtPosition(position);
 
-                loss += error * error;
+                        double predictRating = userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
+                        double error = predictRating - realRating;
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+                        shardLoss += error * error;
 
-                    tempUserFactors.plus(userIdx, factorIdx, error * itemFactorValue + regUser * userFactorValue);
-                    tempItemFactors.plus(itemIdx, factorIdx, error * userFactorValue + regItem * itemFactorValue);
-
-                    loss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
-                }
-            }
-
-            // friends
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-                // out links: F+
-                int[] userOutLinks = socialMatrix.row(userIdx).getIndices();
-
-                for (int userOutIdx : userOutLinks) {
-                    double userOutSim = userSocialCorrs.get(userIdx, userOutIdx);
-                    if (!Double.isNaN(userOutSim)) {
                         for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                            double errorOut = userFactors.get(userIdx, factorIdx) - userFactors.get(userOutIdx, factorIdx);
-                            tempUserFactors.plus(userIdx, factorIdx, regSocial * userOutSim * errorOut);
+                            double userFactorValue = userFactors.get(userIdx, factorIdx);
+                            double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
 
-                            loss += regSocial * userOutSim * errorOut * errorOut;
+                            tempUserFactors.plus(userIdx, factorIdx, error * itemFactorValue + regUser * userFactorValue);
+                            itemGradients[itemIdx][factorIdx] += error * userFactorValue + regItem * itemFactorValue;
+
+                            shardLoss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
                         }
                     }
-                }
 
-                // in links: F-
-                int[] userInLinks = socialMatrix.column(userIdx).getIndices();
-                for (int userInIdx : userInLinks) {
-                    double userInSim = userSocialCorrs.get(userIdx, userInIdx);
-                    if (!Double.isNaN(userInSim)) {
-                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                            double errorIn = userFactors.get(userIdx, factorIdx) - userFactors.get(userInIdx, factorIdx);
-                            tempUserFactors.plus(userIdx, factorIdx, regSocial * userInSim * errorIn);
+                    // out links: F+
+                    for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                        int userOutIdx = trusteeIndices[position];
+                        double userOutSim = trusteeCorrs[position];
+                        if (!Double.isNaN(userOutSim)) {
+                            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                                double errorOut = userFactors.get(userIdx, factorIdx) - userFactors.get(userOutIdx, factorIdx);
+                                tempUserFactors.plus(userIdx, factorIdx, regSocial * userOutSim * errorOut);
+
+                                shardLoss += regSocial * userOutSim * errorOut * errorOut;
+                            }
+                        }
+                    }
 
-                            loss += regSocial * userInSim * errorIn * errorIn;
+                    // in links: F-
+                    for (int position = trusterPointers[userIdx]; position < trusterPointers[userIdx + 1]; position++) {
+                        int userInIdx = trusterIndices[position];
+                        double userInSim = trusterCorrs[position];
+                        if (!Double.isNaN(userInSim)) {
+                            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                                double errorIn = userFactors.get(userIdx, factorIdx) - userFactors.get(userInIdx, factorIdx);
+                                tempUserFactors.plus(userIdx, factorIdx, regSocial * userInSim * errorIn);
+
+                                shardLoss += regSocial * userInSim * errorIn * errorIn;
+                            }
                         }
                     }
                 }
+                return shardLoss;
+            }, tempItemFactors);
 
-            } // end of for loop
             userFactors = userFactors.plus(tempUserFactors.times(-learnRate));
             itemFactors = itemFactors.plus(tempItemFactors.times(-learnRate));
 
@@ -21,9 +21,7 @@ import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.MatrixEntry;
 import net.librec.math.structure.SequentialSparseVector;
-import net.librec.math.structure.Vector;
 import net.librec.recommender.SocialRecommender;
 
 /**
@@ -44,85 +42,95 @@ public class SocialMFRecommender extends SocialRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
-        for (int iter = 1; iter <= numIterations; iter++) {
+        // trust sums of the trustees and of the trusters of each user
+        double[] trustSums = new double[numUsers];
+        double[] trustedSums = new double[numUsers];
+        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+            for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                trustSums[userIdx] += trusteeValues[position];
+            }
+            for (int position = trusterPointers[userIdx]; position < trusterPointers[userIdx + 1]; position++) {
+                trustedSums[userIdx] += trusterValues[position];
+            }
+        }
+
+        // the difference of the factors of each user with the trust-weighted mean factors of its trustees
+        double[][] socialDiffs = new double[numUsers][numFactors];
 
-            loss = 0.0d;
+        for (int iter = 1; iter <= numIterations; iter++) {
 
             DenseMatrix tempUserFactors = new DenseMatrix(numUsers, numFactors);
             DenseMatrix tempItemFactors = new DenseMatrix(numItems, numFactors);
 
-            // rated items
-            for (MatrixEntry matrixEntry : trainMatrix) {
-                int userIdx = matrixEntry.row();
-                int itemIdx = matrixEntry.column();
-                double rating = matrixEntry.get();
+            loss = forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double[][] itemGradients = sharedGradients[0];
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    // rated items
+                    SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                    for (int position = 0; position < itemRatingsVector.getNumEntries(); position++) {
+                        int itemIdx = itemRatingsVector.getIndexAtPosition(position);
+                        double rating = itemRatingsVector.getAtPosition(position);
 
-                double predictRating = predict(userIdx, itemIdx, false);
-                double error = Maths.logistic(predictRating) - normalize(rating);
+                        double predictRating = userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
+                        double error = Maths.logistic(predictRating) - normalize(rating);
 
-                loss += error * error;
+                        shardLoss += error * error;
 
-                double deriValue = Maths.logisticGradientValue(predictRating) * error;
+                        double deriValue = Maths.logisticGradientValue(predictRating) * error;
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
-                    tempUserFactors.plus(userIdx, factorIdx, deriValue * itemFactorValue + regUser * userFactorValue);
-                    tempItemFactors.plus(itemIdx, factorIdx, deriValue * userFactorValue + regItem * itemFactorValue);
-
-                    loss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
-                }
-            }
-
-            // social regularization
-            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-                SequentialSparseVector userTrustVector = socialMatrix.row(userIdx);
-                double trustSum = userTrustVector.sum();
-                if (trustSum <= 0)
-                    continue;
-
-                double[] sumNNs = new double[numFactors];
-                for (Vector.VectorEntry ve : userTrustVector) {
-                    int trustUserIdx = ve.index();
-                    double trustUserValue = ve.get();
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
-                        sumNNs[factorIdx] += trustUserValue * userFactors.get(trustUserIdx, factorIdx);
-                }
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double userFactorValue = userFactors.get(userIdx, factorIdx);
+                            double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+                            tempUserFactors.plus(userIdx, factorIdx, deriValue * itemFactorValue + regUser * userFactorValue);
+                            itemGradients[itemIdx][factorIdx] += deriValue * userFactorValue + regItem * itemFactorValue;
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double diffValue = userFactors.get(userIdx, factorIdx) - sumNNs[factorIdx] / trustSum;
-                    tempUserFactors.plus(userIdx, factorIdx, regSocial * diffValue);
+                            shardLoss += regUser * userFactorValue * userFactorValue + regItem * itemFactorValue * itemFactorValue;
+                        }
+                    }
 
-                    loss += regSocial * diffValue * diffValue;
+                    double trustSum = trustSums[userIdx];
+                    if (trustSum > 0) {
+                        double[] sumNNs = new double[numFactors];
+                        for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                            int trustUserIdx = trusteeIndices[position];
+                            double trustUserValue = trusteeValues[position];
+                            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
+                                sumNNs[factorIdx] += trustUserValue * userFactors.get(trustUserIdx, factorIdx);
+                        }
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
+                            socialDiffs[userIdx][factorIdx] = userFactors.get(userIdx, factorIdx) - sumNNs[factorIdx] / trustSum;
+                    }
                 }
+                return shardLoss;
+            }, tempItemFactors);
 
-                // those who trusted user u
-                SequentialSparseVector userTrustedVector = socialMatrix.column(userIdx);
-                double trustedSum = userTrustedVector.sum();
+            // social regularization, from the differences of the user and of those who trusted the user
+            loss += forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    if (trustSums[userIdx] <= 0)
+                        continue;
 
-                for (Vector.VectorEntry ve_1 : userTrustedVector) {
-                    int trustedUserIdx = ve_1.index();
-                    double trustedValue = ve_1.get();
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        double diffValue = socialDiffs[userIdx][factorIdx];
+                        tempUserFactors.plus(userIdx, factorIdx, regSocial * diffValue);
 
-                    SequentialSparseVector trustedTrustVector = socialMatrix.row(trustedUserIdx);
-                    double[] sumDiffs = new double[numFactors];
-
-                    for (Vector.VectorEntry ve : trustedTrustVector) {
-                        int trustedTrustUserIdx = ve.index();
-                        double trustedTrustUserValue = ve.get();
-                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
-                            sumDiffs[factorIdx] += trustedTrustUserValue * userFactors.get(trustedTrustUserIdx, factorIdx);
+                        shardLoss += regSocial * diffValue * diffValue;
                     }
 
-                    trustSum = trustedTrustVector.sum();
-                    if (trustSum > 0)
-                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
-                            tempUserFactors.plus(userIdx, factorIdx, -regSocial * (trustedValue / trustedSum) *
-                                    (userFactors.get(trustedUserIdx, factorIdx) - sumDiffs[factorIdx] / trustSum));
-
+                    double trustedSum = trustedSums[userIdx];
+                    for (int position = trusterPointers[userIdx]; position < trusterPointers[userIdx + 1]; position++) {
+                        int trustedUserIdx = trusterIndices[position];
+                        double trustedValue = trusterValues[position];
+                        if (trustSums[trustedUserIdx] > 0)
+                            for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
+                                tempUserFactors.plus(userIdx, factorIdx, -regSocial * (trustedValue / trustedSum) *
+                                        socialDiffs[trustedUserIdx][factorIdx]);
+                    }
                 }
-
-            }
+                return shardLoss;
+            });
 
             // update user factors
             userFactors = userFactors.plus(tempUserFactors.times(-learnRate));
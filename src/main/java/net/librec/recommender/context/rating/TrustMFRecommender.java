@@ -22,7 +22,7 @@ import net.librec.common.LibrecException;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.structure.DenseMatrix;
 import net.librec.math.structure.DenseVector;
-import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.recommender.SocialRecommender;
 
 /**
@@ -109,67 +109,93 @@ public class TrustMFRecommender extends SocialRecommender {
      */
     protected void TrusterMF() throws LibrecException {
         for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0.0d;
 
             // gradients of trusterUserTrusterFactors, trusterUserTrusteeFactors, trusterItemFactors
             DenseMatrix userTrusterGradients = new DenseMatrix(numUsers, numFactors);
             DenseMatrix userTrusteeGradients = new DenseMatrix(numUsers, numFactors);
             DenseMatrix itemGradients = new DenseMatrix(numItems, numFactors);
-            // rate matrix
-            for (MatrixEntry matrixEntry : trainMatrix) {
-                int userIdx = matrixEntry.row();
-                int itemIdx = matrixEntry.column();
-                double rating = matrixEntry.get();
 
-                double predictRating = predict(userIdx, itemIdx, false);
-                double error = Maths.logistic(predictRating) - normalize(rating);
+            loss = forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double[][] itemGradientValues = sharedGradients[0];
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    // rate matrix
+                    SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                    for (int position = 0; position < itemRatingsVector.getNumEntries(); position++) {
+                        int itemIdx = itemRatingsVector.getIndexAtPosition(position);
+                        double rating = itemRatingsVector.getAtPosition(position);
 
-                loss += error * error;
+                        double predictRating = predict(userIdx, itemIdx);
+                        double error = Maths.logistic(predictRating) - normalize(rating);
 
-                double deriValue = Maths.logisticGradientValue(predictRating) * error;
+                        shardLoss += error * error;
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double trusterUserTrusterFactorValue = trusterUserTrusterFactors.get(userIdx, factorIdx);
-                    double trusterItemFactorValue = trusterItemFactors.get(itemIdx, factorIdx);
+                        double deriValue = Maths.logisticGradientValue(predictRating) * error;
 
-                    userTrusterGradients.plus(userIdx, factorIdx, deriValue * trusterItemFactorValue
-                            + regUser * trusterUserTrusterFactorValue);
-                    itemGradients.plus(itemIdx, factorIdx, deriValue * trusterUserTrusterFactorValue
-                            + regItem * trusterItemFactorValue);
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double trusterUserTrusterFactorValue = trusterUserTrusterFactors.get(userIdx, factorIdx);
+                            double trusterItemFactorValue = trusterItemFactors.get(itemIdx, factorIdx);
 
-                    loss += regUser * trusterUserTrusterFactorValue * trusterUserTrusterFactorValue +
-                            regItem * trusterItemFactorValue * trusterItemFactorValue;
-                }
-            }
+                            userTrusterGradients.plus(userIdx, factorIdx, deriValue * trusterItemFactorValue
+                                    + regUser * trusterUserTrusterFactorValue);
+                            itemGradientValues[itemIdx][factorIdx] += deriValue * trusterUserTrusterFactorValue
+                                    + regItem * trusterItemFactorValue;
+
+                            shardLoss += regUser * trusterUserTrusterFactorValue * trusterUserTrusterFactorValue +
+                                    regItem * trusterItemFactorValue * trusterItemFactorValue;
+                        }
+                    }
+
+                    // social matrix, the user as truster
+                    for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                        int userSocialIdx = trusteeIndices[position];
+                        double socialValue = trusteeValues[position];
+                        if (socialValue <= 0) {
+                            continue;
+                        }
+                        double preddictSocialValue = trusterUserTrusterFactors.row(userIdx).dot(trusterUserTrusteeFactors.row(userSocialIdx));
+                        double socialError = Maths.logistic(preddictSocialValue) - socialValue;
 
-            // social matrix
-            for (MatrixEntry matrixEntry : socialMatrix) {
-                int userIdx = matrixEntry.row();
-                int userSocialIdx = matrixEntry.column();
-                double socialValue = matrixEntry.get();
+                        shardLoss += regSocial * socialError * socialError;
 
-                if (socialValue > 0) {
-                    double preddictSocialValue = trusterUserTrusterFactors.row(userIdx).dot(trusterUserTrusteeFactors.row(userSocialIdx));
-                    double socialError = Maths.logistic(preddictSocialValue) - socialValue;
+                        double deriValue = Maths.logisticGradientValue(preddictSocialValue) * socialError;
 
-                    loss += regSocial * socialError * socialError;
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double trusterUserTrusterFactorValue = trusterUserTrusterFactors.get(userIdx, factorIdx);
+                            double trusterUserTrusteeFactorValue = trusterUserTrusteeFactors.get(userSocialIdx, factorIdx);
 
-                    double deriValue = Maths.logisticGradientValue(preddictSocialValue) * socialError;
+                            userTrusterGradients.plus(userIdx, factorIdx, regSocial * deriValue * trusterUserTrusteeFactorValue
+                                    + regUser * trusterUserTrusterFactorValue);
 
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double trusterUserTrusterFactorValue = trusterUserTrusterFactors.get(userIdx, factorIdx);
-                        double trusterUserTrusteeFactorValue = trusterUserTrusteeFactors.get(userSocialIdx, factorIdx);
+                            shardLoss += regUser * trusterUserTrusterFactorValue * trusterUserTrusterFactorValue;
+                        }
+                    }
+
+                    // social matrix, the user as trustee
+                    for (int position = trusterPointers[userIdx]; position < trusterPointers[userIdx + 1]; position++) {
+                        int userSocialIdx = trusterIndices[position];
+                        double socialValue = trusterValues[position];
+                        if (socialValue <= 0) {
+                            continue;
+                        }
+                        double preddictSocialValue = trusterUserTrusterFactors.row(userSocialIdx).dot(trusterUserTrusteeFactors.row(userIdx));
+                        double socialError = Maths.logistic(preddictSocialValue) - socialValue;
+
+                        double deriValue = Maths.logisticGradientValue(preddictSocialValue) * socialError;
 
-                        userTrusterGradients.plus(userIdx, factorIdx, regSocial * deriValue * trusterUserTrusteeFactorValue
-                                + regUser * trusterUserTrusterFactorValue);
-                        userTrusteeGradients.plus(userSocialIdx, factorIdx, regSocial * deriValue * trusterUserTrusterFactorValue
-                                + regUser * trusterUserTrusteeFactorValue);
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double trusterUserTrusterFactorValue = trusterUserTrusterFactors.get(userSocialIdx, factorIdx);
+                            double trusterUserTrusteeFactorValue = trusterUserTrusteeFactors.get(userIdx, factorIdx);
 
-                        loss += regUser * trusterUserTrusterFactorValue * trusterUserTrusterFactorValue +
-                                regUser * trusterUserTrusteeFactorValue * trusterUserTrusteeFactorValue;
+                            userTrusteeGradients.plus(userIdx, factorIdx, regSocial * deriValue * trusterUserTrusterFactorValue
+                                    + regUser * trusterUserTrusteeFactorValue);
+
+                            shardLoss += regUser * trusterUserTrusteeFactorValue * trusterUserTrusteeFactorValue;
+                        }
                     }
                 }
-            }
+                return shardLoss;
+            }, itemGradients);
 
             trusterUserTrusterFactors = trusterUserTrusterFactors.plus(userTrusterGradients.times(-learnRate));
             trusterItemFactors = trusterItemFactors.plus(itemGradients.times(-learnRate));
@@ -192,65 +218,91 @@ public class TrustMFRecommender extends SocialRecommender {
      */
     protected void TrusteeMF() throws LibrecException {
         for (int iter = 1; iter <= numIterations; iter++) {
-            loss = 0.0d;
 
             // gradients of trusteeUserTrusterFactors, trusteeUserTrusteeFactors, trusteeItemFactors
             DenseMatrix userTrusterGradients = new DenseMatrix(numUsers, numFactors);
             DenseMatrix userTrusteeGradients = new DenseMatrix(numUsers, numFactors);
             DenseMatrix itemGradients = new DenseMatrix(numItems, numFactors);
 
-            // rate matrix
-            for (MatrixEntry matrixEntry : trainMatrix) {
-                int userIdx = matrixEntry.row();
-                int itemIdx = matrixEntry.column();
-                double rating = matrixEntry.get();
+            loss = forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double[][] itemGradientValues = sharedGradients[0];
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    // rate matrix
+                    SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                    for (int position = 0; position < itemRatingsVector.getNumEntries(); position++) {
+                        int itemIdx = itemRatingsVector.getIndexAtPosition(position);
+                        double rating = itemRatingsVector.getAtPosition(position);
 
-                double predictRating = predict(userIdx, itemIdx, false);
-                double error = Maths.logistic(predictRating) - normalize(rating);
+                        double predictRating = predict(userIdx, itemIdx);
+                        double error = Maths.logistic(predictRating) - normalize(rating);
 
-                loss += error * error;
+                        shardLoss += error * error;
 
-                double deriValue = Maths.logisticGradientValue(predictRating) * error;
+                        double deriValue = Maths.logisticGradientValue(predictRating) * error;
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double trusteeUserTrusteeFactorValue = trusteeUserTrusteeFactors.get(userIdx, factorIdx);
-                    double trusteeItemFactorValue = trusteeItemFactors.get(itemIdx, factorIdx);
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double trusteeUserTrusteeFactorValue = trusteeUserTrusteeFactors.get(userIdx, factorIdx);
+                            double trusteeItemFactorValue = trusteeItemFactors.get(itemIdx, factorIdx);
 
-                    userTrusteeGradients.plus(userIdx, factorIdx, deriValue * trusteeItemFactorValue + regUser * trusteeUserTrusteeFactorValue);
-                    itemGradients.plus(itemIdx, factorIdx, deriValue * trusteeUserTrusteeFactorValue + regItem * trusteeItemFactorValue);
+                            userTrusteeGradients.plus(userIdx, factorIdx, deriValue * trusteeItemFactorValue + regUser * trusteeUserTrusteeFactorValue);
+                            itemGradientValues[itemIdx][factorIdx] += deriValue * trusteeUserTrusteeFactorValue + regItem * trusteeItemFactorValue;
 
-                    loss += regUser * trusteeUserTrusteeFactorValue * trusteeUserTrusteeFactorValue +
-                            regItem * trusteeItemFactorValue * trusteeItemFactorValue;
-                }
-            }
+                            shardLoss += regUser * trusteeUserTrusteeFactorValue * trusteeUserTrusteeFactorValue +
+                                    regItem * trusteeItemFactorValue * trusteeItemFactorValue;
+                        }
+                    }
+
+                    // social matrix, the user as trustee
+                    for (int position = trusterPointers[userIdx]; position < trusterPointers[userIdx + 1]; position++) {
+                        int userSocialIdx = trusterIndices[position];
+                        double socialValue = trusterValues[position];
+                        if (socialValue <= 0) {
+                            continue;
+                        }
+                        double predictSocialValue = trusteeUserTrusterFactors.row(userSocialIdx).dot(trusteeUserTrusteeFactors.row(userIdx));
+                        double socialError = Maths.logistic(predictSocialValue) - socialValue;
+
+                        shardLoss += regSocial * socialError * socialError;
 
-            // social matrix
-            for (MatrixEntry matrixEntry : socialMatrix) {
-                int userSocialIdx = matrixEntry.row();
-                int userIdx = matrixEntry.column();
-                double socialValue = matrixEntry.get();
-                if (socialValue > 0) {
-                    double predictSocialValue = trusteeUserTrusterFactors.row(userSocialIdx).dot(trusteeUserTrusteeFactors.row(userIdx));
-                    double socialError = Maths.logistic(predictSocialValue) - socialValue;
+                        double deriValue = Maths.logisticGradientValue(predictSocialValue) * socialError;
 
-                    loss += regSocial * socialError * socialError;
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double trusteeUserTrusteeFactorValue = trusteeUserTrusteeFactors.get(userIdx, factorIdx);
+                            double trusteeUserTrusterFactorValue = trusteeUserTrusterFactors.get(userSocialIdx, factorIdx);
 
-                    double deriValue = Maths.logisticGradientValue(predictSocialValue) * socialError;
+                            userTrusteeGradients.plus(userIdx, factorIdx, regSocial * deriValue * trusteeUserTrusterFactorValue
+                                    + regUser * trusteeUserTrusteeFactorValue);
 
-                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                        double trusteeUserTrusteeFactorValue = trusteeUserTrusteeFactors.get(userIdx, factorIdx);
-                        double trusteeUserTrusterFactorValue = trusteeUserTrusterFactors.get(userSocialIdx, factorIdx);
+                            shardLoss += regUser * trusteeUserTrusteeFactorValue * trusteeUserTrusteeFactorValue;
+                        }
+                    }
+
+                    // social matrix, the user as truster
+                    for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                        int userSocialIdx = trusteeIndices[position];
+                        double socialValue = trusteeValues[position];
+                        if (socialValue <= 0) {
+                            continue;
+                        }
+                        double predictSocialValue = trusteeUserTrusterFactors.row(userIdx).dot(trusteeUserTrusteeFactors.row(userSocialIdx));
+                        double socialError = Maths.logistic(predictSocialValue) - socialValue;
+
+                        double deriValue = Maths.logisticGradientValue(predictSocialValue) * socialError;
 
-                        userTrusteeGradients.plus(userIdx, factorIdx, regSocial * deriValue * trusteeUserTrusterFactorValue
-                                + regUser * trusteeUserTrusteeFactorValue);
-                        userTrusterGradients.plus(userSocialIdx, factorIdx, regSocial * deriValue * trusteeUserTrusteeFactorValue
-                                + regUser * trusteeUserTrusterFactorValue);
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double trusteeUserTrusteeFactorValue = trusteeUserTrusteeFactors.get(userSocialIdx, factorIdx);
+                            double trusteeUserTrusterFactorValue = trusteeUserTrusterFactors.get(userIdx, factorIdx);
 
-                        loss += regUser * trusteeUserTrusteeFactorValue * trusteeUserTrusteeFactorValue +
-                                regUser * trusteeUserTrusterFactorValue * trusteeUserTrusterFactorValue;
+                            userTrusterGradients.plus(userIdx, factorIdx, regSocial * deriValue * trusteeUserTrusteeFactorValue
+                                    + regUser * trusteeUserTrusterFactorValue);
+
+                            shardLoss += regUser * trusteeUserTrusterFactorValue * trusteeUserTrusterFactorValue;
+                        }
                     }
                 }
-            }
+                return shardLoss;
+            }, itemGradients);
 
             trusteeUserTrusterFactors = trusteeUserTrusterFactors.plus(userTrusterGradients.times(-learnRate));
             trusteeItemFactors = trusteeItemFactors.plus(itemGradients.times(-learnRate));
@@ -21,7 +21,7 @@ import com.google.common.cache.LoadingCache;
 import net.librec.annotation.ModelData;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.DenseMatrix;
-import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.VectorBasedDenseVector;
 import net.librec.recommender.SocialRecommender;
 
@@ -132,6 +132,10 @@ public class TrustSVDRecommender extends SocialRecommender {
 
     /**
      * train model process
+     * <p>
+     * The ratings are visited user by user. The trustee factors only change at the end of an iteration, so the
+     * trustee part of the predictions and the rating gradients of the trustees are summed once per user instead of
+     * once per rating. The social part runs over the user shards in parallel.
      *
      * @throws LibrecException if error occurs
      */
@@ -145,151 +149,172 @@ public class TrustSVDRecommender extends SocialRecommender {
             DenseMatrix tempUserFactors = new DenseMatrix(numUsers, numFactors);
             DenseMatrix trusteeTempFactors = new DenseMatrix(numUsers, numFactors);
 
-            for (MatrixEntry matrixEntry : trainMatrix) {
-                int userIdx = matrixEntry.row(); // user userIdx
-                int itemIdx = matrixEntry.column(); // item itemIdx
-                double realRating = matrixEntry.get(); // real rating on item itemIdx rated by user userIdx
-
-                // To speed up, directly access the prediction instead of invoking "predictRating = predict(userIdx,itemIdx)"
-                double userBiasValue = userBiases.get(userIdx);
-                double itemBiasValue = itemBiases.get(itemIdx);
-                double predictRating = globalMean + userBiasValue + itemBiasValue + userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
-
-                // get the implicit influence predict rating using items rated by user userIdx
-                List<Integer> impItemsList = null;
-                try {
-                    impItemsList = userItemsCache.get(userIdx);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
+            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                int numImpItems = itemRatingsVector.getNumEntries();
+                if (numImpItems == 0) {
+                    continue;
                 }
-                if (impItemsList.size() > 0) {
-                    double sum = 0;
-                    for (int impItemIdx : impItemsList)
-                        sum += impItemFactors.row(impItemIdx).dot(itemFactors.row(itemIdx));
+                int numTrustees = trusteePointers[userIdx + 1] - trusteePointers[userIdx];
 
-                    predictRating += sum / Math.sqrt(impItemsList.size());
-                }
+                double userWeightDenom = Math.sqrt(numImpItems);
+                double trusteeWeightDenom = Math.sqrt(numTrustees);
 
                 // the user-specific influence of users (trustees)trusted by user userIdx
-                List<Integer> trusteesList = null;
-                try {
-                    trusteesList = userTrusteeCache.get(userIdx);
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
+                double[] sumTrusteesFactors = new double[numFactors];
+                for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                    int trusteeIdx = trusteeIndices[position];
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        sumTrusteesFactors[factorIdx] += trusteeFactors.get(trusteeIdx, factorIdx);
+                    }
                 }
-                if (trusteesList.size() > 0) {
-                    double sum = 0.0;
-                    for (int trusteeIdx : trusteesList)
-                        sum += trusteeFactors.row(trusteeIdx).dot(itemFactors.row(itemIdx));
-
-                    predictRating += sum / Math.sqrt(trusteesList.size());
+                if (trusteeWeightDenom > 0) {
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        sumTrusteesFactors[factorIdx] /= trusteeWeightDenom;
+                    }
                 }
 
-                double error = predictRating - realRating;
+                // sum of error * itemFactorValue over the ratings of user userIdx, for the trustee gradients
+                double[] sumErrorItemFactors = new double[numFactors];
 
-                loss += error * error;
+                for (int position = 0; position < numImpItems; position++) {
+                    int itemIdx = itemRatingsVector.getIndexAtPosition(position); // item itemIdx
+                    double realRating = itemRatingsVector.getAtPosition(position); // real rating on item itemIdx rated by user userIdx
 
-                double userWeightDenom = Math.sqrt(impItemsList.size());
-                double trusteeWeightDenom = Math.sqrt(trusteesList.size());
+                    // To speed up, directly access the prediction instead of invoking "predictRating = predict(userIdx,itemIdx)"
+                    double userBiasValue = userBiases.get(userIdx);
+                    double itemBiasValue = itemBiases.get(itemIdx);
+                    double predictRating = globalMean + userBiasValue + itemBiasValue + userFactors.row(userIdx).dot(itemFactors.row(itemIdx));
 
+                    // get the implicit influence predict rating using items rated by user userIdx
+                    double sum = 0;
+                    for (int impPosition = 0; impPosition < numImpItems; impPosition++)
+                        sum += impItemFactors.row(itemRatingsVector.getIndexAtPosition(impPosition)).dot(itemFactors.row(itemIdx));
 
-                double userWeight = 1.0 / userWeightDenom;
-                double itemWeight = impItemWeights.get(itemIdx);
+                    predictRating += sum / userWeightDenom;
 
-                // update factors
-                // stochastic gradient descent sgd
-                double sgd = error + regBias * userWeight * userBiasValue;
-                userBiases.plus(userIdx, -learnRate * sgd);
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
+                        predictRating += sumTrusteesFactors[factorIdx] * itemFactors.get(itemIdx, factorIdx);
 
-                sgd = error + regBias * itemWeight * itemBiasValue;
-                itemBiases.plus(itemIdx, -learnRate * sgd);
+                    double error = predictRating - realRating;
 
-                loss += regBias * userWeight * userBiasValue * userBiasValue +
-                        regBias * itemWeight * itemBiasValue * itemBiasValue;
+                    loss += error * error;
 
+                    double userWeight = 1.0 / userWeightDenom;
+                    double itemWeight = impItemWeights.get(itemIdx);
 
-                double[] sumImpItemsFactors = new double[numFactors];
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double sum = 0;
-                    for (int impItemIdx : impItemsList)
-                        sum += impItemFactors.get(impItemIdx, factorIdx);
+                    // update factors
+                    // stochastic gradient descent sgd
+                    double sgd = error + regBias * userWeight * userBiasValue;
+                    userBiases.plus(userIdx, -learnRate * sgd);
 
-                    sumImpItemsFactors[factorIdx] = userWeightDenom > 0 ? sum / userWeightDenom : sum;
-                }
+                    sgd = error + regBias * itemWeight * itemBiasValue;
+                    itemBiases.plus(itemIdx, -learnRate * sgd);
 
-                double[] sumTrusteesFactors = new double[numFactors];
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double sum = 0;
-                    for (int trusteeIdx : trusteesList)
-                        sum += trusteeFactors.get(trusteeIdx, factorIdx);
+                    loss += regBias * userWeight * userBiasValue * userBiasValue +
+                            regBias * itemWeight * itemBiasValue * itemBiasValue;
 
-                    sumTrusteesFactors[factorIdx] = trusteeWeightDenom > 0 ? sum / trusteeWeightDenom : sum;
-                }
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
+                    double[] sumImpItemsFactors = new double[numFactors];
+                    for (int impPosition = 0; impPosition < numImpItems; impPosition++) {
+                        int impItemIdx = itemRatingsVector.getIndexAtPosition(impPosition);
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
+                            sumImpItemsFactors[factorIdx] += impItemFactors.get(impItemIdx, factorIdx);
+                    }
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++)
+                        sumImpItemsFactors[factorIdx] /= userWeightDenom;
+
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                        double userFactorValue = userFactors.get(userIdx, factorIdx);
+                        double itemFactorValue = itemFactors.get(itemIdx, factorIdx);
 
-                    double deltaUser = error * itemFactorValue + regUser * userWeight * userFactorValue;
-                    double deltaItem = error * (userFactorValue + sumImpItemsFactors[factorIdx] + sumTrusteesFactors[factorIdx])
-                            + regItem * itemWeight * itemFactorValue;
+                        double deltaUser = error * itemFactorValue + regUser * userWeight * userFactorValue;
+                        double deltaItem = error * (userFactorValue + sumImpItemsFactors[factorIdx] + sumTrusteesFactors[factorIdx])
+                                + regItem * itemWeight * itemFactorValue;
 
-                    tempUserFactors.plus(userIdx, factorIdx, deltaUser);
-                    itemFactors.plus(itemIdx, factorIdx, -learnRate * deltaItem);
+                        tempUserFactors.plus(userIdx, factorIdx, deltaUser);
+                        itemFactors.plus(itemIdx, factorIdx, -learnRate * deltaItem);
 
-                    loss += regUser * userWeight * userFactorValue * userFactorValue
-                            + regItem * itemWeight * itemFactorValue * itemFactorValue;
+                        loss += regUser * userWeight * userFactorValue * userFactorValue
+                                + regItem * itemWeight * itemFactorValue * itemFactorValue;
 
-                    for (int impItemIdx : impItemsList) {
-                        double impItemFactorValue = impItemFactors.get(impItemIdx, factorIdx);
+                        for (int impPosition = 0; impPosition < numImpItems; impPosition++) {
+                            int impItemIdx = itemRatingsVector.getIndexAtPosition(impPosition);
+                            double impItemFactorValue = impItemFactors.get(impItemIdx, factorIdx);
 
-                        double impItemWeightValue = impItemWeights.get(impItemIdx);
-                        double deltaImpItem = error * itemFactorValue / userWeightDenom + regItem * impItemWeightValue * impItemFactorValue;
-                        impItemFactors.plus(impItemIdx, factorIdx, -learnRate * deltaImpItem);
+                            double impItemWeightValue = impItemWeights.get(impItemIdx);
+                            double deltaImpItem = error * itemFactorValue / userWeightDenom + regItem * impItemWeightValue * impItemFactorValue;
+                            impItemFactors.plus(impItemIdx, factorIdx, -learnRate * deltaImpItem);
 
-                        loss += regItem * impItemWeightValue * impItemFactorValue * impItemFactorValue;
+                            loss += regItem * impItemWeightValue * impItemFactorValue * impItemFactorValue;
 
+                        }
+
+                        sumErrorItemFactors[factorIdx] += error * itemFactorValue;
                     }
+                }
 
-                    // update trusteeTempFactors
-                    for (int trusteeIdx : trusteesList) {
+                // update trusteeTempFactors, with the gradients of all ratings of user userIdx at once
+                for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                    int trusteeIdx = trusteeIndices[position];
+                    double trusteeWeightValue = trusteeWeights.get(trusteeIdx);
+                    for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
                         double trusteeFactorValue = trusteeFactors.get(trusteeIdx, factorIdx);
 
-                        double trusteeWeightValue = trusteeWeights.get(trusteeIdx);
-                        double deltaTrustee = error * itemFactorValue / trusteeWeightDenom + regUser * trusteeWeightValue * trusteeFactorValue;
+                        double deltaTrustee = sumErrorItemFactors[factorIdx] / trusteeWeightDenom
+                                + numImpItems * regUser * trusteeWeightValue * trusteeFactorValue;
                         trusteeTempFactors.plus(trusteeIdx, factorIdx, deltaTrustee);
 
-                        loss += regUser * trusteeWeightValue * trusteeFactorValue * trusteeFactorValue;
+                        loss += numImpItems * regUser * trusteeWeightValue * trusteeFactorValue * trusteeFactorValue;
                     }
                 }
             }
 
-            for (MatrixEntry socialMatrixEntry : socialMatrix) {
-                int userIdx = socialMatrixEntry.row();
-                int trusteeIdx = socialMatrixEntry.column();
-                double socialValue = socialMatrixEntry.get();
-                if (socialValue == 0)
-                    continue;
+            loss += forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    // the user as truster
+                    double trusterWeightValue = trusterWeights.get(userIdx);
+                    for (int position = trusteePointers[userIdx]; position < trusteePointers[userIdx + 1]; position++) {
+                        int trusteeIdx = trusteeIndices[position];
+                        double socialValue = trusteeValues[position];
+                        if (socialValue == 0)
+                            continue;
 
-                double predtictSocialValue = userFactors.row(userIdx).dot(trusteeFactors.row(trusteeIdx));
-                double socialError = predtictSocialValue - socialValue;
+                        double predtictSocialValue = userFactors.row(userIdx).dot(trusteeFactors.row(trusteeIdx));
+                        double socialError = predtictSocialValue - socialValue;
 
-                loss += regSocial * socialError * socialError;
+                        shardLoss += regSocial * socialError * socialError;
 
-                double deriValue = regSocial * socialError;
+                        double deriValue = regSocial * socialError;
 
-                double trusterWeightValue = trusterWeights.get(userIdx);
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            double userFactorValue = userFactors.get(userIdx, factorIdx);
+                            double trusteeFactorValue = trusteeFactors.get(trusteeIdx, factorIdx);
 
-                for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
-                    double userFactorValue = userFactors.get(userIdx, factorIdx);
-                    double trusteeFactorValue = trusteeFactors.get(trusteeIdx, factorIdx);
+                            tempUserFactors.plus(userIdx, factorIdx, deriValue * trusteeFactorValue + regSocial * trusterWeightValue * userFactorValue);
 
-                    tempUserFactors.plus(userIdx, factorIdx, deriValue * trusteeFactorValue + regSocial * trusterWeightValue * userFactorValue);
-                    trusteeTempFactors.plus(trusteeIdx, factorIdx, deriValue * userFactorValue);
+                            shardLoss += regSocial * trusterWeightValue * userFactorValue * userFactorValue;
+                        }
+                    }
+
+                    // the user as trustee
+                    for (int position = trusterPointers[userIdx]; position < trusterPointers[userIdx + 1]; position++) {
+                        int trusterIdx = trusterIndices[position];
+                        double socialValue = trusterValues[position];
+                        if (socialValue == 0)
+                            continue;
+
+                        double predtictSocialValue = userFactors.row(trusterIdx).dot(trusteeFactors.row(userIdx));
+                        double deriValue = regSocial * (predtictSocialValue - socialValue);
 
-                    loss += regSocial * trusterWeightValue * userFactorValue * userFactorValue;
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            trusteeTempFactors.plus(userIdx, factorIdx, deriValue * userFactors.get(trusterIdx, factorIdx));
+                        }
+                    }
                 }
-            }
+                return shardLoss;
+            });
 
             userFactors = userFactors.plus(tempUserFactors.times(-learnRate));
             trusteeFactors = trusteeFactors.plus(trusteeTempFactors.times(-learnRate));
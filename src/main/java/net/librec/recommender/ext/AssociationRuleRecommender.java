@@ -17,20 +17,11 @@
  */
 package net.librec.recommender.ext;
 
-import com.clearspring.analytics.util.Lists;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Table;
 import net.librec.common.LibrecException;
 import net.librec.math.structure.*;
 import net.librec.recommender.AbstractRecommender;
 import net.librec.recommender.MatrixRecommender;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * Choonho Kim and Juntae Kim, <strong>A Recommendation Algorithm Using Multi-Level Association Rules</strong>, WI 2003.
  * <p>
@@ -79,44 +70,17 @@ public class AssociationRuleRecommender extends MatrixRecommender {
 
     @Override
     protected void trainModel() throws LibrecException {
-        // plus to adapt to 3.0
-        List<Map<Integer, Integer>> userItemsPosList = Lists.newArrayList();
-        for (int userIdx = 0; userIdx < numUsers; userIdx++) {
-            Map<Integer, Integer> itemIndexPosMap = Maps.newHashMap();
-            int[] itemIndices = trainMatrix.row(userIdx).getIndices();
-            for (int i = 0; i < itemIndices.length; i++) {
-                itemIndexPosMap.put(itemIndices[i], i);
-            }
-            userItemsPosList.add(itemIndexPosMap);
-        }
-
         // simple rule: X => Y, given that each user vector is regarded as a
-        // transaction
-        Table<Integer, Integer, Double> associationTable = HashBasedTable.create(numItems, numItems);
+        // transaction; the co-occurrence counts of all item pairs come from
+        // one sparse product, whose diagonal is the transaction count of X
+        associations = trainMatrix.gram(true, true, 0);
+        double[] userCounts = new double[numItems];
         for (int itemIdx = 0; itemIdx < numItems; itemIdx++) {
-            // all transactions for item itemIdx
-            SequentialSparseVector userRatingsVector = trainMatrix.column(itemIdx);
-            int userCount = userRatingsVector.size();
-
-            for (int assoItemIdx = 0; assoItemIdx < numItems; assoItemIdx++) {
-                // compute confidence where containing item assoItemIdx among
-                // userRatingsVector
-                int count = 0;
-                for (Vector.VectorEntry vectorEntry : userRatingsVector) {
-                    int userIdx = vectorEntry.index();
-                    Map<Integer, Integer> currItemIndexPosMap = userItemsPosList.get(userIdx);
-                    if (currItemIndexPosMap.get(assoItemIdx) != null) {
-                        count++;
-                    }
-                }
-
-                if (count > 0) {
-                    double confidence = (count + 0.0) / userCount;
-                    associationTable.put(itemIdx, assoItemIdx, confidence);
-                }
-            }
+            userCounts[itemIdx] = trainMatrix.column(itemIdx).getNumEntries();
+        }
+        for (MatrixEntry entry : associations) {
+            entry.set(entry.get() / userCounts[entry.row()]);
         }
-        associations = new SequentialAccessSparseMatrix(numItems, numItems, associationTable);
     }
 
     /**
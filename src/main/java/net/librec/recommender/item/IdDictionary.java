@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import com.google.common.collect.BiMap;
+
+import java.util.Map;
+
+/**
+ * Id Dictionary<br>
+ * The reverse of a raw id to inner index mapping, as a flat array indexed by the inner index.
+ */
+public class IdDictionary {
+    private final String[] ids;
+
+    private IdDictionary(String[] ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * @param mappingData the raw id to inner index mapping
+     * @return the dictionary of the raw ids by inner index
+     */
+    public static IdDictionary of(BiMap<String, Integer> mappingData) {
+        int size = 0;
+        for (Integer index : mappingData.values()) {
+            size = Math.max(size, index + 1);
+        }
+        String[] ids = new String[size];
+        for (Map.Entry<String, Integer> entry : mappingData.entrySet()) {
+            ids[entry.getValue()] = entry.getKey();
+        }
+        return new IdDictionary(ids);
+    }
+
+    /**
+     * @param index the inner index
+     * @return the raw id, or null if the index is not mapped
+     */
+    public String get(int index) {
+        return index >= 0 && index < ids.length ? ids[index] : null;
+    }
+
+    /**
+     * @return the number of inner indices, including the unmapped ones below the largest index
+     */
+    public int size() {
+        return ids.length;
+    }
+}
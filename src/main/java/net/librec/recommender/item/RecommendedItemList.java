@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Recommended Item List<br>
+ * A list of recommended items backed by primitive arrays of inner user and item indices and values. The raw
+ * ids are only resolved, through {@link IdDictionary}s, when an item is read with {@link #get(int)}; the
+ * index accessors and {@link #retainIf(EntryPredicate)} work on the inner indices without allocating.
+ */
+public class RecommendedItemList extends AbstractList<RecommendedItem> {
+    private final IdDictionary userDictionary;
+    private final IdDictionary itemDictionary;
+    private final int[] userIdxs;
+    private final int[] itemIdxs;
+    private final double[] values;
+    private int size;
+
+    /**
+     * A predicate on the inner indices and the value of an entry.
+     */
+    public interface EntryPredicate {
+        boolean test(int userIdx, int itemIdx, double value);
+    }
+
+    private RecommendedItemList(IdDictionary userDictionary, IdDictionary itemDictionary, int capacity) {
+        this.userDictionary = userDictionary;
+        this.itemDictionary = itemDictionary;
+        this.userIdxs = new int[capacity];
+        this.itemIdxs = new int[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Flatten a recommended list whose context indices are the user indices. The entries whose user or item
+     * has no raw id are left out.
+     *
+     * @param recommendedList the recommended list
+     * @param userDictionary  the raw user ids
+     * @param itemDictionary  the raw item ids
+     * @return the flattened list
+     */
+    public static RecommendedItemList of(RecommendedList recommendedList, IdDictionary userDictionary,
+                                         IdDictionary itemDictionary) {
+        int numContexts = recommendedList.size();
+        int capacity = 0;
+        for (int contextIdx = 0; contextIdx < numContexts; contextIdx++) {
+            capacity += recommendedList.getKeyValueListByContext(contextIdx).size();
+        }
+        RecommendedItemList itemList = new RecommendedItemList(userDictionary, itemDictionary, capacity);
+        for (int contextIdx = 0; contextIdx < numContexts; contextIdx++) {
+            if (userDictionary.get(contextIdx) == null) {
+                continue;
+            }
+            List<KeyValue<Integer, Double>> keyValueList = recommendedList.getKeyValueListByContext(contextIdx);
+            for (int index = 0; index < keyValueList.size(); index++) {
+                KeyValue<Integer, Double> keyValue = keyValueList.get(index);
+                if (itemDictionary.get(keyValue.getKey()) != null) {
+                    itemList.userIdxs[itemList.size] = contextIdx;
+                    itemList.itemIdxs[itemList.size] = keyValue.getKey();
+                    itemList.values[itemList.size++] = keyValue.getValue();
+                }
+            }
+        }
+        return itemList;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int getUserIdx(int index) {
+        checkIndex(index);
+        return userIdxs[index];
+    }
+
+    public int getItemIdx(int index) {
+        checkIndex(index);
+        return itemIdxs[index];
+    }
+
+    public double getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public IdDictionary getUserDictionary() {
+        return userDictionary;
+    }
+
+    public IdDictionary getItemDictionary() {
+        return itemDictionary;
+    }
+
+    /**
+     * @param index the index of the entry
+     * @return a view of the entry which resolves the raw ids when they are read
+     */
+    @Override
+    public RecommendedItem get(int index) {
+        checkIndex(index);
+        return new IndexedItem(userIdxs[index], itemIdxs[index], values[index]);
+    }
+
+    /**
+     * Remove the entries which do not satisfy a predicate, in place and in order.
+     *
+     * @param predicate the predicate on the inner indices and the value
+     * @return true if an entry was removed
+     */
+    public boolean retainIf(EntryPredicate predicate) {
+        int retained = 0;
+        for (int index = 0; index < size; index++) {
+            if (predicate.test(userIdxs[index], itemIdxs[index], values[index])) {
+                userIdxs[retained] = userIdxs[index];
+                itemIdxs[retained] = itemIdxs[index];
+                values[retained++] = values[index];
+            }
+        }
+        boolean removed = retained < size;
+        if (removed) {
+            size = retained;
+            modCount++;
+        }
+        return removed;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * An entry whose raw ids are resolved on demand.
+     */
+    private class IndexedItem implements RecommendedItem {
+        private final int userIdx;
+        private final int itemIdx;
+        private final double value;
+
+        private IndexedItem(int userIdx, int itemIdx, double value) {
+            this.userIdx = userIdx;
+            this.itemIdx = itemIdx;
+            this.value = value;
+        }
+
+        @Override
+        public String getUserId() {
+            return userDictionary.get(userIdx);
+        }
+
+        @Override
+        public String getItemId() {
+            return itemDictionary.get(itemIdx);
+        }
+
+        @Override
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return getUserId() + "," + getItemId() + "," + value;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import com.google.common.collect.BiMap;
+import net.librec.filter.RecommendedFilter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Recommended List Writer<br>
+ * Streams a {@link RecommendedList} to files context by context, resolving the inner indices through
+ * {@link IdDictionary}s, without materialising the whole list as {@link RecommendedItem}s or as one string.
+ * <p>
+ * The {@link Format#CSV} format writes {@code user,item,score} lines. With one partition the output path is
+ * the file itself; otherwise it is a directory of {@code part-NNNNN} files.
+ * <p>
+ * The {@link Format#BINARY} format writes a directory with the id dictionaries {@code users.dict} and
+ * {@code items.dict}, and the {@code part-NNNNN} files. A dictionary holds {@link #DICT_MAGIC}, the number
+ * of ids and every id in inner index order (modified UTF-8, empty for an unmapped index). A part holds {@link #PART_MAGIC}, then a block
+ * per context: the user index, the number of items {@code n}, the {@code n} item indices and the {@code n}
+ * scores (doubles), all big-endian.
+ * <p>
+ * Partitions are contiguous ranges of contexts and are written in parallel.
+ * <p>
+ * The output is written into a staging directory next to the output path and moved into place once complete.
+ * The output of a previous run is replaced, but a directory holding any other file is refused.
+ */
+public class RecommendedListWriter {
+    public static final int DICT_MAGIC = 0x4C524944;
+    public static final int PART_MAGIC = 0x4C52524C;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Pattern OUTPUT_FILE_PATTERN = Pattern.compile("part-\\d{5}|users\\.dict|items\\.dict");
+
+    /**
+     * output format
+     */
+    public enum Format {
+        CSV, BINARY
+    }
+
+    private final BiMap<String, Integer> userMappingData;
+    private final BiMap<String, Integer> itemMappingData;
+    private final IdDictionary userIds;
+    private final IdDictionary itemIds;
+
+    private Format format = Format.CSV;
+    private int numPartitions = 1;
+    private RecommendedFilter filter;
+
+    /**
+     * @param userMappingData the user raw id to inner index mapping
+     * @param itemMappingData the item raw id to inner index mapping
+     */
+    public RecommendedListWriter(BiMap<String, Integer> userMappingData, BiMap<String, Integer> itemMappingData) {
+        this.userMappingData = userMappingData;
+        this.itemMappingData = itemMappingData;
+        this.userIds = IdDictionary.of(userMappingData);
+        this.itemIds = IdDictionary.of(itemMappingData);
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    public void setNumPartitions(int numPartitions) {
+        this.numPartitions = Math.max(1, numPartitions);
+    }
+
+    /**
+     * Set a filter which is applied to the items of each context before they are written.
+     *
+     * @param filter the filter, or null
+     */
+    public void setFilter(RecommendedFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Write a recommended list whose context indices are the user indices.
+     *
+     * @param recommendedList the recommended list
+     * @param outputPath      the output file or directory
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(RecommendedList recommendedList, String outputPath) throws IOException {
+        Path path = Paths.get(outputPath).toAbsolutePath().normalize();
+        checkPreviousOutput(path);
+        Files.createDirectories(path.getParent());
+        // the output is written next to the target and moved into place once complete
+        Path stagingDir = Files.createTempDirectory(path.getParent(), "." + path.getFileName() + "-");
+        try {
+            Path stagingPath = stagingDir.resolve(path.getFileName());
+            writeTo(recommendedList, stagingPath);
+            checkPreviousOutput(path);
+            deletePreviousOutput(path);
+            try {
+                Files.move(stagingPath, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(stagingPath, path);
+            }
+        } finally {
+            deleteStaging(stagingDir);
+        }
+    }
+
+    private void writeTo(RecommendedList recommendedList, Path path) throws IOException {
+        int numContexts = recommendedList.size();
+        int partitions = Math.min(numPartitions, Math.max(1, numContexts));
+        if (format == Format.CSV && partitions == 1) {
+            writeCsv(recommendedList, 0, numContexts, path);
+            return;
+        }
+
+        Files.createDirectories(path);
+        if (format == Format.BINARY) {
+            writeDictionary(userIds, path.resolve("users.dict"));
+            writeDictionary(itemIds, path.resolve("items.dict"));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(partitions, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Void>> futures = new ArrayList<>(partitions);
+            for (int partition = 0; partition < partitions; partition++) {
+                int from = (int) ((long) numContexts * partition / partitions);
+                int to = (int) ((long) numContexts * (partition + 1) / partitions);
+                Path partPath = path.resolve(String.format("part-%05d", partition));
+                futures.add(executor.submit(() -> {
+                    if (format == Format.BINARY) {
+                        writeBinary(recommendedList, from, to, partPath);
+                    } else {
+                        writeCsv(recommendedList, from, to, partPath);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void writeCsv(RecommendedList recommendedList, int from, int to, Path path) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            for (int contextIdx = from; contextIdx < to; contextIdx++) {
+                String userId = userIds.get(contextIdx);
+                if (filter != null) {
+                    for (RecommendedItem recommendedItem : filterContext(recommendedList, contextIdx)) {
+                        writer.append(recommendedItem.getUserId()).append(',').append(recommendedItem.getItemId())
+                                .append(',').append(String.valueOf(recommendedItem.getValue())).append('\n');
+                    }
+                    continue;
+                }
+                for (KeyValue<Integer, Double> keyValue : recommendedList.getKeyValueListByContext(contextIdx)) {
+                    writer.append(userId).append(',').append(itemIds.get(keyValue.getKey()))
+                            .append(',').append(String.valueOf(keyValue.getValue())).append('\n');
+                }
+            }
+        }
+    }
+
+    private void writeBinary(RecommendedList recommendedList, int from, int to, Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path), BUFFER_SIZE))) {
+            out.writeInt(PART_MAGIC);
+            for (int contextIdx = from; contextIdx < to; contextIdx++) {
+                List<KeyValue<Integer, Double>> keyValueList = recommendedList.getKeyValueListByContext(contextIdx);
+                if (filter != null) {
+                    List<RecommendedItem> filteredList = filterContext(recommendedList, contextIdx);
+                    keyValueList = new ArrayList<>(filteredList.size());
+                    for (RecommendedItem recommendedItem : filteredList) {
+                        keyValueList.add(new KeyValue<>(itemMappingData.get(recommendedItem.getItemId()),
+                                recommendedItem.getValue()));
+                    }
+                }
+                if (keyValueList.isEmpty()) {
+                    continue;
+                }
+                out.writeInt(contextIdx);
+                out.writeInt(keyValueList.size());
+                for (KeyValue<Integer, Double> keyValue : keyValueList) {
+                    out.writeInt(keyValue.getKey());
+                }
+                for (KeyValue<Integer, Double> keyValue : keyValueList) {
+                    out.writeDouble(keyValue.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Materialise and filter the items of a single context.
+     */
+    private List<RecommendedItem> filterContext(RecommendedList recommendedList, int contextIdx) {
+        List<KeyValue<Integer, Double>> keyValueList = recommendedList.getKeyValueListByContext(contextIdx);
+        List<RecommendedItem> itemList = new ArrayList<>(keyValueList.size());
+        for (KeyValue<Integer, Double> keyValue : keyValueList) {
+            itemList.add(new GenericRecommendedItem(userIds.get(contextIdx), itemIds.get(keyValue.getKey()),
+                    keyValue.getValue()));
+        }
+        List<RecommendedItem> filteredList = filter.filter(itemList);
+        return filteredList != null ? filteredList : new ArrayList<>();
+    }
+
+    /**
+     * Check that the output path is free, a file, or a directory which only holds the files of a previous
+     * writer, so that a misconfigured path never loses anything else.
+     */
+    private static void checkPreviousOutput(Path path) throws IOException {
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        try (Stream<Path> children = Files.list(path)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                if (!Files.isRegularFile(child, LinkOption.NOFOLLOW_LINKS)
+                        || !OUTPUT_FILE_PATTERN.matcher(child.getFileName().toString()).matches()) {
+                    throw new IOException("Output directory " + path + " holds " + child.getFileName()
+                            + ", which is not written by a recommended list writer, refusing to overwrite it");
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the output of a previous run, which may be a file or a directory of parts checked by
+     * {@link #checkPreviousOutput(Path)}.
+     */
+    private static void deletePreviousOutput(Path path) throws IOException {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            try (Stream<Path> children = Files.list(path)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    Files.delete(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Remove the staging directory, which only holds what this writer created in it.
+     */
+    private static void deleteStaging(Path stagingDir) throws IOException {
+        try (Stream<Path> paths = Files.walk(stagingDir)) {
+            for (Path child : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(child);
+            }
+        }
+    }
+
+    private static void writeDictionary(IdDictionary ids, Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path), BUFFER_SIZE))) {
+            out.writeInt(DICT_MAGIC);
+            out.writeInt(ids.size());
+            for (int index = 0; index < ids.size(); index++) {
+                String id = ids.get(index);
+                out.writeUTF(id != null ? id : "");
+            }
+        }
+    }
+}
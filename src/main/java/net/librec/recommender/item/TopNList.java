@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+/**
+ * Top-N List<br>
+ * The ranked items of a single user, as parallel primitive arrays sorted by descending score.
+ */
+public class TopNList {
+    private final int userIdx;
+    private final int[] itemIdxs;
+    private final double[] scores;
+
+    /**
+     * @param userIdx  the inner user index, or -1 for an unknown user
+     * @param itemIdxs the inner item indices
+     * @param scores   the scores of the items
+     */
+    public TopNList(int userIdx, int[] itemIdxs, double[] scores) {
+        this.userIdx = userIdx;
+        this.itemIdxs = itemIdxs;
+        this.scores = scores;
+    }
+
+    public int getUserIdx() {
+        return userIdx;
+    }
+
+    public int size() {
+        return itemIdxs.length;
+    }
+
+    public int getItemIdx(int rank) {
+        return itemIdxs[rank];
+    }
+
+    public double getScore(int rank) {
+        return scores[rank];
+    }
+
+    public int[] getItemIdxs() {
+        return itemIdxs;
+    }
+
+    public double[] getScores() {
+        return scores;
+    }
+
+    /**
+     * Selects the top-N items of a user with a bounded min-heap on primitive arrays, so that scoring all
+     * candidates needs O(N) memory and O(log N) per candidate.
+     */
+    public static class Collector {
+        private final int[] heapItems;
+        private final double[] heapScores;
+        private int size;
+
+        /**
+         * @param topN the number of items to keep
+         */
+        public Collector(int topN) {
+            heapItems = new int[topN];
+            heapScores = new double[topN];
+        }
+
+        /**
+         * Offer a scored item.
+         *
+         * @param itemIdx the inner item index
+         * @param score   the score
+         */
+        public void offer(int itemIdx, double score) {
+            if (size < heapItems.length) {
+                int position = size++;
+                while (position > 0) {
+                    int parent = (position - 1) >>> 1;
+                    if (heapScores[parent] <= score) {
+                        break;
+                    }
+                    heapItems[position] = heapItems[parent];
+                    heapScores[position] = heapScores[parent];
+                    position = parent;
+                }
+                heapItems[position] = itemIdx;
+                heapScores[position] = score;
+            } else if (size > 0 && score > heapScores[0]) {
+                siftDown(itemIdx, score, size);
+            }
+        }
+
+        /**
+         * Drain the heap into a list sorted by descending score. The collector is empty afterwards.
+         *
+         * @param userIdx the inner user index
+         * @return the top-N list
+         */
+        public TopNList build(int userIdx) {
+            int length = size;
+            int[] itemIdxs = new int[length];
+            double[] scores = new double[length];
+            for (int rank = length - 1; rank >= 0; rank--) {
+                itemIdxs[rank] = heapItems[0];
+                scores[rank] = heapScores[0];
+                size--;
+                if (size > 0) {
+                    siftDown(heapItems[size], heapScores[size], size);
+                }
+            }
+            return new TopNList(userIdx, itemIdxs, scores);
+        }
+
+        private void siftDown(int itemIdx, double score, int length) {
+            int position = 0;
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= length) {
+                    break;
+                }
+                if (child + 1 < length && heapScores[child + 1] < heapScores[child]) {
+                    child++;
+                }
+                if (heapScores[child] >= score) {
+                    break;
+                }
+                heapItems[position] = heapItems[child];
+                heapScores[position] = heapScores[child];
+                position = child;
+            }
+            heapItems[position] = itemIdx;
+            heapScores[position] = score;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package net.librec.recommender.poi;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.librec.recommender.item.KeyValue;
+
+import java.util.Arrays;
+
+/**
+ * Spatial index over the (latitude, longitude) coordinates of the pois, as loaded by
+ * {@link net.librec.data.convertor.appender.LocationDataAppender}.
+ * <p>
+ * Each poi is mapped once to a point of the unit sphere, so that the great-circle distance of two pois only
+ * depends on the chord between their points, {@code distance = 2 R asin(chord / 2)}, and grows with it. The
+ * points are kept in a balanced KD-tree laid out in one permutation array, which answers the k-nearest and the
+ * radius queries exactly by pruning the subtrees which cannot hold a closer poi. Queries only read the index,
+ * so they can run from several threads. Pois without coordinates are left out of the index.
+ */
+public class PoiSpatialIndex {
+    /**
+     * mean earth radius, in km
+     */
+    public static final double EARTH_RADIUS = 6371.0d;
+
+    private static final int DIMENSIONS = 3;
+
+    /**
+     * the unit sphere point of each poi, {@code DIMENSIONS} values per poi
+     */
+    private final double[] points;
+
+    /**
+     * whether each poi has coordinates
+     */
+    private final boolean[] located;
+
+    /**
+     * the located pois in KD-tree order: the median of each range splits it on the axis of its depth
+     */
+    private final int[] tree;
+
+    /**
+     * @param locations the (latitude, longitude) of each poi, in degrees, indexed by inner poi index
+     */
+    public PoiSpatialIndex(KeyValue<Double, Double>[] locations) {
+        int numPois = locations.length;
+        points = new double[numPois * DIMENSIONS];
+        located = new boolean[numPois];
+        IntArrayList locatedPois = new IntArrayList(numPois);
+        for (int poiIdx = 0; poiIdx < numPois; poiIdx++) {
+            KeyValue<Double, Double> location = locations[poiIdx];
+            if (location == null || location.getKey() == null || location.getValue() == null) {
+                continue;
+            }
+            double latitude = Math.toRadians(location.getKey());
+            double longitude = Math.toRadians(location.getValue());
+            points[poiIdx * DIMENSIONS] = Math.cos(latitude) * Math.cos(longitude);
+            points[poiIdx * DIMENSIONS + 1] = Math.cos(latitude) * Math.sin(longitude);
+            points[poiIdx * DIMENSIONS + 2] = Math.sin(latitude);
+            located[poiIdx] = true;
+            locatedPois.add(poiIdx);
+        }
+        tree = locatedPois.toIntArray();
+        build(0, tree.length, 0);
+    }
+
+    /**
+     * @return the number of pois, located or not
+     */
+    public int size() {
+        return located.length;
+    }
+
+    /**
+     * @param poiIdx inner poi index
+     * @return true if the poi has coordinates
+     */
+    public boolean isLocated(int poiIdx) {
+        return located[poiIdx];
+    }
+
+    /**
+     * @param poiIdx      inner poi index
+     * @param otherPoiIdx inner index of another poi
+     * @return the great-circle distance of the two pois, in km
+     */
+    public double distance(int poiIdx, int otherPoiIdx) {
+        return chordToDistance(Math.sqrt(squaredChord(poiIdx, otherPoiIdx)));
+    }
+
+    /**
+     * Find the k pois nearest to a poi, the poi itself left out.
+     *
+     * @param poiIdx inner poi index
+     * @param k      the number of neighbours
+     * @return the inner indices of the neighbours by ascending distance, ties broken by the smaller index
+     */
+    public int[] nearest(int poiIdx, int k) {
+        if (!located[poiIdx] || k <= 0) {
+            return new int[0];
+        }
+        NeighborHeap heap = new NeighborHeap(Math.min(k, tree.length));
+        searchNearest(0, tree.length, 0, poiIdx, heap);
+        return heap.sortedIndices();
+    }
+
+    /**
+     * Find the pois within a distance of a poi, the poi itself left out.
+     *
+     * @param poiIdx inner poi index
+     * @param radius the distance, in km
+     * @return the inner indices of the pois within the radius, in ascending order
+     */
+    public int[] withinRadius(int poiIdx, double radius) {
+        if (!located[poiIdx] || radius < 0) {
+            return new int[0];
+        }
+        double chord = radius >= Math.PI * EARTH_RADIUS ? 2.0d : 2.0d * Math.sin(radius / (2.0d * EARTH_RADIUS));
+        IntArrayList neighbors = new IntArrayList();
+        searchRadius(0, tree.length, 0, poiIdx, chord * chord, neighbors);
+        int[] neighborIndices = neighbors.toIntArray();
+        Arrays.sort(neighborIndices);
+        return neighborIndices;
+    }
+
+    private void build(int from, int to, int depth) {
+        if (to - from <= 1) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, depth % DIMENSIONS);
+        build(from, middle, depth + 1);
+        build(middle + 1, to, depth + 1);
+    }
+
+    /**
+     * Partially sort {@code tree[left..right]} on an axis so that position {@code nth} holds its median.
+     */
+    private void select(int left, int right, int nth, int axis) {
+        while (left < right) {
+            double pivot = points[tree[(left + right) >>> 1] * DIMENSIONS + axis];
+            int low = left, high = right;
+            while (low <= high) {
+                while (points[tree[low] * DIMENSIONS + axis] < pivot) {
+                    low++;
+                }
+                while (points[tree[high] * DIMENSIONS + axis] > pivot) {
+                    high--;
+                }
+                if (low <= high) {
+                    int poiIdx = tree[low];
+                    tree[low++] = tree[high];
+                    tree[high--] = poiIdx;
+                }
+            }
+            if (nth <= high) {
+                right = high;
+            } else if (nth >= low) {
+                left = low;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void searchNearest(int from, int to, int depth, int poiIdx, NeighborHeap heap) {
+        if (from >= to) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        int nodePoiIdx = tree[middle];
+        if (nodePoiIdx != poiIdx) {
+            heap.offer(nodePoiIdx, squaredChord(poiIdx, nodePoiIdx));
+        }
+        int axis = depth % DIMENSIONS;
+        double gap = points[poiIdx * DIMENSIONS + axis] - points[nodePoiIdx * DIMENSIONS + axis];
+        if (gap < 0) {
+            searchNearest(from, middle, depth + 1, poiIdx, heap);
+            if (gap * gap <= heap.bound()) {
+                searchNearest(middle + 1, to, depth + 1, poiIdx, heap);
+            }
+        } else {
+            searchNearest(middle + 1, to, depth + 1, poiIdx, heap);
+            if (gap * gap <= heap.bound()) {
+                searchNearest(from, middle, depth + 1, poiIdx, heap);
+            }
+        }
+    }
+
+    private void searchRadius(int from, int to, int depth, int poiIdx, double squaredRadius, IntArrayList neighbors) {
+        if (from >= to) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        int nodePoiIdx = tree[middle];
+        if (nodePoiIdx != poiIdx && squaredChord(poiIdx, nodePoiIdx) <= squaredRadius) {
+            neighbors.add(nodePoiIdx);
+        }
+        int axis = depth % DIMENSIONS;
+        double gap = points[poiIdx * DIMENSIONS + axis] - points[nodePoiIdx * DIMENSIONS + axis];
+        if (gap < 0 || gap * gap <= squaredRadius) {
+            searchRadius(from, middle, depth + 1, poiIdx, squaredRadius, neighbors);
+        }
+        if (gap >= 0 || gap * gap <= squaredRadius) {
+            searchRadius(middle + 1, to, depth + 1, poiIdx, squaredRadius, neighbors);
+        }
+    }
+
+    private double squaredChord(int poiIdx, int otherPoiIdx) {
+        double squaredChord = 0.0d;
+        for (int axis = 0; axis < DIMENSIONS; axis++) {
+            double gap = points[poiIdx * DIMENSIONS + axis] - points[otherPoiIdx * DIMENSIONS + axis];
+            squaredChord += gap * gap;
+        }
+        return squaredChord;
+    }
+
+    private static double chordToDistance(double chord) {
+        return 2.0d * EARTH_RADIUS * Math.asin(Math.min(1.0d, chord / 2.0d));
+    }
+
+    /**
+     * A bounded max-heap of the nearest pois found so far, whose root is the farthest one kept.
+     */
+    private static final class NeighborHeap {
+        private final int[] poiIdxs;
+        private final double[] squaredChords;
+        private int size;
+
+        private NeighborHeap(int capacity) {
+            poiIdxs = new int[capacity];
+            squaredChords = new double[capacity];
+        }
+
+        /**
+         * @return the squared chord a poi has to beat to enter the heap
+         */
+        private double bound() {
+            return size < poiIdxs.length ? Double.POSITIVE_INFINITY : squaredChords[0];
+        }
+
+        private void offer(int poiIdx, double squaredChord) {
+            if (size < poiIdxs.length) {
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) / 2;
+                    if (!isFarther(poiIdx, squaredChord, poiIdxs[parent], squaredChords[parent])) {
+                        break;
+                    }
+                    poiIdxs[child] = poiIdxs[parent];
+                    squaredChords[child] = squaredChords[parent];
+                    child = parent;
+                }
+                poiIdxs[child] = poiIdx;
+                squaredChords[child] = squaredChord;
+            } else if (isFarther(poiIdxs[0], squaredChords[0], poiIdx, squaredChord)) {
+                poiIdxs[0] = poiIdx;
+                squaredChords[0] = squaredChord;
+                siftDownRoot();
+            }
+        }
+
+        private int[] sortedIndices() {
+            int[] sortedPoiIdxs = new int[size];
+            for (int position = size - 1; position >= 0; position--) {
+                sortedPoiIdxs[position] = poiIdxs[0];
+                int lastPoiIdx = poiIdxs[size - 1];
+                double lastSquaredChord = squaredChords[size - 1];
+                size--;
+                if (size > 0) {
+                    poiIdxs[0] = lastPoiIdx;
+                    squaredChords[0] = lastSquaredChord;
+                    siftDownRoot();
+                }
+            }
+            return sortedPoiIdxs;
+        }
+
+        private void siftDownRoot() {
+            int poiIdx = poiIdxs[0];
+            double squaredChord = squaredChords[0];
+            int parent = 0;
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && isFarther(poiIdxs[child + 1], squaredChords[child + 1],
+                        poiIdxs[child], squaredChords[child])) {
+                    child++;
+                }
+                if (!isFarther(poiIdxs[child], squaredChords[child], poiIdx, squaredChord)) {
+                    break;
+                }
+                poiIdxs[parent] = poiIdxs[child];
+                squaredChords[parent] = squaredChords[child];
+                parent = child;
+            }
+            poiIdxs[parent] = poiIdx;
+            squaredChords[parent] = squaredChord;
+        }
+
+        private static boolean isFarther(int poiIdx, double squaredChord, int otherPoiIdx, double otherSquaredChord) {
+            return squaredChord > otherSquaredChord || (squaredChord == otherSquaredChord && poiIdx > otherPoiIdx);
+        }
+    }
+}
@@ -1,19 +1,16 @@
 package net.librec.recommender.poi;
 
-import com.google.common.collect.*;
 import net.librec.common.LibrecException;
 import net.librec.data.convertor.appender.LocationDataAppender;
 import net.librec.math.algorithm.Maths;
 import net.librec.math.algorithm.Randoms;
 import net.librec.math.structure.*;
-import net.librec.math.structure.Vector;
-import net.librec.math.structure.Vector.VectorEntry;
 import net.librec.recommender.MatrixFactorizationRecommender;
 import net.librec.recommender.item.KeyValue;
-import net.librec.util.Lists;
 import org.apache.commons.lang.ArrayUtils;
 
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Li, Xutao,Gao Cong, et al. "Rank-geofm: A ranking based geographical factorization method for point of interest recommendation." SIGIR2015
@@ -207,59 +204,39 @@ public class RankGeoFMRecommender extends MatrixFactorizationRecommender {
         }
     }
 
+    /**
+     * Build the normalized weights between each poi and its k nearest pois, found through a
+     * {@link PoiSpatialIndex} instead of a scan of all pois.
+     *
+     * @param kNearest the number of neighbors of each poi
+     * @return the row-normalized poi neighbor weights
+     */
     public SequentialAccessSparseMatrix getPoiKNNWeightMatrix(Integer kNearest) {
-        SequentialAccessSparseMatrix poiKNNWeightMatrix;
-        Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
-        for (int poiIdx = 0; poiIdx < numPois; poiIdx++) {
-            List<Map.Entry<Integer, Double>> locationNeighbors = new ArrayList<>(numPois);
-            KeyValue location = locationCoordinates[poiIdx];
-            for (int neighborItemIdx = 0; neighborItemIdx < numPois; neighborItemIdx++) {
-                if (poiIdx != neighborItemIdx) {
-                    KeyValue neighborLocation = locationCoordinates[neighborItemIdx];
-                    double distance = getDistance((double) location.getKey(), (double) location.getValue(), (double) neighborLocation.getKey(), (double) neighborLocation.getValue());
-                    locationNeighbors.add(new AbstractMap.SimpleImmutableEntry<>(neighborItemIdx, distance));
-                }
+        PoiSpatialIndex spatialIndex = new PoiSpatialIndex(locationCoordinates);
+        VectorBasedSequentialSparseVector[] weightRows = new VectorBasedSequentialSparseVector[numPois];
+        IntStream.range(0, numPois).parallel().forEach(poiIdx -> {
+            int[] neighborIndices = spatialIndex.nearest(poiIdx, kNearest);
+            Arrays.sort(neighborIndices);
+            KeyValue<Double, Double> location = locationCoordinates[poiIdx];
+            double[] weights = new double[neighborIndices.length];
+            double rowSum = 0.0d;
+            for (int index = 0; index < neighborIndices.length; index++) {
+                KeyValue<Double, Double> neighborLocation = locationCoordinates[neighborIndices[index]];
+                double distance = getDistance(location.getKey(), location.getValue(), neighborLocation.getKey(), neighborLocation.getValue());
+                weights[index] = distance < 0.5 ? 1 / 0.5 : 1 / distance;
+                rowSum += weights[index];
             }
-            locationNeighbors = Lists.sortListTopK(locationNeighbors, false, kNearest);
-
-            for (int index = 0; index < locationNeighbors.size(); index++) {
-                int neighborItemIdx = locationNeighbors.get(index).getKey();
-                double weight;
-                if (locationNeighbors.get(index).getValue() < 0.5) {
-                    weight = 1 / 0.5;
-                } else {
-                    weight = 1 / (locationNeighbors.get(index).getValue());
-                }
-
-                dataTable.put(poiIdx, neighborItemIdx, weight);
+            //normalize poiKNNWeightMatrix for each row
+            for (int index = 0; index < weights.length; index++) {
+                weights[index] /= rowSum;
             }
-        }
-
-        poiKNNWeightMatrix = new SequentialAccessSparseMatrix(numPois, numPois, dataTable);
-        //normalize poiKNNWeightMatrix for each row
-        Table<Integer, Integer, Double> normalizedDataTable = HashBasedTable.create();
-        for (int itemIdx = 0; itemIdx < numPois; itemIdx++) {
-            double rowSum = poiKNNWeightMatrix.row(itemIdx).sum();
-            Iterator<VectorEntry> colIterator = poiKNNWeightMatrix.row(itemIdx).iterator();
-            while (colIterator.hasNext()) {
-                Vector.VectorEntry vectorEntry = colIterator.next();
-                normalizedDataTable.put(itemIdx, vectorEntry.index(), vectorEntry.get() / rowSum);
-            }
-        }
-        poiKNNWeightMatrix = new SequentialAccessSparseMatrix(numPois, numPois, normalizedDataTable);
-        return poiKNNWeightMatrix;
+            weightRows[poiIdx] = new VectorBasedSequentialSparseVector(numPois, neighborIndices, weights);
+        });
+        return new SequentialAccessSparseMatrix(new RowSequentialAccessSparseMatrix(numPois, numPois, weightRows, true), true);
     }
 
     public DenseMatrix updateGeoInfluenceMatrix() throws LibrecException {
-        DenseMatrix geoInfluenceMatrix = new DenseMatrix(numPois, numFactors);
-        for (int poiIdx = 0; poiIdx < numPois; poiIdx++) {
-            Iterator<VectorEntry> colItr = poiKNNWeightMatrix.row(poiIdx).iterator();
-            while (colItr.hasNext()) {
-                VectorEntry vectorEntry = colItr.next();
-                geoInfluenceMatrix.set(poiIdx, geoInfluenceMatrix.row(poiIdx).plus(poiFactors.row(vectorEntry.index()).times(vectorEntry.get())));
-            }
-        }
-        return  geoInfluenceMatrix;
+        return poiKNNWeightMatrix.times(poiFactors);
     }
 
     /**
@@ -5,6 +5,7 @@ import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Table;
 import com.google.common.primitives.Ints;
 import net.librec.common.LibrecException;
+import net.librec.eval.EvalStatistics;
 import net.librec.data.convertor.appender.LocationDataAppender;
 import net.librec.data.structure.AbstractBaseDataEntry;
 import net.librec.data.structure.LibrecDataList;
@@ -88,6 +89,11 @@ public class USGRecommender extends AbstractRecommender {
     private String socialPath;
     private KeyValue<Double, Double>[] locationCoordinates;
 
+    /**
+     * spatial index over the poi coordinates, for the distances of the geographical influence
+     */
+    private PoiSpatialIndex spatialIndex;
+
     @Override
     protected void setup() throws LibrecException {
         super.setup();
@@ -107,42 +113,23 @@ public class USGRecommender extends AbstractRecommender {
         //default value is numUsers
         limitUserNum = conf.getInt("rec.limit.userNum", numUsers);
         locationCoordinates = ((LocationDataAppender) getDataModel().getDataAppender()).getLocationAppender();
+        spatialIndex = new PoiSpatialIndex(locationCoordinates);
         userSimilarityMatrix = context.getSimilarity().getSimilarityMatrix().toSparseMatrix();
         socialPath = conf.get("dfs.data.dir") + "/" + conf.get("data.social.path");
 
         // for AUCEvaluator and nDCGEvaluator
-        int[] numDroppedItemsArray = new int[numUsers];
         int maxNumTestItemsByUser = 0;
         for (int userIdx = 0; userIdx < numUsers; ++userIdx) {
-            numDroppedItemsArray[userIdx] = numPois - trainMatrix.row(userIdx).getNumEntries();
             int numTestItemsByUser = testMatrix.row(userIdx).getNumEntries();
             maxNumTestItemsByUser = maxNumTestItemsByUser < numTestItemsByUser ? numTestItemsByUser : maxNumTestItemsByUser;
         }
-        conf.setInts("rec.eval.auc.dropped.num", numDroppedItemsArray);
         conf.setInt("rec.eval.key.test.max.num", maxNumTestItemsByUser);
 
         // for EntropyEvaluator
         conf.setInt("rec.eval.item.num", testMatrix.columnSize());
 
-        // for NoveltyEvaluator
-        int[] itemPurchasedCount = new int[numPois];
-        for (int itemIdx = 0; itemIdx < numPois; ++itemIdx) {
-            int userNum = 0;
-            int[] userArray = trainMatrix.column(itemIdx).getIndices();
-            for (int userIdx : userArray) {
-                if (userIdx >= 0 && userIdx < limitUserNum) {
-                    userNum++;
-                }
-            }
-            userArray = testMatrix.column(itemIdx).getIndices();
-            for (int userIdx : userArray) {
-                if (userIdx >= 0 && userIdx < limitUserNum) {
-                    userNum++;
-                }
-            }
-            itemPurchasedCount[itemIdx] = userNum;
-        }
-        conf.setInts("rec.eval.item.purchase.num", itemPurchasedCount);
+        // for AUCEvaluator and NoveltyEvaluator, counting the purchases of the first limitUserNum users
+        evalStatistics = new EvalStatistics(trainMatrix, testMatrix, numPois, limitUserNum);
     }
 
     @Override
@@ -223,8 +210,7 @@ public class USGRecommender extends AbstractRecommender {
             geoScore = 0.0d;
         } else {
             for (int visitedPOI : itemList) {
-                double distance = getDistance(locationCoordinates[visitedPOI].getKey(), locationCoordinates[visitedPOI].getValue(),
-                        locationCoordinates[itemIdx].getKey(), locationCoordinates[itemIdx].getValue());
+                double distance = spatialIndex.distance(visitedPOI, itemIdx);
                 if (distance < 0.01) {
                     distance = 0.01;
                 }
@@ -280,8 +266,7 @@ public class USGRecommender extends AbstractRecommender {
 
             for (int i = 0; i < itemList.length - 1; i++) {
                 for (int j = i + 1; j < itemList.length; j++) {
-                    double distance = getDistance(locationCoordinates[itemList[i]].getKey(), locationCoordinates[itemList[i]].getValue(),
-                            locationCoordinates[itemList[j]].getKey(), locationCoordinates[itemList[j]].getValue());
+                    double distance = spatialIndex.distance(itemList[i], itemList[j]);
                     if ((int) distance > 0) {
                         int intDistance = (int) distance;
                         if (!distanceMap.containsKey(intDistance)) {
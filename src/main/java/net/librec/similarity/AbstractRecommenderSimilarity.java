@@ -27,9 +27,13 @@ import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.SymmMatrix;
 import net.librec.math.structure.Vector;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 /**
  * Calculate Recommender Similarity, such as cosine, Pearson, Jaccard
@@ -40,6 +44,8 @@ import java.util.List;
 
 public abstract class AbstractRecommenderSimilarity implements RecommenderSimilarity {
 
+    protected final Log LOG = LogFactory.getLog(this.getClass());
+
     /**
      * Configuration
      */
@@ -74,6 +80,16 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
                 int numItems = trainMatrix.columnSize();
                 int count = isUser ? numUsers : numItems;
 
+                SimHashCandidates simHashCandidates = SimHashCandidates.build(conf);
+                if (simHashCandidates != null) {
+                    if (isCosine()) {
+                        buildCandidateSimilarityMatrix(trainMatrix, isUser, simHashCandidates);
+                        return;
+                    }
+                    LOG.warn("rec.similarity.candidates=simhash only approximates cosine similarities, "
+                            + getClass().getSimpleName() + " computes all pairs");
+                }
+
                 similarityMatrix = new SymmMatrix(count);
                 List<Integer> indexList = new ArrayList<>();
                 for (int index = 0; index < count; index++) {
@@ -101,6 +117,55 @@ public abstract class AbstractRecommenderSimilarity implements RecommenderSimila
         }
     }
 
+    /**
+     * Whether the similarity is a cosine similarity, whose neighbours the SimHash candidates approximate.
+     *
+     * @return true to build the similarity matrix from the SimHash candidates when they are enabled
+     */
+    protected boolean isCosine() {
+        return false;
+    }
+
+    /**
+     * Build the similarity matrix of the users or the items from the candidate pairs of signed random
+     * projections instead of all pairs, and log the recall of the candidates on a sample of
+     * {@code rec.similarity.simhash.recall.sample} users or items for the pairs with a similarity of at least
+     * {@code rec.similarity.simhash.recall.threshold}.
+     *
+     * @param trainMatrix the train matrix
+     * @param isUser      whether the similarity is between users or between items
+     * @param candidates  the candidate generator
+     */
+    protected void buildCandidateSimilarityMatrix(SequentialAccessSparseMatrix trainMatrix, boolean isUser,
+                                                  SimHashCandidates candidates) {
+        int count = isUser ? trainMatrix.rowSize() : trainMatrix.columnSize();
+        SequentialSparseVector[] vectors = new SequentialSparseVector[count];
+        for (int index = 0; index < count; index++) {
+            vectors[index] = isUser ? trainMatrix.row(index) : trainMatrix.column(index);
+        }
+        long[] pairs = candidates.candidatePairs(vectors);
+
+        double[] sims = new double[pairs.length];
+        IntStream.range(0, pairs.length).parallel().forEach(pairIdx -> sims[pairIdx] =
+                getCorrelation(vectors[LshBuckets.first(pairs[pairIdx])], vectors[LshBuckets.second(pairs[pairIdx])]));
+        similarityMatrix = new SymmMatrix(count);
+        for (int pairIdx = 0; pairIdx < pairs.length; pairIdx++) {
+            if (!Double.isNaN(sims[pairIdx]) && sims[pairIdx] != 0.0) {
+                similarityMatrix.set(LshBuckets.first(pairs[pairIdx]), LshBuckets.second(pairs[pairIdx]), sims[pairIdx]);
+            }
+        }
+        LOG.info("SimHash verified " + pairs.length + " candidate pairs of " + ((long) count * (count - 1) / 2));
+
+        int sampleSize = conf.getInt("rec.similarity.simhash.recall.sample", 100);
+        if (sampleSize > 0) {
+            double threshold = conf.getDouble("rec.similarity.simhash.recall.threshold", 0.5);
+            double recall = SimHashCandidates.sampleRecall(vectors, pairs, this::getCorrelation, sampleSize,
+                    threshold, new Random(count));
+            LOG.info("SimHash recall of the pairs with a similarity of at least " + threshold + " on a sample of "
+                    + sampleSize + ": " + recall);
+        }
+    }
+
     /**
      * Build social similarity matrix with trainMatrix
      * and socialMatrix in dataModel.
@@ -43,4 +43,9 @@ public class BinaryCosineSimilarity extends AbstractRecommenderSimilarity {
     protected double getSimilarity(List<? extends Number> thisList, List<? extends Number> thatList) {
         return 0.0;
     }
+
+    @Override
+    protected boolean isCosine() {
+        return true;
+    }
 }
@@ -46,4 +46,9 @@ public class CosineSimilarity extends AbstractRecommenderSimilarity {
         }
         return innerProduct / Math.sqrt(thisPower2 * thatPower2);
     }
+
+    @Override
+    protected boolean isCosine() {
+        return true;
+    }
 }
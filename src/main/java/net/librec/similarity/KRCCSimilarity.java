@@ -18,16 +18,20 @@
 package net.librec.similarity;
 
 
-import net.librec.math.structure.Vector;
+import net.librec.math.structure.SequentialSparseVector;
 import net.librec.math.structure.VectorBasedSequentialSparseVector;
 
-import java.util.*;
+import java.util.List;
 
 /**
  * J. I. Marden, Analyzing and modeling rank data. Boca Raton, Florida: CRC Press, 1996.
  * Mingming Chen etc. A Ranking-oriented Hybrid Approach to QoS-aware Web Service Recommendation. 2015
  * <p>
  * Kendall Rank Correlation Coefficient
+ * <p>
+ * The discordant pairs of the n common ratings are counted in O(n log n) as the inversions of the ratings of
+ * that vector, ordered by the ratings of this vector, with a merge sort on primitive arrays. A pair tied in
+ * either vector is not discordant.
  *
  * @author zhanghaidong
  */
@@ -44,39 +48,58 @@ public class KRCCSimilarity extends AbstractRecommenderSimilarity {
      * @return similarity
      */
     public double getCorrelation(VectorBasedSequentialSparseVector thisVector, VectorBasedSequentialSparseVector thatVector) {
+        return getCorrelation((SequentialSparseVector) thisVector, (SequentialSparseVector) thatVector);
+    }
 
-        if (thisVector == null || thatVector == null || thisVector.size() != thatVector.size()) {
-            return Double.NaN;
-        }
-        // compute similarity
-        List<Double> thisList = new ArrayList<>();
-        List<Double> thatList = new ArrayList<>();
-
-        Iterator<Vector.VectorEntry> thisIterator = thisVector.iterator();
-        Iterator<Vector.VectorEntry> thatIterator = thatVector.iterator();
-
-        while (thatIterator.hasNext()) {
-            Vector.VectorEntry thatVectorEntry = thatIterator.next();
-            int thatIndex = thatVectorEntry.index();
-            thatList.add(thatVectorEntry.get());
-            if (thisIterator.hasNext()) {
-                while (thisIterator.hasNext()) {
-                    Vector.VectorEntry thisVectorEntry = thatIterator.next();
-                    int thisIndex = thisVectorEntry.index();
-                    if (thisIndex == thatIndex) {
-                        thisList.add(thisVectorEntry.get());
-                        break;
-                    } else if (thisIndex > thatIndex) {
-                        thisList.add(0.0D);
-                        break;
-                    }
+    /**
+     * Find the common rated items by this user and that user, or the common
+     * users have rated this item or that item. And then return the similarity.
+     *
+     * @param thisVector: the rated items by this user, or users that have rated this
+     *                    item .
+     * @param thatVector: the rated items by that user, or users that have rated that
+     *                    item.
+     * @return similarity
+     */
+    @Override
+    public double getCorrelation(SequentialSparseVector thisVector, SequentialSparseVector thatVector) {
+        int thisSize = thisVector.getNumEntries(), thatSize = thatVector.getNumEntries();
+        int capacity = Math.min(thisSize, thatSize);
+        double[] thisValues = new double[capacity];
+        double[] thatValues = new double[capacity];
+
+        int numCommon = 0, numPositive = 0;
+        int thisPosition = 0, thatPosition = 0;
+        while (thisPosition < thisSize && thatPosition < thatSize) {
+            int thisIndex = thisVector.getIndexAtPosition(thisPosition);
+            int thatIndex = thatVector.getIndexAtPosition(thatPosition);
+            if (thisIndex == thatIndex) {
+                double thisValue = thisVector.getAtPosition(thisPosition);
+                double thatValue = thatVector.getAtPosition(thatPosition);
+                if (thisValue > 0.0 && thatValue > 0.0) {
+                    thisValues[numPositive] = thisValue;
+                    thatValues[numPositive++] = thatValue;
                 }
+                numCommon++;
+                thisPosition++;
+                thatPosition++;
+            } else if (thisIndex > thatIndex) {
+                thatPosition++;
             } else {
-                thisList.add(0.0D);
+                thisPosition++;
             }
         }
 
-        return getSimilarity(thisList, thatList);
+        double sim = numCommon < 2 ? Double.NaN : getSimilarity(thisValues, thatValues, numPositive);
+
+        // shrink to account for vector size
+        if (!Double.isNaN(sim)) {
+            int shrinkage = conf.getInt("rec.similarity.shrinkage", 0);
+            if (shrinkage > 0)
+                sim *= numCommon / (numCommon + shrinkage + 0.0);
+        }
+
+        return sim;
     }
 
     /**
@@ -91,30 +114,99 @@ public class KRCCSimilarity extends AbstractRecommenderSimilarity {
             return Double.NaN;
         }
 
-        Set<Integer> commonIndices = new HashSet<Integer>();
-        for (int i = 0; i < thisList.size(); i++) {
-            if (thisList.get(i).doubleValue() > 0.0 && thatList.get(i).doubleValue() > 0.0) {
-                commonIndices.add(i);
+        int size = Math.min(thisList.size(), thatList.size());
+        double[] thisValues = new double[size];
+        double[] thatValues = new double[size];
+        int numPositive = 0;
+        for (int i = 0; i < size; i++) {
+            double thisValue = thisList.get(i).doubleValue(), thatValue = thatList.get(i).doubleValue();
+            if (thisValue > 0.0 && thatValue > 0.0) {
+                thisValues[numPositive] = thisValue;
+                thatValues[numPositive++] = thatValue;
             }
         }
+        return getSimilarity(thisValues, thatValues, numPositive);
+    }
 
-        int numCommonIndices = commonIndices.size();
-        if (numCommonIndices < 2) {
+    /**
+     * Calculate the Kendall rank correlation of the first n values of two arrays, which are reordered.
+     *
+     * @param thisValues the values of this vector
+     * @param thatValues the values of that vector
+     * @param n          the number of values
+     * @return similarity
+     */
+    protected double getSimilarity(double[] thisValues, double[] thatValues, int n) {
+        if (n < 2) {
             return Double.NaN;
         }
 
-        List<Integer> commonIndexList = new ArrayList<Integer>(commonIndices);
-        double sum = 0.0;
-        for (int i = 0; i < commonIndexList.size(); i++) {
-            for (int j = i + 1; j < commonIndexList.size(); j++) {
-                double thisDiff = thisList.get(commonIndexList.get(i)).doubleValue() - thisList.get(commonIndexList.get(j)).doubleValue();
-                double thatDiff = thatList.get(commonIndexList.get(i)).doubleValue() - thatList.get(commonIndexList.get(j)).doubleValue();
-                if (thisDiff * thatDiff < 0.0) {
-                    sum += 1.0;
+        // order by this value then by that value, so that the pairs tied in this vector are not inversions
+        sortByThisThenThat(thisValues, thatValues, n);
+        double discordant = countInversions(thatValues, new double[n], 0, n);
+
+        return 1.0 - 4.0 * discordant / (n * (n - 1.0));
+    }
+
+    /**
+     * Sort the pairs (thisValues[i], thatValues[i]) lexicographically with a merge sort.
+     */
+    private static void sortByThisThenThat(double[] thisValues, double[] thatValues, int n) {
+        double[] thisBuffer = new double[n], thatBuffer = new double[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n - width; low += 2 * width) {
+                int middle = low + width, high = Math.min(low + 2 * width, n);
+                int left = low, right = middle, position = low;
+                while (left < middle && right < high) {
+                    if (thisValues[left] < thisValues[right]
+                            || (thisValues[left] == thisValues[right] && thatValues[left] <= thatValues[right])) {
+                        thisBuffer[position] = thisValues[left];
+                        thatBuffer[position++] = thatValues[left++];
+                    } else {
+                        thisBuffer[position] = thisValues[right];
+                        thatBuffer[position++] = thatValues[right++];
+                    }
+                }
+                while (left < middle) {
+                    thisBuffer[position] = thisValues[left];
+                    thatBuffer[position++] = thatValues[left++];
                 }
+                while (right < high) {
+                    thisBuffer[position] = thisValues[right];
+                    thatBuffer[position++] = thatValues[right++];
+                }
+                System.arraycopy(thisBuffer, low, thisValues, low, high - low);
+                System.arraycopy(thatBuffer, low, thatValues, low, high - low);
             }
         }
+    }
 
-        return 1.0 - 4.0 * sum / (numCommonIndices * (numCommonIndices - 1));
+    /**
+     * Count the pairs i &lt; j with values[i] &gt; values[j] in [from, to) while sorting the range.
+     */
+    private static long countInversions(double[] values, double[] buffer, int from, int to) {
+        if (to - from < 2) {
+            return 0L;
+        }
+        int middle = (from + to) >>> 1;
+        long inversions = countInversions(values, buffer, from, middle) + countInversions(values, buffer, middle, to);
+        int left = from, right = middle, position = from;
+        while (left < middle && right < to) {
+            if (values[left] <= values[right]) {
+                buffer[position++] = values[left++];
+            } else {
+                // every remaining value of the left half is greater
+                inversions += middle - left;
+                buffer[position++] = values[right++];
+            }
+        }
+        while (left < middle) {
+            buffer[position++] = values[left++];
+        }
+        while (right < to) {
+            buffer[position++] = values[right++];
+        }
+        System.arraycopy(buffer, from, values, from, to - from);
+        return inversions;
     }
 }
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * The candidate pairs of locality sensitive hashing: the indices whose keys are equal in at least one table.
+ * <p>
+ * A bucket holds {@code n (n - 1) / 2} pairs, so a few large buckets (popular items, or the many users with the
+ * same few ratings) would dominate the work. A bucket larger than the maximum size is subsampled: its indices
+ * are shuffled and each one is only paired with the next {@code maxBucketSize - 1} of them.
+ */
+final class LshBuckets {
+    private static final Log LOG = LogFactory.getLog(LshBuckets.class);
+
+    /**
+     * The key of an index in a table.
+     */
+    interface KeyFunction {
+        long key(int table, int index);
+    }
+
+    private LshBuckets() {
+    }
+
+    /**
+     * Bucket the indices by key in each table, in parallel over the tables, and collect the distinct pairs of
+     * indices sharing a bucket.
+     *
+     * @param count         the number of indices
+     * @param numTables     the number of tables
+     * @param maxBucketSize the size above which a bucket is subsampled, 0 for no limit
+     * @param active        the indices to bucket
+     * @param keys          the key of an index in a table
+     * @return the candidate pairs as {@code (smaller index << 32) | larger index}
+     */
+    static long[] candidatePairs(int count, int numTables, int maxBucketSize, IntPredicate active,
+                                 KeyFunction keys) {
+        List<LongArrayList> tablePairs = Arrays.asList(new LongArrayList[numTables]);
+        AtomicLong numLargeBuckets = new AtomicLong();
+        AtomicLong numDroppedPairs = new AtomicLong();
+        IntStream.range(0, numTables).parallel().forEach(table -> {
+            long[] tableKeys = new long[count];
+            int[] order = new int[count];
+            int size = 0;
+            for (int index = 0; index < count; index++) {
+                if (active.test(index)) {
+                    tableKeys[index] = keys.key(table, index);
+                    order[size++] = index;
+                }
+            }
+            IntArrays.quickSort(order, 0, size, (left, right) -> Long.compare(tableKeys[left], tableKeys[right]));
+            LongArrayList pairs = new LongArrayList();
+            for (int start = 0, end; start < size; start = end) {
+                end = start + 1;
+                while (end < size && tableKeys[order[end]] == tableKeys[order[start]]) {
+                    end++;
+                }
+                int window = end - start;
+                if (maxBucketSize > 0 && window > maxBucketSize) {
+                    long tableSeed = mix(table + 1);
+                    IntArrays.quickSort(order, start, end,
+                            (left, right) -> Long.compare(mix(left ^ tableSeed), mix(right ^ tableSeed)));
+                    window = maxBucketSize;
+                    long bucketSize = end - start;
+                    numLargeBuckets.incrementAndGet();
+                    numDroppedPairs.addAndGet(bucketSize * (bucketSize - 1) / 2
+                            - (bucketSize - maxBucketSize) * (maxBucketSize - 1)
+                            - (long) maxBucketSize * (maxBucketSize - 1) / 2);
+                }
+                for (int first = start; first < end; first++) {
+                    for (int second = first + 1; second < Math.min(end, first + window); second++) {
+                        pairs.add(pair(order[first], order[second]));
+                    }
+                }
+            }
+            tablePairs.set(table, pairs);
+        });
+        if (numLargeBuckets.get() > 0) {
+            LOG.info("Subsampled " + numLargeBuckets.get() + " buckets larger than " + maxBucketSize
+                    + ", dropping " + numDroppedPairs.get() + " of their pairs");
+        }
+        LongOpenHashSet candidateSet = new LongOpenHashSet();
+        for (LongArrayList pairs : tablePairs) {
+            candidateSet.addAll(pairs);
+        }
+        return candidateSet.toLongArray();
+    }
+
+    static long pair(int thisIndex, int thatIndex) {
+        return ((long) Math.min(thisIndex, thatIndex) << 32) | Math.max(thisIndex, thatIndex);
+    }
+
+    static int first(long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    static int second(long pair) {
+        return (int) pair;
+    }
+
+    static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import net.librec.conf.Configuration;
+import net.librec.data.DataModel;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.math.structure.SymmMatrix;
+import net.librec.recommender.item.TopNList;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * MinHash Jaccard Similarity
+ * <p>
+ * Approximate all-pairs Jaccard similarity of the users or items of an implicit feedback matrix. The MinHash
+ * signature of every row (or column) is computed in parallel, the signatures are cut into bands, and only the
+ * pairs which share a band are verified with the exact Jaccard similarity. Two sets of similarity {@code s}
+ * become candidates with probability {@code 1 - (1 - s^r)^b} for {@code b} bands of {@code r} rows, so the
+ * work grows with the number of similar pairs instead of the square of the number of users or items.
+ * <p>
+ * The banding is configured by {@code rec.similarity.minhash.bands} and {@code rec.similarity.minhash.rows},
+ * and {@code rec.similarity.minhash.topk} keeps the K most similar neighbours of each user or item (0 keeps
+ * every verified pair). A band bucket holding more than {@code rec.similarity.minhash.bucket.max} sets is
+ * subsampled, so that the many users or items with the same few ratings do not yield a quadratic number of
+ * candidates.
+ */
+public class MinHashJaccardSimilarity extends AbstractRecommenderSimilarity {
+
+    /**
+     * the number of bands and the number of signature rows per band
+     */
+    protected int numBands = 16, bandRows = 4;
+
+    /**
+     * the number of neighbours kept per user or item, 0 to keep every verified pair
+     */
+    protected int topK = 0;
+
+    /**
+     * the size above which a band bucket is subsampled, 0 for no limit
+     */
+    protected int maxBucketSize = 1000;
+
+    /**
+     * the seed of the hash functions
+     */
+    protected long seed = 0x2545F4914F6CDD1DL;
+
+    /**
+     * Build the similarity matrix of the users or the items with MinHash, or of the social or feature vectors
+     * with the exact pairwise computation.
+     *
+     * @param dataModel the input data model
+     */
+    @Override
+    public void buildSimilarityMatrix(DataModel dataModel) {
+        conf = dataModel.getContext().getConf();
+        String similarityKey = conf.get("rec.recommender.similarity.key", "user");
+        boolean isUser = StringUtils.equals(similarityKey, "user");
+        if (!isUser && !StringUtils.equals(similarityKey, "item")) {
+            super.buildSimilarityMatrix(dataModel);
+            return;
+        }
+        setup(conf);
+        SequentialAccessSparseMatrix trainMatrix = dataModel.getDataSplitter().getTrainData();
+        int count = isUser ? trainMatrix.rowSize() : trainMatrix.columnSize();
+        int[][] sets = new int[count][];
+        IntStream.range(0, count).parallel().forEach(index -> {
+            SequentialSparseVector vector = isUser ? trainMatrix.row(index) : trainMatrix.column(index);
+            int[] indices = vector.getIndices().clone();
+            Arrays.sort(indices);
+            sets[index] = indices;
+        });
+        similarityMatrix = buildSimilarityMatrix(sets);
+    }
+
+    /**
+     * Read the banding and the number of neighbours from the configuration.
+     *
+     * @param conf the configuration
+     */
+    public void setup(Configuration conf) {
+        this.conf = conf;
+        numBands = conf.getInt("rec.similarity.minhash.bands", numBands);
+        bandRows = conf.getInt("rec.similarity.minhash.rows", bandRows);
+        topK = conf.getInt("rec.similarity.minhash.topk", topK);
+        maxBucketSize = conf.getInt("rec.similarity.minhash.bucket.max", maxBucketSize);
+        seed = conf.getLong("rec.similarity.minhash.seed", seed);
+    }
+
+    /**
+     * Build the approximate Jaccard similarity matrix of sets of indices.
+     *
+     * @param sets the sorted indices of each set
+     * @return the similarity matrix of the verified pairs, restricted to the top-K of each set
+     * @throws IllegalArgumentException if the signatures of all sets do not fit in an array
+     */
+    public SymmMatrix buildSimilarityMatrix(int[][] sets) {
+        int count = sets.length;
+        int numHashes;
+        int signatureSize;
+        try {
+            numHashes = Math.multiplyExact(numBands, bandRows);
+            // also bounds every signature offset below
+            signatureSize = Math.multiplyExact(count, numHashes);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("The signatures of " + count + " sets with " + numBands + " bands of "
+                    + bandRows + " rows exceed the maximum array size, use fewer bands or rows", e);
+        }
+        long[] hashSeeds = new long[numHashes];
+        for (int hashIdx = 0; hashIdx < numHashes; hashIdx++) {
+            hashSeeds[hashIdx] = LshBuckets.mix(seed + (hashIdx + 1) * 0x9E3779B97F4A7C15L);
+        }
+
+        // signatures, one row of hashes per set
+        int[] signatures = new int[signatureSize];
+        IntStream.range(0, count).parallel().forEach(index -> {
+            int offset = index * numHashes;
+            Arrays.fill(signatures, offset, offset + numHashes, Integer.MAX_VALUE);
+            for (int element : sets[index]) {
+                for (int hashIdx = 0; hashIdx < numHashes; hashIdx++) {
+                    int hash = (int) (LshBuckets.mix(element ^ hashSeeds[hashIdx]) >>> 33);
+                    if (hash < signatures[offset + hashIdx]) {
+                        signatures[offset + hashIdx] = hash;
+                    }
+                }
+            }
+        });
+
+        // candidate pairs of the sets sharing a band
+        long[] candidates = LshBuckets.candidatePairs(count, numBands, maxBucketSize, index -> sets[index].length > 0,
+                (band, index) -> {
+                    long key = band;
+                    int offset = index * numHashes + band * bandRows;
+                    for (int row = 0; row < bandRows; row++) {
+                        key = LshBuckets.mix(key * 31 + signatures[offset + row]);
+                    }
+                    return key;
+                });
+
+        // verify the candidates with the exact similarity
+        double[] sims = new double[candidates.length];
+        IntStream.range(0, candidates.length).parallel().forEach(pairIdx -> {
+            long pair = candidates[pairIdx];
+            sims[pairIdx] = jaccard(sets[LshBuckets.first(pair)], sets[LshBuckets.second(pair)]);
+        });
+
+        SymmMatrix matrix = new SymmMatrix(count);
+        if (topK <= 0) {
+            for (int pairIdx = 0; pairIdx < candidates.length; pairIdx++) {
+                if (sims[pairIdx] > 0) {
+                    long pair = candidates[pairIdx];
+                    matrix.set(LshBuckets.first(pair), LshBuckets.second(pair), sims[pairIdx]);
+                }
+            }
+            return matrix;
+        }
+
+        // the neighbours of each set in both directions, then the top-K of each set
+        int[] offsets = new int[count + 1];
+        for (int pairIdx = 0; pairIdx < candidates.length; pairIdx++) {
+            if (sims[pairIdx] > 0) {
+                offsets[LshBuckets.first(candidates[pairIdx]) + 1]++;
+                offsets[LshBuckets.second(candidates[pairIdx]) + 1]++;
+            }
+        }
+        for (int index = 0; index < count; index++) {
+            offsets[index + 1] += offsets[index];
+        }
+        int[] neighbors = new int[offsets[count]];
+        double[] neighborSims = new double[offsets[count]];
+        int[] positions = Arrays.copyOf(offsets, count);
+        for (int pairIdx = 0; pairIdx < candidates.length; pairIdx++) {
+            if (sims[pairIdx] > 0) {
+                int thisIndex = LshBuckets.first(candidates[pairIdx]);
+                int thatIndex = LshBuckets.second(candidates[pairIdx]);
+                neighbors[positions[thisIndex]] = thatIndex;
+                neighborSims[positions[thisIndex]++] = sims[pairIdx];
+                neighbors[positions[thatIndex]] = thisIndex;
+                neighborSims[positions[thatIndex]++] = sims[pairIdx];
+            }
+        }
+        TopNList[] topLists = new TopNList[count];
+        IntStream.range(0, count).parallel().forEach(index -> {
+            TopNList.Collector collector = new TopNList.Collector(topK);
+            for (int position = offsets[index]; position < offsets[index + 1]; position++) {
+                collector.offer(neighbors[position], neighborSims[position]);
+            }
+            topLists[index] = collector.build(index);
+        });
+        for (TopNList topList : topLists) {
+            for (int rank = 0; rank < topList.size(); rank++) {
+                matrix.set(topList.getUserIdx(), topList.getItemIdx(rank), topList.getScore(rank));
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * @param thisVector the rated items by this user, or users that have rated this item
+     * @param thatVector the rated items by that user, or users that have rated that item
+     * @return the exact Jaccard similarity of the indices of the vectors
+     */
+    @Override
+    public double getCorrelation(SequentialSparseVector thisVector, SequentialSparseVector thatVector) {
+        int[] thisIndices = thisVector.getIndices().clone();
+        int[] thatIndices = thatVector.getIndices().clone();
+        Arrays.sort(thisIndices);
+        Arrays.sort(thatIndices);
+        return jaccard(thisIndices, thatIndices);
+    }
+
+    private static double jaccard(int[] thisSet, int[] thatSet) {
+        int thisPosition = 0, thatPosition = 0, numCommonElements = 0;
+        while (thisPosition < thisSet.length && thatPosition < thatSet.length) {
+            if (thisSet[thisPosition] == thatSet[thatPosition]) {
+                numCommonElements++;
+                thisPosition++;
+                thatPosition++;
+            } else if (thisSet[thisPosition] < thatSet[thatPosition]) {
+                thisPosition++;
+            } else {
+                thatPosition++;
+            }
+        }
+        int numAllElements = thisSet.length + thatSet.length - numCommonElements;
+        return numAllElements == 0 ? 0.0 : (numCommonElements + 0.0) / numAllElements;
+    }
+
+    /**
+     * @param thisList the elements of this set
+     * @param thatList the elements of that set
+     * @return the exact Jaccard similarity of the distinct elements of the lists
+     */
+    @Override
+    protected double getSimilarity(List<? extends Number> thisList, List<? extends Number> thatList) {
+        if (thisList == null || thatList == null) {
+            return Double.NaN;
+        }
+        return jaccard(toSet(thisList), toSet(thatList));
+    }
+
+    private static int[] toSet(List<? extends Number> list) {
+        return list.stream().mapToInt(Number::intValue).sorted().distinct().toArray();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.librec.conf.Configuration;
+import net.librec.math.structure.SequentialSparseVector;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.ToDoubleBiFunction;
+import java.util.stream.IntStream;
+
+/**
+ * SimHash Candidates
+ * <p>
+ * Candidate neighbours for cosine similarities from signed random projections. Every table projects a sparse
+ * vector on {@code numBits} random directions with entries in {-1, +1}, derived from a hash of the index so
+ * that no projection matrix is stored, and keeps the signs as a bit signature. Two vectors with angle
+ * {@code theta} agree on a bit with probability {@code 1 - theta / pi}; they are candidates if their
+ * signatures are equal in at least one of the {@code numTables} tables. More tables raise the recall, more
+ * bits per table lower the number of candidates.
+ * <p>
+ * It is enabled with {@code rec.similarity.candidates=simhash} for the {@link CosineSimilarity} and the
+ * {@link BinaryCosineSimilarity}, other similarities warn and compute all pairs. It is configured by
+ * {@code rec.similarity.simhash.tables} and {@code rec.similarity.simhash.bits}. A bucket holding more than
+ * {@code rec.similarity.simhash.bucket.max} vectors is subsampled.
+ */
+public class SimHashCandidates {
+    private final int numTables;
+    private final int numBits;
+    private final long seed;
+    private final int maxBucketSize;
+
+    /**
+     * @param numTables the number of hash tables
+     * @param numBits   the number of bits of a signature, at most 64
+     * @param seed      the seed of the projections
+     */
+    public SimHashCandidates(int numTables, int numBits, long seed) {
+        this(numTables, numBits, seed, 1000);
+    }
+
+    /**
+     * @param numTables     the number of hash tables
+     * @param numBits       the number of bits of a signature, at most 64
+     * @param seed          the seed of the projections
+     * @param maxBucketSize the size above which a bucket is subsampled, 0 for no limit
+     */
+    public SimHashCandidates(int numTables, int numBits, long seed, int maxBucketSize) {
+        if (numBits < 1 || numBits > 64) {
+            throw new IllegalArgumentException("rec.similarity.simhash.bits should be in [1, 64]!");
+        }
+        this.numTables = numTables;
+        this.numBits = numBits;
+        this.seed = seed;
+        this.maxBucketSize = maxBucketSize;
+    }
+
+    /**
+     * @param conf the configuration
+     * @return the candidate generator, or null if {@code rec.similarity.candidates} is not {@code simhash}
+     */
+    public static SimHashCandidates build(Configuration conf) {
+        if (!StringUtils.equals(conf.get("rec.similarity.candidates"), "simhash")) {
+            return null;
+        }
+        return new SimHashCandidates(conf.getInt("rec.similarity.simhash.tables", 8),
+                conf.getInt("rec.similarity.simhash.bits", 12),
+                conf.getLong("rec.similarity.simhash.seed", 0x2545F4914F6CDD1DL),
+                conf.getInt("rec.similarity.simhash.bucket.max", 1000));
+    }
+
+    /**
+     * @param vector a sparse vector
+     * @return the signatures of the vector, one per table
+     */
+    public long[] signatures(SequentialSparseVector vector) {
+        long[] signatures = new long[numTables];
+        double[] projections = new double[numBits];
+        for (int table = 0; table < numTables; table++) {
+            long tableSeed = LshBuckets.mix(seed + (table + 1) * 0x9E3779B97F4A7C15L);
+            Arrays.fill(projections, 0.0);
+            for (int position = 0; position < vector.getNumEntries(); position++) {
+                long signs = LshBuckets.mix(vector.getIndexAtPosition(position) ^ tableSeed);
+                double value = vector.getAtPosition(position);
+                for (int bit = 0; bit < numBits; bit++) {
+                    projections[bit] += ((signs >>> bit) & 1L) != 0 ? value : -value;
+                }
+            }
+            long signature = 0L;
+            for (int bit = 0; bit < numBits; bit++) {
+                if (projections[bit] > 0) {
+                    signature |= 1L << bit;
+                }
+            }
+            signatures[table] = signature;
+        }
+        return signatures;
+    }
+
+    /**
+     * Compute the signatures of the vectors in parallel and bucket them.
+     *
+     * @param vectors the vectors
+     * @return the candidate pairs as {@code (smaller index << 32) | larger index}
+     */
+    public long[] candidatePairs(SequentialSparseVector[] vectors) {
+        long[][] signatures = new long[vectors.length][];
+        IntStream.range(0, vectors.length).parallel().forEach(index -> {
+            if (vectors[index].getNumEntries() > 0) {
+                signatures[index] = signatures(vectors[index]);
+            }
+        });
+        return LshBuckets.candidatePairs(vectors.length, numTables, maxBucketSize, index -> signatures[index] != null,
+                (table, index) -> signatures[index][table]);
+    }
+
+    /**
+     * Estimate the recall of the candidates on a sample of vectors: the share of the pairs with a similarity of
+     * at least the threshold which are candidates.
+     *
+     * @param vectors    the vectors
+     * @param candidates the candidate pairs
+     * @param similarity the exact similarity of two vectors
+     * @param sampleSize the number of sampled vectors
+     * @param threshold  the similarity of the pairs to find
+     * @param random     the random generator of the sample
+     * @return the recall, NaN if the sample has no pair above the threshold
+     */
+    public static double sampleRecall(SequentialSparseVector[] vectors, long[] candidates,
+                                      ToDoubleBiFunction<SequentialSparseVector, SequentialSparseVector> similarity,
+                                      int sampleSize, double threshold, Random random) {
+        LongOpenHashSet candidateSet = new LongOpenHashSet(candidates);
+        int[] sample = random.ints(Math.min(sampleSize, vectors.length), 0, vectors.length).toArray();
+        long[] counts = IntStream.of(sample).parallel().mapToObj(thisIndex -> {
+            long[] found = new long[2];
+            if (vectors[thisIndex].getNumEntries() == 0) {
+                return found;
+            }
+            for (int thatIndex = 0; thatIndex < vectors.length; thatIndex++) {
+                if (thatIndex == thisIndex || vectors[thatIndex].getNumEntries() == 0) {
+                    continue;
+                }
+                double sim = similarity.applyAsDouble(vectors[thisIndex], vectors[thatIndex]);
+                if (!Double.isNaN(sim) && sim >= threshold) {
+                    found[0]++;
+                    if (candidateSet.contains(LshBuckets.pair(thisIndex, thatIndex))) {
+                        found[1]++;
+                    }
+                }
+            }
+            return found;
+        }).reduce(new long[2], (left, right) -> new long[]{left[0] + right[0], left[1] + right[1]});
+        return counts[0] == 0 ? Double.NaN : (counts[1] + 0.0) / counts[0];
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import net.librec.BaseTestCase;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * ColumnarDataConvertor TestCase {@link net.librec.data.convertor.ColumnarDataConvertor}
+ * on a file converted by {@link net.librec.data.convertor.ColumnarDataWriter}.
+ */
+public class ColumnarDataConvertorTestCase extends BaseTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File input;
+    private String output;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        DataFrame.clearInnerMapping();
+        List<String> lines = new ArrayList<>();
+        for (int id = 1; id <= 100; id++) {
+            lines.add(String.format("u%d\ti%d\t%d\t%d", id / 11, id % 11, id % 5 + 1, 1000 + id));
+        }
+        input = folder.newFile("ratings.txt");
+        Files.write(input.toPath(), lines, StandardCharsets.UTF_8);
+        output = new File(folder.getRoot(), "ratings.lrc").getPath();
+        // small blocks so that several blocks are read in parallel and skipped
+        ColumnarDataWriter.convertText(new String[]{input.getPath()}, "UIRT", "\t", output, 8);
+    }
+
+    /**
+     * The columnar file loads the same data frame as the text input.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLoad() throws Exception {
+        TextDataConvertor textConvertor = new TextDataConvertor("UIRT", new String[]{input.getPath()}, "\t");
+        textConvertor.processData();
+        SequentialAccessSparseMatrix expected = textConvertor.getPreferenceMatrix();
+
+        DataFrame.clearInnerMapping();
+        ColumnarDataConvertor convertor = new ColumnarDataConvertor(output);
+        convertor.setNumThreads(4);
+        convertor.processData();
+
+        assertEquals(100, convertor.getMatrix().size());
+        assertEquals(10, convertor.getMatrix().numUsers());
+        assertEquals(11, convertor.getMatrix().numItems());
+        SequentialAccessSparseMatrix actual = convertor.getPreferenceMatrix();
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.rowSize(); row++) {
+            for (int column = 0; column < expected.columnSize(); column++) {
+                assertEquals(expected.get(row, column), actual.get(row, column), 0.0);
+            }
+        }
+        assertEquals(1001L, (long) convertor.getDatetimeMatrix().get(DataFrame.getUserIds().get("u0"),
+                DataFrame.getItemIds().get("i1")));
+    }
+
+    /**
+     * Only the rows of the time range and the selected users are loaded.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPushdown() throws Exception {
+        ColumnarDataConvertor convertor = new ColumnarDataConvertor(output);
+        convertor.setTimeRange(1021, 1060);
+        convertor.processData();
+        assertEquals(40, convertor.getMatrix().size());
+
+        DataFrame.clearInnerMapping();
+        convertor = new ColumnarDataConvertor(output);
+        convertor.setTimeRange(1021, 1060);
+        convertor.setUsers(Arrays.asList("u2", "u9"));
+        convertor.processData();
+        // u2 rated ids 22 to 32, u9 none of the range
+        assertEquals(11, convertor.getMatrix().size());
+        assertEquals(1, convertor.getMatrix().numUsers());
+    }
+}
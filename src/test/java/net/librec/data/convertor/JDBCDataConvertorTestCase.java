@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2016 LibRec
+ * <p>
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p>
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.data.convertor;
+
+import net.librec.BaseTestCase;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JDBCDataConvertor TestCase {@link net.librec.data.convertor.JDBCDataConvertor}
+ * against an embedded H2 database.
+ */
+public class JDBCDataConvertorTestCase extends BaseTestCase {
+
+    private static final String URL = "jdbc:h2:mem:librec_test;DB_CLOSE_DELAY=-1";
+
+    private Connection conn;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        DataFrame.clearInnerMapping();
+        conn = DriverManager.getConnection(URL, "sa", "sa");
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS ratings");
+            statement.execute("CREATE TABLE ratings (id BIGINT, usercol VARCHAR(16), itemcol VARCHAR(16), " +
+                    "ratingcol DOUBLE, datecol TIMESTAMP)");
+            for (int id = 1; id <= 100; id++) {
+                insert(statement, id);
+            }
+        }
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        conn.close();
+        super.tearDown();
+    }
+
+    private void insert(Statement statement, int id) throws Exception {
+        statement.execute(String.format("INSERT INTO ratings VALUES (%d, 'u%d', 'i%d', %d, TIMESTAMP '2020-01-01 00:00:00' + %d)",
+                id, id / 11, id % 11, id % 5 + 1, id));
+    }
+
+    private JDBCDataConvertor newConvertor(String datetimeColName) {
+        return new JDBCDataConvertor("org.h2.Driver", URL, "sa", "sa", "ratings",
+                "usercol", "itemcol", "ratingcol", datetimeColName);
+    }
+
+    /**
+     * Load all rows with a single streaming query.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSelectData() throws Exception {
+        JDBCDataConvertor convertor = newConvertor("datecol");
+        convertor.setFetchSize(8);
+        convertor.processData();
+
+        assertEquals(100, convertor.getMatrix().size());
+        assertEquals(10, convertor.getMatrix().numUsers());
+        assertEquals(11, convertor.getMatrix().numItems());
+        // timestamps are converted to unix seconds
+        SequentialAccessSparseMatrix datetimeMatrix = convertor.getDatetimeMatrix();
+        assertEquals(1577836800L + 86400L, (long) datetimeMatrix.get(DataFrame.getUserIds().get("u0"),
+                DataFrame.getItemIds().get("i1")));
+    }
+
+    /**
+     * Range partitions read in parallel and streamed in small chunks load the same preference matrix, with the
+     * inner ids assigned in key order.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPartitions() throws Exception {
+        JDBCDataConvertor convertor = newConvertor(" ");
+        convertor.processData();
+        SequentialAccessSparseMatrix expected = convertor.getPreferenceMatrix();
+
+        DataFrame.clearInnerMapping();
+        try (Statement statement = conn.createStatement()) {
+            statement.execute("INSERT INTO ratings VALUES (NULL, 'u0', 'i0', 3, NULL)");
+        }
+        JDBCDataConvertor partitioned = newConvertor(" ");
+        partitioned.setPartitions("id", 3);
+        partitioned.setFetchSize(4);
+        partitioned.processData();
+
+        assertEquals(101, partitioned.getMatrix().size());
+        SequentialAccessSparseMatrix actual = partitioned.getPreferenceMatrix();
+        for (int id = 1; id <= 100; id++) {
+            int userIdx = DataFrame.getUserIds().get("u" + id / 11);
+            int itemIdx = DataFrame.getItemIds().get("i" + id % 11);
+            assertEquals(id % 5 + 1, actual.get(userIdx, itemIdx), 0.0);
+        }
+        // plus the row without partition key
+        assertEquals(expected.size() + 1, actual.size());
+        for (int userId = 0; userId <= 100 / 11; userId++) {
+            assertEquals(userId, DataFrame.getUserIds().get("u" + userId).intValue());
+        }
+    }
+
+    /**
+     * The incremental mode only appends the rows after the watermark.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWatermark() throws Exception {
+        JDBCDataConvertor convertor = newConvertor(" ");
+        convertor.setWatermark("id", null);
+        convertor.processData();
+        assertEquals(100, convertor.getMatrix().size());
+        assertEquals(100L, ((Number) convertor.getWatermark()).longValue());
+
+        try (Statement statement = conn.createStatement()) {
+            for (int id = 101; id <= 120; id++) {
+                insert(statement, id);
+            }
+        }
+        convertor.processData();
+        assertEquals(120, convertor.getMatrix().size());
+        assertEquals(120L, ((Number) convertor.getWatermark()).longValue());
+
+        convertor.processData();
+        assertEquals(120, convertor.getMatrix().size());
+    }
+}
@@ -0,0 +1,169 @@
+package net.librec.data.splitter;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * EntryMask TestCase {@link net.librec.data.splitter.EntryMask}
+ */
+public class EntryMaskTestCase extends BaseTestCase {
+
+    private static final int NUM_USERS = 30;
+    private static final int NUM_ITEMS = 20;
+
+    private SequentialAccessSparseMatrix preferenceMatrix;
+    private SequentialAccessSparseMatrix datetimeMatrix;
+
+    /**
+     * the (row, column) of each entry, in row order
+     */
+    private List<int[]> entryCells;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(5L);
+        Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+        Table<Integer, Integer, Double> datetimes = HashBasedTable.create();
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            int numRatings = userIdx % 7 == 0 ? 0 : random.nextInt(10);
+            for (int count = 0; count < numRatings; count++) {
+                int itemIdx = random.nextInt(NUM_ITEMS);
+                ratings.put(userIdx, itemIdx, 1.0 + random.nextInt(5));
+                // few distinct dates, so that the sorts have ties
+                datetimes.put(userIdx, itemIdx, 1000.0 + random.nextInt(8));
+            }
+        }
+        preferenceMatrix = new SequentialAccessSparseMatrix(NUM_USERS, NUM_ITEMS, ratings);
+        datetimeMatrix = new SequentialAccessSparseMatrix(NUM_USERS, NUM_ITEMS, datetimes);
+        entryCells = new ArrayList<>();
+        for (MatrixEntry matrixEntry : preferenceMatrix) {
+            entryCells.add(new int[]{matrixEntry.row(), matrixEntry.column()});
+        }
+    }
+
+    /**
+     * The entries are numbered row by row, and the entries of a column are found at their row positions.
+     */
+    @Test
+    public void testEntryLayout() {
+        EntryMask mask = new EntryMask(preferenceMatrix, 1L);
+        assertEquals(preferenceMatrix.getNumEntries(), mask.size());
+        for (int rowIndex = 0; rowIndex < NUM_USERS; rowIndex++) {
+            assertEquals(preferenceMatrix.row(rowIndex).getNumEntries(), mask.rowLength(rowIndex));
+            for (int position = 0; position < mask.rowLength(rowIndex); position++) {
+                int[] cell = entryCells.get(mask.rowOffset(rowIndex) + position);
+                assertEquals(rowIndex, cell[0]);
+                assertEquals(preferenceMatrix.row(rowIndex).getIndexAtPosition(position), cell[1]);
+            }
+        }
+        for (int columnIndex = 0; columnIndex < NUM_ITEMS; columnIndex++) {
+            int[] entries = mask.columnEntries(columnIndex);
+            assertEquals(preferenceMatrix.column(columnIndex).getNumEntries(), entries.length);
+            for (int rowPosition = 0; rowPosition < entries.length; rowPosition++) {
+                int[] cell = entryCells.get(entries[rowPosition]);
+                assertEquals(preferenceMatrix.column(columnIndex).getIndexAtPosition(rowPosition), cell[0]);
+                assertEquals(columnIndex, cell[1]);
+            }
+        }
+    }
+
+    /**
+     * The random streams only depend on the seed and the key, and the samples are distinct positions.
+     */
+    @Test
+    public void testRandomAndSample() {
+        EntryMask mask = new EntryMask(preferenceMatrix, 1L);
+        assertEquals(mask.random(3).nextLong(), new EntryMask(preferenceMatrix, 1L).random(3).nextLong());
+        assertNotEquals(mask.random(3).nextLong(), mask.random(4).nextLong());
+        assertNotEquals(mask.random(3).nextLong(), new EntryMask(preferenceMatrix, 2L).random(3).nextLong());
+
+        for (int count = 0; count <= 10; count++) {
+            int[] positions = EntryMask.sample(mask.random(count), 10, count);
+            int[] sorted = positions.clone();
+            Arrays.sort(sorted);
+            assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, sorted);
+        }
+    }
+
+    /**
+     * The date sorts are ascending and keep the row order of equal dates.
+     */
+    @Test
+    public void testSortByDate() {
+        EntryMask mask = new EntryMask(preferenceMatrix, 1L);
+        for (int rowIndex = 0; rowIndex < NUM_USERS; rowIndex++) {
+            int[] positions = mask.sortRowByDate(datetimeMatrix, rowIndex);
+            assertEquals(mask.rowLength(rowIndex), positions.length);
+            for (int index = 1; index < positions.length; index++) {
+                assertSorted(datetimeMatrix.row(rowIndex).getAtPosition(positions[index - 1]), positions[index - 1],
+                        datetimeMatrix.row(rowIndex).getAtPosition(positions[index]), positions[index]);
+            }
+        }
+        for (int columnIndex = 0; columnIndex < NUM_ITEMS; columnIndex++) {
+            int[] rowPositions = mask.sortColumnByDate(datetimeMatrix, columnIndex);
+            assertEquals(preferenceMatrix.column(columnIndex).getNumEntries(), rowPositions.length);
+            for (int index = 1; index < rowPositions.length; index++) {
+                assertSorted(datetimeMatrix.getAtRowPosition(rowPositions[index - 1], columnIndex), rowPositions[index - 1],
+                        datetimeMatrix.getAtRowPosition(rowPositions[index], columnIndex), rowPositions[index]);
+            }
+        }
+        int[] entries = mask.sortByDate(datetimeMatrix);
+        assertEquals(mask.size(), entries.length);
+        for (int index = 1; index < entries.length; index++) {
+            int[] previousCell = entryCells.get(entries[index - 1]), cell = entryCells.get(entries[index]);
+            assertSorted(datetimeMatrix.get(previousCell[0], previousCell[1]), entries[index - 1],
+                    datetimeMatrix.get(cell[0], cell[1]), entries[index]);
+        }
+    }
+
+    private static void assertSorted(double previousDatetime, int previousPosition, double datetime, int position) {
+        assertTrue(previousDatetime < datetime || (previousDatetime == datetime && previousPosition < position));
+    }
+
+    /**
+     * The matrices of a subset and of its complement split the preference matrix.
+     */
+    @Test
+    public void testToMatrix() {
+        EntryMask mask = new EntryMask(preferenceMatrix, 1L);
+        Random random = new Random(9L);
+        for (int entry = 0; entry < mask.size(); entry++) {
+            mask.set(entry, (byte) random.nextInt(3));
+        }
+        mask.fill(0, Math.min(3, mask.size()), EntryMask.VALID);
+
+        SequentialAccessSparseMatrix testMatrix = mask.toMatrix(EntryMask.TEST);
+        SequentialAccessSparseMatrix otherMatrix = mask.toMatrix(EntryMask.TEST, false, false);
+        SequentialAccessSparseMatrix binaryMatrix = mask.toMatrix(EntryMask.TEST, true, true);
+        assertEquals(mask.size(), testMatrix.getNumEntries() + otherMatrix.getNumEntries());
+        assertEquals(testMatrix.getNumEntries(), binaryMatrix.getNumEntries());
+        for (int entry = 0; entry < mask.size(); entry++) {
+            int[] cell = entryCells.get(entry);
+            double rating = preferenceMatrix.get(cell[0], cell[1]);
+            boolean test = mask.get(entry) == EntryMask.TEST;
+            assertEquals(test ? rating : 0.0, testMatrix.get(cell[0], cell[1]), 0.0);
+            assertEquals(test ? 0.0 : rating, otherMatrix.get(cell[0], cell[1]), 0.0);
+            assertEquals(test ? 1.0 : 0.0, binaryMatrix.get(cell[0], cell[1]), 0.0);
+        }
+        for (int entry = 0; entry < Math.min(3, mask.size()); entry++) {
+            assertEquals(EntryMask.VALID, mask.get(entry));
+        }
+    }
+}
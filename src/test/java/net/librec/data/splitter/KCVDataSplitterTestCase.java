@@ -17,13 +17,25 @@
  */
 package net.librec.data.splitter;
 
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
 import net.librec.BaseTestCase;
 import net.librec.conf.Configured;
 import net.librec.data.convertor.TextDataConvertor;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * KCVDataSplitter TestCase {@link net.librec.data.splitter.KCVDataSplitter}
@@ -86,4 +98,101 @@ public class KCVDataSplitterTestCase extends BaseTestCase {
 			assertEquals(splitter.getTestData().size(), 2);
 		}
 	}
+
+	/**
+	 * Test that the folds are disjoint, cover every rating, have sizes within one of each other and are the
+	 * same for the same seed
+	 */
+	@Test
+	public void testFoldAssignment() {
+		Random random = new Random(3L);
+		Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+		for (int userIdx = 0; userIdx < 40; userIdx++) {
+			int numRatings = userIdx % 9 == 0 ? 0 : random.nextInt(12);
+			for (int count = 0; count < numRatings; count++) {
+				ratings.put(userIdx, random.nextInt(30), 1.0 + random.nextInt(5));
+			}
+		}
+		SequentialAccessSparseMatrix preferenceMatrix = new SequentialAccessSparseMatrix(40, 30, ratings);
+		int numRates = preferenceMatrix.getNumEntries();
+
+		int[] folds = assignFolds(preferenceMatrix, 5, 7L);
+		int[] foldSizes = new int[5];
+		for (int fold : folds) {
+			assertTrue(fold >= 1 && fold <= 5);
+			foldSizes[fold - 1]++;
+		}
+		for (int foldSize : foldSizes) {
+			assertTrue(Math.abs(foldSize - numRates / 5.0) < 1.0);
+		}
+
+		assertArrayEquals(folds, assignFolds(preferenceMatrix, 5, 7L));
+		assertFalse(Arrays.equals(folds, assignFolds(preferenceMatrix, 5, 8L)));
+	}
+
+	/**
+	 * Test that splitting again keeps the folds of the existing split instead of the configured number of folds
+	 */
+	@Test
+	public void testSplitAgain() throws Exception {
+		Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+		for (int userIdx = 0; userIdx < 10; userIdx++) {
+			ratings.put(userIdx, userIdx % 4, 1.0 + userIdx % 5);
+			ratings.put(userIdx, 4 + userIdx % 3, 1.0 + userIdx % 3);
+		}
+		KCVDataSplitter splitter = new KCVDataSplitter(null, conf);
+		splitter.setPreferenceMatrix(new SequentialAccessSparseMatrix(10, 7, ratings));
+		splitter.splitData(3);
+		splitter.splitData();
+		assertEquals(3, splitter.getAssignMatrixList().size());
+		int numFolds = 0;
+		while (splitter.nextFold()) {
+			numFolds++;
+		}
+		assertEquals(3, numFolds);
+	}
+
+	/**
+	 * Split a matrix into folds and check each of them against its train data and its assign matrix.
+	 *
+	 * @return the fold (1 to kFold) of each entry, in row order
+	 */
+	private int[] assignFolds(SequentialAccessSparseMatrix preferenceMatrix, int kFold, long seed) {
+		Randoms.seed(seed);
+		KCVDataSplitter splitter = new KCVDataSplitter(null, conf);
+		splitter.setPreferenceMatrix(preferenceMatrix);
+		splitter.splitData(kFold);
+		List<SequentialAccessSparseMatrix> assignMatrixList = splitter.getAssignMatrixList();
+		assertEquals(kFold, assignMatrixList.size());
+
+		int[] folds = new int[preferenceMatrix.getNumEntries()];
+		int fold = 0;
+		while (splitter.nextFold()) {
+			fold++;
+			SequentialAccessSparseMatrix trainMatrix = splitter.getTrainData();
+			SequentialAccessSparseMatrix testMatrix = splitter.getTestData();
+			SequentialAccessSparseMatrix assignMatrix = assignMatrixList.get(fold - 1);
+			assertEquals(preferenceMatrix.getNumEntries(), trainMatrix.getNumEntries() + testMatrix.getNumEntries());
+			assertEquals(testMatrix.getNumEntries(), assignMatrix.getNumEntries());
+			int entry = 0;
+			for (MatrixEntry matrixEntry : preferenceMatrix) {
+				double trainValue = trainMatrix.get(matrixEntry.row(), matrixEntry.column());
+				double testValue = testMatrix.get(matrixEntry.row(), matrixEntry.column());
+				// every rating is in exactly one of the train and the test data of a fold
+				assertTrue((trainValue == 0.0) != (testValue == 0.0));
+				if (testValue != 0.0) {
+					assertEquals(matrixEntry.get(), testValue, 0.0);
+					assertEquals(1.0, assignMatrix.get(matrixEntry.row(), matrixEntry.column()), 0.0);
+					// and in the test data of exactly one fold
+					assertEquals(0, folds[entry]);
+					folds[entry] = fold;
+				} else {
+					assertEquals(matrixEntry.get(), trainValue, 0.0);
+				}
+				entry++;
+			}
+		}
+		assertEquals(kFold, fold);
+		return folds;
+	}
 }
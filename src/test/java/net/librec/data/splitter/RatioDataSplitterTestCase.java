@@ -17,14 +17,22 @@
  */
 package net.librec.data.splitter;
 
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
 import net.librec.BaseTestCase;
 import net.librec.conf.Configured;
 import net.librec.data.convertor.TextDataConvertor;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -216,4 +224,76 @@ public class RatioDataSplitterTestCase extends BaseTestCase{
 		return validSize/totalSize;
 	}
 
+
+	/**
+	 * Test that userfixed holds out floor(n * (1 - ratio)) ratings of each user
+	 */
+	@Test
+	public void test08FixedUserRatio() {
+		RatioDataSplitter splitter = new RatioDataSplitter();
+		setRatingsWithDates(splitter);
+		Randoms.seed(1L);
+		splitter.getFixedRatioByUser(0.75);
+		for (int userIdx = 0; userIdx < 30; userIdx++) {
+			int numRated = splitter.preferenceMatrix.row(userIdx).getNumEntries();
+			SequentialSparseVector testVector = splitter.getTestData().row(userIdx);
+			assertEquals(numRated / 4, testVector.getNumEntries());
+			assertEquals(numRated - numRated / 4, splitter.getTrainData().row(userIdx).getNumEntries());
+			for (int position = 0; position < testVector.getNumEntries(); position++) {
+				assertEquals(splitter.preferenceMatrix.get(userIdx, testVector.getIndexAtPosition(position)),
+						testVector.getAtPosition(position), 0.0);
+			}
+		}
+	}
+
+	/**
+	 * Test that userdate holds out the latest ratings of each user, by datetime and not by rating value
+	 */
+	@Test
+	public void test09UserDateRatioByDatetime() {
+		RatioDataSplitter splitter = new RatioDataSplitter();
+		setRatingsWithDates(splitter);
+		splitter.getRatioByUserDate(0.75);
+		for (int userIdx = 0; userIdx < 30; userIdx++) {
+			int numRated = splitter.preferenceMatrix.row(userIdx).getNumEntries();
+			assertLatestInTest(splitter, userIdx, numRated - (int) (numRated * 0.75));
+		}
+	}
+
+	/**
+	 * Build a preference matrix and a datetime matrix of the same entries, in which the dates of the ratings of
+	 * each user are distinct and unrelated to the rating values.
+	 */
+	private void setRatingsWithDates(AbstractDataSplitter splitter) {
+		Random random = new Random(5L);
+		Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+		Table<Integer, Integer, Double> datetimes = HashBasedTable.create();
+		for (int userIdx = 0; userIdx < 30; userIdx++) {
+			int numRatings = userIdx % 7 == 0 ? 0 : random.nextInt(12);
+			for (int count = 0; count < numRatings; count++) {
+				int itemIdx = random.nextInt(20);
+				ratings.put(userIdx, itemIdx, 1.0 + random.nextInt(5));
+				datetimes.put(userIdx, itemIdx, 1000.0 + (itemIdx * 7 + userIdx) % 20);
+			}
+		}
+		splitter.setPreferenceMatrix(new SequentialAccessSparseMatrix(30, 20, ratings));
+		splitter.datetimeMatrix = new SequentialAccessSparseMatrix(30, 20, datetimes);
+	}
+
+	/**
+	 * Check that the test ratings of each user are its {@code numTest} latest ratings.
+	 */
+	private static void assertLatestInTest(AbstractDataSplitter splitter, int userIdx, int numTest) {
+		SequentialSparseVector trainVector = splitter.getTrainData().row(userIdx);
+		SequentialSparseVector testVector = splitter.getTestData().row(userIdx);
+		assertEquals(splitter.preferenceMatrix.row(userIdx).getNumEntries(),
+				trainVector.getNumEntries() + testVector.getNumEntries());
+		assertEquals(numTest, testVector.getNumEntries());
+		for (int trainPosition = 0; trainPosition < trainVector.getNumEntries(); trainPosition++) {
+			for (int testPosition = 0; testPosition < testVector.getNumEntries(); testPosition++) {
+				assertTrue(splitter.datetimeMatrix.get(userIdx, trainVector.getIndexAtPosition(trainPosition))
+						< splitter.datetimeMatrix.get(userIdx, testVector.getIndexAtPosition(testPosition)));
+			}
+		}
+	}
 }
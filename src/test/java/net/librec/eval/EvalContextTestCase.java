@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.eval;
+
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecRuntimeException;
+import net.librec.conf.Configuration;
+import net.librec.conf.Configured;
+import net.librec.data.model.TextDataModel;
+import net.librec.eval.ranking.AUCEvaluator;
+import net.librec.eval.ranking.NoveltyEvaluator;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.RecommenderContext;
+import net.librec.recommender.item.RecommendedList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * EvalContext Test Case corresponds to the {@link net.librec.eval.EvalStatistics} of the
+ * {@link net.librec.eval.ranking.AUCEvaluator} and the {@link net.librec.eval.ranking.NoveltyEvaluator}
+ */
+public class EvalContextTestCase extends BaseTestCase {
+
+    private static final int TOP_N = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TextDataModel dataModel;
+    private SequentialAccessSparseMatrix trainMatrix;
+    private SequentialAccessSparseMatrix testMatrix;
+    private RecommendedList recommendedList;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        conf.set(Configured.CONF_DFS_DATA_DIR, folder.getRoot().getPath());
+        conf.set(Configured.CONF_DATA_INPUT_PATH, "ratings.txt");
+        conf.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        conf.set("data.splitter.trainset.ratio", "0.7");
+        conf.set("rec.recommender.isranking", "true");
+
+        Random random = new Random(5);
+        List<String> lines = new ArrayList<>();
+        for (int userId = 0; userId < 40; userId++) {
+            for (int itemId = 0; itemId < 25; itemId++) {
+                if (random.nextDouble() < 0.3) {
+                    lines.add("u" + userId + " i" + itemId + " 1");
+                }
+            }
+        }
+        Files.write(new File(folder.getRoot(), "ratings.txt").toPath(), lines, StandardCharsets.UTF_8);
+        Randoms.seed(7);
+        DataFrame.clearInnerMapping();
+        conf.setBoolean("data.convert.read.ready", false);
+        dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        trainMatrix = (SequentialAccessSparseMatrix) dataModel.getTrainDataSet();
+        testMatrix = (SequentialAccessSparseMatrix) dataModel.getTestDataSet();
+
+        // the unrated items of each user in a fixed order
+        recommendedList = new RecommendedList(trainMatrix.rowSize());
+        for (int userIdx = 0; userIdx < trainMatrix.rowSize(); userIdx++) {
+            recommendedList.addList(new ArrayList<>());
+            for (int rank = 0; rank < trainMatrix.columnSize(); rank++) {
+                int itemIdx = (userIdx * 7 + rank) % trainMatrix.columnSize();
+                if (trainMatrix.get(userIdx, itemIdx) == 0.0) {
+                    recommendedList.add(userIdx, itemIdx, trainMatrix.columnSize() - rank);
+                }
+            }
+        }
+    }
+
+    /**
+     * The statistics computed from the train and test sets, through an evaluation context or a recommender
+     * context, give the values of the statistics set in the configuration.
+     */
+    @Test
+    public void testEntryPoints() {
+        Configuration statisticsConf = new Configuration();
+        int[] numDroppedItems = new int[trainMatrix.rowSize()];
+        for (int userIdx = 0; userIdx < numDroppedItems.length; userIdx++) {
+            numDroppedItems[userIdx] = trainMatrix.columnSize() - trainMatrix.row(userIdx).getNumEntries();
+        }
+        int[] itemPurchasedCounts = new int[trainMatrix.columnSize()];
+        for (int itemIdx = 0; itemIdx < itemPurchasedCounts.length; itemIdx++) {
+            itemPurchasedCounts[itemIdx] = trainMatrix.column(itemIdx).getNumEntries()
+                    + testMatrix.column(itemIdx).getNumEntries();
+        }
+        statisticsConf.setInts("rec.eval.auc.dropped.num", numDroppedItems);
+        statisticsConf.setInts("rec.eval.item.purchase.num", itemPurchasedCounts);
+
+        for (AbstractRecommenderEvaluator evaluator : new AbstractRecommenderEvaluator[]{
+                new AUCEvaluator(), new NoveltyEvaluator()}) {
+            evaluator.setTopN(TOP_N);
+            double expected = evaluator.evaluate(new EvalContext(statisticsConf, recommendedList, testMatrix));
+            assertTrue(expected > 0.0);
+
+            double fromMatrices = evaluator.evaluate(new EvalContext(conf, recommendedList, trainMatrix, testMatrix));
+            assertEquals(expected, fromMatrices, 1e-12);
+
+            EvalContext evalContext = new EvalContext(conf, recommendedList, testMatrix);
+            double fromContext = evaluator.evaluate(new RecommenderContext(conf, dataModel),
+                    evalContext.getGroundTruthList(), recommendedList);
+            assertEquals(expected, fromContext, 1e-12);
+        }
+    }
+
+    /**
+     * Without the train set nor the configured statistics the evaluators fail, also after an evaluation with
+     * statistics.
+     */
+    @Test
+    public void testMissingStatistics() {
+        for (AbstractRecommenderEvaluator evaluator : new AbstractRecommenderEvaluator[]{
+                new AUCEvaluator(), new NoveltyEvaluator()}) {
+            evaluator.setTopN(TOP_N);
+            evaluator.evaluate(new EvalContext(conf, recommendedList, trainMatrix, testMatrix));
+            try {
+                evaluator.evaluate(new EvalContext(conf, recommendedList, testMatrix));
+                fail(evaluator.getClass().getSimpleName() + " must not reuse the statistics of another evaluation");
+            } catch (LibrecRuntimeException e) {
+                assertTrue(e.getMessage().contains("train set"));
+            }
+        }
+    }
+}
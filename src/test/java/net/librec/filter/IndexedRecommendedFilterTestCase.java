@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.filter;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.BaseTestCase;
+import net.librec.recommender.item.GenericRecommendedItem;
+import net.librec.recommender.item.RecommendedItem;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * IndexedRecommendedFilter Test Case corresponds to IndexedRecommendedFilter
+ * {@link net.librec.filter.IndexedRecommendedFilter}
+ */
+public class IndexedRecommendedFilterTestCase extends BaseTestCase {
+
+    private BiMap<String, Integer> userMappingData;
+    private BiMap<String, Integer> itemMappingData;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        userMappingData = HashBiMap.create();
+        itemMappingData = HashBiMap.create();
+        for (int i = 0; i < 4; i++) {
+            userMappingData.put("u" + i, i);
+            itemMappingData.put("i" + i, i);
+        }
+    }
+
+    /**
+     * Test the allow-lists, deny-lists and rules on the inner indices.
+     */
+    @Test
+    public void testAcceptIndices() {
+        IndexedRecommendedFilter filter = new IndexedRecommendedFilter(userMappingData, itemMappingData)
+                .allowUsers("u1", "u2", "unknown")
+                .denyItems("i0")
+                .filterItems(itemIdx -> itemIdx != 2);
+
+        assertFalse(filter.acceptUser(0));
+        assertTrue(filter.acceptUser(1));
+        assertTrue(filter.acceptUser(2));
+        assertFalse(filter.acceptUser(3));
+
+        assertEquals(1, filter.nextItem(0));
+        assertEquals(3, filter.nextItem(2));
+        assertEquals(-1, filter.nextItem(4));
+    }
+
+    /**
+     * Test building the filter from the configuration.
+     */
+    @Test
+    public void testBuild() {
+        assertNull(IndexedRecommendedFilter.build(conf, userMappingData, itemMappingData));
+
+        conf.set("rec.filter.item.allow", "i1, i3");
+        conf.set("rec.filter.item.deny", "i3");
+        IndexedRecommendedFilter filter = IndexedRecommendedFilter.build(conf, userMappingData, itemMappingData);
+        assertTrue(filter.acceptUser(0));
+        assertEquals(1, filter.nextItem(0));
+        assertEquals(-1, filter.nextItem(2));
+    }
+
+    /**
+     * Test filtering a materialised recommended list.
+     */
+    @Test
+    public void testFilter() {
+        List<RecommendedItem> recommendedList = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                recommendedList.add(new GenericRecommendedItem("u" + i, "i" + j, i * 4 + j));
+            }
+        }
+        IndexedRecommendedFilter filter = new IndexedRecommendedFilter(userMappingData, itemMappingData)
+                .denyUsers("u0")
+                .allowItems("i2");
+        List<RecommendedItem> filteredList = filter.filter(recommendedList);
+        assertEquals(3, filteredList.size());
+        for (RecommendedItem recommendedItem : filteredList) {
+            assertEquals("i2", recommendedItem.getItemId());
+        }
+    }
+}
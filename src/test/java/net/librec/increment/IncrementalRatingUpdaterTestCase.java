@@ -0,0 +1,218 @@
+package net.librec.increment;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.increment.IncrementalRatingUpdater.EventType;
+import net.librec.increment.IncrementalRatingUpdater.RatingEvent;
+import net.librec.increment.rating.IncrementalBiasedMFRecommender;
+import net.librec.math.algorithm.Randoms;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * IncrementalRatingUpdater TestCase {@link net.librec.increment.IncrementalRatingUpdater}
+ */
+public class IncrementalRatingUpdaterTestCase extends BaseTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Records the batches it is given.
+     */
+    private static class RecordingRecommender implements IIncrementalRatingRecommender {
+        private final List<Integer> batchSizes = new ArrayList<>();
+        private final TableMatrix ratings = new TableMatrix();
+
+        @Override
+        public void addRatings(TableMatrix newRatings) {
+            batchSizes.add(newRatings.size());
+            newRatings.iterator().forEachRemaining(cell ->
+                    ratings.set(cell.getRowKey(), cell.getColumnKey(), cell.getValue()));
+        }
+
+        @Override
+        public void updateRatings(TableMatrix newRatings) {
+            addRatings(newRatings);
+        }
+
+        @Override
+        public void removeRatings(TableMatrix removeRatings) {
+            batchSizes.add(removeRatings.size());
+            removeRatings.iterator().forEachRemaining(cell -> ratings.set(cell.getRowKey(), cell.getColumnKey(), 0.0));
+        }
+    }
+
+    /**
+     * A biased MF model of a few users and items, set up without a data model.
+     */
+    private static class SmallBiasedMFRecommender extends IncrementalBiasedMFRecommender {
+
+        private SmallBiasedMFRecommender(int numUsers, int numItems) throws Exception {
+            this.numUsers = numUsers;
+            this.numItems = numItems;
+            this.maxUserId = numUsers - 1;
+            this.maxItemId = numItems - 1;
+            this.numFactors = 3;
+            this.numIter = 50;
+            this.currentLearnrate = 0.1;
+            this.minRating = 1.0;
+            this.maxRating = 5.0;
+            this.ratingRangeSize = maxRating - minRating;
+            getGlobalBias(3.0);
+            userFactors = new TableMatrix(numUsers, numFactors);
+            itemFactors = new TableMatrix(numItems, numFactors);
+            userFactors.init(0.0, 0.1);
+            itemFactors.init(0.0, 0.1);
+            userBiases = new TableMatrix(numUsers);
+            itemBiases = new TableMatrix(numItems);
+        }
+
+        private double userBias(int userId) {
+            return userBiases.get(userId);
+        }
+
+        private double itemBias(int itemId) {
+            return itemBiases.get(itemId);
+        }
+
+        private double score(int userId, int itemId) throws LibrecException {
+            return predict(userId, itemId);
+        }
+    }
+
+    /**
+     * The batches of the updater move the predictions, the biases included, of a biased MF model towards the
+     * new ratings, and leave the other users and items alone.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBiasedMF() throws Exception {
+        Randoms.seed(1L);
+        SmallBiasedMFRecommender recommender = new SmallBiasedMFRecommender(4, 5);
+        double highBefore = recommender.score(1, 2), lowBefore = recommender.score(3, 0);
+
+        IncrementalRatingUpdater<SmallBiasedMFRecommender> updater =
+                new IncrementalRatingUpdater<>(recommender, 100, 10, 10L);
+        updater.submit(new RatingEvent(1, 2, 5.0, 1L, EventType.ADD));
+        updater.submit(new RatingEvent(3, 0, 1.0, 1L, EventType.UPDATE));
+        updater.start();
+        updater.close();
+
+        assertEquals(2, updater.getNumApplied());
+        assertEquals(0, updater.getNumFailedBatches());
+        assertTrue(updater.read(r -> r.score(1, 2)) > highBefore + 1.0);
+        assertTrue(updater.read(r -> r.score(3, 0)) < lowBefore - 1.0);
+        assertTrue(recommender.userBias(1) > 0.0 && recommender.itemBias(2) > 0.0);
+        assertTrue(recommender.userBias(3) < 0.0 && recommender.itemBias(0) < 0.0);
+        assertEquals(0.0, recommender.userBias(0), 0.0);
+        assertEquals(0.0, recommender.itemBias(4), 0.0);
+    }
+
+    /**
+     * A rating of an unseen user on an unseen item starts from zero biases and factors, and moves the
+     * prediction towards the rating without saturating it.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBiasedMFNewIds() throws Exception {
+        Randoms.seed(1L);
+        SmallBiasedMFRecommender recommender = new SmallBiasedMFRecommender(4, 5);
+        double before = recommender.score(5, 6);
+
+        IncrementalRatingUpdater<SmallBiasedMFRecommender> updater =
+                new IncrementalRatingUpdater<>(recommender, 100, 10, 10L);
+        updater.submit(new RatingEvent(5, 6, 4.0, 1L, EventType.ADD));
+        updater.submit(new RatingEvent(1, 2, 2.0, 1L, EventType.ADD));
+        updater.start();
+        updater.close();
+
+        assertEquals(2, updater.getNumApplied());
+        assertEquals(0, updater.getNumFailedBatches());
+        double after = updater.read(r -> r.score(5, 6));
+        assertTrue(after > before + 0.5);
+        assertTrue(after < 5.0 - 0.1);
+        assertTrue(recommender.userBias(5) > 0.0 && recommender.itemBias(6) > 0.0);
+        // the skipped ids get zero biases
+        assertEquals(0.0, recommender.userBias(4), 0.0);
+        assertEquals(0.0, recommender.itemBias(5), 0.0);
+        assertTrue(updater.read(r -> r.score(1, 2)) < 5.0 - 0.1);
+    }
+
+    /**
+     * Events are applied in bounded batches, coalesced per cell and drained on close.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatches() throws Exception {
+        RecordingRecommender recommender = new RecordingRecommender();
+        IncrementalRatingUpdater<RecordingRecommender> updater =
+                new IncrementalRatingUpdater<>(recommender, 100, 4, 10000L);
+        for (int index = 0; index < 10; index++) {
+            updater.submit(new RatingEvent(index, 0, index, index, EventType.ADD));
+        }
+        // the later event of a cell wins, whatever the arrival order
+        updater.submit(new RatingEvent(20, 1, 5.0, 2L, EventType.ADD));
+        updater.submit(new RatingEvent(20, 1, 1.0, 1L, EventType.ADD));
+        updater.start();
+        updater.close();
+
+        assertEquals(12, updater.getNumApplied());
+        assertEquals(0, updater.getNumFailedBatches());
+        for (int batchSize : recommender.batchSizes) {
+            assertTrue(batchSize <= 4);
+        }
+        assertEquals(5.0, updater.read(r -> r.ratings.get(20, 1)), 0.0);
+        assertEquals(9.0, updater.read(r -> r.ratings.get(9, 0)), 0.0);
+    }
+
+    /**
+     * Lines appended to a followed file become events with new inner ids.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTail() throws Exception {
+        File file = folder.newFile("events.txt");
+        Files.write(file.toPath(), Arrays.asList("u0 i0 4 1", "u1 i0 3 2"), StandardCharsets.UTF_8);
+        BiMap<String, Integer> userIds = HashBiMap.create(), itemIds = HashBiMap.create();
+        userIds.put("u0", 0);
+        itemIds.put("i0", 0);
+
+        RecordingRecommender recommender = new RecordingRecommender();
+        IncrementalRatingUpdater<RecordingRecommender> updater =
+                new IncrementalRatingUpdater<>(recommender, 100, 100, 10L);
+        updater.start();
+        updater.tail(file.toPath(), " ", userIds, itemIds, 10L);
+        Files.write(file.toPath(), Arrays.asList("u1 i0 2 3 update", "u0 i1 5 4 remove"), StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+        for (int wait = 0; wait < 500 && updater.getNumApplied() < 4; wait++) {
+            Thread.sleep(10L);
+        }
+        updater.close();
+
+        assertEquals(4, updater.getNumApplied());
+        assertEquals(1, (int) userIds.get("u1"));
+        assertEquals(1, (int) itemIds.get("i1"));
+        assertEquals(4.0, recommender.ratings.get(0, 0), 0.0);
+        assertEquals(2.0, recommender.ratings.get(1, 0), 0.0);
+        assertEquals(0.0, recommender.ratings.get(0, 1), 0.0);
+    }
+}
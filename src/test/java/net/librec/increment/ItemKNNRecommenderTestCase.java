@@ -0,0 +1,105 @@
+package net.librec.increment;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.increment.rating.ItemKNNRecommender;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.item.TopNList;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ItemKNNRecommender TestCase {@link net.librec.increment.rating.ItemKNNRecommender}
+ */
+public class ItemKNNRecommenderTestCase extends BaseTestCase {
+
+    private static final int NUM_USERS = 40;
+    private static final int NUM_ITEMS = 15;
+
+    /**
+     * trains on a given table without a data model
+     */
+    private static class TableItemKNN extends ItemKNNRecommender {
+        private TableItemKNN(Table<Integer, Integer, Double> ratings) throws LibrecException {
+            this.numUsers = NUM_USERS;
+            this.numItems = NUM_ITEMS;
+            this.K = 5;
+            this.trainMatrix = new SequentialAccessSparseMatrix(NUM_USERS, NUM_ITEMS, ratings);
+            trainModel();
+        }
+    }
+
+    /**
+     * Adding, updating and removing ratings incrementally gives the model trained from scratch.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testIncrementalUpdates() throws Exception {
+        Random random = new Random(7);
+        Table<Integer, Integer, Double> initial = HashBasedTable.create();
+        Table<Integer, Integer, Double> all = HashBasedTable.create();
+        TableMatrix added = new TableMatrix();
+        for (int userId = 0; userId < NUM_USERS; userId++) {
+            for (int itemId = 0; itemId < NUM_ITEMS; itemId++) {
+                if (random.nextDouble() < 0.4) {
+                    double rating = 1 + random.nextInt(5);
+                    all.put(userId, itemId, rating);
+                    if (random.nextBoolean()) {
+                        initial.put(userId, itemId, rating);
+                    } else {
+                        added.set(userId, itemId, rating);
+                    }
+                }
+            }
+        }
+        TableItemKNN incremental = new TableItemKNN(initial);
+        incremental.addRatings(added);
+        assertSameModel(new TableItemKNN(all), incremental);
+
+        // update one rating and remove another
+        Table.Cell<Integer, Integer, Double> updatedCell = all.cellSet().iterator().next();
+        int updatedUser = updatedCell.getRowKey(), updatedItem = updatedCell.getColumnKey();
+        double updatedRating = 6 - updatedCell.getValue();
+        TableMatrix updated = new TableMatrix();
+        updated.set(updatedUser, updatedItem, updatedRating);
+        all.put(updatedUser, updatedItem, updatedRating);
+        incremental.updateRatings(updated);
+
+        Table.Cell<Integer, Integer, Double> removedCell = all.cellSet().stream()
+                .filter(cell -> cell.getRowKey() != updatedUser).findFirst().get();
+        TableMatrix removed = new TableMatrix();
+        removed.set(removedCell.getRowKey(), removedCell.getColumnKey(), 0.0);
+        all.remove(removedCell.getRowKey(), removedCell.getColumnKey());
+        incremental.removeRatings(removed);
+        assertSameModel(new TableItemKNN(all), incremental);
+    }
+
+    private static void assertSameModel(TableItemKNN expected, TableItemKNN actual) throws Exception {
+        for (int itemId = 0; itemId < NUM_ITEMS; itemId++) {
+            for (int neighborId = 0; neighborId < NUM_ITEMS; neighborId++) {
+                if (neighborId != itemId) {
+                    assertEquals(expected.similarity(itemId, neighborId), actual.similarity(itemId, neighborId), 1e-9);
+                }
+            }
+            TopNList expectedNeighbors = expected.getNeighbors(itemId);
+            TopNList actualNeighbors = actual.getNeighbors(itemId);
+            assertTrue(actualNeighbors.size() <= 5);
+            assertEquals(expectedNeighbors.size(), actualNeighbors.size());
+            for (int rank = 0; rank < expectedNeighbors.size(); rank++) {
+                assertEquals(expectedNeighbors.getScore(rank), actualNeighbors.getScore(rank), 1e-9);
+            }
+        }
+        for (int userId = 0; userId < NUM_USERS; userId++) {
+            for (int itemId = 0; itemId < NUM_ITEMS; itemId++) {
+                assertEquals(expected.predict(userId, itemId), actual.predict(userId, itemId), 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.math.structure;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sparse Kernels TestCase {@link net.librec.math.structure.SparseKernels}
+ */
+public class SparseKernelsTestCase extends BaseTestCase {
+    private static final int NUM_ROWS = 600;
+    private static final int NUM_COLUMNS = 300;
+
+    private final Random random = new Random(13L);
+
+    private double[][] randomDense(int rows, int columns, double density) {
+        double[][] values = new double[rows][columns];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (random.nextDouble() < density) {
+                    values[row][column] = 1 + random.nextInt(5);
+                }
+            }
+        }
+        return values;
+    }
+
+    private SequentialAccessSparseMatrix toSparse(double[][] values) {
+        Table<Integer, Integer, Double> table = HashBasedTable.create();
+        for (int row = 0; row < values.length; row++) {
+            for (int column = 0; column < values[row].length; column++) {
+                if (values[row][column] != 0) {
+                    table.put(row, column, values[row][column]);
+                }
+            }
+        }
+        return new SequentialAccessSparseMatrix(values.length, values[0].length, table);
+    }
+
+    /**
+     * The sparse-dense products match the naive products.
+     */
+    @Test
+    public void testDenseProducts() {
+        double[][] values = randomDense(NUM_ROWS, NUM_COLUMNS, 0.05);
+        SequentialAccessSparseMatrix matrix = toSparse(values);
+
+        DenseVector vector = new VectorBasedDenseVector(NUM_COLUMNS);
+        for (int column = 0; column < NUM_COLUMNS; column++) {
+            vector.set(column, random.nextGaussian());
+        }
+        DenseVector vectorProduct = matrix.times(vector);
+        for (int row = 0; row < NUM_ROWS; row++) {
+            double expected = 0.0d;
+            for (int column = 0; column < NUM_COLUMNS; column++) {
+                expected += values[row][column] * vector.get(column);
+            }
+            assertEquals(expected, vectorProduct.get(row), 1e-9);
+        }
+
+        // more columns than one column block
+        DenseMatrix denseMatrix = new DenseMatrix(NUM_COLUMNS, 70);
+        denseMatrix.init(1.0);
+        DenseMatrix product = matrix.times(denseMatrix);
+        DenseMatrix expectedProduct = new DenseMatrix(values).times(denseMatrix);
+        for (int row = 0; row < NUM_ROWS; row++) {
+            for (int column = 0; column < 70; column++) {
+                assertEquals(expectedProduct.get(row, column), product.get(row, column), 1e-9);
+            }
+        }
+
+        DenseMatrix otherMatrix = new DenseMatrix(NUM_ROWS, 5);
+        otherMatrix.init(1.0);
+        DenseMatrix transposeProduct = matrix.transposeTimes(otherMatrix);
+        DenseMatrix expectedTransposeProduct = new DenseMatrix(values).transpose().times(otherMatrix);
+        for (int row = 0; row < NUM_COLUMNS; row++) {
+            for (int column = 0; column < 5; column++) {
+                assertEquals(expectedTransposeProduct.get(row, column), transposeProduct.get(row, column), 1e-9);
+            }
+        }
+    }
+
+    /**
+     * The Gram product gives the dot products and the co-occurrence counts of the columns.
+     */
+    @Test
+    public void testGram() {
+        double[][] values = randomDense(NUM_ROWS, NUM_COLUMNS, 0.03);
+        SequentialAccessSparseMatrix matrix = toSparse(values);
+        SequentialAccessSparseMatrix dots = matrix.gram(false, true, 0);
+        SequentialAccessSparseMatrix counts = matrix.gram(true, false, 0);
+        for (int column = 0; column < NUM_COLUMNS; column++) {
+            for (int otherColumn = 0; otherColumn < NUM_COLUMNS; otherColumn++) {
+                double dot = 0.0d, count = 0.0d;
+                for (int row = 0; row < NUM_ROWS; row++) {
+                    dot += values[row][column] * values[row][otherColumn];
+                    count += values[row][column] != 0 && values[row][otherColumn] != 0 ? 1 : 0;
+                }
+                assertEquals(dot, dots.get(column, otherColumn), 1e-9);
+                assertEquals(column == otherColumn ? 0 : count, counts.get(column, otherColumn), 1e-9);
+            }
+        }
+    }
+
+    /**
+     * The top-N Gram product keeps the largest entries of each row, ties broken by the smaller index.
+     */
+    @Test
+    public void testGramTopN() {
+        int topN = 10;
+        double[][] values = randomDense(NUM_ROWS, NUM_COLUMNS, 0.03);
+        SequentialAccessSparseMatrix matrix = toSparse(values);
+        SequentialAccessSparseMatrix all = matrix.gram(false, false, 0);
+        SequentialAccessSparseMatrix top = matrix.gram(false, false, topN);
+        for (int rowIndex = 0; rowIndex < NUM_COLUMNS; rowIndex++) {
+            int column = rowIndex;
+            SequentialSparseVector allRow = all.row(column);
+            List<Integer> expected = new ArrayList<>();
+            for (int position = 0; position < allRow.getNumEntries(); position++) {
+                expected.add(allRow.getIndexAtPosition(position));
+            }
+            expected.sort((index, otherIndex) -> {
+                int compare = Double.compare(all.get(column, otherIndex), all.get(column, index));
+                return compare != 0 ? compare : Integer.compare(index, otherIndex);
+            });
+
+            SequentialSparseVector topRow = top.row(column);
+            assertEquals(Math.min(topN, expected.size()), topRow.getNumEntries());
+            for (int index : expected.subList(0, topRow.getNumEntries())) {
+                assertEquals(all.get(column, index), top.get(column, index), 0.0);
+            }
+        }
+    }
+}
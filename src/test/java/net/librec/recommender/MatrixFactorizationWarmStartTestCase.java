@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.BaseTestCase;
+import net.librec.conf.Configured;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.structure.DataFrame;
+import net.librec.recommender.cf.ranking.BPRRecommender;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Warm start TestCase of {@link net.librec.recommender.MatrixFactorizationRecommender}
+ * with {@link net.librec.recommender.cf.ranking.BPRRecommender}.
+ */
+public class MatrixFactorizationWarmStartTestCase extends BaseTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<String> lines;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        conf.set(Configured.CONF_DFS_DATA_DIR, folder.getRoot().getPath());
+        conf.set(Configured.CONF_DATA_INPUT_PATH, "ratings.txt");
+        conf.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        // keep every rating in the train set, so that the runs see the same train rows
+        conf.set("data.splitter.trainset.ratio", "0.99999999");
+        conf.set("rec.recommender.isranking", "true");
+        conf.set("rec.recommender.verbose", "false");
+        conf.set("rec.iterator.maximum", "8");
+        conf.set("rec.factor.number", "4");
+
+        Random random = new Random(3);
+        lines = new ArrayList<>();
+        for (int userId = 0; userId < 30; userId++) {
+            for (int itemId = 0; itemId < 20; itemId++) {
+                if (random.nextDouble() < 0.3) {
+                    lines.add("u" + userId + " i" + itemId + " 1");
+                }
+            }
+        }
+    }
+
+    /**
+     * A warm start on the same data keeps every row, and a new user only trains the changed rows.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testWarmStart() throws Exception {
+        String snapshot = new File(folder.getRoot(), "factors.snapshot").getPath();
+        conf.set("rec.factor.snapshot.path", snapshot);
+        BPRRecommender cold = train();
+        assertEquals(30, cold.getTrainUsers().length);
+
+        conf.set("rec.factor.warmstart.path", snapshot);
+        conf.set("rec.factor.snapshot.path", new File(folder.getRoot(), "factors-1.snapshot").getPath());
+        BPRRecommender unchanged = train();
+        assertEquals(0, unchanged.getTrainUsers().length);
+        assertEquals(0, unchanged.getTrainItems().length);
+        assertSameRow(cold, unchanged, "u7", "i3");
+
+        lines.add("u30 i3 1");
+        lines.add("u30 i4 1");
+        BPRRecommender warm = train();
+        assertEquals(1, warm.getTrainUsers().length);
+        assertEquals("u30", warm.userMappingData.inverse().get(warm.getTrainUsers()[0]));
+        assertEquals(2, warm.getTrainItems().length);
+        assertEquals(2, warm.numIterations);
+        // only the new user is sampled, the items of the other users move as negative samples
+        assertArrayEquals(cold.userFactors.row(cold.userMappingData.get("u7")).getValues(),
+                warm.userFactors.row(warm.userMappingData.get("u7")).getValues(), 0.0);
+        assertNotEquals(cold.itemFactors.get(cold.itemMappingData.get("i3"), 0),
+                warm.itemFactors.get(warm.itemMappingData.get("i3"), 0), 0.0);
+    }
+
+    private BPRRecommender train() throws Exception {
+        Files.write(new File(folder.getRoot(), "ratings.txt").toPath(), lines, StandardCharsets.UTF_8);
+        DataFrame.clearInnerMapping();
+        conf.setBoolean("data.convert.read.ready", false);
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        BPRRecommender recommender = new BPRRecommender();
+        recommender.train(new RecommenderContext(conf, dataModel));
+        return recommender;
+    }
+
+    private static void assertSameRow(MatrixFactorizationRecommender expected, MatrixFactorizationRecommender actual,
+                                      String userId, String itemId) {
+        assertArrayEquals(expected.userFactors.row(expected.userMappingData.get(userId)).getValues(),
+                actual.userFactors.row(actual.userMappingData.get(userId)).getValues(), 0.0);
+        assertArrayEquals(expected.itemFactors.row(expected.itemMappingData.get(itemId)).getValues(),
+                actual.itemFactors.row(actual.itemMappingData.get(itemId)).getValues(), 0.0);
+    }
+}
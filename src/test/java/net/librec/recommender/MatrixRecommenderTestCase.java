@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.item.TopNList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MatrixRecommender Test Case corresponds to the batch top-N API of
+ * {@link net.librec.recommender.MatrixRecommender}
+ */
+public class MatrixRecommenderTestCase extends BaseTestCase {
+
+    private static final int NUM_USERS = 300;
+    private static final int NUM_ITEMS = 50;
+    private static final int TOP_N = 5;
+
+    /**
+     * scores every item by a fixed function of the user and the item, without ties
+     */
+    private static class ScoringRecommender extends MatrixRecommender {
+
+        private ScoringRecommender(SequentialAccessSparseMatrix trainMatrix) {
+            this.trainMatrix = trainMatrix;
+            this.numUsers = trainMatrix.rowSize();
+            this.numItems = trainMatrix.columnSize();
+            this.userMappingData = HashBiMap.create();
+            for (int userIdx = 0; userIdx < numUsers; userIdx++) {
+                userMappingData.put("u" + userIdx, userIdx);
+            }
+        }
+
+        @Override
+        protected void trainModel() throws LibrecException {
+        }
+
+        @Override
+        protected double predict(int userIdx, int itemIdx) throws LibrecException {
+            return score(userIdx, itemIdx);
+        }
+
+        private static double score(int userIdx, int itemIdx) {
+            return (userIdx * 7 + itemIdx * 13) % 29 + itemIdx / 1000.0;
+        }
+    }
+
+    private ScoringRecommender recommender;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(3L);
+        Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            int numRatings = random.nextInt(15);
+            for (int count = 0; count < numRatings; count++) {
+                ratings.put(userIdx, random.nextInt(NUM_ITEMS), 1.0 + random.nextInt(5));
+            }
+        }
+        recommender = new ScoringRecommender(new SequentialAccessSparseMatrix(NUM_USERS, NUM_ITEMS, ratings));
+    }
+
+    /**
+     * Every user gets the best of its unrated items.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAllItems() throws Exception {
+        TopNList[] topNLists = recommender.recommendRank(allUsers(), TOP_N, null, null, null);
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            assertTopN(userIdx, null, null, topNLists[userIdx]);
+        }
+    }
+
+    /**
+     * Only the candidate items are ranked, and the excluded items are never recommended.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCandidateAndExcludedItems() throws Exception {
+        BitSet candidateItems = new BitSet();
+        for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx += 3) {
+            candidateItems.set(itemIdx);
+        }
+        // an index beyond the items is ignored
+        candidateItems.set(NUM_ITEMS + 4);
+        BitSet excludedItems = new BitSet();
+        excludedItems.set(0, 10);
+        excludedItems.set(40);
+
+        TopNList[] candidateLists = recommender.recommendRank(allUsers(), TOP_N, candidateItems, null, null);
+        TopNList[] excludedLists = recommender.recommendRank(allUsers(), TOP_N, null, excludedItems, null);
+        TopNList[] bothLists = recommender.recommendRank(allUsers(), TOP_N, candidateItems, excludedItems, null);
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            assertTopN(userIdx, candidateItems, null, candidateLists[userIdx]);
+            assertTopN(userIdx, null, excludedItems, excludedLists[userIdx]);
+            assertTopN(userIdx, candidateItems, excludedItems, bothLists[userIdx]);
+        }
+    }
+
+    /**
+     * Raw ids are resolved through the user mapping, and unknown ids get an empty list with user index -1.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRawIds() throws Exception {
+        TopNList[] topNLists = recommender.recommendRank(new String[]{"u12", "unknown", "u0", "u" + NUM_USERS},
+                TOP_N, null, null, null);
+        assertEquals(4, topNLists.length);
+        assertTopN(12, null, null, topNLists[0]);
+        assertTopN(0, null, null, topNLists[2]);
+        for (int index : new int[]{1, 3}) {
+            assertEquals(-1, topNLists[index].getUserIdx());
+            assertEquals(0, topNLists[index].size());
+        }
+
+        TopNList[] outOfRangeLists = recommender.recommendRank(new int[]{-1, NUM_USERS}, TOP_N, null, null, null);
+        assertEquals(-1, outOfRangeLists[0].getUserIdx());
+        assertEquals(-1, outOfRangeLists[1].getUserIdx());
+    }
+
+    /**
+     * Scoring the users on an executor gives the lists of the calling thread, in the order of the request.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        // several shards, with repeated and unknown users
+        int[] userIdxs = new int[2 * NUM_USERS + 1];
+        for (int index = 0; index < 2 * NUM_USERS; index++) {
+            userIdxs[index] = (index * 37) % NUM_USERS;
+        }
+        userIdxs[2 * NUM_USERS] = -1;
+        BitSet excludedItems = new BitSet();
+        excludedItems.set(7);
+
+        TopNList[] expectedLists = recommender.recommendRank(userIdxs, TOP_N, null, excludedItems, null);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TopNList[] topNLists = recommender.recommendRank(userIdxs, TOP_N, null, excludedItems, executor);
+            assertEquals(expectedLists.length, topNLists.length);
+            for (int index = 0; index < userIdxs.length; index++) {
+                assertEquals(expectedLists[index].getUserIdx(), topNLists[index].getUserIdx());
+                assertArrayEquals(expectedLists[index].getItemIdxs(), topNLists[index].getItemIdxs());
+                assertArrayEquals(expectedLists[index].getScores(), topNLists[index].getScores(), 0.0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static int[] allUsers() {
+        int[] userIdxs = new int[NUM_USERS];
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            userIdxs[userIdx] = userIdx;
+        }
+        return userIdxs;
+    }
+
+    /**
+     * Compare a top-N list with the best of the unrated, candidate and not excluded items, found by brute force.
+     */
+    private void assertTopN(int userIdx, BitSet candidateItems, BitSet excludedItems, TopNList topNList) {
+        List<Integer> itemIdxs = new ArrayList<>();
+        for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+            if (recommender.trainMatrix.get(userIdx, itemIdx) == 0.0
+                    && (candidateItems == null || candidateItems.get(itemIdx))
+                    && (excludedItems == null || !excludedItems.get(itemIdx))) {
+                itemIdxs.add(itemIdx);
+            }
+        }
+        itemIdxs.sort((itemIdx, otherIdx) -> Double.compare(
+                ScoringRecommender.score(userIdx, otherIdx), ScoringRecommender.score(userIdx, itemIdx)));
+
+        assertEquals(userIdx, topNList.getUserIdx());
+        assertEquals(Math.min(TOP_N, itemIdxs.size()), topNList.size());
+        for (int rank = 0; rank < topNList.size(); rank++) {
+            assertEquals(itemIdxs.get(rank).intValue(), topNList.getItemIdx(rank));
+            assertEquals(ScoringRecommender.score(userIdx, itemIdxs.get(rank)), topNList.getScore(rank), 0.0);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configured;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.math.structure.MatrixEntry;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.recommender.context.rating.RSTERecommender;
+import net.librec.recommender.context.rating.SoRecRecommender;
+import net.librec.recommender.context.rating.SoRegRecommender;
+import net.librec.recommender.context.rating.SocialMFRecommender;
+import net.librec.recommender.context.rating.TrustMFRecommender;
+import net.librec.recommender.context.rating.TrustSVDRecommender;
+import net.librec.similarity.PCCSimilarity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SocialRecommender Test Case corresponds to the trust adjacency and the user shards of
+ * {@link net.librec.recommender.SocialRecommender}
+ */
+public class SocialRecommenderTestCase extends BaseTestCase {
+
+    private static final int NUM_USERS = 120;
+    private static final int NUM_ITEMS = 40;
+    private static final int NUM_FACTORS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ShardedRecommender recommender(int numShards) {
+        Random random = new Random(11L);
+        Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+        Table<Integer, Integer, Double> links = HashBasedTable.create();
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            // a few heavy users, so that the shards have to balance the ratings
+            int numRatings = userIdx % 17 == 0 ? NUM_ITEMS : random.nextInt(6);
+            for (int count = 0; count < numRatings; count++) {
+                ratings.put(userIdx, random.nextInt(NUM_ITEMS), 1.0 + random.nextInt(5));
+            }
+            int numLinks = random.nextInt(5);
+            for (int count = 0; count < numLinks; count++) {
+                links.put(userIdx, random.nextInt(NUM_USERS), random.nextDouble());
+            }
+        }
+
+        ShardedRecommender recommender = new ShardedRecommender();
+        recommender.numUsers = NUM_USERS;
+        recommender.numItems = NUM_ITEMS;
+        recommender.numFactors = NUM_FACTORS;
+        recommender.trainMatrix = new SequentialAccessSparseMatrix(NUM_USERS, NUM_ITEMS, ratings);
+        recommender.socialMatrix = new SequentialAccessSparseMatrix(NUM_USERS, NUM_USERS, links);
+        recommender.buildTrustAdjacency();
+        recommender.buildShards(numShards);
+        return recommender;
+    }
+
+    /**
+     * The compressed trustees and trusters of each user are the row and the column of the social matrix.
+     */
+    @Test
+    public void testTrustAdjacency() {
+        ShardedRecommender recommender = recommender(1);
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            assertLinks(recommender.socialMatrix.row(userIdx), recommender.trusteePointers,
+                    recommender.trusteeIndices, recommender.trusteeValues, userIdx);
+            assertLinks(recommender.socialMatrix.column(userIdx), recommender.trusterPointers,
+                    recommender.trusterIndices, recommender.trusterValues, userIdx);
+        }
+    }
+
+    private static void assertLinks(SequentialSparseVector vector, int[] pointers, int[] indices, double[] values,
+                                    int userIdx) {
+        assertEquals(vector.getNumEntries(), pointers[userIdx + 1] - pointers[userIdx]);
+        for (int position = 0; position < vector.getNumEntries(); position++) {
+            assertEquals(vector.getIndexAtPosition(position), indices[pointers[userIdx] + position]);
+            assertEquals(vector.getAtPosition(position), values[pointers[userIdx] + position], 0.0);
+        }
+    }
+
+    /**
+     * Every user is visited by exactly one shard, and the shared gradients and the losses of several shards sum
+     * up to those of a single shard.
+     */
+    @Test
+    public void testForEachUserShard() {
+        DenseMatrix expectedGradients = new DenseMatrix(NUM_ITEMS, NUM_FACTORS);
+        double expectedLoss = recommender(1).pass(expectedGradients, new AtomicIntegerArray(NUM_USERS));
+
+        for (int numShards = 2; numShards <= 9; numShards++) {
+            ShardedRecommender recommender = recommender(numShards);
+            int[] shardBounds = recommender.shardBounds;
+            assertEquals(numShards + 1, shardBounds.length);
+            assertEquals(0, shardBounds[0]);
+            assertEquals(NUM_USERS, shardBounds[numShards]);
+            for (int shardIdx = 0; shardIdx < numShards; shardIdx++) {
+                assertTrue(shardBounds[shardIdx] <= shardBounds[shardIdx + 1]);
+            }
+
+            DenseMatrix gradients = new DenseMatrix(NUM_ITEMS, NUM_FACTORS);
+            AtomicIntegerArray visits = new AtomicIntegerArray(NUM_USERS);
+            assertEquals(expectedLoss, recommender.pass(gradients, visits), 1e-9);
+            for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+                assertEquals(1, visits.get(userIdx));
+            }
+            for (int itemIdx = 0; itemIdx < NUM_ITEMS; itemIdx++) {
+                for (int factorIdx = 0; factorIdx < NUM_FACTORS; factorIdx++) {
+                    assertEquals(expectedGradients.get(itemIdx, factorIdx), gradients.get(itemIdx, factorIdx), 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * Every social model trained with several shards has the loss and the test RMSE of a single shard.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testShardedTraining() throws Exception {
+        writeSocialData();
+        List<Supplier<SocialRecommender>> models = new ArrayList<>();
+        models.add(SoRecRecommender::new);
+        models.add(SoRegRecommender::new);
+        models.add(SocialMFRecommender::new);
+        models.add(TrustMFRecommender::new);
+        models.add(TrustSVDRecommender::new);
+        models.add(RSTERecommender::new);
+        for (Supplier<SocialRecommender> model : models) {
+            double[] expected = trainSharded(model.get(), 1);
+            assertTrue(model.get().getClass().getSimpleName(), expected[0] > 0.0 && expected[1] > 0.0);
+            for (int numShards : new int[]{3, 8}) {
+                double[] actual = trainSharded(model.get(), numShards);
+                assertEquals(model.get().getClass().getSimpleName() + " loss with " + numShards + " shards",
+                        expected[0], actual[0], 1e-9 * expected[0]);
+                assertEquals(model.get().getClass().getSimpleName() + " RMSE with " + numShards + " shards",
+                        expected[1], actual[1], 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Write ratings of 1 to 5 and weighted trust links of a few heavy and many light users.
+     */
+    private void writeSocialData() throws Exception {
+        Random random = new Random(19L);
+        List<String> ratingLines = new ArrayList<>();
+        List<String> trustLines = new ArrayList<>();
+        for (int userIdx = 0; userIdx < NUM_USERS; userIdx++) {
+            int numRatings = userIdx % 17 == 0 ? NUM_ITEMS / 2 : 2 + random.nextInt(6);
+            for (int count = 0; count < numRatings; count++) {
+                ratingLines.add("u" + userIdx + " i" + random.nextInt(NUM_ITEMS) + " " + (1 + random.nextInt(5)));
+            }
+            int numLinks = userIdx % 13 == 0 ? 20 : random.nextInt(5);
+            for (int count = 0; count < numLinks; count++) {
+                trustLines.add("u" + userIdx + " u" + random.nextInt(NUM_USERS) + " " + (0.1 + random.nextDouble()));
+            }
+        }
+        Files.write(new File(folder.getRoot(), "ratings.txt").toPath(), ratingLines, StandardCharsets.UTF_8);
+        Files.write(new File(folder.newFolder("trust"), "trust.txt").toPath(), trustLines, StandardCharsets.UTF_8);
+
+        conf.set(Configured.CONF_DFS_DATA_DIR, folder.getRoot().getPath());
+        conf.set(Configured.CONF_DATA_INPUT_PATH, "ratings.txt");
+        conf.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+        conf.set("data.appender.class", "social");
+        conf.set("data.appender.path", "trust");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.recommender.verbose", "false");
+        conf.set("rec.recommender.earlystop", "false");
+        conf.set("rec.iterator.maximum", "5");
+        conf.set("rec.iterator.learnrate", "0.01");
+        conf.set("rec.iterator.learnrate.maximum", "-1");
+        conf.set("rec.learnrate.bolddriver", "false");
+        conf.set("rec.learnrate.decay", "1.0");
+        conf.set("rec.factor.number", "4");
+        conf.set("rec.recommender.similarity.key", "user");
+    }
+
+    /**
+     * @return the last training loss and the RMSE on the test ratings
+     */
+    private double[] trainSharded(SocialRecommender recommender, int numShards) throws Exception {
+        conf.set("rec.social.shards", String.valueOf(numShards));
+        Randoms.seed(7);
+        DataFrame.clearInnerMapping();
+        conf.setBoolean("data.convert.read.ready", false);
+        conf.setBoolean("data.appender.read.ready", false);
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        RecommenderContext context = new RecommenderContext(conf, dataModel);
+        // the user similarities of SoReg
+        PCCSimilarity similarity = new PCCSimilarity();
+        similarity.buildSimilarityMatrix(dataModel);
+        context.setSimilarity(similarity);
+        Randoms.seed(11);
+        recommender.train(context);
+        assertEquals(Math.min(numShards, recommender.numUsers) + 1, recommender.shardBounds.length);
+
+        SequentialAccessSparseMatrix testMatrix = dataModel.getDataSplitter().getTestData();
+        double sumSquares = 0.0;
+        for (MatrixEntry matrixEntry : testMatrix) {
+            double error = matrixEntry.get() - recommender.predict(matrixEntry.row(), matrixEntry.column(), true);
+            sumSquares += error * error;
+        }
+        return new double[]{recommender.loss, Math.sqrt(sumSquares / testMatrix.size())};
+    }
+
+    private static class ShardedRecommender extends SocialRecommender {
+
+        private double pass(DenseMatrix itemGradients, AtomicIntegerArray visits) {
+            return forEachUserShard((fromUser, toUser, sharedGradients) -> {
+                double shardLoss = 0.0d;
+                for (int userIdx = fromUser; userIdx < toUser; userIdx++) {
+                    visits.incrementAndGet(userIdx);
+                    SequentialSparseVector itemRatingsVector = trainMatrix.row(userIdx);
+                    for (int position = 0; position < itemRatingsVector.getNumEntries(); position++) {
+                        int itemIdx = itemRatingsVector.getIndexAtPosition(position);
+                        double rating = itemRatingsVector.getAtPosition(position);
+                        for (int factorIdx = 0; factorIdx < numFactors; factorIdx++) {
+                            sharedGradients[0][itemIdx][factorIdx] += rating * (userIdx + factorIdx);
+                        }
+                        shardLoss += rating * rating;
+                    }
+                }
+                return shardLoss;
+            }, itemGradients);
+        }
+
+        @Override
+        protected void trainModel() throws LibrecException {
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import net.librec.common.LibrecException;
+import net.librec.conf.Configuration;
+import net.librec.increment.IIncrementalRatingRecommender;
+import net.librec.increment.IncrementalRatingUpdater;
+import net.librec.increment.IncrementalRatingUpdater.EventType;
+import net.librec.increment.IncrementalRatingUpdater.RatingEvent;
+import net.librec.increment.TableMatrix;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.recommender.item.TopNList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * TopNCache Test Case corresponds to TopNCache
+ * {@link net.librec.recommender.TopNCache}
+ */
+public class TopNCacheTestCase extends BaseTestCase {
+
+    /**
+     * scores every item by the item index plus a per-user offset, and counts the predictions
+     */
+    private static class CountingRecommender extends MatrixRecommender {
+        private final AtomicInteger numPredictions = new AtomicInteger();
+        protected final double[] userOffsets;
+
+        protected CountingRecommender(int numUsers, int numItems) {
+            this.numUsers = numUsers;
+            this.numItems = numItems;
+            this.userOffsets = new double[numUsers];
+            Table<Integer, Integer, Double> dataTable = HashBasedTable.create();
+            dataTable.put(0, numItems - 1, 1.0);
+            this.trainMatrix = new SequentialAccessSparseMatrix(numUsers, numItems, dataTable);
+        }
+
+        @Override
+        protected void trainModel() throws LibrecException {
+        }
+
+        @Override
+        protected double predict(int userIdx, int itemIdx) throws LibrecException {
+            numPredictions.incrementAndGet();
+            return itemIdx + userOffsets[userIdx] * (itemIdx % 2);
+        }
+    }
+
+    /**
+     * takes the rating of an incremental event as the offset of its user
+     */
+    private static class IncrementalCountingRecommender extends CountingRecommender
+            implements IIncrementalRatingRecommender {
+
+        private IncrementalCountingRecommender(int numUsers, int numItems) {
+            super(numUsers, numItems);
+        }
+
+        @Override
+        public void addRatings(TableMatrix newRatings) {
+            newRatings.iterator().forEachRemaining(cell -> userOffsets[cell.getRowKey()] = cell.getValue());
+        }
+
+        @Override
+        public void updateRatings(TableMatrix newRatings) {
+            addRatings(newRatings);
+        }
+
+        @Override
+        public void removeRatings(TableMatrix removeRatings) {
+            removeRatings.iterator().forEachRemaining(cell -> userOffsets[cell.getRowKey()] = 0.0);
+        }
+    }
+
+    private CountingRecommender recommender;
+    private TopNCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        recommender = new CountingRecommender(3, 10);
+        cache = new TopNCache(recommender, 100, 600);
+    }
+
+    /**
+     * Repeated lookups are served from the cache, per topN and item filter.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testHit() throws Exception {
+        TopNList topNList = cache.recommendRank(0, 3);
+        // the training item 9 is never recommended
+        assertEquals(8, topNList.getItemIdx(0));
+        assertSame(topNList, cache.recommendRank(0, 3));
+        assertEquals(9, recommender.numPredictions.get());
+
+        BitSet excludedItems = new BitSet();
+        excludedItems.set(8);
+        assertEquals(7, cache.recommendRank(0, 3, null, excludedItems).getItemIdx(0));
+        assertEquals(2, cache.recommendRank(0, 2).size());
+
+        TopNList[] topNLists = cache.recommendRank(new int[]{0, 1, 2}, 3, null, null, null);
+        assertSame(topNList, topNLists[0]);
+        assertEquals(9, topNLists[1].getItemIdx(0));
+        assertEquals(2.0 / 7, cache.hitRate(), 1e-9);
+    }
+
+    /**
+     * Invalidating a user only recomputes the lists of that user.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidate() throws Exception {
+        TopNList user0 = cache.recommendRank(0, 3);
+        cache.recommendRank(1, 3);
+        TopNList user2 = cache.recommendRank(2, 3);
+
+        recommender.userOffsets[1] = 10;
+        cache.invalidateUser(1);
+        assertSame(user0, cache.recommendRank(0, 3));
+        assertEquals(9, cache.recommendRank(1, 3).getItemIdx(0));
+        assertEquals(19.0, cache.recommendRank(1, 3).getScore(0), 0.0);
+
+        // the ratings of users 0 and 1
+        cache.invalidateUsers(new TableMatrix(2, 1));
+        assertSame(user2, cache.recommendRank(2, 3));
+        assertNotSame(user0, cache.recommendRank(0, 3));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(user0.getItemIdx(0), cache.recommendRank(0, 3).getItemIdx(0));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * The batch ranking of the recommender is served from its cache, which a new model empties.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRankingPath() throws Exception {
+        recommender.setTopNCache(cache);
+        TopNList[] topNLists = recommender.recommendRank(new int[]{0, 1}, 3, null, null, null);
+        assertEquals(19, recommender.numPredictions.get());
+        TopNList[] cachedLists = recommender.recommendRank(new int[]{0, 1}, 3, null, null, null);
+        assertSame(topNLists[0], cachedLists[0]);
+        assertSame(topNLists[1], cachedLists[1]);
+        assertEquals(19, recommender.numPredictions.get());
+
+        recommender.loadModel(null);
+        assertEquals(0, cache.size());
+        assertNotSame(topNLists[0], recommender.recommendRank(new int[]{0}, 3, null, null, null)[0]);
+
+        recommender.setTopNCache(null);
+        recommender.recommendRank(new int[]{0}, 3, null, null, null);
+        assertEquals(1, cache.size());
+        assertEquals(37, recommender.numPredictions.get());
+    }
+
+    /**
+     * An updater built on a recommender with a cache invalidates the users of each batch.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBatchListener() throws Exception {
+        IncrementalCountingRecommender incrementalRecommender = new IncrementalCountingRecommender(3, 10);
+        TopNCache incrementalCache = new TopNCache(incrementalRecommender, 100, 600);
+        incrementalRecommender.setTopNCache(incrementalCache);
+        TopNList[] topNLists = incrementalRecommender.recommendRank(new int[]{0, 1, 2}, 3, null, null, null);
+
+        IncrementalRatingUpdater<IncrementalCountingRecommender> updater =
+                IncrementalRatingUpdater.build(incrementalRecommender, new Configuration());
+        updater.submit(new RatingEvent(1, 0, 10.0, 1L, EventType.ADD));
+        updater.submit(new RatingEvent(2, 0, 0.0, 1L, EventType.REMOVE));
+        updater.start();
+        updater.close();
+
+        TopNList[] updatedLists = incrementalRecommender.recommendRank(new int[]{0, 1, 2}, 3, null, null, null);
+        assertSame(topNLists[0], updatedLists[0]);
+        assertEquals(19.0, updatedLists[1].getScore(0), 0.0);
+        assertNotSame(topNLists[2], updatedLists[2]);
+    }
+
+    /**
+     * A batch failing part-way still invalidates the users whose ratings were already applied.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFailedBatch() throws Exception {
+        IncrementalCountingRecommender incrementalRecommender = new IncrementalCountingRecommender(3, 10) {
+            @Override
+            public void removeRatings(TableMatrix removeRatings) {
+                throw new IllegalStateException("remove failed");
+            }
+        };
+        TopNCache incrementalCache = new TopNCache(incrementalRecommender, 100, 600);
+        incrementalRecommender.setTopNCache(incrementalCache);
+        TopNList[] topNLists = incrementalRecommender.recommendRank(new int[]{0, 1, 2}, 3, null, null, null);
+
+        IncrementalRatingUpdater<IncrementalCountingRecommender> updater =
+                IncrementalRatingUpdater.build(incrementalRecommender, new Configuration());
+        updater.submit(new RatingEvent(1, 0, 10.0, 1L, EventType.ADD));
+        updater.submit(new RatingEvent(2, 0, 0.0, 1L, EventType.REMOVE));
+        updater.start();
+        updater.close();
+        assertEquals(1, updater.getNumFailedBatches());
+
+        TopNList[] updatedLists = incrementalRecommender.recommendRank(new int[]{0, 1, 2}, 3, null, null, null);
+        assertSame(topNLists[0], updatedLists[0]);
+        assertEquals(19.0, updatedLists[1].getScore(0), 0.0);
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender;
+
+import net.librec.BaseTestCase;
+import net.librec.conf.Configured;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.algorithm.Randoms;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.DenseMatrix;
+import net.librec.recommender.cf.ranking.BNPPFRecommeder;
+import net.librec.recommender.cf.ranking.BPRRecommender;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TrainingCheckpoint TestCase {@link net.librec.recommender.TrainingCheckpoint}
+ * with {@link net.librec.recommender.cf.ranking.BPRRecommender}.
+ */
+public class TrainingCheckpointTestCase extends BaseTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        conf.set(Configured.CONF_DFS_DATA_DIR, folder.getRoot().getPath());
+        conf.set(Configured.CONF_DATA_INPUT_PATH, "ratings.txt");
+        conf.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.recommender.isranking", "true");
+        conf.set("rec.recommender.verbose", "false");
+        conf.set("rec.factor.number", "4");
+        conf.set("rec.learnrate.decay", "0.9");
+
+        Random random = new Random(5);
+        List<String> lines = new ArrayList<>();
+        for (int userId = 0; userId < 30; userId++) {
+            for (int itemId = 0; itemId < 20; itemId++) {
+                if (random.nextDouble() < 0.3) {
+                    lines.add("u" + userId + " i" + itemId + " 1");
+                }
+            }
+        }
+        Files.write(new File(folder.getRoot(), "ratings.txt").toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A training interrupted after a checkpoint and resumed gives the model of an uninterrupted training.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testResume() throws Exception {
+        conf.set("rec.iterator.maximum", "8");
+        BPRRecommender uninterrupted = train(new BPRRecommender(), 11);
+
+        File directory = folder.newFolder("checkpoints");
+        conf.set("rec.checkpoint.dir", directory.getPath());
+        conf.set("rec.checkpoint.interval", "2");
+        conf.set("rec.checkpoint.keep", "true");
+        conf.set("rec.iterator.maximum", "5");
+        BPRRecommender interrupted = train(new BPRRecommender(), 11);
+        File checkpointFile = interrupted.checkpoint.getFile();
+        assertTrue(checkpointFile.isFile());
+
+        conf.set("rec.checkpoint.keep", "false");
+        conf.set("rec.iterator.maximum", "8");
+        // another seed, the random state is restored from the checkpoint
+        BPRRecommender resumed = train(new BPRRecommender(), 99);
+        assertFalse(checkpointFile.exists());
+
+        assertEquals(uninterrupted.learnRate, resumed.learnRate, 0.0f);
+        assertFactors(uninterrupted, resumed);
+    }
+
+    /**
+     * BNPPF resumes its sticks and Gamma parameters.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testResumeBNPPF() throws Exception {
+        // few iterations, the variational updates of BNPPF overflow on this small data set
+        conf.set("rec.iterator.maximum", "2");
+        BNPPFRecommeder uninterrupted = train(new BNPPFRecommeder(), 11);
+
+        conf.set("rec.checkpoint.dir", folder.newFolder("checkpoints").getPath());
+        conf.set("rec.checkpoint.interval", "1");
+        conf.set("rec.checkpoint.keep", "true");
+        conf.set("rec.iterator.maximum", "1");
+        assertTrue(train(new BNPPFRecommeder(), 11).checkpoint.getFile().isFile());
+
+        conf.set("rec.iterator.maximum", "2");
+        // another seed, the Gamma parameters drawn by setup are restored from the checkpoint
+        BNPPFRecommeder resumed = train(new BNPPFRecommeder(), 99);
+        assertFalse(Double.isNaN(resumed.userFactors.get(0, 0)));
+        assertFactors(uninterrupted, resumed);
+    }
+
+    /**
+     * Every training of a recommender has its own checkpoint, and a checkpoint of another configuration is
+     * ignored.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFingerprint() throws Exception {
+        conf.set("rec.checkpoint.dir", folder.newFolder("checkpoints").getPath());
+        conf.set("rec.checkpoint.interval", "2");
+        conf.set("rec.checkpoint.keep", "true");
+        conf.set("rec.iterator.maximum", "5");
+        BPRRecommender recommender = train(new BPRRecommender(), 11);
+        File firstFile = recommender.checkpoint.getFile();
+        assertEquals("BPRRecommender-0.ckpt", firstFile.getName());
+        // the next fold does not resume the checkpoint of the first one
+        train(recommender, 11);
+        assertEquals("BPRRecommender-1.ckpt", recommender.checkpoint.getFile().getName());
+        assertTrue(firstFile.isFile());
+
+        conf.set("rec.learnrate.decay", "0.8");
+        BPRRecommender ignored = train(new BPRRecommender(), 11);
+        conf.set("rec.checkpoint.dir", "");
+        BPRRecommender expected = train(new BPRRecommender(), 11);
+        assertFactors(expected, ignored);
+    }
+
+    private <R extends AbstractRecommender> R train(R recommender, long seed) throws Exception {
+        Randoms.seed(7);
+        DataFrame.clearInnerMapping();
+        conf.setBoolean("data.convert.read.ready", false);
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        Randoms.seed(seed);
+        recommender.train(new RecommenderContext(conf, dataModel));
+        return recommender;
+    }
+
+    private static void assertFactors(MatrixFactorizationRecommender expected, MatrixFactorizationRecommender actual) {
+        assertMatrix(expected.userFactors, actual.userFactors);
+        assertMatrix(expected.itemFactors, actual.itemFactors);
+    }
+
+    private static void assertMatrix(DenseMatrix expected, DenseMatrix actual) {
+        assertEquals(expected.rowSize(), actual.rowSize());
+        for (int row = 0; row < expected.rowSize(); row++) {
+            assertArrayEquals(expected.row(row).getValues(), actual.row(row).getValues(), 0.0);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * RecommendedItemList Test Case corresponds to RecommendedItemList
+ * {@link net.librec.recommender.item.RecommendedItemList}
+ */
+public class RecommendedItemListTestCase extends BaseTestCase {
+
+    /**
+     * The list resolves raw ids lazily and filters on the inner indices in place.
+     */
+    @Test
+    public void testLazyResolutionAndRetain() {
+        BiMap<String, Integer> userMappingData = HashBiMap.create();
+        userMappingData.put("u0", 0);
+        userMappingData.put("u1", 1);
+        BiMap<String, Integer> itemMappingData = HashBiMap.create();
+        itemMappingData.put("i0", 0);
+        itemMappingData.put("i2", 2);
+
+        RecommendedList recommendedList = new RecommendedList(2);
+        recommendedList.addList(new ArrayList<>());
+        recommendedList.addList(new ArrayList<>());
+        recommendedList.add(0, 2, 0.9);
+        recommendedList.add(0, 1, 0.8);
+        recommendedList.add(0, 0, 0.7);
+        recommendedList.add(1, 0, 0.6);
+
+        IdDictionary itemIds = IdDictionary.of(itemMappingData);
+        assertEquals(3, itemIds.size());
+        assertNull(itemIds.get(1));
+
+        RecommendedItemList itemList = RecommendedItemList.of(recommendedList,
+                IdDictionary.of(userMappingData), itemIds);
+        // item 1 has no raw id and is left out
+        assertEquals(3, itemList.size());
+        assertEquals("u0", itemList.get(0).getUserId());
+        assertEquals("i2", itemList.get(0).getItemId());
+        assertEquals(0.9, itemList.get(0).getValue(), 0.0);
+        assertEquals("i0", itemList.get(1).getItemId());
+        assertEquals("u1", itemList.get(2).getUserId());
+
+        itemList.retainIf((userIdx, itemIdx, value) -> itemIdx == 0);
+        assertEquals(2, itemList.size());
+        assertEquals(0, itemList.getUserIdx(0));
+        assertEquals(1, itemList.getUserIdx(1));
+        assertEquals(0.6, itemList.getValue(1), 0.0);
+    }
+}
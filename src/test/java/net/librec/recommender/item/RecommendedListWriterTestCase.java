@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import net.librec.BaseTestCase;
+import net.librec.filter.IndexedRecommendedFilter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * RecommendedListWriter Test Case corresponds to RecommendedListWriter
+ * {@link net.librec.recommender.item.RecommendedListWriter}
+ */
+public class RecommendedListWriterTestCase extends BaseTestCase {
+
+    private BiMap<String, Integer> userMappingData;
+    private BiMap<String, Integer> itemMappingData;
+    private RecommendedList recommendedList;
+    private Path outputDir;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        userMappingData = HashBiMap.create();
+        itemMappingData = HashBiMap.create();
+        recommendedList = new RecommendedList(5);
+        for (int userIdx = 0; userIdx < 5; userIdx++) {
+            userMappingData.put("u" + userIdx, userIdx);
+            itemMappingData.put("i" + userIdx, userIdx);
+            recommendedList.addList(new ArrayList<>());
+            for (int itemIdx = 0; itemIdx < 5; itemIdx++) {
+                if (itemIdx != userIdx) {
+                    recommendedList.add(userIdx, itemIdx, userIdx + itemIdx / 10.0);
+                }
+            }
+        }
+        outputDir = Files.createTempDirectory("librec-writer");
+    }
+
+    /**
+     * Partitioned csv files hold the same lines as a single file.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCsv() throws Exception {
+        RecommendedListWriter writer = new RecommendedListWriter(userMappingData, itemMappingData);
+        Path single = outputDir.resolve("single");
+        writer.write(recommendedList, single.toString());
+        List<String> lines = Files.readAllLines(single);
+        assertEquals(20, lines.size());
+        assertEquals("u0,i1,0.1", lines.get(0));
+
+        writer.setNumPartitions(3);
+        Path partitioned = outputDir.resolve("partitioned");
+        writer.write(recommendedList, partitioned.toString());
+        List<String> partLines = new ArrayList<>();
+        for (int partition = 0; partition < 3; partition++) {
+            partLines.addAll(Files.readAllLines(partitioned.resolve(String.format("part-%05d", partition))));
+        }
+        assertEquals(lines, partLines);
+    }
+
+    /**
+     * The binary parts hold a block per user, filtered before writing.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testBinary() throws Exception {
+        RecommendedListWriter writer = new RecommendedListWriter(userMappingData, itemMappingData);
+        writer.setFormat(RecommendedListWriter.Format.BINARY);
+        writer.setNumPartitions(2);
+        writer.setFilter(new IndexedRecommendedFilter(userMappingData, itemMappingData).denyItems("i2"));
+        writer.write(recommendedList, outputDir.toString());
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(outputDir.resolve("items.dict")))) {
+            assertEquals(RecommendedListWriter.DICT_MAGIC, in.readInt());
+            assertEquals(5, in.readInt());
+            assertEquals("i0", in.readUTF());
+        }
+
+        int numBlocks = 0, numEntries = 0;
+        for (int partition = 0; partition < 2; partition++) {
+            Path partPath = outputDir.resolve(String.format("part-%05d", partition));
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(partPath)))) {
+                assertEquals(RecommendedListWriter.PART_MAGIC, in.readInt());
+                while (true) {
+                    int userIdx;
+                    try {
+                        userIdx = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    int size = in.readInt();
+                    int[] items = new int[size];
+                    for (int index = 0; index < size; index++) {
+                        items[index] = in.readInt();
+                    }
+                    for (int index = 0; index < size; index++) {
+                        assertEquals(userIdx + items[index] / 10.0, in.readDouble(), 0.0);
+                    }
+                    assertEquals(userIdx == 2 ? 4 : 3, size);
+                    numBlocks++;
+                    numEntries += size;
+                }
+            }
+        }
+        assertEquals(5, numBlocks);
+        assertEquals(16, numEntries);
+    }
+
+    /**
+     * The output of a previous run is replaced, but a directory holding other files is left alone.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOverwrite() throws Exception {
+        RecommendedListWriter writer = new RecommendedListWriter(userMappingData, itemMappingData);
+        writer.setNumPartitions(3);
+        Path output = outputDir.resolve("output");
+        writer.write(recommendedList, output.toString());
+        writer.setNumPartitions(2);
+        writer.write(recommendedList, output.toString());
+        assertTrue(Files.exists(output.resolve("part-00001")));
+        assertFalse(Files.exists(output.resolve("part-00002")));
+
+        writer.setNumPartitions(1);
+        writer.write(recommendedList, output.toString());
+        assertTrue(Files.isRegularFile(output));
+        assertEquals(20, Files.readAllLines(output).size());
+
+        Path foreign = outputDir.resolve("foreign");
+        Files.createDirectories(foreign);
+        Files.write(foreign.resolve("notes.txt"), "keep".getBytes(StandardCharsets.UTF_8));
+        try {
+            writer.write(recommendedList, foreign.toString());
+            fail("a directory holding other files must not be overwritten");
+        } catch (IOException e) {
+            assertEquals("keep", new String(Files.readAllBytes(foreign.resolve("notes.txt")), StandardCharsets.UTF_8));
+        }
+        try (Stream<Path> children = Files.list(outputDir)) {
+            assertEquals(2, children.count());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.recommender.item;
+
+import net.librec.BaseTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * TopNList Test Case corresponds to TopNList
+ * {@link net.librec.recommender.item.TopNList}
+ */
+public class TopNListTestCase extends BaseTestCase {
+
+    /**
+     * The collector keeps the highest scores in descending order.
+     */
+    @Test
+    public void testCollector() {
+        Random random = new Random(1);
+        double[] scores = new double[1000];
+        TopNList.Collector collector = new TopNList.Collector(10);
+        for (int itemIdx = 0; itemIdx < scores.length; itemIdx++) {
+            scores[itemIdx] = random.nextDouble();
+            collector.offer(itemIdx, scores[itemIdx]);
+        }
+        TopNList topNList = collector.build(3);
+
+        double[] expected = scores.clone();
+        Arrays.sort(expected);
+        double[] actual = topNList.getScores();
+        for (int rank = 0; rank < 10; rank++) {
+            assertEquals(expected[expected.length - 1 - rank], actual[rank], 0.0);
+            assertEquals(scores[topNList.getItemIdx(rank)], actual[rank], 0.0);
+        }
+        assertEquals(3, topNList.getUserIdx());
+
+        // the collector is reusable after build
+        collector.offer(7, 0.5);
+        collector.offer(8, 0.9);
+        assertArrayEquals(new int[]{8, 7}, collector.build(4).getItemIdxs());
+    }
+}
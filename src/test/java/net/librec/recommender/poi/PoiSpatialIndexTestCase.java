@@ -0,0 +1,97 @@
+package net.librec.recommender.poi;
+
+import net.librec.BaseTestCase;
+import net.librec.recommender.item.KeyValue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * PoiSpatialIndex TestCase {@link net.librec.recommender.poi.PoiSpatialIndex}
+ */
+public class PoiSpatialIndexTestCase extends BaseTestCase {
+
+    @SuppressWarnings("unchecked")
+    private KeyValue<Double, Double>[] randomLocations(int numPois) {
+        Random random = new Random(17L);
+        KeyValue<Double, Double>[] locations = new KeyValue[numPois];
+        for (int poiIdx = 0; poiIdx < numPois; poiIdx++) {
+            if (poiIdx % 10 == 0) {
+                // a city of close pois, with duplicates
+                locations[poiIdx] = new KeyValue<>(40.0 + random.nextInt(20) * 1e-4, -74.0 + random.nextInt(20) * 1e-4);
+            } else {
+                locations[poiIdx] = new KeyValue<>(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+            }
+        }
+        locations[7] = null;
+        return locations;
+    }
+
+    private static double haversine(KeyValue<Double, Double> location, KeyValue<Double, Double> otherLocation) {
+        double latitude = Math.toRadians(location.getKey()), otherLatitude = Math.toRadians(otherLocation.getKey());
+        double sinLatitude = Math.sin((latitude - otherLatitude) / 2);
+        double sinLongitude = Math.sin(Math.toRadians(location.getValue() - otherLocation.getValue()) / 2);
+        return 2 * PoiSpatialIndex.EARTH_RADIUS * Math.asin(Math.sqrt(sinLatitude * sinLatitude
+                + Math.cos(latitude) * Math.cos(otherLatitude) * sinLongitude * sinLongitude));
+    }
+
+    /**
+     * The distances are great-circle distances.
+     */
+    @Test
+    public void testDistance() {
+        KeyValue<Double, Double>[] locations = randomLocations(200);
+        PoiSpatialIndex spatialIndex = new PoiSpatialIndex(locations);
+        for (int poiIdx = 0; poiIdx < locations.length; poiIdx++) {
+            for (int otherPoiIdx = 0; otherPoiIdx < locations.length; otherPoiIdx++) {
+                if (locations[poiIdx] != null && locations[otherPoiIdx] != null) {
+                    assertEquals(haversine(locations[poiIdx], locations[otherPoiIdx]),
+                            spatialIndex.distance(poiIdx, otherPoiIdx), 1e-6);
+                }
+            }
+        }
+    }
+
+    /**
+     * The k-nearest and radius queries give the pois of a scan of all pois.
+     */
+    @Test
+    public void testQueries() {
+        KeyValue<Double, Double>[] locations = randomLocations(2000);
+        PoiSpatialIndex spatialIndex = new PoiSpatialIndex(locations);
+        assertEquals(0, spatialIndex.nearest(7, 5).length);
+        for (int poiIdx = 0; poiIdx < locations.length; poiIdx += 7) {
+            if (locations[poiIdx] == null) {
+                continue;
+            }
+            int queryIdx = poiIdx;
+            List<Integer> others = new ArrayList<>();
+            for (int otherPoiIdx = 0; otherPoiIdx < locations.length; otherPoiIdx++) {
+                if (otherPoiIdx != poiIdx && locations[otherPoiIdx] != null) {
+                    others.add(otherPoiIdx);
+                }
+            }
+            others.sort((index, otherIndex) -> {
+                int compare = Double.compare(spatialIndex.distance(queryIdx, index), spatialIndex.distance(queryIdx, otherIndex));
+                return compare != 0 ? compare : Integer.compare(index, otherIndex);
+            });
+
+            int[] nearest = spatialIndex.nearest(poiIdx, 25);
+            assertEquals(25, nearest.length);
+            for (int rank = 0; rank < nearest.length; rank++) {
+                assertEquals(spatialIndex.distance(poiIdx, others.get(rank)), spatialIndex.distance(poiIdx, nearest[rank]), 1e-9);
+            }
+
+            double radius = poiIdx % 10 == 0 ? 0.1 : 1500;
+            int[] expected = others.stream()
+                    .filter(otherPoiIdx -> spatialIndex.distance(queryIdx, otherPoiIdx) <= radius)
+                    .mapToInt(Integer::intValue).sorted().toArray();
+            assertArrayEquals(expected, spatialIndex.withinRadius(poiIdx, radius));
+        }
+    }
+}
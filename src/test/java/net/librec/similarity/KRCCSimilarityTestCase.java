@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import net.librec.BaseTestCase;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * KRCC Similarity TestCase {@link net.librec.similarity.KRCCSimilarity}
+ */
+public class KRCCSimilarityTestCase extends BaseTestCase {
+
+    /**
+     * The merge sort count gives the pairwise count, with ties.
+     */
+    @Test
+    public void testAgainstPairwise() {
+        Random random = new Random(29);
+        KRCCSimilarity similarity = new KRCCSimilarity();
+        for (int trial = 0; trial < 50; trial++) {
+            Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+            for (int column = 0; column < 300; column++) {
+                for (int row = 0; row < 2; row++) {
+                    if (random.nextDouble() < 0.6) {
+                        // few distinct ratings, so that there are many ties
+                        ratings.put(row, column, 1.0 + random.nextInt(5));
+                    }
+                }
+            }
+            SequentialAccessSparseMatrix matrix = new SequentialAccessSparseMatrix(2, 300, ratings);
+            SequentialSparseVector thisVector = matrix.row(0), thatVector = matrix.row(1);
+
+            double sim = similarity.getCorrelationIndependently(conf, thisVector, thatVector);
+            assertEquals(pairwise(ratings), sim, 1e-12);
+            assertTrue(sim >= -1.0 && sim <= 1.0);
+        }
+    }
+
+    /**
+     * Identical and reversed rankings.
+     */
+    @Test
+    public void testExtremes() {
+        KRCCSimilarity similarity = new KRCCSimilarity();
+        Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+        for (int column = 0; column < 5; column++) {
+            ratings.put(0, column, column + 1.0);
+            ratings.put(1, column, column + 1.0);
+            ratings.put(2, column, 5.0 - column);
+        }
+        SequentialAccessSparseMatrix matrix = new SequentialAccessSparseMatrix(3, 5, ratings);
+        assertEquals(1.0, similarity.getCorrelationIndependently(conf, matrix.row(0), matrix.row(1)), 1e-12);
+        assertEquals(-1.0, similarity.getCorrelationIndependently(conf, matrix.row(0), matrix.row(2)), 1e-12);
+    }
+
+    private static double pairwise(Table<Integer, Integer, Double> ratings) {
+        int[] common = ratings.row(0).keySet().stream().filter(column -> ratings.contains(1, column))
+                .mapToInt(Integer::intValue).toArray();
+        if (common.length < 2) {
+            return Double.NaN;
+        }
+        double discordant = 0.0;
+        for (int i = 0; i < common.length; i++) {
+            for (int j = i + 1; j < common.length; j++) {
+                double thisDiff = ratings.get(0, common[i]) - ratings.get(0, common[j]);
+                double thatDiff = ratings.get(1, common[i]) - ratings.get(1, common[j]);
+                if (thisDiff * thatDiff < 0.0) {
+                    discordant += 1.0;
+                }
+            }
+        }
+        return 1.0 - 4.0 * discordant / (common.length * (common.length - 1));
+    }
+}
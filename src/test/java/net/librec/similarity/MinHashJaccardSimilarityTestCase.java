@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
+import net.librec.BaseTestCase;
+import net.librec.math.structure.SymmMatrix;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MinHash Jaccard Similarity TestCase {@link net.librec.similarity.MinHashJaccardSimilarity}
+ */
+public class MinHashJaccardSimilarityTestCase extends BaseTestCase {
+
+    private int[][] sets;
+
+    /**
+     * random sets, each odd set a near copy of the previous one
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(17);
+        sets = new int[200][];
+        for (int index = 0; index < sets.length; index++) {
+            IntAVLTreeSet set = new IntAVLTreeSet();
+            if (index % 2 == 1) {
+                set.addAll(new IntAVLTreeSet(sets[index - 1]));
+                set.remove(set.firstInt());
+                set.add(10000 + index);
+            } else {
+                while (set.size() < 20 + random.nextInt(20)) {
+                    set.add(random.nextInt(5000));
+                }
+            }
+            sets[index] = set.toIntArray();
+        }
+    }
+
+    /**
+     * The returned similarities are exact, and the similar pairs are found.
+     */
+    @Test
+    public void testSimilarPairs() {
+        MinHashJaccardSimilarity similarity = new MinHashJaccardSimilarity();
+        similarity.setup(conf);
+        SymmMatrix matrix = similarity.buildSimilarityMatrix(sets);
+
+        for (int thisIndex = 0; thisIndex < sets.length; thisIndex++) {
+            for (int thatIndex = thisIndex + 1; thatIndex < sets.length; thatIndex++) {
+                double exact = exactJaccard(sets[thisIndex], sets[thatIndex]);
+                if (matrix.contains(thisIndex, thatIndex)) {
+                    assertEquals(exact, matrix.get(thisIndex, thatIndex), 1e-12);
+                }
+                if (exact >= 0.8) {
+                    assertTrue(matrix.contains(thisIndex, thatIndex));
+                }
+            }
+        }
+    }
+
+    /**
+     * With a top-K only the nearest neighbours are kept.
+     */
+    @Test
+    public void testTopK() {
+        conf.set("rec.similarity.minhash.topk", "1");
+        MinHashJaccardSimilarity similarity = new MinHashJaccardSimilarity();
+        similarity.setup(conf);
+        SymmMatrix matrix = similarity.buildSimilarityMatrix(sets);
+
+        // every set keeps its near copy, and contributes at most one pair
+        for (int index = 0; index < sets.length; index += 2) {
+            assertTrue(matrix.contains(index, index + 1));
+        }
+        assertTrue(matrix.getData().size() <= sets.length);
+    }
+
+    /**
+     * The many copies of a popular set only yield a bounded number of candidates.
+     */
+    @Test
+    public void testLargeBuckets() {
+        int[][] copies = new int[400][];
+        Arrays.fill(copies, 0, 300, new int[]{1, 2, 3});
+        System.arraycopy(sets, 0, copies, 300, 100);
+        conf.set("rec.similarity.minhash.bucket.max", "5");
+        MinHashJaccardSimilarity similarity = new MinHashJaccardSimilarity();
+        similarity.setup(conf);
+        SymmMatrix matrix = similarity.buildSimilarityMatrix(copies);
+
+        int numCopyPairs = 0;
+        for (int thisIndex = 0; thisIndex < 300; thisIndex++) {
+            for (int thatIndex = thisIndex + 1; thatIndex < 300; thatIndex++) {
+                if (matrix.contains(thisIndex, thatIndex)) {
+                    assertEquals(1.0, matrix.get(thisIndex, thatIndex), 0.0);
+                    numCopyPairs++;
+                }
+            }
+        }
+        assertTrue(numCopyPairs > 0);
+        assertTrue(numCopyPairs <= similarity.numBands * 300 * 4);
+        for (int index = 300; index < 400; index += 2) {
+            assertTrue(matrix.contains(index, index + 1));
+        }
+    }
+
+    /**
+     * Signatures which do not fit in an array fail before they are allocated.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSignatureOverflow() {
+        conf.set("rec.similarity.minhash.bands", "64");
+        conf.set("rec.similarity.minhash.rows", "64");
+        MinHashJaccardSimilarity similarity = new MinHashJaccardSimilarity();
+        similarity.setup(conf);
+        similarity.buildSimilarityMatrix(new int[1 << 20][]);
+    }
+
+    /**
+     * The similarity of lists is the Jaccard similarity of their distinct elements.
+     */
+    @Test
+    public void testListSimilarity() {
+        MinHashJaccardSimilarity similarity = new MinHashJaccardSimilarity();
+        assertEquals(2.0 / 5, similarity.getSimilarity(Arrays.asList(4, 1, 2, 1), Arrays.asList(2, 3, 4, 5)), 0.0);
+        assertEquals(exactJaccard(sets[0], sets[1]), similarity.getSimilarity(
+                Arrays.stream(sets[0]).boxed().collect(Collectors.toList()),
+                Arrays.stream(sets[1]).boxed().collect(Collectors.toList())), 1e-12);
+        assertEquals(0.0, similarity.getSimilarity(Arrays.asList(1), Arrays.asList(2)), 0.0);
+    }
+
+    private static double exactJaccard(int[] thisSet, int[] thatSet) {
+        IntAVLTreeSet union = new IntAVLTreeSet(thisSet);
+        union.addAll(new IntAVLTreeSet(thatSet));
+        return (thisSet.length + thatSet.length - union.size() + 0.0) / union.size();
+    }
+}
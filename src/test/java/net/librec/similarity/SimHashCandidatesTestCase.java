@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2016 LibRec
+ *
+ * This file is part of LibRec.
+ * LibRec is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LibRec is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LibRec. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.librec.similarity;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.librec.BaseTestCase;
+import net.librec.conf.Configured;
+import net.librec.data.model.TextDataModel;
+import net.librec.math.structure.DataFrame;
+import net.librec.math.structure.SequentialAccessSparseMatrix;
+import net.librec.math.structure.SequentialSparseVector;
+import net.librec.recommender.RecommenderContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SimHash Candidates TestCase {@link net.librec.similarity.SimHashCandidates}
+ */
+public class SimHashCandidatesTestCase extends BaseTestCase {
+
+    private static final int NUM_ROWS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SequentialSparseVector[] vectors;
+
+    /**
+     * random rating rows, each odd row a copy of the previous one with one rating changed
+     */
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(23);
+        Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+        for (int row = 0; row < NUM_ROWS; row += 2) {
+            for (int entry = 0; entry < 30; entry++) {
+                int column = random.nextInt(2000);
+                double rating = 1 + random.nextInt(5);
+                ratings.put(row, column, rating);
+                ratings.put(row + 1, column, rating);
+            }
+            ratings.put(row + 1, 2000 + row, 3.0);
+        }
+        SequentialAccessSparseMatrix matrix = new SequentialAccessSparseMatrix(NUM_ROWS, 2000 + NUM_ROWS, ratings);
+        vectors = new SequentialSparseVector[NUM_ROWS];
+        for (int row = 0; row < NUM_ROWS; row++) {
+            vectors[row] = matrix.row(row);
+        }
+    }
+
+    /**
+     * The near copies are candidates, the unrelated rows mostly are not.
+     */
+    @Test
+    public void testCandidates() {
+        SimHashCandidates candidates = new SimHashCandidates(16, 8, 1L);
+        long[] pairs = candidates.candidatePairs(vectors);
+        LongOpenHashSet pairSet = new LongOpenHashSet(pairs);
+        for (int row = 0; row < NUM_ROWS; row += 2) {
+            assertTrue(pairSet.contains(LshBuckets.pair(row, row + 1)));
+        }
+        assertTrue(pairs.length < NUM_ROWS * (NUM_ROWS - 1) / 20);
+
+        BinaryCosineSimilarity similarity = new BinaryCosineSimilarity();
+        double recall = SimHashCandidates.sampleRecall(vectors, pairs, similarity::getCorrelation, 50, 0.9,
+                new Random(1));
+        assertEquals(1.0, recall, 0.0);
+    }
+
+    /**
+     * A bucket above the maximum size only pairs each index with a few others, and smaller buckets are complete.
+     */
+    @Test
+    public void testLargeBuckets() {
+        // one bucket of 500 indices and buckets of 2 indices
+        LshBuckets.KeyFunction keys = (table, index) -> index < 500 ? -1L : index / 2;
+        long[] pairs = LshBuckets.candidatePairs(600, 3, 10, index -> true, keys);
+        LongOpenHashSet pairSet = new LongOpenHashSet(pairs);
+        for (int index = 500; index < 600; index += 2) {
+            assertTrue(pairSet.contains(LshBuckets.pair(index, index + 1)));
+        }
+        assertTrue(pairs.length <= 3 * 500 * 9 + 50);
+        assertTrue(pairs.length > 500 * 9 + 50);
+        for (long pair : pairs) {
+            assertTrue(LshBuckets.first(pair) < LshBuckets.second(pair));
+        }
+
+        assertEquals(500 * 499 / 2 + 50, LshBuckets.candidatePairs(600, 3, 0, index -> true, keys).length);
+    }
+
+    /**
+     * Only the cosine similarities use the candidates, the other similarities compute all pairs.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCosineOnly() throws Exception {
+        Random random = new Random(3);
+        List<String> lines = new ArrayList<>();
+        for (int userId = 0; userId < 60; userId++) {
+            for (int itemId = 0; itemId < 30; itemId++) {
+                if (random.nextDouble() < 0.3) {
+                    lines.add("u" + userId + " i" + itemId + " " + (1 + random.nextInt(5)));
+                }
+            }
+        }
+        Files.write(new File(folder.getRoot(), "ratings.txt").toPath(), lines, StandardCharsets.UTF_8);
+        conf.set(Configured.CONF_DFS_DATA_DIR, folder.getRoot().getPath());
+        conf.set(Configured.CONF_DATA_INPUT_PATH, "ratings.txt");
+        conf.set(Configured.CONF_DATA_COLUMN_FORMAT, "UIR");
+        conf.set("data.model.splitter", "ratio");
+        conf.set("data.splitter.ratio", "rating");
+        conf.set("data.splitter.trainset.ratio", "0.8");
+        conf.set("rec.recommender.similarity.key", "user");
+        DataFrame.clearInnerMapping();
+        conf.setBoolean("data.convert.read.ready", false);
+        TextDataModel dataModel = new TextDataModel(conf);
+        dataModel.buildDataModel();
+        new RecommenderContext(conf, dataModel);
+
+        PCCSimilarity allPairs = new PCCSimilarity();
+        allPairs.buildSimilarityMatrix(dataModel);
+        CosineSimilarity cosineAllPairs = new CosineSimilarity();
+        cosineAllPairs.buildSimilarityMatrix(dataModel);
+
+        // few tables of many bits, so that the candidates miss pairs
+        conf.set("rec.similarity.candidates", "simhash");
+        conf.set("rec.similarity.simhash.tables", "1");
+        conf.set("rec.similarity.simhash.bits", "16");
+        conf.set("rec.similarity.simhash.recall.sample", "0");
+        PCCSimilarity pcc = new PCCSimilarity();
+        pcc.buildSimilarityMatrix(dataModel);
+        assertEquals(allPairs.getSimilarityMatrix().getData(), pcc.getSimilarityMatrix().getData());
+        CosineSimilarity cosine = new CosineSimilarity();
+        cosine.buildSimilarityMatrix(dataModel);
+        assertTrue(cosine.getSimilarityMatrix().getData().size()
+                < cosineAllPairs.getSimilarityMatrix().getData().size());
+    }
+
+    /**
+     * The signatures depend on the direction of a vector only.
+     */
+    @Test
+    public void testSignatures() {
+        SimHashCandidates candidates = new SimHashCandidates(4, 64, 1L);
+        Table<Integer, Integer, Double> ratings = HashBasedTable.create();
+        ratings.put(0, 3, 1.0);
+        ratings.put(0, 7, 2.0);
+        ratings.put(1, 3, 2.0);
+        ratings.put(1, 7, 4.0);
+        SequentialAccessSparseMatrix matrix = new SequentialAccessSparseMatrix(2, 8, ratings);
+        assertArrayEquals(candidates.signatures(matrix.row(0)), candidates.signatures(matrix.row(1)));
+    }
+}